@@ -0,0 +1,106 @@
+package com.lyyzoo.fastdfs.benchmark;
+
+import com.lyyzoo.fastdfs.client.FastDFSClient;
+import com.lyyzoo.fastdfs.embedded.EmbeddedFastDFSServer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 完整的上传、下载、读取描述信息、读取文件信息流程，后端为进程内的 {@link EmbeddedFastDFSServer}
+ * <p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientFlowBenchmark {
+
+    /**
+     * 文件大小
+     */
+    @Param({"1024", "65536", "1048576"})
+    private int size;
+
+    private EmbeddedFastDFSServer server;
+    private FastDFSClient client;
+    private byte[] content;
+    private Map<String, String> descriptions;
+    private String filepath;
+
+    @Setup
+    public void setup() throws Exception {
+        server = new EmbeddedFastDFSServer().start();
+        server.configureClient();
+
+        client = new FastDFSClient();
+        // 随机内容，不触发内容检查和压缩
+        client.setContentCheck(false);
+        content = new byte[size];
+        new Random(size).nextBytes(content);
+        descriptions = new HashMap<>();
+        descriptions.put("owner", "benchmark");
+
+        filepath = client.upload(new ByteArrayInputStream(content), "benchmark.bin", descriptions);
+    }
+
+    @TearDown
+    public void tearDown() {
+        server.close();
+    }
+
+    @Benchmark
+    public String upload(UploadState state) throws Exception {
+        state.uploaded = client.upload(new ByteArrayInputStream(content), "benchmark.bin", descriptions);
+        return state.uploaded;
+    }
+
+    @Benchmark
+    public byte[] download() throws Exception {
+        return client.download(filepath);
+    }
+
+    @Benchmark
+    public Map<String, Object> getFileDescriptions() throws Exception {
+        return client.getFileDescriptions(filepath);
+    }
+
+    @Benchmark
+    public Map<String, Object> getFileInfo() throws Exception {
+        return client.getFileInfo(filepath);
+    }
+
+    /**
+     * 每次上传后直接从内存中删除文件，不计入耗时，避免内存持续增长
+     */
+    @State(Scope.Thread)
+    public static class UploadState {
+        private String uploaded;
+
+        @TearDown(Level.Invocation)
+        public void remove(ClientFlowBenchmark benchmark) {
+            if (uploaded != null) {
+                benchmark.server.getStorage().remove(uploaded);
+                uploaded = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.lyyzoo.fastdfs.benchmark;
+
+import com.lyyzoo.fastdfs.client.FastDFSClient;
+import org.csource.common.NameValuePair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * FastDFSClient 每个请求都会执行的 CPU 路径：路径转换、后缀解析、token、描述信息组装、日期格式化
+ * <p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ClientHotPathBenchmark {
+
+    private String windowsPath = "D:\\upload\\images\\2017\\Photo_Of_The_Day.JPEG";
+    private String fileId = "group1/M00/00/00/wKgzgFnkTPyAIAUGAAEoRmXZPp876.jpeg";
+    private String secretKey = "FastDFS1234567890";
+    private Map<String, String> descriptions;
+    private Date createTime = new Date(1508141521000L);
+
+    @Setup
+    public void setup() {
+        descriptions = new HashMap<>();
+        descriptions.put("owner", "jiangzhou.bo");
+        descriptions.put("module", "avatar");
+        descriptions.put("width", "1024");
+    }
+
+    @Benchmark
+    public String toLocal() {
+        return FastDFSClient.toLocal(windowsPath);
+    }
+
+    @Benchmark
+    public String getFilenameSuffix() {
+        return FastDFSClient.getFilenameSuffix(fileId);
+    }
+
+    @Benchmark
+    public String getToken() {
+        return FastDFSClient.getToken(fileId, secretKey);
+    }
+
+    /**
+     * 与 FastDFSClient.upload 中组装描述信息的方式一致
+     */
+    @Benchmark
+    public NameValuePair[] nameValuePairs() {
+        List<NameValuePair> nvpsList = new ArrayList<>();
+        nvpsList.add(new NameValuePair(FastDFSClient.FILENAME, "Photo_Of_The_Day.jpeg"));
+        nvpsList.add(new NameValuePair(FastDFSClient.CONTENT_TYPE, "image/jpeg"));
+        descriptions.forEach((key, value) -> {
+            nvpsList.add(new NameValuePair(key, value));
+        });
+        NameValuePair[] nvps = new NameValuePair[nvpsList.size()];
+        nvpsList.toArray(nvps);
+        return nvps;
+    }
+
+    /**
+     * 与 FastDFSClient.getFileInfo 中格式化创建时间的方式一致
+     */
+    @Benchmark
+    public String formatCreateTime() {
+        return new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(createTime);
+    }
+
+}
@@ -0,0 +1,63 @@
+package com.lyyzoo.fastdfs.loadtest;
+
+import com.lyyzoo.fastdfs.client.FastDFSClient;
+import com.lyyzoo.fastdfs.client.TrackerServerPool;
+import org.apache.commons.io.output.CountingOutputStream;
+import org.apache.commons.io.output.NullOutputStream;
+
+import java.io.ByteArrayInputStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 在当前进程中直接调用 {@link FastDFSClient}
+ */
+public class ClientLoadTarget implements LoadTarget {
+
+    private final FastDFSClient client = new FastDFSClient();
+
+    @Override
+    public String upload(byte[] content, int length, String filename) throws Exception {
+        return client.upload(new ByteArrayInputStream(content, 0, length), filename, null);
+    }
+
+    @Override
+    public long download(String filepath) throws Exception {
+        CountingOutputStream os = new CountingOutputStream(NullOutputStream.NULL_OUTPUT_STREAM);
+        client.downloadFile(filepath, os);
+        return os.getByteCount();
+    }
+
+    @Override
+    public long readImage(String filepath) throws Exception {
+        return client.download(filepath).length;
+    }
+
+    @Override
+    public void listMetadata(List<String> filepaths) throws Exception {
+        for (String filepath : filepaths) {
+            client.getFileDescriptions(filepath);
+            client.getFileInfo(filepath);
+        }
+    }
+
+    @Override
+    public void delete(String filepath) throws Exception {
+        client.deleteFile(filepath);
+    }
+
+    @Override
+    public Map<String, Object> poolGauges() {
+        Map<String, Object> pool = new LinkedHashMap<>();
+        pool.put("active", TrackerServerPool.getNumActive());
+        pool.put("idle", TrackerServerPool.getNumIdle());
+        pool.put("waiters", TrackerServerPool.getNumWaiters());
+        pool.put("maxTotal", TrackerServerPool.getMaxTotal());
+        return pool;
+    }
+
+    @Override
+    public void close() {
+    }
+}
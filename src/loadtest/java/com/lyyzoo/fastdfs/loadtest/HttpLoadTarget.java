@@ -0,0 +1,154 @@
+package com.lyyzoo.fastdfs.loadtest;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lyyzoo.fastdfs.client.FileCheck;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 通过 HTTP 调用部署好的应用中的 FileObjectController，同时经过容器线程池
+ * <p>
+ * 连接池状态从应用的 /fastdfs/metrics 接口读取.
+ */
+public class HttpLoadTarget implements LoadTarget {
+
+    private static final String BOUNDARY = "----LoadGeneratorBoundary7MA4YWxkTrZu0gW";
+    private static final int CONNECT_TIMEOUT = 10000;
+    private static final int READ_TIMEOUT = 60000;
+
+    private final String baseUrl;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * @param baseUrl 应用地址，如 http://127.0.0.1:8080
+     * @param concurrency 并发数，用于设置 HttpURLConnection 保持的长连接数
+     */
+    public HttpLoadTarget(String baseUrl, int concurrency) {
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
+        // 默认只保持 5 个长连接，超过的请求会重新建立连接
+        System.setProperty("http.maxConnections", String.valueOf(concurrency));
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public String upload(byte[] content, int length, String filename) throws Exception {
+        String path = FileCheck.checkImage(filename) ? "/fastdfs/upload/image/sample" : "/fastdfs/upload/file/sample";
+        HttpURLConnection connection = open(path);
+        connection.setRequestMethod("POST");
+        connection.setDoOutput(true);
+        connection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + BOUNDARY);
+
+        byte[] head = ("--" + BOUNDARY + "\r\n"
+                + "Content-Disposition: form-data; name=\"file\"; filename=\"" + filename + "\"\r\n"
+                + "Content-Type: application/octet-stream\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+        byte[] tail = ("\r\n--" + BOUNDARY + "--\r\n").getBytes(StandardCharsets.UTF_8);
+        connection.setFixedLengthStreamingMode((long) head.length + length + tail.length);
+        try (OutputStream os = connection.getOutputStream()) {
+            os.write(head);
+            os.write(content, 0, length);
+            os.write(tail);
+        }
+
+        Map<String, Object> response;
+        try (InputStream is = checkStatus(connection)) {
+            response = mapper.readValue(is, Map.class);
+        }
+        if (!Boolean.TRUE.equals(response.get("success"))) {
+            throw new IOException("upload failed, code = " + response.get("code") + ", message = " + response.get("message"));
+        }
+        return (String) response.get("filePath");
+    }
+
+    @Override
+    public long download(String filepath) throws Exception {
+        return drain(open("/fastdfs/download/file?filePath=" + encode(filepath)));
+    }
+
+    @Override
+    public long readImage(String filepath) throws Exception {
+        return drain(open("/fastdfs/download/image?filePath=" + encode(filepath)));
+    }
+
+    @Override
+    public void listMetadata(List<String> filepaths) {
+        throw new UnsupportedOperationException("metadata operation is only supported by the client target");
+    }
+
+    @Override
+    public void delete(String filepath) throws Exception {
+        HttpURLConnection connection = open("/fastdfs/delete/file?filePath=" + encode(filepath));
+        // 删除接口没有 @ResponseBody，文件删除后视图解析可能失败，不检查状态码
+        connection.getResponseCode();
+        connection.disconnect();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Map<String, Object> poolGauges() {
+        try {
+            HttpURLConnection connection = open("/fastdfs/metrics");
+            try (InputStream is = checkStatus(connection)) {
+                Map<String, Object> metrics = mapper.readValue(is, Map.class);
+                Map<String, Object> pool = (Map<String, Object>) metrics.get("pool");
+                return pool == null ? Collections.<String, Object>emptyMap() : pool;
+            }
+        } catch (IOException e) {
+            return Collections.emptyMap();
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private HttpURLConnection open(String path) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        return connection;
+    }
+
+    private InputStream checkStatus(HttpURLConnection connection) throws IOException {
+        int status = connection.getResponseCode();
+        if (status != HttpURLConnection.HTTP_OK) {
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                // 读完错误响应，连接才能复用
+                drain(error);
+            }
+            throw new IOException("HTTP " + status + " " + connection.getURL());
+        }
+        return connection.getInputStream();
+    }
+
+    private long drain(HttpURLConnection connection) throws IOException {
+        return drain(checkStatus(connection));
+    }
+
+    private static long drain(InputStream is) throws IOException {
+        byte[] buffer = new byte[8192];
+        long total = 0;
+        try {
+            int n;
+            while ((n = is.read(buffer)) != -1) {
+                total += n;
+            }
+        } finally {
+            is.close();
+        }
+        return total;
+    }
+
+    private static String encode(String value) throws IOException {
+        return URLEncoder.encode(value, "UTF-8");
+    }
+}
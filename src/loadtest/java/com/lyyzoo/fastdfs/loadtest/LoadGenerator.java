@@ -0,0 +1,303 @@
+package com.lyyzoo.fastdfs.loadtest;
+
+import com.lyyzoo.fastdfs.client.BufferPool;
+import com.lyyzoo.fastdfs.client.TrackerServerPool;
+import com.lyyzoo.fastdfs.embedded.EmbeddedFastDFSServer;
+import org.csource.fastdfs.ClientGlobal;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 场景化的压测工具，用于评估 max_storage_connection 和容器线程数
+ * <p>
+ * 按配置的速率开环发出请求(固定间隔或泊松分布)，请求交给 concurrency 个工作线程执行，
+ * 工作线程全忙时请求排队，排队时间计入延迟. 每秒采样在途请求数、排队数和 TrackerServer 连接池状态.
+ * 结束后输出汇总和时间线 CSV 以及 HTML 报告. <br>
+ * 运行：
+ * <pre>
+ *  mvn -P loadtest test-compile exec:exec
+ *  mvn -P loadtest test-compile exec:exec -Dloadtest.args="upload-heavy rate=50 duration=120"
+ *  mvn -P loadtest test-compile exec:exec -Dloadtest.args="image-read target=http http.base_url=http://127.0.0.1:8080"
+ * </pre>
+ * 场景文件见 src/loadtest/resources/scenarios.
+ */
+public class LoadGenerator {
+    private static final long SECOND = 1000000000L;
+
+    private final LoadScenario scenario;
+    private final Random random;
+
+    private EmbeddedFastDFSServer server;
+    private LoadTarget target;
+    private final List<String> images = new ArrayList<>();
+    private final List<String> files = new ArrayList<>();
+    private final Queue<String> uploaded = new ConcurrentLinkedQueue<>();
+    private byte[] payload;
+
+    public LoadGenerator(LoadScenario scenario) {
+        this.scenario = scenario;
+        this.random = new Random(scenario.getSeed());
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadScenario scenario = LoadScenario.load(args);
+        File report = new LoadGenerator(scenario).run();
+        System.out.println("report: " + report.getAbsolutePath());
+        // 所有请求结束后还没有归还的缓冲区即为泄漏
+        int leaks = BufferPool.getInstance().reportLeaks();
+        if (leaks > 0) {
+            System.err.println(leaks + " buffer leak(s) detected");
+            System.exit(1);
+        }
+    }
+
+    /**
+     * 执行压测
+     *
+     * @return HTML 报告文件
+     */
+    public File run() throws Exception {
+        try {
+            setUp();
+            preload();
+            return generate();
+        } finally {
+            tearDown();
+        }
+    }
+
+    private void setUp() throws Exception {
+        if (LoadScenario.TARGET_HTTP.equals(scenario.getTarget())) {
+            target = new HttpLoadTarget(scenario.getBaseUrl(), scenario.getConcurrency());
+        } else {
+            if (!scenario.getTrackerServers().isEmpty()) {
+                ClientGlobal.initByTrackers(scenario.getTrackerServers());
+            } else if (scenario.isEmbedded()) {
+                server = new EmbeddedFastDFSServer().start();
+                server.configureClient();
+            }
+            // 否则使用 config.properties 中的配置
+            TrackerServerPool.setMaxStorageConnection(scenario.getMaxStorageConnection());
+            target = new ClientLoadTarget();
+        }
+
+        int max = scenario.getMix().containsKey(LoadOperation.UPLOAD) ? scenario.getUploadSize().max() : 0;
+        payload = new byte[max];
+        random.nextBytes(payload);
+    }
+
+    /**
+     * 预先上传读取用的图片和文件，预热阶段之前不注入故障
+     */
+    private void preload() throws Exception {
+        Map<LoadOperation, Double> mix = scenario.getMix();
+        if (mix.containsKey(LoadOperation.IMAGE_READ) || mix.containsKey(LoadOperation.METADATA)) {
+            byte[] image = createImage(scenario.getImageWidth(), scenario.getImageHeight());
+            for (int i = 0; i < scenario.getPreloadImages(); i++) {
+                images.add(target.upload(image, image.length, "load-" + i + ".jpg"));
+            }
+        }
+        if (mix.containsKey(LoadOperation.DOWNLOAD) || mix.containsKey(LoadOperation.METADATA)) {
+            SizeDistribution sizes = scenario.getDownloadSize();
+            byte[] content = new byte[sizes.max()];
+            random.nextBytes(content);
+            for (int i = 0; i < scenario.getPreloadFiles(); i++) {
+                files.add(target.upload(content, sizes.next(random), "load-" + i + ".bin"));
+            }
+        }
+        if (server != null) {
+            scenario.applyFaults(server.getStorageFaults());
+        }
+    }
+
+    private File generate() throws Exception {
+        int warmup = scenario.getWarmupSeconds();
+        int measure = scenario.getDurationSeconds();
+        int maxSeconds = warmup + measure + scenario.getDrainTimeoutSeconds() + 2;
+
+        final AtomicInteger threads = new AtomicInteger();
+        final ThreadPoolExecutor workers = new ThreadPoolExecutor(scenario.getConcurrency(), scenario.getConcurrency(),
+                0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), runnable -> {
+                    Thread thread = new Thread(runnable, "load-worker-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        workers.prestartAllCoreThreads();
+        ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "load-sampler");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        final long start = System.nanoTime();
+        final LoadRecorder recorder = new LoadRecorder(start, warmup, maxSeconds);
+        sampler.scheduleAtFixedRate(() -> recorder.sample(System.nanoTime(), workers.getActiveCount(),
+                workers.getQueue().size(), target.poolGauges()), 0, 1, TimeUnit.SECONDS);
+
+        LoadOperation[] operations = scenario.getMix().keySet().toArray(new LoadOperation[0]);
+        double[] cumulative = new double[operations.length];
+        double total = 0;
+        for (int i = 0; i < operations.length; i++) {
+            total += scenario.getMix().get(operations[i]);
+            cumulative[i] = total;
+        }
+
+        // 开环：计划发出时间只由到达速率决定，与请求何时完成无关
+        long end = start + (warmup + measure) * SECOND;
+        double interval = SECOND / scenario.getRate();
+        double next = start;
+        long sequence = 0;
+        while (next < end) {
+            long intended = (long) next;
+            long delay = intended - System.nanoTime();
+            if (delay > 0) {
+                LockSupport.parkNanos(delay);
+            }
+            LoadOperation operation = pick(operations, cumulative, total);
+            int size = operation == LoadOperation.UPLOAD ? scenario.getUploadSize().next(random) : 0;
+            workers.execute(new Request(operation, intended, size, sequence++, recorder));
+            next += scenario.isPoisson() ? -Math.log(1 - random.nextDouble()) * interval : interval;
+        }
+
+        workers.shutdown();
+        long incomplete = 0;
+        if (!workers.awaitTermination(scenario.getDrainTimeoutSeconds(), TimeUnit.SECONDS)) {
+            incomplete = workers.shutdownNow().size() + workers.getActiveCount();
+        }
+        sampler.shutdownNow();
+        int seconds = (int) Math.min(maxSeconds, (System.nanoTime() - start) / SECOND + 1);
+
+        LoadReport report = new LoadReport(scenario, recorder, seconds, measure, incomplete);
+        report.print(new PrintWriter(System.out));
+        return report.write();
+    }
+
+    private void tearDown() {
+        if (target != null && scenario.isCleanup()) {
+            if (server != null) {
+                server.getStorageFaults().setFailureRate(0);
+                server.getStorageFaults().setDisconnectRate(0);
+            }
+            List<String> all = new ArrayList<>(images);
+            all.addAll(files);
+            all.addAll(uploaded);
+            for (String filepath : all) {
+                try {
+                    target.delete(filepath);
+                } catch (Exception e) {
+                    System.err.println("delete " + filepath + " failed: " + e.getMessage());
+                }
+            }
+        }
+        if (target != null) {
+            try {
+                target.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (server != null) {
+            server.close();
+        }
+    }
+
+    private LoadOperation pick(LoadOperation[] operations, double[] cumulative, double total) {
+        double value = random.nextDouble() * total;
+        for (int i = 0; i < operations.length; i++) {
+            if (value < cumulative[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    /**
+     * 生成带渐变和噪点的 JPEG，大小接近真实照片缩略图
+     */
+    private byte[] createImage(int width, int height) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(64);
+                int r = (x * 255 / width + noise) & 0xFF;
+                int g = (y * 255 / height + noise) & 0xFF;
+                int b = ((x + y) * 127 / (width + height) + noise) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        ByteArrayOutputStream os = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", os);
+        return os.toByteArray();
+    }
+
+    /**
+     * 一次请求
+     */
+    private class Request implements Runnable {
+        private final LoadOperation operation;
+        private final long intended;
+        private final int size;
+        private final long sequence;
+        private final LoadRecorder recorder;
+
+        Request(LoadOperation operation, long intended, int size, long sequence, LoadRecorder recorder) {
+            this.operation = operation;
+            this.intended = intended;
+            this.size = size;
+            this.sequence = sequence;
+            this.recorder = recorder;
+        }
+
+        @Override
+        public void run() {
+            long actual = System.nanoTime();
+            try {
+                long bytes = execute();
+                recorder.recordSuccess(operation, intended, actual, System.nanoTime(), bytes);
+            } catch (Exception e) {
+                recorder.recordFailure(operation, intended, System.nanoTime(), e);
+            }
+        }
+
+        private long execute() throws Exception {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            switch (operation) {
+                case IMAGE_READ:
+                    return target.readImage(images.get(random.nextInt(images.size())));
+                case UPLOAD:
+                    uploaded.add(target.upload(payload, size, "load-" + sequence + ".bin"));
+                    return size;
+                case DOWNLOAD:
+                    return target.download(files.get(random.nextInt(files.size())));
+                default:
+                    List<String> list = new ArrayList<>(scenario.getMetadataListSize());
+                    for (int i = 0; i < scenario.getMetadataListSize(); i++) {
+                        list.add(random.nextBoolean() || files.isEmpty()
+                                ? images.get(random.nextInt(images.size()))
+                                : files.get(random.nextInt(files.size())));
+                    }
+                    target.listMetadata(list);
+                    return 0;
+            }
+        }
+    }
+}
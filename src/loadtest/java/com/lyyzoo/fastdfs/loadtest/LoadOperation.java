@@ -0,0 +1,44 @@
+package com.lyyzoo.fastdfs.loadtest;
+
+/**
+ * 压测中的操作类型，在场景文件中以 mix.&lt;name&gt;=权重 配置混合比例
+ */
+public enum LoadOperation {
+    /**
+     * 读取预先上传的小图片
+     */
+    IMAGE_READ("image_read"),
+    /**
+     * 上传文件，大小由 upload.size 分布决定
+     */
+    UPLOAD("upload"),
+    /**
+     * 下载预先上传的文件
+     */
+    DOWNLOAD("download"),
+    /**
+     * 批量读取文件描述信息和文件信息，模拟文件列表页
+     */
+    METADATA("metadata");
+
+    public final String NAME;
+
+    LoadOperation(String name) {
+        this.NAME = name;
+    }
+
+    /**
+     * 根据名称获取操作
+     *
+     * @param name 名称
+     * @return 操作，不存在时抛出 IllegalArgumentException
+     */
+    public static LoadOperation of(String name) {
+        for (LoadOperation operation : values()) {
+            if (operation.NAME.equals(name)) {
+                return operation;
+            }
+        }
+        throw new IllegalArgumentException("unknown operation: " + name);
+    }
+}
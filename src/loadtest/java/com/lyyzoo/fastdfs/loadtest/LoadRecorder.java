@@ -0,0 +1,224 @@
+package com.lyyzoo.fastdfs.loadtest;
+
+import com.lyyzoo.fastdfs.client.LatencyHistogram;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 记录压测结果
+ * <p>
+ * 延迟从请求计划发出的时间算起，而不是实际开始执行的时间，这样被测系统变慢导致请求排队时，
+ * 排队的时间也计入延迟，避免 coordinated omission. 同时记录实际执行耗时(service time)用于对比. <br>
+ * 预热期间的请求只计入时间线，不计入汇总.
+ */
+public class LoadRecorder {
+    private static final long SECOND = 1000000000L;
+
+    private final long startNanos;
+    private final long warmupEndNanos;
+
+    private final Map<LoadOperation, Stats> operations = new EnumMap<>(LoadOperation.class);
+    private final Stats all = new Stats();
+    private final AtomicReferenceArray<Interval> intervals;
+    private final AtomicReferenceArray<Sample> samples;
+    private final Map<String, LongAdder> errorMessages = new ConcurrentHashMap<>();
+
+    /**
+     * @param startNanos 压测开始时间(System.nanoTime)
+     * @param warmupSeconds 预热秒数
+     * @param maxSeconds 时间线最大秒数，超过的记录计入最后一秒
+     */
+    public LoadRecorder(long startNanos, int warmupSeconds, int maxSeconds) {
+        this.startNanos = startNanos;
+        this.warmupEndNanos = startNanos + warmupSeconds * SECOND;
+        this.intervals = new AtomicReferenceArray<>(maxSeconds);
+        this.samples = new AtomicReferenceArray<>(maxSeconds);
+        for (LoadOperation operation : LoadOperation.values()) {
+            operations.put(operation, new Stats());
+        }
+    }
+
+    /**
+     * 记录一次成功的请求
+     *
+     * @param operation 操作
+     * @param intendedNanos 计划发出时间
+     * @param actualNanos 实际开始执行时间
+     * @param endNanos 完成时间
+     * @param bytes 传输字节数
+     */
+    public void recordSuccess(LoadOperation operation, long intendedNanos, long actualNanos, long endNanos, long bytes) {
+        long latency = endNanos - intendedNanos;
+        interval(endNanos).record(operation, latency, false);
+        if (intendedNanos >= warmupEndNanos) {
+            operations.get(operation).record(latency, endNanos - actualNanos, bytes);
+            all.record(latency, endNanos - actualNanos, bytes);
+        }
+    }
+
+    /**
+     * 记录一次失败的请求，失败请求的延迟不计入直方图
+     *
+     * @param operation 操作
+     * @param intendedNanos 计划发出时间
+     * @param endNanos 完成时间
+     * @param error 异常
+     */
+    public void recordFailure(LoadOperation operation, long intendedNanos, long endNanos, Throwable error) {
+        interval(endNanos).record(operation, endNanos - intendedNanos, true);
+        if (intendedNanos >= warmupEndNanos) {
+            operations.get(operation).errors.increment();
+            all.errors.increment();
+            String message = operation.NAME + ": " + error.getClass().getSimpleName() + ": " + error.getMessage();
+            errorMessages.computeIfAbsent(message, key -> new LongAdder()).increment();
+        }
+    }
+
+    /**
+     * 记录一次采样
+     *
+     * @param nowNanos 采样时间
+     * @param inFlight 正在执行的请求数
+     * @param queued 排队中的请求数
+     * @param pool 连接池状态
+     */
+    public void sample(long nowNanos, int inFlight, int queued, Map<String, Object> pool) {
+        samples.set(second(nowNanos), new Sample(inFlight, queued, pool));
+    }
+
+    private Interval interval(long nanos) {
+        int second = second(nanos);
+        Interval interval = intervals.get(second);
+        if (interval == null) {
+            intervals.compareAndSet(second, null, new Interval());
+            interval = intervals.get(second);
+        }
+        return interval;
+    }
+
+    private int second(long nanos) {
+        return (int) Math.max(0, Math.min(intervals.length() - 1, (nanos - startNanos) / SECOND));
+    }
+
+    public Stats getStats(LoadOperation operation) {
+        return operations.get(operation);
+    }
+
+    public Stats getAll() {
+        return all;
+    }
+
+    /**
+     * @param second 第几秒
+     * @return 该秒内完成的请求，没有时返回 null
+     */
+    public Interval getInterval(int second) {
+        return intervals.get(second);
+    }
+
+    /**
+     * @param second 第几秒
+     * @return 该秒的采样，没有时返回 null
+     */
+    public Sample getSample(int second) {
+        return samples.get(second);
+    }
+
+    public Map<String, LongAdder> getErrorMessages() {
+        return errorMessages;
+    }
+
+    /**
+     * 汇总统计
+     */
+    public static class Stats {
+        /**
+         * 从计划发出时间算起的延迟(微秒)
+         */
+        public final LatencyHistogram latency = new LatencyHistogram();
+        /**
+         * 实际执行耗时(微秒)
+         */
+        public final LatencyHistogram service = new LatencyHistogram();
+        public final LongAdder errors = new LongAdder();
+        public final LongAdder bytes = new LongAdder();
+
+        void record(long latencyNanos, long serviceNanos, long count) {
+            latency.recordNanos(latencyNanos);
+            service.recordNanos(serviceNanos);
+            bytes.add(count);
+        }
+    }
+
+    /**
+     * 每秒完成的请求
+     */
+    public static class Interval {
+        public final LatencyHistogram latency = new LatencyHistogram();
+        public final LongAdder errors = new LongAdder();
+        private final Map<LoadOperation, LongAdder> completed = new EnumMap<>(LoadOperation.class);
+
+        Interval() {
+            for (LoadOperation operation : LoadOperation.values()) {
+                completed.put(operation, new LongAdder());
+            }
+        }
+
+        void record(LoadOperation operation, long latencyNanos, boolean error) {
+            completed.get(operation).increment();
+            if (error) {
+                errors.increment();
+            } else {
+                latency.recordNanos(latencyNanos);
+            }
+        }
+
+        /**
+         * @param operation 操作
+         * @return 该操作完成的请求数，包括失败的
+         */
+        public long getCompleted(LoadOperation operation) {
+            return completed.get(operation).sum();
+        }
+
+        /**
+         * @return 完成的请求数，包括失败的
+         */
+        public long getCompleted() {
+            long total = 0;
+            for (LongAdder adder : completed.values()) {
+                total += adder.sum();
+            }
+            return total;
+        }
+    }
+
+    /**
+     * 每秒的采样
+     */
+    public static class Sample {
+        public final int inFlight;
+        public final int queued;
+        public final Map<String, Object> pool;
+
+        Sample(int inFlight, int queued, Map<String, Object> pool) {
+            this.inFlight = inFlight;
+            this.queued = queued;
+            this.pool = pool == null ? Collections.<String, Object>emptyMap() : pool;
+        }
+
+        /**
+         * @param name active、idle、waiters、maxTotal
+         * @return 连接池指标，没有时返回 -1
+         */
+        public long getPool(String name) {
+            Object value = pool.get(name);
+            return value instanceof Number ? ((Number) value).longValue() : -1;
+        }
+    }
+}
@@ -0,0 +1,355 @@
+package com.lyyzoo.fastdfs.loadtest;
+
+import com.lyyzoo.fastdfs.client.LatencyHistogram;
+import org.apache.commons.lang3.StringEscapeUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 输出压测报告：汇总 CSV、每秒时间线 CSV 和带图表的 HTML
+ * <p>
+ * 延迟单位为毫秒，吞吐量单位为每秒请求数.
+ */
+public class LoadReport {
+
+    private static final String[] COLORS = {"#1f77b4", "#d62728", "#2ca02c", "#ff7f0e", "#9467bd", "#8c564b"};
+    private static final int CHART_WIDTH = 900;
+    private static final int CHART_HEIGHT = 240;
+    private static final int MARGIN = 50;
+
+    private final LoadScenario scenario;
+    private final LoadRecorder recorder;
+    private final int seconds;
+    private final double measuredSeconds;
+    private final long incomplete;
+
+    /**
+     * @param scenario 场景
+     * @param recorder 结果
+     * @param seconds 时间线秒数
+     * @param measuredSeconds 正式压测的秒数(不含预热)
+     * @param incomplete 超时未完成的请求数
+     */
+    public LoadReport(LoadScenario scenario, LoadRecorder recorder, int seconds, double measuredSeconds, long incomplete) {
+        this.scenario = scenario;
+        this.recorder = recorder;
+        this.seconds = seconds;
+        this.measuredSeconds = measuredSeconds;
+        this.incomplete = incomplete;
+    }
+
+    /**
+     * 写出报告
+     *
+     * @return HTML 报告文件
+     */
+    public File write() throws IOException {
+        File dir = new File(scenario.getReportDir());
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("cannot create report directory: " + dir);
+        }
+        String prefix = scenario.getName() + "-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        List<String[]> summary = summaryRows();
+        List<String[]> timeline = timelineRows();
+        writeCsv(new File(dir, prefix + "-summary.csv"), summary);
+        writeCsv(new File(dir, prefix + "-timeline.csv"), timeline);
+        File html = new File(dir, prefix + ".html");
+        writeHtml(html, summary, timeline);
+        return html;
+    }
+
+    /**
+     * 控制台输出汇总
+     */
+    public void print(PrintWriter out) {
+        for (String[] row : summaryRows()) {
+            out.printf("%-12s %10s %8s %10s %10s %10s %10s %10s %10s %14s%n",
+                    row[0], row[1], row[2], row[4], row[6], row[8], row[9], row[10], row[11], row[12]);
+        }
+        if (incomplete > 0) {
+            out.println("incomplete requests (drain timeout): " + incomplete);
+        }
+        for (Map.Entry<String, LongAdder> entry : recorder.getErrorMessages().entrySet()) {
+            out.println("error x" + entry.getValue().sum() + " " + entry.getKey());
+        }
+        out.flush();
+    }
+
+    private List<String[]> summaryRows() {
+        List<String[]> rows = new ArrayList<>();
+        rows.add(new String[]{"operation", "count", "errors", "error_rate", "throughput", "mean_ms", "p50_ms",
+                "p90_ms", "p99_ms", "p999_ms", "max_ms", "service_p99_ms", "bytes"});
+        for (LoadOperation operation : scenario.getMix().keySet()) {
+            rows.add(summaryRow(operation.NAME, recorder.getStats(operation)));
+        }
+        rows.add(summaryRow("all", recorder.getAll()));
+        return rows;
+    }
+
+    private String[] summaryRow(String name, LoadRecorder.Stats stats) {
+        LatencyHistogram latency = stats.latency;
+        Map<String, Object> snapshot = latency.snapshot();
+        long count = latency.getCount();
+        long errors = stats.errors.sum();
+        return new String[]{
+                name,
+                String.valueOf(count),
+                String.valueOf(errors),
+                format(count + errors == 0 ? 0 : errors * 100.0 / (count + errors)) + "%",
+                format((count + errors) / measuredSeconds),
+                millis(snapshot.get("mean")),
+                millis(snapshot.get("p50")),
+                millis(snapshot.get("p90")),
+                millis(snapshot.get("p99")),
+                millis(snapshot.get("p999")),
+                millis(snapshot.get("max")),
+                millis(stats.service.getValueAtPercentile(99)),
+                String.valueOf(stats.bytes.sum())
+        };
+    }
+
+    private List<String[]> timelineRows() {
+        List<String[]> rows = new ArrayList<>();
+        List<String> header = new ArrayList<>();
+        String[] fixed = {"second", "phase", "completed", "errors", "p50_ms", "p99_ms", "p999_ms", "max_ms",
+                "in_flight", "queued", "pool_active", "pool_idle", "pool_waiters", "pool_max"};
+        for (String column : fixed) {
+            header.add(column);
+        }
+        for (LoadOperation operation : scenario.getMix().keySet()) {
+            header.add(operation.NAME);
+        }
+        rows.add(header.toArray(new String[header.size()]));
+
+        int warmup = scenario.getWarmupSeconds();
+        int end = warmup + scenario.getDurationSeconds();
+        for (int second = 0; second < seconds; second++) {
+            LoadRecorder.Interval interval = recorder.getInterval(second);
+            LoadRecorder.Sample sample = recorder.getSample(second);
+            if (second >= end && interval == null) {
+                break;
+            }
+            List<String> row = new ArrayList<>();
+            row.add(String.valueOf(second));
+            row.add(second < warmup ? "warmup" : second < end ? "measure" : "drain");
+            row.add(String.valueOf(interval == null ? 0 : interval.getCompleted()));
+            row.add(String.valueOf(interval == null ? 0 : interval.errors.sum()));
+            row.add(interval == null ? "" : millis(interval.latency.getValueAtPercentile(50)));
+            row.add(interval == null ? "" : millis(interval.latency.getValueAtPercentile(99)));
+            row.add(interval == null ? "" : millis(interval.latency.getValueAtPercentile(99.9)));
+            row.add(interval == null ? "" : millis(interval.latency.getValueAtPercentile(100)));
+            row.add(sample == null ? "" : String.valueOf(sample.inFlight));
+            row.add(sample == null ? "" : String.valueOf(sample.queued));
+            for (String name : new String[]{"active", "idle", "waiters", "maxTotal"}) {
+                long value = sample == null ? -1 : sample.getPool(name);
+                row.add(value < 0 ? "" : String.valueOf(value));
+            }
+            for (LoadOperation operation : scenario.getMix().keySet()) {
+                row.add(String.valueOf(interval == null ? 0 : interval.getCompleted(operation)));
+            }
+            rows.add(row.toArray(new String[row.size()]));
+        }
+        return rows;
+    }
+
+    private void writeCsv(File file, List<String[]> rows) throws IOException {
+        try (PrintWriter out = writer(file)) {
+            for (String[] row : rows) {
+                out.println(String.join(",", row));
+            }
+        }
+    }
+
+    private void writeHtml(File file, List<String[]> summary, List<String[]> timeline) throws IOException {
+        try (PrintWriter out = writer(file)) {
+            out.println("<!DOCTYPE html><html><head><meta charset=\"UTF-8\"><title>" + escape(scenario.getName()) + "</title>");
+            out.println("<style>body{font-family:sans-serif;margin:24px}table{border-collapse:collapse;margin-bottom:16px}"
+                    + "td,th{border:1px solid #ccc;padding:4px 8px;text-align:right}th{background:#f4f4f4}"
+                    + "td:first-child,th:first-child{text-align:left}svg{display:block;margin-bottom:24px}</style></head><body>");
+            out.println("<h1>FastDFS load test: " + escape(scenario.getName()) + "</h1>");
+            out.println("<p>target rate " + format(scenario.getRate()) + " req/s, " + (scenario.isPoisson() ? "poisson" : "constant")
+                    + " arrivals, concurrency " + scenario.getConcurrency() + ", warmup " + scenario.getWarmupSeconds()
+                    + " s, duration " + scenario.getDurationSeconds() + " s. Latency is measured from the intended start time"
+                    + " (corrected for coordinated omission); service_p99 is measured from the actual start time.</p>");
+            if (incomplete > 0) {
+                out.println("<p style=\"color:#d62728\">" + incomplete + " requests did not complete within the drain timeout.</p>");
+            }
+            table(out, summary);
+
+            List<String> rows = new ArrayList<>();
+            int warmupRows = 0;
+            for (int i = 1; i < timeline.size(); i++) {
+                rows.add(timeline.get(i)[0]);
+                if ("warmup".equals(timeline.get(i)[1])) {
+                    warmupRows++;
+                }
+            }
+            Map<String, double[]> throughput = new LinkedHashMap<>();
+            throughput.put("completed/s", column(timeline, "completed"));
+            throughput.put("errors/s", column(timeline, "errors"));
+            throughput.put("target", constant(rows.size(), scenario.getRate()));
+            chart(out, "Throughput (req/s)", throughput, warmupRows);
+
+            Map<String, double[]> latency = new LinkedHashMap<>();
+            latency.put("p50", column(timeline, "p50_ms"));
+            latency.put("p99", column(timeline, "p99_ms"));
+            latency.put("p99.9", column(timeline, "p999_ms"));
+            chart(out, "Latency (ms)", latency, warmupRows);
+
+            Map<String, double[]> load = new LinkedHashMap<>();
+            load.put("in flight", column(timeline, "in_flight"));
+            load.put("queued", column(timeline, "queued"));
+            chart(out, "Requests in flight / queued", load, warmupRows);
+
+            Map<String, double[]> pool = new LinkedHashMap<>();
+            pool.put("active", column(timeline, "pool_active"));
+            pool.put("waiters", column(timeline, "pool_waiters"));
+            pool.put("max", column(timeline, "pool_max"));
+            chart(out, "Tracker connection pool", pool, warmupRows);
+
+            if (!recorder.getErrorMessages().isEmpty()) {
+                out.println("<h2>Errors</h2><table><tr><th>error</th><th>count</th></tr>");
+                for (Map.Entry<String, LongAdder> entry : recorder.getErrorMessages().entrySet()) {
+                    out.println("<tr><td>" + escape(entry.getKey()) + "</td><td>" + entry.getValue().sum() + "</td></tr>");
+                }
+                out.println("</table>");
+            }
+
+            out.println("<h2>Scenario</h2><table><tr><th>name</th><th>value</th></tr>");
+            for (String name : new TreeSet<>(scenario.getProperties().stringPropertyNames())) {
+                out.println("<tr><td>" + escape(name) + "</td><td>" + escape(scenario.getProperties().getProperty(name)) + "</td></tr>");
+            }
+            out.println("</table></body></html>");
+        }
+    }
+
+    private void table(PrintWriter out, List<String[]> rows) {
+        out.println("<table>");
+        for (int i = 0; i < rows.size(); i++) {
+            String cell = i == 0 ? "th" : "td";
+            out.print("<tr>");
+            for (String value : rows.get(i)) {
+                out.print("<" + cell + ">" + escape(value) + "</" + cell + ">");
+            }
+            out.println("</tr>");
+        }
+        out.println("</table>");
+    }
+
+    /**
+     * 折线图，预热区间用灰色背景标出，空值不画
+     */
+    private void chart(PrintWriter out, String title, Map<String, double[]> series, int warmupRows) {
+        int points = 0;
+        double max = 0;
+        for (double[] values : series.values()) {
+            points = Math.max(points, values.length);
+            for (double value : values) {
+                if (!Double.isNaN(value)) {
+                    max = Math.max(max, value);
+                }
+            }
+        }
+        if (points < 2) {
+            return;
+        }
+        max = max <= 0 ? 1 : max * 1.1;
+        int plotWidth = CHART_WIDTH - 2 * MARGIN;
+        int plotHeight = CHART_HEIGHT - 2 * MARGIN;
+        double stepX = plotWidth / (double) (points - 1);
+
+        out.println("<h2>" + escape(title) + "</h2>");
+        out.println("<svg width=\"" + CHART_WIDTH + "\" height=\"" + CHART_HEIGHT + "\" font-size=\"11\">");
+        if (warmupRows > 0) {
+            out.println("<rect x=\"" + MARGIN + "\" y=\"" + MARGIN + "\" width=\"" + format(stepX * warmupRows)
+                    + "\" height=\"" + plotHeight + "\" fill=\"#eee\"/>");
+        }
+        out.println("<rect x=\"" + MARGIN + "\" y=\"" + MARGIN + "\" width=\"" + plotWidth + "\" height=\"" + plotHeight
+                + "\" fill=\"none\" stroke=\"#999\"/>");
+        for (int i = 0; i <= 4; i++) {
+            double y = MARGIN + plotHeight - plotHeight * i / 4.0;
+            out.println("<text x=\"" + (MARGIN - 4) + "\" y=\"" + format(y + 4) + "\" text-anchor=\"end\">"
+                    + format(max * i / 4) + "</text>");
+        }
+        out.println("<text x=\"" + MARGIN + "\" y=\"" + (CHART_HEIGHT - MARGIN + 16) + "\">0 s</text>");
+        out.println("<text x=\"" + (CHART_WIDTH - MARGIN) + "\" y=\"" + (CHART_HEIGHT - MARGIN + 16)
+                + "\" text-anchor=\"end\">" + (points - 1) + " s</text>");
+
+        int index = 0;
+        for (Map.Entry<String, double[]> entry : series.entrySet()) {
+            String color = COLORS[index % COLORS.length];
+            StringBuilder path = new StringBuilder();
+            boolean move = true;
+            double[] values = entry.getValue();
+            for (int i = 0; i < values.length; i++) {
+                if (Double.isNaN(values[i])) {
+                    move = true;
+                    continue;
+                }
+                path.append(move ? 'M' : 'L')
+                        .append(format(MARGIN + i * stepX)).append(',')
+                        .append(format(MARGIN + plotHeight - plotHeight * values[i] / max)).append(' ');
+                move = false;
+            }
+            out.println("<path d=\"" + path + "\" fill=\"none\" stroke=\"" + color + "\" stroke-width=\"1.5\"/>");
+            out.println("<text x=\"" + (MARGIN + 10 + index * 110) + "\" y=\"" + (MARGIN - 10) + "\" fill=\"" + color + "\">"
+                    + escape(entry.getKey()) + "</text>");
+            index++;
+        }
+        out.println("</svg>");
+    }
+
+    private static double[] column(List<String[]> rows, String name) {
+        int column = -1;
+        String[] header = rows.get(0);
+        for (int i = 0; i < header.length; i++) {
+            if (header[i].equals(name)) {
+                column = i;
+            }
+        }
+        double[] values = new double[rows.size() - 1];
+        for (int i = 1; i < rows.size(); i++) {
+            String value = rows.get(i)[column];
+            values[i - 1] = value.isEmpty() ? Double.NaN : Double.parseDouble(value);
+        }
+        return values;
+    }
+
+    private static double[] constant(int length, double value) {
+        double[] values = new double[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = value;
+        }
+        return values;
+    }
+
+    private static PrintWriter writer(File file) throws IOException {
+        return new PrintWriter(new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+    }
+
+    private static String millis(Object micros) {
+        return format(((Number) micros).longValue() / 1000.0);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+
+    private static String escape(String value) {
+        return StringEscapeUtils.escapeHtml4(value);
+    }
+}
@@ -0,0 +1,253 @@
+package com.lyyzoo.fastdfs.loadtest;
+
+import com.lyyzoo.fastdfs.embedded.FaultInjection;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * 压测场景配置
+ * <p>
+ * 从 classpath 下的 scenarios/&lt;name&gt;.properties 或指定的文件加载，命令行中的 name=value 覆盖文件中的配置.
+ * 各配置项的含义见 scenarios/default.properties.
+ */
+public class LoadScenario {
+    /**
+     * 压测对象：直接调用 FastDFSClient
+     */
+    public static final String TARGET_CLIENT = "client";
+    /**
+     * 压测对象：通过 HTTP 调用 FileObjectController
+     */
+    public static final String TARGET_HTTP = "http";
+
+    private final Properties properties;
+
+    private String name;
+    private String target;
+    private String baseUrl;
+    private String trackerServers;
+    private boolean embedded;
+    private int maxStorageConnection;
+    private double rate;
+    private boolean poisson;
+    private int warmupSeconds;
+    private int durationSeconds;
+    private int drainTimeoutSeconds;
+    private int concurrency;
+    private final Map<LoadOperation, Double> mix = new EnumMap<>(LoadOperation.class);
+    private SizeDistribution uploadSize;
+    private SizeDistribution downloadSize;
+    private int preloadFiles;
+    private int preloadImages;
+    private int imageWidth;
+    private int imageHeight;
+    private int metadataListSize;
+    private long seed;
+    private String reportDir;
+    private boolean cleanup;
+
+    private LoadScenario(Properties properties) {
+        this.properties = properties;
+        name = get("name", "default");
+        target = get("target", TARGET_CLIENT);
+        if (!TARGET_CLIENT.equals(target) && !TARGET_HTTP.equals(target)) {
+            throw new IllegalArgumentException("target should be client or http: " + target);
+        }
+        baseUrl = get("http.base_url", "http://127.0.0.1:8080");
+        trackerServers = get("tracker_servers", "");
+        embedded = Boolean.parseBoolean(get("embedded", "true"));
+        maxStorageConnection = Integer.parseInt(get("max_storage_connection", "8"));
+        rate = Double.parseDouble(get("rate", "200"));
+        poisson = "poisson".equals(get("arrival", "poisson"));
+        warmupSeconds = Integer.parseInt(get("warmup", "10"));
+        durationSeconds = Integer.parseInt(get("duration", "60"));
+        drainTimeoutSeconds = Integer.parseInt(get("drain_timeout", "30"));
+        concurrency = Integer.parseInt(get("concurrency", "64"));
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith("mix.")) {
+                double weight = Double.parseDouble(properties.getProperty(key).trim());
+                if (weight > 0) {
+                    mix.put(LoadOperation.of(key.substring(4)), weight);
+                }
+            }
+        }
+        if (mix.isEmpty()) {
+            throw new IllegalArgumentException("at least one mix.<operation> weight is required");
+        }
+        if (TARGET_HTTP.equals(target) && mix.containsKey(LoadOperation.METADATA)) {
+            // FileObjectController 没有单独读取描述信息的接口
+            throw new IllegalArgumentException("metadata operation is only supported by the client target");
+        }
+        uploadSize = SizeDistribution.parse(get("upload.size", "lognormal:200K,1.0"));
+        downloadSize = SizeDistribution.parse(get("download.size", "uniform:1M,4M"));
+        preloadFiles = Integer.parseInt(get("preload.files", "20"));
+        preloadImages = Integer.parseInt(get("preload.images", "50"));
+        imageWidth = Integer.parseInt(get("image.width", "320"));
+        imageHeight = Integer.parseInt(get("image.height", "240"));
+        metadataListSize = Integer.parseInt(get("metadata.list_size", "20"));
+        seed = Long.parseLong(get("seed", "1"));
+        reportDir = get("report.dir", "target/loadtest-reports");
+        cleanup = Boolean.parseBoolean(get("cleanup", "true"));
+    }
+
+    /**
+     * 加载场景
+     *
+     * @param args 第一个不含 = 的参数为场景名称或文件路径，其余 name=value 覆盖配置
+     * @return 场景
+     */
+    public static LoadScenario load(String[] args) throws IOException {
+        String scenario = "default";
+        Properties overrides = new Properties();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index < 0) {
+                scenario = arg;
+            } else if (index == 0) {
+                throw new IllegalArgumentException("argument should be name=value: " + arg);
+            } else {
+                overrides.setProperty(arg.substring(0, index), arg.substring(index + 1));
+            }
+        }
+
+        Properties properties = new Properties();
+        File file = new File(scenario);
+        InputStream is = file.isFile() ? new FileInputStream(file)
+                : LoadScenario.class.getClassLoader().getResourceAsStream("scenarios/" + scenario + ".properties");
+        if (is == null) {
+            throw new IllegalArgumentException("scenario not found: " + scenario);
+        }
+        try (Reader reader = new InputStreamReader(is, StandardCharsets.UTF_8)) {
+            properties.load(reader);
+        }
+        properties.putAll(overrides);
+        return new LoadScenario(properties);
+    }
+
+    /**
+     * 按 embedded.* 配置内嵌 Storage 的故障注入
+     *
+     * @param faults 故障注入
+     */
+    public void applyFaults(FaultInjection faults) {
+        faults.setLatencyMillis(Long.parseLong(get("embedded.latency", "0")));
+        faults.setJitterMillis(Long.parseLong(get("embedded.jitter", "0")));
+        String bandwidth = get("embedded.bandwidth", "0");
+        faults.setBandwidthBytesPerSecond("0".equals(bandwidth) ? 0 : SizeDistribution.parseSize(bandwidth));
+        faults.setFailureRate(Double.parseDouble(get("embedded.failure_rate", "0")));
+        faults.setDisconnectRate(Double.parseDouble(get("embedded.disconnect_rate", "0")));
+    }
+
+    private String get(String key, String defaultValue) {
+        String value = properties.getProperty(key);
+        return value == null || value.trim().isEmpty() ? defaultValue : value.trim();
+    }
+
+    /**
+     * @return 所有配置，写入报告
+     */
+    public Properties getProperties() {
+        return properties;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getTarget() {
+        return target;
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public String getTrackerServers() {
+        return trackerServers;
+    }
+
+    public boolean isEmbedded() {
+        return embedded;
+    }
+
+    public int getMaxStorageConnection() {
+        return maxStorageConnection;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public boolean isPoisson() {
+        return poisson;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getDrainTimeoutSeconds() {
+        return drainTimeoutSeconds;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    public Map<LoadOperation, Double> getMix() {
+        return mix;
+    }
+
+    public SizeDistribution getUploadSize() {
+        return uploadSize;
+    }
+
+    public SizeDistribution getDownloadSize() {
+        return downloadSize;
+    }
+
+    public int getPreloadFiles() {
+        return preloadFiles;
+    }
+
+    public int getPreloadImages() {
+        return preloadImages;
+    }
+
+    public int getImageWidth() {
+        return imageWidth;
+    }
+
+    public int getImageHeight() {
+        return imageHeight;
+    }
+
+    public int getMetadataListSize() {
+        return metadataListSize;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public String getReportDir() {
+        return reportDir;
+    }
+
+    public boolean isCleanup() {
+        return cleanup;
+    }
+}
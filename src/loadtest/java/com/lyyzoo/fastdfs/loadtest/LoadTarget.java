@@ -0,0 +1,58 @@
+package com.lyyzoo.fastdfs.loadtest;
+
+import java.io.Closeable;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 压测对象
+ */
+public interface LoadTarget extends Closeable {
+
+    /**
+     * 上传文件
+     *
+     * @param content 文件内容
+     * @param length 文件长度，只上传 content 的前 length 个字节
+     * @param filename 文件名
+     * @return 文件路径
+     */
+    String upload(byte[] content, int length, String filename) throws Exception;
+
+    /**
+     * 下载文件
+     *
+     * @param filepath 文件路径
+     * @return 读取的字节数
+     */
+    long download(String filepath) throws Exception;
+
+    /**
+     * 读取图片
+     *
+     * @param filepath 图片路径
+     * @return 读取的字节数
+     */
+    long readImage(String filepath) throws Exception;
+
+    /**
+     * 读取一组文件的描述信息和文件信息
+     *
+     * @param filepaths 文件路径
+     */
+    void listMetadata(List<String> filepaths) throws Exception;
+
+    /**
+     * 删除文件
+     *
+     * @param filepath 文件路径
+     */
+    void delete(String filepath) throws Exception;
+
+    /**
+     * 连接池状态，包括 active、idle、waiters、maxTotal
+     *
+     * @return 连接池状态，获取不到时返回空
+     */
+    Map<String, Object> poolGauges();
+}
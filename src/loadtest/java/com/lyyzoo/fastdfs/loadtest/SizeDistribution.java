@@ -0,0 +1,142 @@
+package com.lyyzoo.fastdfs.loadtest;
+
+import java.util.Random;
+
+/**
+ * 文件大小分布
+ * <p>
+ * 配置格式，大小支持 K、M 后缀：
+ * <ul>
+ *     <li>fixed:64K 固定大小</li>
+ *     <li>uniform:1K,1M 均匀分布</li>
+ *     <li>lognormal:200K,1.0 对数正态分布，参数为中位数和 sigma</li>
+ *     <li>pareto:100K,1.2,50M 帕累托分布，参数为最小值、alpha 和最大值，长尾明显</li>
+ * </ul>
+ */
+public abstract class SizeDistribution {
+
+    private final String spec;
+
+    private SizeDistribution(String spec) {
+        this.spec = spec;
+    }
+
+    /**
+     * 采样一个大小
+     *
+     * @param random 随机数
+     * @return 字节数，至少为 1
+     */
+    public abstract int next(Random random);
+
+    /**
+     * @return 可能取到的最大值
+     */
+    public abstract int max();
+
+    @Override
+    public String toString() {
+        return spec;
+    }
+
+    /**
+     * 解析分布配置
+     *
+     * @param spec 配置，如 lognormal:200K,1.0
+     * @return 分布
+     */
+    public static SizeDistribution parse(String spec) {
+        String trimmed = spec.trim();
+        int index = trimmed.indexOf(':');
+        String type = index < 0 ? "fixed" : trimmed.substring(0, index);
+        String[] args = (index < 0 ? trimmed : trimmed.substring(index + 1)).split(",");
+        switch (type) {
+            case "fixed": {
+                final int size = parseSize(args[0]);
+                return new SizeDistribution(trimmed) {
+                    public int next(Random random) {
+                        return size;
+                    }
+
+                    public int max() {
+                        return size;
+                    }
+                };
+            }
+            case "uniform": {
+                checkArgs(trimmed, args, 2);
+                final int min = parseSize(args[0]);
+                final int max = parseSize(args[1]);
+                return new SizeDistribution(trimmed) {
+                    public int next(Random random) {
+                        return min + random.nextInt(max - min + 1);
+                    }
+
+                    public int max() {
+                        return max;
+                    }
+                };
+            }
+            case "lognormal": {
+                checkArgs(trimmed, args, 2);
+                final double mu = Math.log(parseSize(args[0]));
+                final double sigma = Double.parseDouble(args[1].trim());
+                // 截断在中位数的 e^(4sigma) 倍，避免偶发的超大值
+                final int max = clamp(Math.exp(mu + 4 * sigma));
+                return new SizeDistribution(trimmed) {
+                    public int next(Random random) {
+                        return Math.min(max, clamp(Math.exp(mu + sigma * random.nextGaussian())));
+                    }
+
+                    public int max() {
+                        return max;
+                    }
+                };
+            }
+            case "pareto": {
+                checkArgs(trimmed, args, 3);
+                final double min = parseSize(args[0]);
+                final double alpha = Double.parseDouble(args[1].trim());
+                final int max = parseSize(args[2]);
+                return new SizeDistribution(trimmed) {
+                    public int next(Random random) {
+                        return Math.min(max, clamp(min / Math.pow(1 - random.nextDouble(), 1 / alpha)));
+                    }
+
+                    public int max() {
+                        return max;
+                    }
+                };
+            }
+            default:
+                throw new IllegalArgumentException("unknown size distribution: " + spec);
+        }
+    }
+
+    /**
+     * 解析大小，支持 K、M 后缀
+     */
+    static int parseSize(String value) {
+        String size = value.trim().toUpperCase();
+        int unit = 1;
+        if (size.endsWith("K")) {
+            unit = 1024;
+        } else if (size.endsWith("M")) {
+            unit = 1024 * 1024;
+        }
+        if (unit > 1) {
+            size = size.substring(0, size.length() - 1);
+        }
+        return clamp(Double.parseDouble(size) * unit);
+    }
+
+    private static int clamp(double value) {
+        return (int) Math.max(1, Math.min(Integer.MAX_VALUE - 8, value));
+    }
+
+    private static void checkArgs(String spec, String[] args, int count) {
+        if (args.length != count) {
+            throw new IllegalArgumentException("size distribution needs " + count + " arguments: " + spec);
+        }
+    }
+}
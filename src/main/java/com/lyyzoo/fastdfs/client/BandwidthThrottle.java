@@ -0,0 +1,626 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.io.Closeable;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 按租户限制上传下载的带宽和请求数.
+ * <p>
+ * 每个租户有两个令牌桶：字节数/秒和请求数/秒. 令牌桶用 GCRA 实现，只保存一个"理论到达时间"，
+ * 获取令牌是一次 CAS，不加锁，高并发下也不会多发令牌：
+ * <ul>
+ *     <li>请求数超过限制时立即拒绝，返回需要等待的时间</li>
+ *     <li>字节数在上传下载的复制循环中每写出一段前预留，超过限制时当前线程等待，通过 TCP 背压降低对方的发送速度.
+ *     Storage 操作的回调中不等待(会占住并发许可、TrackerServer 和 Storage 连接)，字节数记为欠额，
+ *     操作结束归还资源后再按欠额等待；流式下载按 {@link Session#getChunkBytes()} 分段，每段之间等待</li>
+ * </ul>
+ * 总带宽(totalBytesPerSecond)按权重在正在传输的租户之间分配：租户的速率不超过 总带宽 * 权重 / 正在传输的租户的权重之和，
+ * 同时不超过租户自己的上限. 没有传输的租户不占份额. <br>
+ * 当前线程的租户由 {@link #open(String)} 绑定(Web 请求由 {@link com.lyyzoo.fastdfs.web.ThrottleFilter} 绑定)，
+ * 没有绑定的线程(暂存区后台上传等)不限制. 所有配置可以在运行时修改，下一次获取令牌时生效. <br>
+ * 与 TrackerServer 连接池一样是进程内共享的.
+ */
+public class BandwidthThrottle {
+
+    /**
+     * 没有租户标识的请求
+     */
+    public static final String DEFAULT_TENANT = "default";
+
+    /**
+     * 最多保存的租户数，超过时清除空闲的租户
+     */
+    private static final int MAX_TENANTS = 10000;
+
+    private static final BandwidthThrottle INSTANCE = new BandwidthThrottle();
+
+    private static final ThreadLocal<Session> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 没有绑定租户时的会话，不限制
+     */
+    private static final Session NONE = new Session(null, null);
+
+    private final ConcurrentMap<String, Tenant> tenants = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled = false;
+    /**
+     * 总带宽(字节/秒)，0 表示不限制
+     */
+    private volatile long totalBytesPerSecond;
+    /**
+     * 令牌桶容量，可以突发的秒数
+     */
+    private volatile double burstSeconds = 1;
+    /**
+     * 没有单独配置的租户的限制
+     */
+    private volatile Policy defaultPolicy = new Policy(0, 0, 1);
+    /**
+     * 单独配置的租户的限制
+     */
+    private volatile Map<String, Policy> policies = new HashMap<>();
+
+    /**
+     * 正在传输的租户的权重之和
+     */
+    private final AtomicLong activeWeight = new AtomicLong();
+
+    private BandwidthThrottle() {
+    }
+
+    public static BandwidthThrottle getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return 当前线程的会话，没有绑定时返回不限制的会话
+     */
+    public static Session current() {
+        Session session = CURRENT.get();
+        return session == null ? NONE : session;
+    }
+
+    /**
+     * 为当前线程绑定租户，请求数超过限制时拒绝. 使用完后关闭
+     *
+     * @param tenant 租户，为空时为 {@link #DEFAULT_TENANT}
+     * @return 会话，未启用时返回不限制的会话
+     * @throws FastDFSException 请求数超过限制，见 {@link #getRetryAfterSeconds(String)}
+     */
+    public Session open(String tenant) throws FastDFSException {
+        if (!enabled) {
+            return NONE;
+        }
+        Tenant t = getTenant(StringUtils.isBlank(tenant) ? DEFAULT_TENANT : tenant);
+        Policy policy = policyOf(t.name);
+        if (policy.requestsPerSecond > 0 && !t.requests.tryAcquire(1, policy.requestsPerSecond, burstSeconds)) {
+            t.rejected.increment();
+            throw new FastDFSException(ErrorCode.FILE_RATE_LIMITED.CODE, ErrorCode.FILE_RATE_LIMITED.MESSAGE);
+        }
+        t.requestCount.increment();
+        Session session = new Session(this, t);
+        t.enter(policy.weight);
+        CURRENT.set(session);
+        return session;
+    }
+
+    /**
+     * @param tenant 租户
+     * @return 请求被拒绝后需要等待的秒数，至少 1 秒
+     */
+    public long getRetryAfterSeconds(String tenant) {
+        Tenant t = tenants.get(StringUtils.isBlank(tenant) ? DEFAULT_TENANT : tenant);
+        if (t == null) {
+            return 1;
+        }
+        double rate = policyOf(t.name).requestsPerSecond;
+        long waitNanos = rate <= 0 ? 0 : t.requests.waitNanos(1, rate, burstSeconds);
+        return Math.max(1, TimeUnit.NANOSECONDS.toSeconds(waitNanos + TimeUnit.SECONDS.toNanos(1) - 1));
+    }
+
+    private Tenant getTenant(String name) {
+        Tenant tenant = tenants.get(name);
+        if (tenant == null) {
+            if (tenants.size() >= MAX_TENANTS) {
+                evictIdle();
+            }
+            tenants.putIfAbsent(name, new Tenant(name));
+            tenant = tenants.get(name);
+        }
+        return tenant;
+    }
+
+    /**
+     * 清除没有传输、令牌桶已经回满的租户. 清除后重新创建的租户令牌桶是满的，与保留时相同
+     */
+    private void evictIdle() {
+        long now = System.nanoTime();
+        Iterator<Tenant> iterator = tenants.values().iterator();
+        while (iterator.hasNext()) {
+            Tenant tenant = iterator.next();
+            if (tenant.isIdle(now)) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private Policy policyOf(String tenant) {
+        Policy policy = policies.get(tenant);
+        return policy == null ? defaultPolicy : policy;
+    }
+
+    /**
+     * @return 租户当前的字节速率(字节/秒)，0 表示不限制
+     */
+    private double bytesRate(Tenant tenant) {
+        Policy policy = policyOf(tenant.name);
+        double rate = policy.bytesPerSecond;
+        long total = totalBytesPerSecond;
+        if (total > 0) {
+            double share = (double) total * policy.weight / Math.max(policy.weight, activeWeight.get());
+            rate = rate > 0 ? Math.min(rate, share) : share;
+        }
+        return rate;
+    }
+
+    /**
+     * @return 配置和每个租户的请求数、字节数、被拒绝的请求数和等待时间，按字节数倒序
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("totalBytesPerSecond", totalBytesPerSecond);
+        snapshot.put("burstSeconds", burstSeconds);
+        snapshot.put("default", defaultPolicy.toMap());
+        Map<String, Object> rules = new LinkedHashMap<>();
+        policies.forEach((name, policy) -> rules.put(name, policy.toMap()));
+        snapshot.put("rules", rules);
+        snapshot.put("activeWeight", activeWeight.get());
+        List<Tenant> list = new ArrayList<>(tenants.values());
+        list.sort(Comparator.comparingLong((Tenant t) -> t.bytes.sum()).reversed());
+        Map<String, Object> stats = new LinkedHashMap<>();
+        for (Tenant tenant : list.subList(0, Math.min(100, list.size()))) {
+            Map<String, Object> stat = new LinkedHashMap<>();
+            stat.put("active", tenant.active);
+            stat.put("requests", tenant.requestCount.sum());
+            stat.put("rejected", tenant.rejected.sum());
+            stat.put("bytes", tenant.bytes.sum());
+            stat.put("throttledMillis", TimeUnit.NANOSECONDS.toMillis(tenant.throttledNanos.sum()));
+            stat.put("bytesPerSecond", (long) bytesRate(tenant));
+            stats.put(tenant.name, stat);
+        }
+        snapshot.put("tenants", stats);
+        return snapshot;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getTotalBytesPerSecond() {
+        return totalBytesPerSecond;
+    }
+
+    public void setTotalBytesPerSecond(long totalBytesPerSecond) {
+        this.totalBytesPerSecond = Math.max(0, totalBytesPerSecond);
+    }
+
+    public double getBurstSeconds() {
+        return burstSeconds;
+    }
+
+    public void setBurstSeconds(double burstSeconds) {
+        this.burstSeconds = Math.max(0.01, burstSeconds);
+    }
+
+    public Policy getDefaultPolicy() {
+        return defaultPolicy;
+    }
+
+    public synchronized void setDefaultPolicy(Policy defaultPolicy) {
+        this.defaultPolicy = defaultPolicy;
+        for (Tenant tenant : tenants.values()) {
+            tenant.reweigh(policyOf(tenant.name).weight);
+        }
+    }
+
+    /**
+     * @return 租户 -> 限制
+     */
+    public Map<String, Policy> getPolicies() {
+        return new LinkedHashMap<>(policies);
+    }
+
+    /**
+     * 设置或移除租户的限制
+     *
+     * @param tenant 租户
+     * @param policy 限制，为空时使用默认限制
+     */
+    public synchronized void setPolicy(String tenant, Policy policy) {
+        Map<String, Policy> copy = new LinkedHashMap<>(policies);
+        if (policy == null) {
+            copy.remove(tenant);
+        } else {
+            copy.put(tenant, policy);
+        }
+        policies = copy;
+        Tenant t = tenants.get(tenant);
+        if (t != null) {
+            t.reweigh(policyOf(tenant).weight);
+        }
+    }
+
+    /**
+     * 替换所有租户的限制
+     *
+     * @param rules 如 acme:kb=20480,requests=100,weight=4;beta:weight=2，kb 为 KB/秒，0 表示不限制，
+     *              没有配置的项使用默认限制
+     * @throws IllegalArgumentException 格式错误
+     */
+    public synchronized void setPolicies(String rules) {
+        Map<String, Policy> parsed = new LinkedHashMap<>();
+        if (StringUtils.isNotBlank(rules)) {
+            for (String rule : rules.split(";")) {
+                if (StringUtils.isBlank(rule)) {
+                    continue;
+                }
+                int index = rule.indexOf(':');
+                if (index <= 0) {
+                    throw new IllegalArgumentException("invalid throttle rule: " + rule);
+                }
+                parsed.put(rule.substring(0, index).trim(), defaultPolicy.with(rule.substring(index + 1)));
+            }
+        }
+        policies = parsed;
+        for (Tenant tenant : tenants.values()) {
+            tenant.reweigh(policyOf(tenant.name).weight);
+        }
+    }
+
+    /**
+     * 租户的限制，不可变
+     */
+    public static class Policy {
+        /**
+         * 字节数/秒，0 表示不限制
+         */
+        private final long bytesPerSecond;
+        /**
+         * 请求数/秒，0 表示不限制
+         */
+        private final double requestsPerSecond;
+        /**
+         * 分配总带宽的权重
+         */
+        private final int weight;
+
+        public Policy(long bytesPerSecond, double requestsPerSecond, int weight) {
+            this.bytesPerSecond = Math.max(0, bytesPerSecond);
+            this.requestsPerSecond = Math.max(0, requestsPerSecond);
+            this.weight = Math.max(1, weight);
+        }
+
+        /**
+         * @param spec 如 kb=20480,requests=100,weight=4，没有的项不变
+         * @return 新的限制
+         * @throws IllegalArgumentException 格式错误
+         */
+        public Policy with(String spec) {
+            long bytes = bytesPerSecond;
+            double requests = requestsPerSecond;
+            int w = weight;
+            for (String item : spec.split(",")) {
+                String[] pair = item.split("=");
+                if (pair.length != 2) {
+                    throw new IllegalArgumentException("invalid throttle rule: " + spec);
+                }
+                String value = pair[1].trim();
+                try {
+                    switch (pair[0].trim()) {
+                        case "kb":
+                            bytes = Long.parseLong(value) * 1024;
+                            break;
+                        case "requests":
+                            requests = Double.parseDouble(value);
+                            break;
+                        case "weight":
+                            w = Integer.parseInt(value);
+                            break;
+                        default:
+                            throw new IllegalArgumentException("invalid throttle rule: " + spec);
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid throttle rule: " + spec, e);
+                }
+            }
+            return new Policy(bytes, requests, w);
+        }
+
+        public long getBytesPerSecond() {
+            return bytesPerSecond;
+        }
+
+        public double getRequestsPerSecond() {
+            return requestsPerSecond;
+        }
+
+        public int getWeight() {
+            return weight;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("bytesPerSecond", bytesPerSecond);
+            map.put("requestsPerSecond", requestsPerSecond);
+            map.put("weight", weight);
+            return map;
+        }
+    }
+
+    /**
+     * 当前线程绑定的租户. 关闭时解除绑定并退出总带宽的分配
+     */
+    public static class Session implements Closeable {
+        private final BandwidthThrottle throttle;
+        private final Tenant tenant;
+        private boolean closed;
+        /**
+         * Storage 操作中传输、还没有等待的字节数. 会话绑定在一个线程上，不需要同步
+         */
+        private long debt;
+
+        private Session(BandwidthThrottle throttle, Tenant tenant) {
+            this.throttle = throttle;
+            this.tenant = tenant;
+        }
+
+        /**
+         * 传输 bytes 字节前调用，超过限制时等待. 在 Storage 操作的回调中调用时不等待，记为欠额，
+         * 在操作结束后由 {@link #settle()} 或下一次在回调外的调用一起等待
+         *
+         * @param bytes 字节数
+         * @throws InterruptedIOException 等待时被中断
+         */
+        public void consume(long bytes) throws InterruptedIOException {
+            if (tenant == null) {
+                return;
+            }
+            if (bytes > 0) {
+                tenant.bytes.add(bytes);
+            }
+            if (StorageExecutor.isInExchange()) {
+                debt += Math.max(0, bytes);
+                return;
+            }
+            bytes = Math.max(0, bytes) + debt;
+            debt = 0;
+            if (bytes <= 0 || !throttle.enabled) {
+                return;
+            }
+            double rate = throttle.bytesRate(tenant);
+            if (rate <= 0) {
+                return;
+            }
+            long waitNanos = tenant.transfer.reserve(bytes, rate, throttle.burstSeconds);
+            if (waitNanos > 0) {
+                tenant.throttledNanos.add(waitNanos);
+                long deadline = System.nanoTime() + waitNanos;
+                while ((waitNanos = deadline - System.nanoTime()) > 0) {
+                    LockSupport.parkNanos(this, waitNanos);
+                    if (Thread.interrupted()) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("interrupted while throttling " + tenant.name);
+                    }
+                }
+            }
+        }
+
+        /**
+         * 按欠额等待，Storage 操作结束、归还资源后调用
+         *
+         * @throws InterruptedIOException 等待时被中断
+         */
+        public void settle() throws InterruptedIOException {
+            consume(0);
+        }
+
+        /**
+         * @return 流式下载每段的字节数，使每段之间的等待不超过突发的秒数；不限制时为 Long.MAX_VALUE，不分段
+         */
+        public long getChunkBytes() {
+            if (tenant == null || !throttle.enabled) {
+                return Long.MAX_VALUE;
+            }
+            double rate = throttle.bytesRate(tenant);
+            if (rate <= 0) {
+                return Long.MAX_VALUE;
+            }
+            return Math.max(BufferPool.SOCKET_BUFFER_SIZE, (long) (rate * throttle.burstSeconds));
+        }
+
+        /**
+         * @param os 输出流
+         * @return 写出前调用 {@link #consume(long)} 的输出流，不限制时返回原输出流
+         */
+        public OutputStream wrap(OutputStream os) {
+            if (tenant == null || os == null) {
+                return os;
+            }
+            return new FilterOutputStream(os) {
+                @Override
+                public void write(int b) throws IOException {
+                    consume(1);
+                    out.write(b);
+                }
+
+                @Override
+                public void write(byte[] b, int off, int len) throws IOException {
+                    // 分段预留，避免一次预留过多使其它请求长时间等待
+                    while (len > 0) {
+                        int chunk = Math.min(len, BufferPool.SOCKET_BUFFER_SIZE);
+                        consume(chunk);
+                        out.write(b, off, chunk);
+                        off += chunk;
+                        len -= chunk;
+                    }
+                }
+            };
+        }
+
+        /**
+         * @return 租户，不限制时为空
+         */
+        public String getTenant() {
+            return tenant == null ? null : tenant.name;
+        }
+
+        @Override
+        public void close() {
+            if (tenant == null || closed) {
+                return;
+            }
+            closed = true;
+            tenant.exit();
+            if (CURRENT.get() == this) {
+                CURRENT.remove();
+            }
+        }
+    }
+
+    /**
+     * GCRA 令牌桶. tat 是按当前速率发完已预留的令牌的时间，最多比当前时间超前 burst
+     */
+    static class Bucket {
+        private final AtomicLong tat = new AtomicLong(System.nanoTime());
+
+        /**
+         * 有令牌时获取，没有时不获取
+         *
+         * @return 是否获取到
+         */
+        boolean tryAcquire(long permits, double rate, double burstSeconds) {
+            long cost = cost(permits, rate);
+            long burst = (long) (burstSeconds * TimeUnit.SECONDS.toNanos(1));
+            while (true) {
+                long now = System.nanoTime();
+                long current = tat.get();
+                long next = Math.max(current - now, 0) + now + cost;
+                if (next - now > Math.max(burst, cost)) {
+                    return false;
+                }
+                if (tat.compareAndSet(current, next)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 预留令牌，不够时预支
+         *
+         * @return 需要等待的时间(纳秒)
+         */
+        long reserve(long permits, double rate, double burstSeconds) {
+            long cost = cost(permits, rate);
+            long burst = (long) (burstSeconds * TimeUnit.SECONDS.toNanos(1));
+            while (true) {
+                long now = System.nanoTime();
+                long current = tat.get();
+                long next = Math.max(current - now, 0) + now + cost;
+                if (tat.compareAndSet(current, next)) {
+                    return next - now - burst;
+                }
+            }
+        }
+
+        /**
+         * @return 获取 permits 个令牌需要等待的时间(纳秒)
+         */
+        long waitNanos(long permits, double rate, double burstSeconds) {
+            long now = System.nanoTime();
+            long burst = (long) (burstSeconds * TimeUnit.SECONDS.toNanos(1));
+            return Math.max(0, Math.max(tat.get() - now, 0) + cost(permits, rate) - burst);
+        }
+
+        /**
+         * @return 令牌桶是否已满
+         */
+        boolean isFull(long now) {
+            return tat.get() - now <= 0;
+        }
+
+        private static long cost(long permits, double rate) {
+            return (long) (permits * (TimeUnit.SECONDS.toNanos(1) / rate));
+        }
+    }
+
+    private class Tenant {
+        private final String name;
+        private final Bucket requests = new Bucket();
+        private final Bucket transfer = new Bucket();
+        private final LongAdder requestCount = new LongAdder();
+        private final LongAdder rejected = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder throttledNanos = new LongAdder();
+        /**
+         * 以下由 this 同步：正在传输的会话数和计入 activeWeight 的权重
+         */
+        private int active;
+        private int weight;
+
+        Tenant(String name) {
+            this.name = name;
+        }
+
+        synchronized void enter(int w) {
+            if (active++ == 0) {
+                weight = w;
+                activeWeight.addAndGet(w);
+            }
+        }
+
+        synchronized void exit() {
+            if (--active == 0) {
+                activeWeight.addAndGet(-weight);
+                weight = 0;
+            }
+        }
+
+        /**
+         * 权重修改后立即生效
+         */
+        synchronized void reweigh(int w) {
+            if (active > 0) {
+                activeWeight.addAndGet(w - weight);
+                weight = w;
+            }
+        }
+
+        synchronized boolean isIdle(long now) {
+            return active == 0 && requests.isFull(now) && transfer.isFull(now);
+        }
+    }
+}
@@ -0,0 +1,280 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 传输缓冲区池.
+ * <p>
+ * 缓冲区按 2 的幂分级(4KB ~ 16MB)，每个线程缓存每级较小的缓冲区各一个，其它的放在每级有上限的共享队列中，
+ * 超过最大级别的缓冲区直接分配、不回收. 上传读取、下载接收都从这里租用，请求结束后归还，传输路径上基本不再分配数组. <br>
+ * 缓冲区是堆内的 byte[]：fastdfs-client-java 和 Servlet 的流都只接受 byte[]，直接内存还要多一次复制. <br>
+ * 启动参数 -Dfastdfs.buffer.leak_detection=true 时记录每次租用的调用栈，检查没有归还或重复归还的缓冲区，
+ * 压测和单元测试时默认开启，见 {@link #reportLeaks()}. <br>
+ * 与 TrackerServer 连接池一样是进程内共享的.
+ */
+public class BufferPool {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(BufferPool.class);
+
+    /**
+     * 开启泄漏检测的系统属性
+     */
+    public static final String LEAK_DETECTION = "fastdfs.buffer.leak_detection";
+
+    /**
+     * 与 Socket 缓冲区相当的复制缓冲区大小，大小未知时的初始大小
+     */
+    public static final int SOCKET_BUFFER_SIZE = 64 * 1024;
+
+    private static final int MIN_SHIFT = 12;
+    private static final int MAX_SHIFT = 24;
+    /**
+     * 不超过该级别的缓冲区在线程内缓存
+     */
+    private static final int THREAD_LOCAL_MAX_SHIFT = 16;
+    /**
+     * 每级共享队列最多保存的字节数
+     */
+    private static final int SHARED_BYTES_PER_CLASS = 8 * 1024 * 1024;
+
+    private static final byte[] EMPTY = new byte[0];
+
+    private static final BufferPool INSTANCE = new BufferPool(Boolean.getBoolean(LEAK_DETECTION));
+
+    private final List<ArrayBlockingQueue<byte[]>> shared = new ArrayList<>();
+
+    private final ThreadLocal<byte[][]> local = ThreadLocal.withInitial(() -> new byte[THREAD_LOCAL_MAX_SHIFT - MIN_SHIFT + 1][]);
+
+    private final boolean leakDetection;
+
+    /**
+     * 未归还的缓冲区 -> 租用时的调用栈，只在开启泄漏检测时记录
+     */
+    private final Map<byte[], Throwable> leases = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    private final LongAdder acquired = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder released = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+
+    BufferPool(boolean leakDetection) {
+        this.leakDetection = leakDetection;
+        for (int shift = MIN_SHIFT; shift <= MAX_SHIFT; shift++) {
+            shared.add(new ArrayBlockingQueue<>(Math.max(1, SHARED_BYTES_PER_CLASS >> shift)));
+        }
+        if (leakDetection && logger.isInfoEnabled()) {
+            logger.info("buffer leak detection enabled");
+        }
+    }
+
+    public static BufferPool getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 租用缓冲区，使用完后调用 {@link #release(byte[])} 归还
+     *
+     * @param minSize 最小长度
+     * @return 长度不小于 minSize 的缓冲区，内容不确定
+     */
+    public byte[] acquire(int minSize) {
+        acquired.increment();
+        int index = indexOf(minSize);
+        byte[] buffer = null;
+        if (index >= 0) {
+            if (index + MIN_SHIFT <= THREAD_LOCAL_MAX_SHIFT) {
+                byte[][] cache = local.get();
+                buffer = cache[index];
+                cache[index] = null;
+            }
+            if (buffer == null) {
+                buffer = shared.get(index).poll();
+            }
+        }
+        if (buffer == null) {
+            allocated.increment();
+            buffer = new byte[index >= 0 ? 1 << (index + MIN_SHIFT) : minSize];
+        }
+        if (leakDetection) {
+            leases.put(buffer, new Throwable("buffer of " + buffer.length + " bytes acquired here"));
+        }
+        return buffer;
+    }
+
+    /**
+     * 归还缓冲区，归还后不能再使用
+     *
+     * @param buffer 由 {@link #acquire(int)} 租用的缓冲区，为空时忽略
+     */
+    public void release(byte[] buffer) {
+        if (buffer == null) {
+            return;
+        }
+        if (leakDetection && leases.remove(buffer) == null) {
+            // 重复归还的缓冲区可能已被别人租用，不能再放回池中
+            logger.warn("buffer of {} bytes released twice or not acquired from pool", buffer.length, new Throwable());
+            return;
+        }
+        released.increment();
+        int index = Integer.numberOfTrailingZeros(buffer.length) - MIN_SHIFT;
+        if (Integer.bitCount(buffer.length) != 1 || index < 0 || index > MAX_SHIFT - MIN_SHIFT) {
+            return;
+        }
+        if (index + MIN_SHIFT <= THREAD_LOCAL_MAX_SHIFT) {
+            byte[][] cache = local.get();
+            if (cache[index] == null) {
+                cache[index] = buffer;
+                return;
+            }
+        }
+        if (!shared.get(index).offer(buffer)) {
+            dropped.increment();
+        }
+    }
+
+    /**
+     * 租用缓冲区，关闭时归还
+     *
+     * @param minSize 最小长度
+     * @return 租约，有效长度为 0
+     */
+    public Lease lease(int minSize) {
+        return new Lease(this, minSize == 0 ? EMPTY : acquire(minSize), 0);
+    }
+
+    /**
+     * 包装不需要归还的数组
+     *
+     * @param bytes 数组
+     * @return 租约，长度为数组长度，关闭时不做任何事
+     */
+    public static Lease wrap(byte[] bytes) {
+        return new Lease(null, bytes, bytes.length);
+    }
+
+    /**
+     * @return 所在的级别，超过最大级别返回 -1
+     */
+    private static int indexOf(int size) {
+        if (size <= 1 << MIN_SHIFT) {
+            return 0;
+        }
+        int shift = 32 - Integer.numberOfLeadingZeros(size - 1);
+        return shift > MAX_SHIFT ? -1 : shift - MIN_SHIFT;
+    }
+
+    public boolean isLeakDetection() {
+        return leakDetection;
+    }
+
+    /**
+     * @return 未归还的缓冲区数量，没有开启泄漏检测时为租用与归还次数之差
+     */
+    public long getOutstanding() {
+        return leakDetection ? leases.size() : acquired.sum() - released.sum();
+    }
+
+    /**
+     * 输出未归还的缓冲区及其租用时的调用栈
+     *
+     * @return 未归还的缓冲区数量，没有开启泄漏检测时返回 0
+     */
+    public int reportLeaks() {
+        if (!leakDetection) {
+            return 0;
+        }
+        List<Throwable> traces;
+        synchronized (leases) {
+            traces = new ArrayList<>(leases.values());
+        }
+        for (Throwable trace : traces) {
+            logger.error("buffer leak detected", trace);
+        }
+        return traces.size();
+    }
+
+    /**
+     * @return 租用、新分配、归还、丢弃(池已满)次数，未归还数量和池中保存的字节数
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("acquired", acquired.sum());
+        snapshot.put("allocated", allocated.sum());
+        snapshot.put("released", released.sum());
+        snapshot.put("dropped", dropped.sum());
+        snapshot.put("outstanding", getOutstanding());
+        long pooledBytes = 0;
+        for (int i = 0; i < shared.size(); i++) {
+            pooledBytes += (long) shared.get(i).size() << (i + MIN_SHIFT);
+        }
+        snapshot.put("sharedBytes", pooledBytes);
+        snapshot.put("leakDetection", leakDetection);
+        return snapshot;
+    }
+
+    /**
+     * 租用的缓冲区及其有效长度，关闭时归还，重复关闭只归还一次
+     */
+    public static class Lease implements Closeable {
+        private final BufferPool pool;
+        private byte[] buffer;
+        private int length;
+
+        private Lease(BufferPool pool, byte[] buffer, int length) {
+            this.pool = pool;
+            this.buffer = buffer;
+            this.length = length;
+        }
+
+        public byte[] getBuffer() {
+            return buffer;
+        }
+
+        public int getLength() {
+            return length;
+        }
+
+        public void setLength(int length) {
+            this.length = length;
+        }
+
+        /**
+         * 扩容到至少 minSize，保留已有内容
+         *
+         * @param minSize 最小长度
+         */
+        public void grow(int minSize) {
+            if (buffer.length >= minSize) {
+                return;
+            }
+            byte[] larger = pool == null ? new byte[minSize] : pool.acquire(minSize);
+            System.arraycopy(buffer, 0, larger, 0, length);
+            if (pool != null && buffer != EMPTY) {
+                pool.release(buffer);
+            }
+            buffer = larger;
+        }
+
+        @Override
+        public void close() {
+            byte[] released = buffer;
+            buffer = null;
+            if (pool != null && released != null && released != EMPTY) {
+                pool.release(released);
+            }
+        }
+    }
+}
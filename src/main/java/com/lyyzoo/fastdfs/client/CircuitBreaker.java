@@ -0,0 +1,232 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 单个 Storage 节点的熔断器.
+ * <p>
+ * 在最近 windowSize 次调用中，失败率或慢调用率超过阈值，或者连续失败 consecutiveFailures 次时打开(摘除节点)，
+ * 打开期间不再向该节点路由. openDurationMillis 之后进入半开状态，只放行一个探测请求，
+ * 成功且不慢则关闭，否则重新打开. 阈值见 {@link CircuitBreakerRegistry}.
+ */
+public class CircuitBreaker {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final byte SUCCESS = 0;
+    private static final byte FAILURE = 1;
+    private static final byte SLOW = 2;
+
+    private final String address;
+    private final CircuitBreakerRegistry config;
+
+    private State state = State.CLOSED;
+    private byte[] outcomes;
+    private int index;
+    private int count;
+    private int failures;
+    private int slows;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+
+    CircuitBreaker(String address, CircuitBreakerRegistry config) {
+        this.address = address;
+        this.config = config;
+        this.outcomes = new byte[config.getWindowSize()];
+    }
+
+    /**
+     * 请求是否可以发往该节点. 半开状态下只有第一个调用者获得探测机会.
+     *
+     * @return 可以发送返回 true，之后必须调用 onSuccess 或 onFailure
+     */
+    public synchronized boolean tryAcquire() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                if (System.currentTimeMillis() - openedAt < config.getOpenDurationMillis()) {
+                    return false;
+                }
+                state = State.HALF_OPEN;
+                probing = true;
+                if (logger.isInfoEnabled()) {
+                    logger.info("circuit breaker half open, probing storage {}", address);
+                }
+                return true;
+            default:
+                if (probing) {
+                    return false;
+                }
+                probing = true;
+                return true;
+        }
+    }
+
+    /**
+     * @return 是否可用，不占用探测机会
+     */
+    public synchronized boolean isAvailable() {
+        switch (state) {
+            case CLOSED:
+                return true;
+            case OPEN:
+                return System.currentTimeMillis() - openedAt >= config.getOpenDurationMillis();
+            default:
+                return !probing;
+        }
+    }
+
+    /**
+     * 记录一次成功的调用
+     *
+     * @param nanos 与 Storage 交互的耗时，不包括回调中读写客户端的时间
+     */
+    public synchronized void onSuccess(long nanos) {
+        boolean slow = nanos >= config.getSlowCallDurationMillis() * 1000000L;
+        if (state == State.HALF_OPEN) {
+            if (slow) {
+                open("slow probe");
+            } else {
+                close();
+            }
+            return;
+        }
+        if (state == State.CLOSED) {
+            consecutiveFailures = 0;
+            record(slow ? SLOW : SUCCESS);
+        }
+    }
+
+    /**
+     * 记录一次失败的调用(连接失败、超时、Storage 返回 IO 错误等)
+     */
+    public synchronized void onFailure() {
+        if (state == State.HALF_OPEN) {
+            open("probe failed");
+            return;
+        }
+        if (state == State.CLOSED) {
+            consecutiveFailures++;
+            record(FAILURE);
+            if (consecutiveFailures >= config.getConsecutiveFailures()) {
+                open(consecutiveFailures + " consecutive failures");
+            }
+        }
+    }
+
+    /**
+     * 获得许可后没有实际调用(如对冲请求被取消)，不记录结果，半开状态下交还探测机会
+     */
+    public synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    private void record(byte outcome) {
+        if (count == outcomes.length) {
+            remove(outcomes[index]);
+        } else {
+            count++;
+        }
+        outcomes[index] = outcome;
+        if (outcome == FAILURE) {
+            failures++;
+        } else if (outcome == SLOW) {
+            slows++;
+        }
+        index = (index + 1) % outcomes.length;
+
+        if (state == State.CLOSED && count >= config.getMinimumCalls()) {
+            if (failures * 100 >= config.getFailureRateThreshold() * count) {
+                open("failure rate " + failures * 100 / count + "%");
+            } else if (slows * 100 >= config.getSlowCallRateThreshold() * count) {
+                open("slow call rate " + slows * 100 / count + "%");
+            }
+        }
+    }
+
+    private void remove(byte outcome) {
+        if (outcome == FAILURE) {
+            failures--;
+        } else if (outcome == SLOW) {
+            slows--;
+        }
+    }
+
+    private void open(String reason) {
+        if (logger.isWarnEnabled()) {
+            logger.warn("circuit breaker open, eject storage {}: {}", address, reason);
+        }
+        state = State.OPEN;
+        openedAt = System.currentTimeMillis();
+        probing = false;
+        reset();
+    }
+
+    private void close() {
+        if (logger.isInfoEnabled()) {
+            logger.info("circuit breaker closed, storage {} recovered", address);
+        }
+        state = State.CLOSED;
+        probing = false;
+        reset();
+    }
+
+    private void reset() {
+        if (outcomes.length != config.getWindowSize()) {
+            outcomes = new byte[config.getWindowSize()];
+        }
+        index = 0;
+        count = 0;
+        failures = 0;
+        slows = 0;
+        consecutiveFailures = 0;
+    }
+
+    /**
+     * @return 状态、窗口内调用数、失败数、慢调用数
+     */
+    public synchronized Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("state", state.name().toLowerCase());
+        snapshot.put("calls", count);
+        snapshot.put("failures", failures);
+        snapshot.put("slowCalls", slows);
+        return snapshot;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * 熔断器状态
+     */
+    public enum State {
+        /**
+         * 正常
+         */
+        CLOSED,
+        /**
+         * 已摘除
+         */
+        OPEN,
+        /**
+         * 探测中
+         */
+        HALF_OPEN
+    }
+}
@@ -0,0 +1,167 @@
+package com.lyyzoo.fastdfs.client;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 按 Storage 地址(ip:port)保存熔断器，同时保存熔断器的配置.
+ * <p>
+ * 与 TrackerServer 连接池一样是进程内共享的，一个节点的健康状况对所有 FastDFSClient 都有效.
+ */
+public class CircuitBreakerRegistry {
+
+    private static final CircuitBreakerRegistry INSTANCE = new CircuitBreakerRegistry();
+
+    private final ConcurrentMap<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+
+    private volatile boolean enabled = true;
+    /**
+     * 统计窗口的调用次数
+     */
+    private volatile int windowSize = 20;
+    /**
+     * 窗口内至少多少次调用才计算比率
+     */
+    private volatile int minimumCalls = 10;
+    /**
+     * 失败率阈值(百分比)
+     */
+    private volatile int failureRateThreshold = 50;
+    /**
+     * 慢调用率阈值(百分比)
+     */
+    private volatile int slowCallRateThreshold = 80;
+    /**
+     * 超过该耗时(毫秒)算慢调用
+     */
+    private volatile long slowCallDurationMillis = 5000;
+    /**
+     * 连续失败多少次直接摘除
+     */
+    private volatile int consecutiveFailures = 5;
+    /**
+     * 摘除多久(毫秒)后半开探测
+     */
+    private volatile long openDurationMillis = 10000;
+
+    CircuitBreakerRegistry() {
+    }
+
+    public static CircuitBreakerRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 获取节点的熔断器，没有则创建
+     *
+     * @param address ip:port
+     * @return 熔断器
+     */
+    public CircuitBreaker get(String address) {
+        CircuitBreaker breaker = breakers.get(address);
+        if (breaker == null) {
+            breakers.putIfAbsent(address, new CircuitBreaker(address, this));
+            breaker = breakers.get(address);
+        }
+        return breaker;
+    }
+
+    /**
+     * 节点是否可以路由，不占用半开状态的探测机会
+     *
+     * @param address ip:port
+     * @return 未启用熔断或节点可用时返回 true
+     */
+    public boolean isAvailable(String address) {
+        if (!enabled) {
+            return true;
+        }
+        CircuitBreaker breaker = breakers.get(address);
+        return breaker == null || breaker.isAvailable();
+    }
+
+    /**
+     * @return 地址 -> 熔断器状态
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<String, CircuitBreaker> entry : new TreeMap<>(breakers).entrySet()) {
+            snapshot.put(entry.getKey(), entry.getValue().snapshot());
+        }
+        return snapshot;
+    }
+
+    /**
+     * 清除所有熔断器
+     */
+    public void reset() {
+        breakers.clear();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = Math.max(1, windowSize);
+    }
+
+    public int getMinimumCalls() {
+        return minimumCalls;
+    }
+
+    public void setMinimumCalls(int minimumCalls) {
+        this.minimumCalls = minimumCalls;
+    }
+
+    public int getFailureRateThreshold() {
+        return failureRateThreshold;
+    }
+
+    public void setFailureRateThreshold(int failureRateThreshold) {
+        this.failureRateThreshold = failureRateThreshold;
+    }
+
+    public int getSlowCallRateThreshold() {
+        return slowCallRateThreshold;
+    }
+
+    public void setSlowCallRateThreshold(int slowCallRateThreshold) {
+        this.slowCallRateThreshold = slowCallRateThreshold;
+    }
+
+    public long getSlowCallDurationMillis() {
+        return slowCallDurationMillis;
+    }
+
+    public void setSlowCallDurationMillis(long slowCallDurationMillis) {
+        this.slowCallDurationMillis = slowCallDurationMillis;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public void setConsecutiveFailures(int consecutiveFailures) {
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public long getOpenDurationMillis() {
+        return openDurationMillis;
+    }
+
+    public void setOpenDurationMillis(long openDurationMillis) {
+        this.openDurationMillis = openDurationMillis;
+    }
+}
@@ -0,0 +1,39 @@
+package com.lyyzoo.fastdfs.client;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * 压缩编解码器. 压缩和解压都包装输出流，可以直接用于上传、下载的流式拷贝.
+ * <p>
+ * 内置 gzip / deflate，其它编解码器(如 LZ4、zstd)实现该接口后通过 {@link CompressionCodecs#register(CompressionCodec)} 注册.
+ */
+public interface CompressionCodec {
+
+    /**
+     * @return 编解码器名称，保存在文件描述信息中
+     */
+    String getName();
+
+    /**
+     * @return 对应的 HTTP Content-Encoding，浏览器不支持则返回 null
+     */
+    String getContentEncoding();
+
+    /**
+     * 包装输出流，写入的数据压缩后输出
+     *
+     * @param os 输出流
+     * @return 压缩输出流，close 时结束压缩并关闭 os
+     */
+    OutputStream compress(OutputStream os) throws IOException;
+
+    /**
+     * 包装输出流，写入的压缩数据解压后输出
+     *
+     * @param os 输出流
+     * @return 解压输出流，close 时关闭 os
+     */
+    OutputStream decompress(OutputStream os) throws IOException;
+
+}
@@ -0,0 +1,261 @@
+package com.lyyzoo.fastdfs.client;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterOutputStream;
+import java.util.zip.ZipException;
+
+/**
+ * 压缩编解码器注册表
+ * <p>
+ */
+public class CompressionCodecs {
+    /**
+     * gzip
+     */
+    public static final CompressionCodec GZIP = new GzipCodec();
+    /**
+     * deflate(zlib)
+     */
+    public static final CompressionCodec DEFLATE = new DeflateCodec();
+    /**
+     * 已注册的编解码器
+     */
+    private static final Map<String, CompressionCodec> CODECS = new ConcurrentHashMap<>();
+
+    static {
+        register(GZIP);
+        register(DEFLATE);
+    }
+
+    private CompressionCodecs(){}
+
+    /**
+     * 注册编解码器
+     *
+     * @param codec 编解码器
+     */
+    public static void register(CompressionCodec codec) {
+        CODECS.put(codec.getName(), codec);
+    }
+
+    /**
+     * 根据名称获取编解码器
+     *
+     * @param name 名称
+     * @return 编解码器，未注册返回 null
+     */
+    public static CompressionCodec get(String name) {
+        return name == null ? null : CODECS.get(name);
+    }
+
+    private static class GzipCodec implements CompressionCodec {
+        @Override
+        public String getName() {
+            return "gzip";
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return "gzip";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream os) throws IOException {
+            return new GZIPOutputStream(os, 8192);
+        }
+
+        @Override
+        public OutputStream decompress(OutputStream os) {
+            return new GzipInflaterOutputStream(os);
+        }
+    }
+
+    private static class DeflateCodec implements CompressionCodec {
+        @Override
+        public String getName() {
+            return "deflate";
+        }
+
+        @Override
+        public String getContentEncoding() {
+            return "deflate";
+        }
+
+        @Override
+        public OutputStream compress(OutputStream os) {
+            return new DeflaterOutputStream(os, new Deflater(Deflater.DEFAULT_COMPRESSION), 8192, false) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        def.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        public OutputStream decompress(OutputStream os) {
+            return new InflaterOutputStream(os);
+        }
+    }
+
+    /**
+     * 解压 gzip 的输出流. 解析 gzip 头之后使用 Inflater 解压，结束时校验 CRC32 和长度.
+     */
+    private static class GzipInflaterOutputStream extends FilterOutputStream {
+        private static final int FHCRC = 2;
+        private static final int FEXTRA = 4;
+        private static final int FNAME = 8;
+        private static final int FCOMMENT = 16;
+
+        private final Inflater inflater = new Inflater(true);
+        private final CRC32 crc = new CRC32();
+        private final byte[] buffer = new byte[8192];
+        /**
+         * gzip 头和尾，头最多保存到解析完成
+         */
+        private byte[] pending = new byte[64];
+        private int pendingLength;
+        private boolean headerDone;
+        private boolean closed;
+
+        GzipInflaterOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!headerDone) {
+                append(b, off, len);
+                int headerLength = parseHeader();
+                if (headerLength < 0) {
+                    return;
+                }
+                headerDone = true;
+                byte[] rest = pending;
+                int restLength = pendingLength - headerLength;
+                pendingLength = 0;
+                inflate(rest, headerLength, restLength);
+                return;
+            }
+            inflate(b, off, len);
+        }
+
+        private void inflate(byte[] b, int off, int len) throws IOException {
+            if (inflater.finished()) {
+                append(b, off, len);
+                return;
+            }
+            inflater.setInput(b, off, len);
+            try {
+                while (!inflater.finished() && !inflater.needsInput()) {
+                    int n = inflater.inflate(buffer);
+                    if (n > 0) {
+                        crc.update(buffer, 0, n);
+                        out.write(buffer, 0, n);
+                    } else if (inflater.needsDictionary()) {
+                        throw new ZipException("gzip stream needs dictionary");
+                    }
+                }
+            } catch (DataFormatException e) {
+                throw new ZipException(e.getMessage());
+            }
+            if (inflater.finished() && inflater.getRemaining() > 0) {
+                // 剩余部分是 gzip 尾
+                append(b, off + len - inflater.getRemaining(), inflater.getRemaining());
+            }
+        }
+
+        private void append(byte[] b, int off, int len) {
+            if (pendingLength + len > pending.length) {
+                byte[] grown = new byte[Math.max(pending.length * 2, pendingLength + len)];
+                System.arraycopy(pending, 0, grown, 0, pendingLength);
+                pending = grown;
+            }
+            System.arraycopy(b, off, pending, pendingLength, len);
+            pendingLength += len;
+        }
+
+        /**
+         * @return gzip 头长度，数据不足返回 -1
+         */
+        private int parseHeader() throws IOException {
+            if (pendingLength < 10) {
+                return -1;
+            }
+            if ((pending[0] & 0xFF) != 0x1F || (pending[1] & 0xFF) != 0x8B || pending[2] != 8) {
+                throw new ZipException("not in gzip format");
+            }
+            int flags = pending[3] & 0xFF;
+            int pos = 10;
+            if ((flags & FEXTRA) != 0) {
+                if (pendingLength < pos + 2) {
+                    return -1;
+                }
+                pos += 2 + ((pending[pos] & 0xFF) | ((pending[pos + 1] & 0xFF) << 8));
+            }
+            if ((flags & FNAME) != 0) {
+                pos = skipZeroTerminated(pos);
+            }
+            if (pos >= 0 && (flags & FCOMMENT) != 0) {
+                pos = skipZeroTerminated(pos);
+            }
+            if (pos >= 0 && (flags & FHCRC) != 0) {
+                pos += 2;
+            }
+            return pos < 0 || pos > pendingLength ? -1 : pos;
+        }
+
+        private int skipZeroTerminated(int pos) {
+            while (pos < pendingLength) {
+                if (pending[pos++] == 0) {
+                    return pos;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            try {
+                if (!inflater.finished() || pendingLength < 8) {
+                    throw new ZipException("unexpected end of gzip stream");
+                }
+                long expectedCrc = readIntLE(0) & 0xFFFFFFFFL;
+                long expectedSize = readIntLE(4) & 0xFFFFFFFFL;
+                if (expectedCrc != crc.getValue() || expectedSize != (inflater.getBytesWritten() & 0xFFFFFFFFL)) {
+                    throw new ZipException("corrupt gzip trailer");
+                }
+            } finally {
+                inflater.end();
+                out.close();
+            }
+        }
+
+        private int readIntLE(int pos) {
+            return (pending[pos] & 0xFF) | ((pending[pos + 1] & 0xFF) << 8)
+                    | ((pending[pos + 2] & 0xFF) << 16) | ((pending[pos + 3] & 0xFF) << 24);
+        }
+    }
+}
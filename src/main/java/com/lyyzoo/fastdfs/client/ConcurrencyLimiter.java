@@ -0,0 +1,173 @@
+package com.lyyzoo.fastdfs.client;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 自适应并发限制，放在 TrackerServer 连接池之前.
+ * <p>
+ * 参考 Netflix concurrency-limits 的 Gradient 算法：长期 RTT 是没有排队时的基准，短期 RTT 是最近一个窗口的平均值，
+ * 两者的比值(梯度)小于 1 说明请求开始排队，按比例收缩上限；比值恢复到 1 时上限每个窗口增加约 sqrt(limit)，
+ * 自动恢复. 请求失败(连接失败、超时)时按 backoffRatio 乘性减小. <br>
+ * 超过上限的请求立即拒绝，而不是在 borrowObject 中无限排队占住容器线程.
+ */
+public class ConcurrencyLimiter {
+    /**
+     * 每个窗口的样本数
+     */
+    private static final int WINDOW_SIZE = 10;
+    /**
+     * 长期 RTT 的平滑系数，约等于最近 600 个样本的平均
+     */
+    private static final double LONG_RTT_ALPHA = 2.0 / (600 + 1);
+    /**
+     * 允许短期 RTT 高于长期 RTT 的倍数，在此范围内不收缩
+     */
+    private static final double RTT_TOLERANCE = 1.5;
+    /**
+     * 新上限的平滑系数
+     */
+    private static final double SMOOTHING = 0.2;
+
+    private volatile boolean enabled = true;
+    private volatile int minLimit = 4;
+    private volatile int maxLimit = 200;
+    private volatile double backoffRatio = 0.9;
+
+    private volatile double limit = 20;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final LongAdder rejected = new LongAdder();
+
+    private double longRtt;
+    private long windowRttSum;
+    private int windowCount;
+    private int windowMaxInFlight;
+
+    /**
+     * 尝试获取许可
+     *
+     * @return 获取到许可时返回当前在途数(含本次)，超过上限返回 -1；未启用时返回 0 且不需要释放
+     */
+    public int tryAcquire() {
+        if (!enabled) {
+            return 0;
+        }
+        while (true) {
+            int current = inFlight.get();
+            if (current >= (int) limit) {
+                rejected.increment();
+                return -1;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                return current + 1;
+            }
+        }
+    }
+
+    /**
+     * 释放许可并记录样本
+     *
+     * @param inFlightAtStart tryAcquire 的返回值
+     * @param rttNanos 操作耗时
+     * @param dropped 是否因为连接失败、超时等原因失败
+     */
+    public void release(int inFlightAtStart, long rttNanos, boolean dropped) {
+        if (inFlightAtStart <= 0) {
+            return;
+        }
+        inFlight.decrementAndGet();
+        synchronized (this) {
+            if (dropped) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                return;
+            }
+            windowRttSum += rttNanos;
+            windowCount++;
+            windowMaxInFlight = Math.max(windowMaxInFlight, inFlightAtStart);
+            if (windowCount < WINDOW_SIZE) {
+                return;
+            }
+            double shortRtt = (double) windowRttSum / windowCount;
+            int maxInFlight = windowMaxInFlight;
+            windowRttSum = 0;
+            windowCount = 0;
+            windowMaxInFlight = 0;
+
+            longRtt = longRtt == 0 ? shortRtt : longRtt + (shortRtt - longRtt) * LONG_RTT_ALPHA;
+            // 负载下降后基准 RTT 偏高，快速向短期 RTT 靠拢，否则恢复后还会持续增长
+            if (longRtt / shortRtt > 2) {
+                longRtt *= 0.95;
+            }
+            // 在途请求远小于上限时说明不是限制的瓶颈，不增长
+            if (maxInFlight < limit / 2) {
+                return;
+            }
+
+            double gradient = Math.max(0.5, Math.min(1.0, RTT_TOLERANCE * longRtt / shortRtt));
+            double newLimit = limit * gradient + Math.sqrt(limit);
+            limit = Math.max(minLimit, Math.min(maxLimit, limit * (1 - SMOOTHING) + newLimit * SMOOTHING));
+        }
+    }
+
+    /**
+     * @return 当前上限
+     */
+    public int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * @return 在途请求数
+     */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * @return 累计拒绝次数
+     */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getMinLimit() {
+        return minLimit;
+    }
+
+    public void setMinLimit(int minLimit) {
+        this.minLimit = Math.max(1, minLimit);
+        this.limit = Math.max(this.minLimit, limit);
+    }
+
+    public int getMaxLimit() {
+        return maxLimit;
+    }
+
+    public void setMaxLimit(int maxLimit) {
+        this.maxLimit = Math.max(minLimit, maxLimit);
+        this.limit = Math.min(this.maxLimit, limit);
+    }
+
+    /**
+     * @param initialLimit 初始上限
+     */
+    public void setInitialLimit(int initialLimit) {
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    public double getBackoffRatio() {
+        return backoffRatio;
+    }
+
+    public void setBackoffRatio(double backoffRatio) {
+        this.backoffRatio = backoffRatio;
+    }
+}
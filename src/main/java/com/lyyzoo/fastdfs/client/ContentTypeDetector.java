@@ -0,0 +1,278 @@
+package com.lyyzoo.fastdfs.client;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 根据文件头(魔数)识别文件类型.
+ * <p>
+ * 所有魔数放在一棵前缀树中，识别时只需遍历一次文件头，取匹配到的最长签名. 签名中可以包含通配字节，
+ * 如 mp4 的 ftyp 从第 4 个字节开始. 魔数较短的类型(bmp、mp3)再校验头部字段，避免文本等文件被误识别. <br>
+ * 识别时通过 mark/reset 预读文件头，不会消费或复制输入流.
+ */
+public class ContentTypeDetector {
+    /**
+     * 预读的字节数
+     */
+    public static final int PEEK_SIZE = 512;
+    /**
+     * 纯文本
+     */
+    public static final ContentType TEXT = new ContentType("text/plain", "txt");
+    /**
+     * 通配字节
+     */
+    private static final int ANY = -1;
+    /**
+     * 魔数前缀树
+     */
+    private static final Node ROOT = new Node();
+    /**
+     * 有魔数的文件后缀
+     */
+    private static final Set<String> KNOWN_SUFFIXES = new HashSet<>();
+
+    static {
+        register(new ContentType("image/png", "png"), 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A);
+        register(new ContentType("image/gif", "gif"), 'G', 'I', 'F', '8', '7', 'a');
+        register(new ContentType("image/gif", "gif"), 'G', 'I', 'F', '8', '9', 'a');
+        register(new ContentType("image/jpeg", "jpg", "jpeg"), 0xFF, 0xD8, 0xFF);
+        register(new ContentType("image/bmp", "bmp"), ContentTypeDetector::isBmpHeader, 'B', 'M');
+        register(new ContentType("image/x-ico", "ico"), 0x00, 0x00, 0x01, 0x00);
+
+        // docx/xlsx/pptx 都是 zip 格式
+        ContentType zip = new ContentType("application/zip", "zip", "docx", "xlsx", "pptx");
+        register(zip, 'P', 'K', 0x03, 0x04);
+        register(zip, 'P', 'K', 0x05, 0x06);
+        register(zip, 'P', 'K', 0x07, 0x08);
+        register(new ContentType("application/x-rar", "rar"), 'R', 'a', 'r', '!', 0x1A, 0x07);
+        register(new ContentType("application/pdf", "pdf"), '%', 'P', 'D', 'F');
+        // doc/xls/ppt 都是 OLE2 复合文档
+        register(new ContentType("application/x-ole-storage", "doc", "xls", "ppt"),
+                0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1);
+
+        register(new ContentType("video/mp4", "mp4"), ANY, ANY, ANY, ANY, 'f', 't', 'y', 'p');
+        register(new ContentType("video/x-flv", "flv"), 'F', 'L', 'V', 0x01);
+        ContentType mp3 = new ContentType("audio/mpeg", "mp3");
+        register(mp3, ContentTypeDetector::isId3Header, 'I', 'D', '3');
+        register(mp3, ContentTypeDetector::isMpegFrameHeader, 0xFF, ANY);
+
+        KNOWN_SUFFIXES.addAll(TEXT.suffixes);
+    }
+
+    private ContentTypeDetector(){}
+
+    /**
+     * 返回支持 mark/reset 的输入流，已支持则直接返回
+     *
+     * @param is 输入流
+     * @return 支持 mark/reset 的输入流
+     */
+    public static InputStream markable(InputStream is) {
+        if (is == null || is.markSupported()) {
+            return is;
+        }
+        return new BufferedInputStream(is, PEEK_SIZE * 16);
+    }
+
+    /**
+     * 预读文件头识别文件类型，读取后重置输入流
+     *
+     * @param is 支持 mark/reset 的输入流，参考 {@link #markable(InputStream)}
+     * @return 文件类型，无法识别返回 null
+     */
+    public static ContentType detect(InputStream is) throws IOException {
+        if (!is.markSupported()) {
+            throw new IOException("input stream does not support mark/reset");
+        }
+        byte[] head = new byte[PEEK_SIZE];
+        is.mark(PEEK_SIZE);
+        int length = 0;
+        try {
+            int len;
+            while (length < PEEK_SIZE && (len = is.read(head, length, PEEK_SIZE - length)) > 0) {
+                length += len;
+            }
+        } finally {
+            is.reset();
+        }
+        return detect(head, length);
+    }
+
+    /**
+     * 根据文件头识别文件类型
+     *
+     * @param head 文件头
+     * @param length 文件头长度
+     * @return 文件类型，无法识别返回 null
+     */
+    public static ContentType detect(byte[] head, int length) {
+        Match match = new Match();
+        match(ROOT, head, 0, length, match);
+        if (match.type != null) {
+            return match.type;
+        }
+        return isText(head, length) ? TEXT : null;
+    }
+
+    /**
+     * 检查文件内容与后缀是否一致. 没有魔数的后缀不检查.
+     *
+     * @param type 识别出的文件类型
+     * @param suffix 文件后缀(小写)
+     * @return 一致返回 true
+     */
+    public static boolean matches(ContentType type, String suffix) {
+        if (suffix == null || !KNOWN_SUFFIXES.contains(suffix)) {
+            return true;
+        }
+        return type != null && type.suffixes.contains(suffix);
+    }
+
+    private static void register(ContentType type, int... signature) {
+        register(type, null, signature);
+    }
+
+    /**
+     * @param check 签名匹配后再校验文件头，为 null 时不校验
+     */
+    private static void register(ContentType type, Check check, int... signature) {
+        Node node = ROOT;
+        for (int b : signature) {
+            if (b == ANY) {
+                if (node.any == null) {
+                    node.any = new Node();
+                }
+                node = node.any;
+            } else {
+                if (node.children[b] == null) {
+                    node.children[b] = new Node();
+                }
+                node = node.children[b];
+            }
+        }
+        node.type = type;
+        node.check = check;
+        KNOWN_SUFFIXES.addAll(type.suffixes);
+    }
+
+    /**
+     * 深度优先匹配，记录最长的签名
+     */
+    private static void match(Node node, byte[] head, int depth, int length, Match match) {
+        if (node.type != null && depth > match.depth && (node.check == null || node.check.test(head, length))) {
+            match.type = node.type;
+            match.depth = depth;
+        }
+        if (depth >= length) {
+            return;
+        }
+        Node child = node.children[head[depth] & 0xFF];
+        if (child != null) {
+            match(child, head, depth + 1, length, match);
+        }
+        if (node.any != null) {
+            match(node.any, head, depth + 1, length, match);
+        }
+    }
+
+    /**
+     * BITMAPFILEHEADER 之后的信息头大小是已知的几种之一：
+     * BITMAPCOREHEADER(12)、OS/2 2.x(16、64)、BITMAPINFOHEADER(40)、V2/V3(52、56)、V4(108)、V5(124)
+     */
+    private static boolean isBmpHeader(byte[] head, int length) {
+        if (length < 18) {
+            return false;
+        }
+        long size = (head[14] & 0xFF) | (head[15] & 0xFF) << 8 | (head[16] & 0xFF) << 16 | (long) (head[17] & 0xFF) << 24;
+        return size == 12 || size == 16 || size == 40 || size == 52 || size == 56 || size == 64 || size == 108 || size == 124;
+    }
+
+    /**
+     * ID3v2 标签头：主版本 2~4，次版本不是 0xFF，标签大小是 4 个 7 位字节(syncsafe)
+     */
+    private static boolean isId3Header(byte[] head, int length) {
+        if (length < 10 || head[3] < 2 || head[3] > 4 || (head[4] & 0xFF) == 0xFF) {
+            return false;
+        }
+        return (head[6] & 0x80) == 0 && (head[7] & 0x80) == 0 && (head[8] & 0x80) == 0 && (head[9] & 0x80) == 0;
+    }
+
+    /**
+     * MPEG 音频帧头：11 位帧同步(0xFFE0)，版本和层不是保留值，比特率和采样率索引有效
+     */
+    private static boolean isMpegFrameHeader(byte[] head, int length) {
+        if (length < 3 || (head[0] & 0xFF) != 0xFF || (head[1] & 0xE0) != 0xE0) {
+            return false;
+        }
+        int version = (head[1] >> 3) & 0x03;
+        int layer = (head[1] >> 1) & 0x03;
+        int bitrate = (head[2] >> 4) & 0x0F;
+        int sampleRate = (head[2] >> 2) & 0x03;
+        return version != 0x01 && layer != 0x00 && bitrate != 0x0F && sampleRate != 0x03;
+    }
+
+    /**
+     * 不含 NUL 和除常用空白外的控制字符，认为是文本. 空文件也是文本
+     */
+    private static boolean isText(byte[] head, int length) {
+        for (int i = 0; i < length; i++) {
+            int b = head[i] & 0xFF;
+            if (b < 0x20 && b != '\t' && b != '\n' && b != '\r' && b != '\f' && b != 0x1B) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 文件类型
+     */
+    public static class ContentType {
+        /**
+         * MIME 类型
+         */
+        private final String mimeType;
+        /**
+         * 该类型对应的文件后缀
+         */
+        private final Set<String> suffixes;
+
+        ContentType(String mimeType, String... suffixes) {
+            this.mimeType = mimeType;
+            this.suffixes = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(suffixes)));
+        }
+
+        public String getMimeType() {
+            return mimeType;
+        }
+
+        public Set<String> getSuffixes() {
+            return suffixes;
+        }
+    }
+
+    /**
+     * 文件头校验
+     */
+    private interface Check {
+        boolean test(byte[] head, int length);
+    }
+
+    private static class Node {
+        private final Node[] children = new Node[256];
+        private Node any;
+        private ContentType type;
+        private Check check;
+    }
+
+    private static class Match {
+        private ContentType type;
+        private int depth;
+    }
+}
@@ -32,7 +32,37 @@ public enum ErrorCode {
 
     FILE_TYPE_ERROR_VIDEO("error.file.type.video", "音频类型错误"),
 
-    FILE_TYPE_ERROR_COMPRESS("error.file.type.compress", "压缩文件类型错误");
+    FILE_TYPE_ERROR_COMPRESS("error.file.type.compress", "压缩文件类型错误"),
+
+    FILE_TYPE_ERROR_CONTENT("error.file.type.content", "文件内容与类型不符"),
+
+    FILE_IMAGE_PROCESS_FAILED("error.fastdfs.file_image_process_failed", "图片处理失败"),
+
+    FILE_SERVER_OVERLOADED("error.fastdfs.file_server_overloaded", "文件服务器繁忙，请稍后重试"),
+
+    FILE_NOT_APPENDER("error.fastdfs.file_not_appender", "文件不可修改"),
+
+    FILE_UPDATE_FAILED("error.fastdfs.file_update_failed", "修改文件失败"),
+
+    FILE_INDEX_DISABLED("error.fastdfs.file_index_disabled", "文件索引未启用"),
+
+    FILE_INDEX_QUERY_INVALID("error.fastdfs.file_index_query_invalid", "查询条件错误"),
+
+    FILE_EXPIRY_DISABLED("error.fastdfs.file_expiry_disabled", "文件过期清理未启用"),
+
+    FILE_RATE_LIMITED("error.fastdfs.file_rate_limited", "请求过于频繁，请稍后重试"),
+
+    THROTTLE_RULE_INVALID("error.fastdfs.throttle_rule_invalid", "限流规则错误"),
+
+    FILE_TOKEN_INVALID("error.fastdfs.file_token_invalid", "访问地址无效或已过期"),
+
+    FILE_THUMBNAIL_INVALID("error.fastdfs.file_thumbnail_invalid", "不支持的缩略图尺寸或质量"),
+
+    FILE_IMAGE_TOO_LARGE("error.fastdfs.file_image_too_large", "图片尺寸超过上限"),
+
+    FILE_DESCRIPTION_RESERVED("error.fastdfs.file_description_reserved", "描述信息不能使用保留的名称"),
+
+    ADMIN_FORBIDDEN("error.fastdfs.admin_forbidden", "没有管理权限");
 
 
     public String CODE;
@@ -0,0 +1,471 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 文件过期清理.
+ * <p>
+ * 上传时带有过期时间(描述信息 expire_at)的文件记录在本地的过期索引 expiry.log 中，重启时重放. 到期时间放在分层时间轮 {@link TimingWheel} 中，
+ * 后台线程每秒转动一次，到期的文件进入待删除队列. <br>
+ * 删除只在低峰时段(window，如 01:00-06:00，为空时不限制)进行，每秒最多删除 deletesPerSecond 个，文件服务器繁忙或连接失败时停止本轮，
+ * 失败的按指数退避重试，超过 maxAttempts 次放弃. <br>
+ * 孤儿文件(业务事务失败后没有被引用的文件)由 {@link FastDFSClient#reconcileOrphans} 找出后同样放入这里删除.
+ */
+public class ExpirySweeper {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(ExpirySweeper.class);
+
+    private static final String EXPIRY_FILE = "expiry.log";
+    private static final String PUT = "+";
+    private static final String REMOVE = "-";
+
+    private static final long TICK_MILLIS = 1000;
+    private static final int COMPACT_MIN_RECORDS = 1000;
+    /**
+     * 最长重试间隔
+     */
+    private static final long MAX_RETRY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * 删除文件
+     */
+    public interface Sink {
+        /**
+         * @param fileId 文件ID
+         * @throws FastDFSException 删除失败
+         */
+        void delete(String fileId) throws FastDFSException;
+    }
+
+    private final Sink sink;
+
+    /**
+     * 过期索引目录，必须配置
+     */
+    private volatile File directory;
+    /**
+     * 每秒最多删除的文件数
+     */
+    private volatile int deletesPerSecond = 20;
+    /**
+     * 允许删除的时段，为空时不限制
+     */
+    private volatile LocalTime windowStart;
+    private volatile LocalTime windowEnd;
+    /**
+     * 删除失败的最大尝试次数
+     */
+    private volatile int maxAttempts = 5;
+    /**
+     * 第一次重试的等待时间(毫秒)，之后每次翻倍
+     */
+    private volatile long retryBaseMillis = 60000;
+
+    /**
+     * 以下由 this 同步
+     */
+    private final Map<String, Expiry> expiries = new HashMap<>();
+    private final Set<String> due = new LinkedHashSet<>();
+    private TimingWheel wheel;
+    private Writer writer;
+    private long records;
+
+    private ScheduledExecutorService ticker;
+    private volatile boolean started;
+
+    private final AtomicLong deleted = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong abandoned = new AtomicLong();
+
+    public ExpirySweeper(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * 加载过期索引并开始清理. 重复调用无效.
+     *
+     * @throws IOException 目录不可写
+     * @throws IllegalStateException 没有配置过期索引目录
+     */
+    public synchronized void start() throws IOException {
+        if (started) {
+            return;
+        }
+        if (directory == null) {
+            throw new IllegalStateException("expiry directory is not configured");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create expiry directory " + directory);
+        }
+        wheel = new TimingWheel(TICK_MILLIS, System.currentTimeMillis());
+        load();
+        writer = open();
+        if (needsCompact()) {
+            compact();
+        }
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fastdfs-expiry-sweeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        ticker.scheduleWithFixedDelay(this::tick, TICK_MILLIS, TICK_MILLIS, TimeUnit.MILLISECONDS);
+        started = true;
+        if (logger.isInfoEnabled()) {
+            logger.info("expiry sweeper started at {}, {} files scheduled, {} due", directory, expiries.size(), due.size());
+        }
+    }
+
+    /**
+     * 停止清理，过期索引保留到下次启动
+     */
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        ticker.shutdownNow();
+        try {
+            writer.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        writer = null;
+        expiries.clear();
+        due.clear();
+    }
+
+    /**
+     * 设置文件的过期时间，已设置的覆盖
+     *
+     * @param fileId 文件ID
+     * @param expireAt 过期时间(毫秒)
+     */
+    public void schedule(String fileId, long expireAt) {
+        if (!started || fileId == null) {
+            return;
+        }
+        synchronized (this) {
+            expiries.put(fileId, new Expiry(expireAt));
+            if (!wheel.add(fileId, expireAt)) {
+                due.add(fileId);
+            }
+            write(PUT + "\t" + fileId + "\t" + expireAt);
+        }
+    }
+
+    /**
+     * 取消文件的过期时间，如文件已删除或已被业务引用
+     *
+     * @param fileId 文件ID
+     */
+    public void cancel(String fileId) {
+        if (!started || fileId == null) {
+            return;
+        }
+        synchronized (this) {
+            if (expiries.remove(fileId) != null) {
+                due.remove(fileId);
+                write(REMOVE + "\t" + fileId);
+            }
+        }
+    }
+
+    /**
+     * @param fileId 文件ID
+     * @return 过期时间(毫秒)，没有设置时返回 -1
+     */
+    public synchronized long getExpireAt(String fileId) {
+        Expiry expiry = expiries.get(fileId);
+        return expiry == null ? -1 : expiry.expireAt;
+    }
+
+    /**
+     * 转动时间轮，在允许的时段内删除一批到期的文件
+     */
+    private void tick() {
+        try {
+            List<String> batch = poll();
+            for (int i = 0; i < batch.size(); i++) {
+                String fileId = batch.get(i);
+                try {
+                    sink.delete(fileId);
+                    deleted.incrementAndGet();
+                    cancel(fileId);
+                } catch (FastDFSException e) {
+                    failed.incrementAndGet();
+                    retry(fileId, e);
+                    if (ErrorCode.FILE_SERVER_OVERLOADED.CODE.equals(e.getCode())
+                            || ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE.equals(e.getCode())) {
+                        // 文件服务器繁忙或不可用，本轮剩下的放回队列
+                        synchronized (this) {
+                            due.addAll(batch.subList(i + 1, batch.size()));
+                        }
+                        break;
+                    }
+                }
+            }
+        } catch (RuntimeException e) {
+            // 异常会终止定时任务
+            logger.error("expiry sweep failed", e);
+        }
+    }
+
+    /**
+     * @return 本轮要删除的文件
+     */
+    private synchronized List<String> poll() {
+        if (!started) {
+            return new ArrayList<>();
+        }
+        long now = System.currentTimeMillis();
+        wheel.advance(now, fileId -> {
+            Expiry expiry = expiries.get(fileId);
+            return expiry == null ? TimingWheel.NONE : expiry.expireAt;
+        }, due::add);
+        List<String> batch = new ArrayList<>();
+        if (due.isEmpty() || !isInWindow(LocalTime.now())) {
+            return batch;
+        }
+        Iterator<String> iterator = due.iterator();
+        while (iterator.hasNext() && batch.size() < deletesPerSecond) {
+            String fileId = iterator.next();
+            iterator.remove();
+            Expiry expiry = expiries.get(fileId);
+            // 已取消或已延期
+            if (expiry != null && expiry.expireAt <= now) {
+                batch.add(fileId);
+            }
+        }
+        return batch;
+    }
+
+    private synchronized void retry(String fileId, FastDFSException e) {
+        Expiry expiry = expiries.get(fileId);
+        if (expiry == null) {
+            return;
+        }
+        expiry.attempts++;
+        if (expiry.attempts >= maxAttempts) {
+            abandoned.incrementAndGet();
+            logger.warn("give up deleting expired file {} after {} attempts: {}", fileId, expiry.attempts, e.getMessage());
+            cancel(fileId);
+            return;
+        }
+        // 重试不写入过期索引，重启后立即重试
+        expiry.expireAt = System.currentTimeMillis() + Math.min(MAX_RETRY_MILLIS, retryBaseMillis << (expiry.attempts - 1));
+        wheel.add(fileId, expiry.expireAt);
+    }
+
+    /**
+     * @return 是否在允许删除的时段内
+     */
+    boolean isInWindow(LocalTime time) {
+        LocalTime start = windowStart;
+        LocalTime end = windowEnd;
+        if (start == null || end == null) {
+            return true;
+        }
+        if (!start.isAfter(end)) {
+            return !time.isBefore(start) && time.isBefore(end);
+        }
+        // 跨越午夜，如 22:00-06:00
+        return !time.isBefore(start) || time.isBefore(end);
+    }
+
+    private void load() throws IOException {
+        File file = new File(directory, EXPIRY_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records++;
+                String[] parts = line.split("\t", -1);
+                try {
+                    if (PUT.equals(parts[0]) && parts.length == 3) {
+                        expiries.put(parts[1], new Expiry(Long.parseLong(parts[2])));
+                    } else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+                        expiries.remove(parts[1]);
+                    } else {
+                        logger.warn("skip invalid expiry record: {}", line);
+                    }
+                } catch (NumberFormatException e) {
+                    logger.warn("skip invalid expiry record: {}", line);
+                }
+            }
+        }
+        for (Map.Entry<String, Expiry> entry : expiries.entrySet()) {
+            if (!wheel.add(entry.getKey(), entry.getValue().expireAt)) {
+                due.add(entry.getKey());
+            }
+        }
+    }
+
+    private Writer open() throws IOException {
+        return new OutputStreamWriter(new FileOutputStream(new File(directory, EXPIRY_FILE), true), StandardCharsets.UTF_8);
+    }
+
+    private void write(String record) {
+        try {
+            writer.write(record + "\n");
+            writer.flush();
+            records++;
+            if (needsCompact()) {
+                compact();
+            }
+        } catch (IOException e) {
+            logger.warn("write expiry index failed: {}", e.getMessage());
+        }
+    }
+
+    private boolean needsCompact() {
+        return records > COMPACT_MIN_RECORDS && records > 2L * expiries.size();
+    }
+
+    /**
+     * 只保留有效记录，写入临时文件后替换
+     */
+    private void compact() throws IOException {
+        File tmp = new File(directory, EXPIRY_FILE + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Expiry> entry : expiries.entrySet()) {
+                out.write(PUT + "\t" + entry.getKey() + "\t" + entry.getValue().expireAt + "\n");
+            }
+        }
+        writer.close();
+        try {
+            Files.move(tmp.toPath(), new File(directory, EXPIRY_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            writer = open();
+        }
+        records = expiries.size();
+    }
+
+    public boolean isStarted() {
+        return started;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public int getDeletesPerSecond() {
+        return deletesPerSecond;
+    }
+
+    public void setDeletesPerSecond(int deletesPerSecond) {
+        this.deletesPerSecond = Math.max(1, deletesPerSecond);
+    }
+
+    /**
+     * @return 允许删除的时段，如 01:00-06:00，不限制时为空
+     */
+    public String getWindow() {
+        return windowStart == null ? null : windowStart + "-" + windowEnd;
+    }
+
+    /**
+     * @param window 允许删除的时段，如 01:00-06:00，可以跨越午夜；为空时不限制
+     * @throws IllegalArgumentException 格式错误
+     */
+    public void setWindow(String window) {
+        if (StringUtils.isBlank(window)) {
+            windowStart = null;
+            windowEnd = null;
+            return;
+        }
+        String[] parts = window.trim().split("-");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("invalid window: " + window);
+        }
+        try {
+            LocalTime start = LocalTime.parse(parts[0].trim());
+            windowEnd = LocalTime.parse(parts[1].trim());
+            windowStart = start;
+        } catch (DateTimeParseException e) {
+            throw new IllegalArgumentException("invalid window: " + window, e);
+        }
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        this.maxAttempts = maxAttempts;
+    }
+
+    public long getRetryBaseMillis() {
+        return retryBaseMillis;
+    }
+
+    public void setRetryBaseMillis(long retryBaseMillis) {
+        this.retryBaseMillis = retryBaseMillis;
+    }
+
+    /**
+     * @return 等待过期和待删除的文件数，已删除、失败、放弃的次数
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("started", started);
+        synchronized (this) {
+            snapshot.put("scheduled", expiries.size());
+            snapshot.put("due", due.size());
+        }
+        snapshot.put("deleted", deleted.get());
+        snapshot.put("failed", failed.get());
+        snapshot.put("abandoned", abandoned.get());
+        snapshot.put("window", getWindow());
+        snapshot.put("deletesPerSecond", deletesPerSecond);
+        return snapshot;
+    }
+
+    /**
+     * 过期时间和删除失败次数
+     */
+    private static class Expiry {
+        private long expireAt;
+        private int attempts;
+
+        Expiry(long expireAt) {
+            this.expireAt = expireAt;
+        }
+    }
+}
@@ -1,27 +1,43 @@
 package com.lyyzoo.fastdfs.client;
 
 import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.io.IOUtils;
 import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
 import org.csource.common.MyException;
 import org.csource.common.NameValuePair;
 import org.csource.fastdfs.FileInfo;
 import org.csource.fastdfs.ProtoCommon;
 import org.csource.fastdfs.StorageClient1;
-import org.csource.fastdfs.TrackerServer;
+import org.csource.fastdfs.UploadCallback;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.web.multipart.MultipartFile;
 
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
 import java.net.URLEncoder;
-import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.zip.CRC32;
 
 /**
  * FastDFS Java API. 文件上传下载主类.
@@ -53,14 +69,102 @@ public class FastDFSClient {
     /**
      * 文件名称Key
      */
-    private static final String FILENAME = "filename";
+    public static final String FILENAME = "filename";
+    /**
+     * 文件内容类型Key，上传时根据文件头识别
+     */
+    public static final String CONTENT_TYPE = "content_type";
+    /**
+     * 文件过期时间Key，值为毫秒时间戳，到期后由 {@link ExpirySweeper} 删除
+     */
+    public static final String EXPIRE_AT = "expire_at";
+    /**
+     * 由服务端设置的描述信息，调用方不能上传或修改，见 {@link #checkDescriptions(Map)}
+     */
+    private static final Set<String> RESERVED_DESCRIPTIONS = new HashSet<>(Arrays.asList(FILENAME, CONTENT_TYPE, EXPIRE_AT,
+            TransparentCompressor.COMPRESSION, TransparentCompressor.UNCOMPRESSED_SIZE,
+            ImageOptimizer.ORIGINAL_SIZE, ImageOptimizer.OPTIMIZED_SIZE));
     /**
      * 文件最大的大小
      */
-    private int maxFileSize = 100 * 1000 * 1000;
+    private long maxFileSize = 100 * 1000 * 1000L;
+    /**
+     * 可以读入内存的最大文件大小
+     */
+    private static final long MAX_ARRAY_SIZE = Integer.MAX_VALUE - 8;
+    /**
+     * 超过该大小的文件流式上传和下载，不在内存中缓存整个文件
+     */
+    private int streamThreshold = 16 * 1024 * 1024;
+    /**
+     * 大小未知时追加、修改 appender 文件的分段大小
+     */
+    private static final int UPDATE_CHUNK_SIZE = 1024 * 1024;
+    /**
+     * 上传时是否检查文件内容与后缀一致
+     */
+    private boolean contentCheck = true;
+    /**
+     * ZIP 打包下载
+     */
+    private ZipArchiveWriter zipArchiveWriter;
+    /**
+     * 缩略图
+     */
+    private ImageThumbnailer imageThumbnailer;
+    /**
+     * 上传图片优化
+     */
+    private ImageOptimizer imageOptimizer = new ImageOptimizer();
+    /**
+     * 透明压缩
+     */
+    private TransparentCompressor transparentCompressor = new TransparentCompressor();
+    /**
+     * Storage 操作模板
+     */
+    private StorageExecutor storageExecutor = new StorageExecutor();
+    /**
+     * 上传的组选择策略，为空时由 Tracker 选择
+     */
+    private GroupSelector groupSelector;
+    /**
+     * 多集群
+     */
+    private FastDFSClusters clusters = FastDFSClusters.getInstance();
+    /**
+     * 传输缓冲区池
+     */
+    private BufferPool bufferPool = BufferPool.getInstance();
+    /**
+     * 上传暂存区
+     */
+    private UploadSpool uploadSpool;
+    /**
+     * 本地文件索引
+     */
+    private FileIndex fileIndex = new FileIndex();
+    /**
+     * 过期文件清理
+     */
+    private ExpirySweeper expirySweeper;
 
     public FastDFSClient() {
         initExt();
+        zipArchiveWriter = new ZipArchiveWriter(storageExecutor);
+        imageThumbnailer = new ImageThumbnailer(storageExecutor);
+        uploadSpool = new UploadSpool(new UploadSpool.Sink() {
+            @Override
+            public String upload(byte[] content, String suffix, NameValuePair[] nvps) throws FastDFSException {
+                return uploadBytes(content, content.length, suffix, nvps);
+            }
+
+            @Override
+            public void delete(String fileId) throws FastDFSException {
+                deleteFile(fileId);
+            }
+        });
+        expirySweeper = new ExpirySweeper(this::deleteFile);
     }
 
     private void initExt() {
@@ -84,6 +188,9 @@ public class FastDFSClient {
         EXT_MAPS.put("doc", "application/wps-office.doc");
         EXT_MAPS.put("docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document");
         EXT_MAPS.put("txt", "text/plain");
+        EXT_MAPS.put("csv", "text/csv");
+        EXT_MAPS.put("json", "application/json");
+        EXT_MAPS.put("xml", "application/xml");
         // 音频
         EXT_MAPS.put("mp4", "video/mp4");
         EXT_MAPS.put("flv", "video/x-flv");
@@ -110,6 +217,78 @@ public class FastDFSClient {
         return upload(file, descriptions);
     }
 
+    /**
+     * MultipartFile 上传文件
+     *
+     * @param file MultipartFile
+     * @param descriptions 文件描述
+     * @param ttl 存活时间(秒)，到期后自动删除，0 表示不过期
+     * @return 返回上传成功后的文件路径
+     */
+    public String uploadFileWithMultipart(MultipartFile file, Map<String, String> descriptions, long ttl) throws FastDFSException {
+        return upload(file, descriptions, ttl);
+    }
+
+    /**
+     * MultipartFile 上传图片，启用图片优化时先压缩图片再上传. <br>
+     * 描述信息中会记录原图大小 original_size 和优化后的大小 optimized_size. <br>
+     * 不需要优化的图片(未启用、格式不支持、像素数超过上限或不小于 streamThreshold)不读入内存，直接流式上传原图.
+     *
+     * @param file MultipartFile
+     * @param descriptions 文件描述
+     * @return 返回上传成功后的文件路径
+     */
+    public String uploadImageWithMultipart(MultipartFile file, Map<String, String> descriptions) throws FastDFSException {
+        return uploadImageWithMultipart(file, descriptions, 0);
+    }
+
+    /**
+     * MultipartFile 上传图片，见 {@link #uploadImageWithMultipart(MultipartFile, Map)}
+     *
+     * @param file MultipartFile
+     * @param descriptions 文件描述
+     * @param ttl 存活时间(秒)，到期后自动删除，0 表示不过期
+     * @return 返回上传成功后的文件路径
+     */
+    public String uploadImageWithMultipart(MultipartFile file, Map<String, String> descriptions, long ttl) throws FastDFSException {
+        if(file == null || file.isEmpty()){
+            throw new FastDFSException(ErrorCode.FILE_ISNULL.CODE, ErrorCode.FILE_ISNULL.MESSAGE);
+        }
+        String filename = toLocal(file.getOriginalFilename());
+        String suffix = getFilenameSuffix(filename);
+        if (!imageOptimizer.isEnabled() || file.getSize() >= streamThreshold || !acceptsImage(file, suffix)) {
+            return upload(file, descriptions, ttl);
+        }
+
+        // 解码需要完整的图片内容
+        byte[] original;
+        try (InputStream is = file.getInputStream()) {
+            original = IOUtils.toByteArray(is, file.getSize());
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_ISNULL.CODE, ErrorCode.FILE_ISNULL.MESSAGE);
+        }
+        byte[] optimized = imageOptimizer.optimize(original, suffix);
+
+        Map<String, String> reserved = expiry(ttl);
+        reserved.put(ImageOptimizer.ORIGINAL_SIZE, String.valueOf(original.length));
+        reserved.put(ImageOptimizer.OPTIMIZED_SIZE, String.valueOf(optimized.length));
+
+        return upload(new ByteArrayInputStream(optimized), optimized.length, filename, descriptions, reserved);
+    }
+
+    /**
+     * 只读取图片头部，判断是否需要优化
+     */
+    private boolean acceptsImage(MultipartFile file, String suffix) {
+        try (InputStream is = file.getInputStream()) {
+            return imageOptimizer.accepts(suffix, is);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
     /**
      * 根据指定的路径上传文件
      *
@@ -173,12 +352,25 @@ public class FastDFSClient {
      * @throws FastDFSException file为空则抛出异常
      */
     public String upload(MultipartFile file, Map<String, String> descriptions) throws FastDFSException {
+        return upload(file, descriptions, 0);
+    }
+
+    /**
+     * 上传文件
+     *
+     * @param file MultipartFile
+     * @param descriptions 文件描述信息
+     * @param ttl 存活时间(秒)，到期后自动删除，0 表示不过期
+     * @return 文件路径
+     * @throws FastDFSException file为空则抛出异常
+     */
+    public String upload(MultipartFile file, Map<String, String> descriptions, long ttl) throws FastDFSException {
         if(file == null || file.isEmpty()){
             throw new FastDFSException(ErrorCode.FILE_ISNULL.CODE, ErrorCode.FILE_ISNULL.MESSAGE);
         }
         String path = null;
         try {
-            path = upload(file.getInputStream(), file.getOriginalFilename(), descriptions);
+            path = upload(file.getInputStream(), file.getSize(), file.getOriginalFilename(), descriptions, ttl);
         } catch (IOException e) {
             e.printStackTrace();
             throw new FastDFSException(ErrorCode.FILE_ISNULL.CODE, ErrorCode.FILE_ISNULL.MESSAGE);
@@ -206,7 +398,7 @@ public class FastDFSClient {
             filepath = toLocal(filepath);
             String filename = filepath.substring(filepath.lastIndexOf("/") + 1);
 
-            path = upload(is, filename, descriptions);
+            path = upload(is, file.length(), filename, descriptions);
         } catch (FileNotFoundException e) {
             e.printStackTrace();
             throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
@@ -232,26 +424,341 @@ public class FastDFSClient {
         return upload(new ByteArrayInputStream(Base64.decodeBase64(base64)), filename, descriptions);
     }
 
+    /**
+     * 上传文件内容，选择写入的集群和组
+     *
+     * @param fileBuff 文件内容，可以是比内容长的缓冲区
+     * @param length 文件长度
+     * @param suffix 文件后缀
+     * @param nvps 文件描述信息，包含文件名、内容类型和自定义的描述
+     * @return 文件ID
+     * @throws FastDFSException 上传失败
+     */
+    private String uploadBytes(byte[] fileBuff, int length, String suffix, NameValuePair[] nvps) throws FastDFSException {
+        return uploadContent(new UploadContent(fileBuff, length), false, suffix, nvps);
+    }
+
+    /**
+     * 上传文件内容，选择写入的集群和组
+     *
+     * @param content 文件内容
+     * @param appender 是否上传为可追加的文件
+     * @param suffix 文件后缀
+     * @param nvps 文件描述信息，包含文件名、内容类型和自定义的描述
+     * @return 文件ID
+     * @throws FastDFSException 上传失败
+     */
+    private String uploadContent(UploadContent content, boolean appender, String suffix, NameValuePair[] nvps)
+            throws FastDFSException {
+        Map<String, String> descriptions = new HashMap<>();
+        if (nvps != null) {
+            for (NameValuePair nvp : nvps) {
+                descriptions.put(nvp.getName(), nvp.getValue());
+            }
+        }
+        String contentType = descriptions.get(CONTENT_TYPE);
+        String path;
+        try {
+            FastDFSCluster cluster = clusters.place(descriptions);
+            String group = groupSelector == null ? null : groupSelector.select(cluster.getGroupMonitor(), suffix,
+                    contentType != null ? contentType : EXT_MAPS.get(suffix), content.length, descriptions);
+            path = uploadToGroup(cluster, group, content, appender, suffix, nvps);
+            // 选择的组不可用时由 Tracker 重新选择，输入流已经开始发送时不能重新上传
+            if (path == null && group != null && content.isReplayable()) {
+                path = uploadToGroup(cluster, null, content, appender, suffix, nvps);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+        } catch (MyException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+        }
+        if (StringUtils.isBlank(path)) {
+            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+        }
+        fileIndex.put(path, System.currentTimeMillis(), descriptions);
+        if (descriptions.containsKey(EXPIRE_AT)) {
+            scheduleExpiry(path, descriptions.get(EXPIRE_AT));
+        }
+        return path;
+    }
+
+    /**
+     * 上传到指定集群的指定组
+     *
+     * @param cluster 集群
+     * @param group 组名，为空时由 Tracker 选择
+     * @return 文件ID，其它集群带集群前缀，组不存在或没有可用的 Storage 时返回 null
+     */
+    private String uploadToGroup(FastDFSCluster cluster, String group, UploadContent content, boolean appender,
+                                 String suffix, NameValuePair[] nvps) throws FastDFSException, IOException, MyException {
+        String path = null;
+        // 其它集群的目标带集群前缀，组名为空时为 cluster2:
+        String target = cluster.isDefault() ? group : cluster.getName() + FastDFSClusters.SEPARATOR + (group == null ? "" : group);
+        StorageOperation operation = appender ? StorageOperation.UPLOAD_APPENDER : StorageOperation.UPLOAD;
+        // 与 Storage 交互的耗时，没有开始交互时为 -1
+        final long[] exchangeNanos = {-1};
+        boolean overloaded = false;
+        try {
+            path = storageExecutor.execute(operation, target, storageClient -> {
+                long exchangeStart = System.nanoTime();
+                long callerStart = StorageExecutor.getCallerNanos();
+                try {
+                    // 按长度发送，缓冲区可以比文件长
+                    String uploaded = appender
+                            ? storageClient.upload_appender_file1(group, content.length, content, suffix, nvps)
+                            : storageClient.upload_file1(group, content.length, content, suffix, nvps);
+                    storageExecutor.recordBytes(operation, content.length);
+                    return uploaded;
+                } finally {
+                    exchangeNanos[0] = System.nanoTime() - exchangeStart - (StorageExecutor.getCallerNanos() - callerStart);
+                }
+            });
+        } catch (FastDFSException e) {
+            overloaded = ErrorCode.FILE_SERVER_OVERLOADED.CODE.equals(e.getCode());
+            if (group == null || !ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE.equals(e.getCode())) {
+                throw e;
+            }
+            if (logger.isWarnEnabled()) {
+                logger.warn("upload to group {} failed, let tracker choose the group", group);
+            }
+        } finally {
+            // 被并发限制拒绝的上传没有到达 Storage，不影响组的评分；连接不上 Storage 按失败计入
+            if (!overloaded) {
+                String localPath = FastDFSClusters.toLocalId(path);
+                String uploadedGroup = localPath == null ? group : localPath.substring(0, localPath.indexOf(SEPARATOR));
+                cluster.getGroupMonitor().recordUpload(uploadedGroup, Math.max(0, exchangeNanos[0]), content.length, path != null);
+            }
+        }
+        return path;
+    }
+
+    /**
+     * 大小未知的大 appender 文件：先上传已读取的部分，再边读边追加，不在内存中缓存整个文件.
+     * 超过最大文件大小或追加失败时删除已上传的部分.
+     *
+     * @param content 已读取的内容，缓冲区用于读取后续内容
+     * @param is 输入流
+     * @return 文件ID
+     */
+    private String uploadAppender(BufferPool.Lease content, InputStream is, String suffix, NameValuePair[] nvps)
+            throws FastDFSException, IOException {
+        String path = uploadContent(new UploadContent(content.getBuffer(), content.getLength()), true, suffix, nvps);
+        long total = content.getLength();
+        boolean success = false;
+        try {
+            byte[] buffer = content.getBuffer();
+            int length;
+            while ((length = fill(is, buffer)) > 0) {
+                total += length;
+                if (total > maxFileSize) {
+                    throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
+                }
+                UploadContent chunk = new UploadContent(buffer, length);
+                int errno = storageExecutor.execute(StorageOperation.APPEND, path, storageClient -> {
+                    int result = storageClient.append_file1(path, chunk.length, chunk);
+                    storageExecutor.recordBytes(StorageOperation.APPEND, chunk.length);
+                    return result;
+                });
+                if (errno != 0) {
+                    throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("upload file {} by append, {} bytes", path, total);
+            }
+            success = true;
+            return path;
+        } catch (MyException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+        } finally {
+            if (!success) {
+                try {
+                    deleteFile(path);
+                } catch (FastDFSException e) {
+                    logger.warn("delete partially uploaded file {} failed", path);
+                }
+            }
+        }
+    }
+
+    /**
+     * 大小未知的大文件：已读取的部分和剩余的输入流写入临时文件，得到大小后从临时文件作为普通文件上传，
+     * 只占用一次 Storage 连接. 超过最大文件大小时不上传. 临时文件上传后删除.
+     *
+     * @param content 已读取的内容，缓冲区用于读取后续内容
+     * @param is 输入流
+     * @return 文件ID
+     */
+    private String uploadSpilled(BufferPool.Lease content, InputStream is, String suffix, NameValuePair[] nvps)
+            throws FastDFSException, IOException {
+        File spill = File.createTempFile("fastdfs-upload-", ".tmp");
+        try {
+            long total = content.getLength();
+            try (OutputStream os = new FileOutputStream(spill)) {
+                byte[] buffer = content.getBuffer();
+                os.write(buffer, 0, content.getLength());
+                int length;
+                while ((length = fill(is, buffer)) > 0) {
+                    total += length;
+                    if (total > maxFileSize) {
+                        throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
+                    }
+                    os.write(buffer, 0, length);
+                }
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("upload file of unknown size through {}, {} bytes", spill, total);
+            }
+            try (InputStream input = new FileInputStream(spill)) {
+                return uploadContent(new UploadContent(input, total), false, suffix, nvps);
+            }
+        } finally {
+            if (!spill.delete()) {
+                logger.warn("delete temporary file {} failed", spill);
+            }
+        }
+    }
+
+    /**
+     * 上传的文件内容：内存中的缓冲区，或按已知长度从输入流读取. 发送的字节数计入创建线程绑定的租户，操作结束后限速等待
+     */
+    private class UploadContent implements UploadCallback {
+        private final byte[] buffer;
+        private final InputStream is;
+        private final long length;
+        private final BandwidthThrottle.Session throttle = BandwidthThrottle.current();
+        /**
+         * 是否已经开始发送
+         */
+        private volatile boolean started;
+
+        UploadContent(byte[] buffer, int length) {
+            this.buffer = buffer;
+            this.is = null;
+            this.length = length;
+        }
+
+        UploadContent(InputStream is, long length) {
+            this.buffer = null;
+            // 读取请求体的时间属于调用方
+            this.is = StorageExecutor.callerStream(is);
+            this.length = length;
+        }
+
+        /**
+         * @return 是否可以重新发送，输入流只能发送一次
+         */
+        boolean isReplayable() {
+            return is == null || !started;
+        }
+
+        @Override
+        public int send(OutputStream out) throws IOException {
+            started = true;
+            if (is == null) {
+                for (int offset = 0; offset < length; offset += BufferPool.SOCKET_BUFFER_SIZE) {
+                    int len = (int) Math.min(BufferPool.SOCKET_BUFFER_SIZE, length - offset);
+                    throttle.consume(len);
+                    out.write(buffer, offset, len);
+                }
+                return 0;
+            }
+            byte[] copyBuffer = bufferPool.acquire(BufferPool.SOCKET_BUFFER_SIZE);
+            try {
+                long remaining = length;
+                while (remaining > 0) {
+                    int len = is.read(copyBuffer, 0, (int) Math.min(copyBuffer.length, remaining));
+                    if (len < 0) {
+                        throw new EOFException("unexpected end of stream, " + (length - remaining) + " of " + length + " bytes read");
+                    }
+                    throttle.consume(len);
+                    out.write(copyBuffer, 0, len);
+                    remaining -= len;
+                }
+            } finally {
+                bufferPool.release(copyBuffer);
+            }
+            return 0;
+        }
+    }
+
+    /**
+     * 读满缓冲区或读到流结束
+     *
+     * @return 读取的字节数，流已结束返回 0
+     */
+    private static int fill(InputStream is, byte[] buffer) throws IOException {
+        int length = 0;
+        int len;
+        while (length < buffer.length && (len = is.read(buffer, length, buffer.length - length)) >= 0) {
+            length += len;
+        }
+        return length;
+    }
+
     /**
      * 上传通用方法
      *
      * @param is 文件输入流
      * @param filename 文件名
      * @param descriptions 文件描述信息
-     * @return 组名+文件路径，如：group1/M00/00/00/wKgz6lnduTeAMdrcAAEoRmXZPp870.jpeg
+     * @return 组名+文件路径，如：group1/M00/00/00/wKgz6lnduTeAMdrcAAEoRmXZPp870.jpeg，
+     *         写入其它集群时带集群前缀，如：cluster2:group1/M00/00/00/wKgz6lnduTeAMdrcAAEoRmXZPp870.jpeg，
+     *         写入暂存区时为临时文件ID，如：spool:3f2a6c0e9b8d4b5f8a1c2d3e4f5a6b7c.jpeg
      * @throws FastDFSException
      */
     public String upload(InputStream is, String filename, Map<String, String> descriptions) throws FastDFSException {
+        return upload(is, -1, filename, descriptions);
+    }
+
+    /**
+     * 上传通用方法. 不超过 streamThreshold 的文件读入池化的缓冲区后上传(支持透明压缩和暂存区)；
+     * 更大的文件不在内存中缓存：大小已知时直接从输入流发送，大小未知时先写入临时文件，得到大小后作为普通文件发送.
+     * 只有 {@link #uploadAppenderFile(InputStream, long, String, Map)} 上传为 appender 文件.
+     * 文件大小在读取过程中检查，不依赖 available().
+     *
+     * @param is 文件输入流
+     * @param size 文件大小，未知时为 -1. 已知时必须与输入流的长度一致
+     * @param filename 文件名
+     * @param descriptions 文件描述信息
+     * @return 文件路径，见 {@link #upload(InputStream, String, Map)}
+     * @throws FastDFSException
+     */
+    public String upload(InputStream is, long size, String filename, Map<String, String> descriptions) throws FastDFSException {
+        return upload(is, size, filename, descriptions, null);
+    }
+
+    /**
+     * 上传文件，到期后自动删除，见 {@link #upload(InputStream, long, String, Map)}
+     *
+     * @param is 文件输入流
+     * @param size 文件大小，未知时为 -1
+     * @param filename 文件名
+     * @param descriptions 文件描述信息
+     * @param ttl 存活时间(秒)，0 表示不过期
+     * @return 文件路径
+     * @throws FastDFSException
+     */
+    public String upload(InputStream is, long size, String filename, Map<String, String> descriptions, long ttl)
+            throws FastDFSException {
+        return upload(is, size, filename, descriptions, expiry(ttl));
+    }
+
+    /**
+     * @param reserved 服务端设置的描述信息，可为空
+     */
+    private String upload(InputStream is, long size, String filename, Map<String, String> descriptions,
+                          Map<String, String> reserved) throws FastDFSException {
         if(is == null){
             throw new FastDFSException(ErrorCode.FILE_ISNULL.CODE, ErrorCode.FILE_ISNULL.MESSAGE);
         }
 
-        try {
-            if(is.available() > maxFileSize){
-                throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
-            }
-        } catch (IOException e) {
-            e.printStackTrace();
+        if(size > maxFileSize){
+            closeQuietly(is);
+            throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
         }
 
         filename = toLocal(filename);
@@ -259,37 +766,61 @@ public class FastDFSClient {
         String path = null;
         // 文件描述
         NameValuePair[] nvps = null;
-        List<NameValuePair> nvpsList = new ArrayList<>();
         // 文件名后缀
         String suffix = getFilenameSuffix(filename);
-
-        // 文件名
-        if (StringUtils.isNotBlank(filename)) {
-            nvpsList.add(new NameValuePair(FILENAME, filename));
-        }
-        // 描述信息
-        if (descriptions != null && descriptions.size() > 0) {
-            descriptions.forEach((key, value) -> {
-                nvpsList.add(new NameValuePair(key, value));
-            });
-        }
-        if (nvpsList.size() > 0) {
-            nvps = new NameValuePair[nvpsList.size()];
-            nvpsList.toArray(nvps);
+        if (contentCheck) {
+            is = ContentTypeDetector.markable(is);
         }
+        List<NameValuePair> nvpsList = describe(is, filename, suffix, descriptions, reserved);
 
-        TrackerServer trackerServer = TrackerServerPool.borrowObject();
-        StorageClient1 storageClient = new StorageClient1(trackerServer, null);
+        BufferPool.Lease content = null;
         try {
-            // 读取流
-            byte[] fileBuff = new byte[is.available()];
-            is.read(fileBuff, 0, fileBuff.length);
+            if (size > streamThreshold) {
+                // 大小已知的大文件直接从输入流发送
+                path = uploadContent(new UploadContent(is, size), false, suffix, toArray(nvpsList));
+                if (logger.isDebugEnabled()) {
+                    logger.debug("upload file success, return path is {}", path);
+                }
+                return path;
+            }
 
-            // 上传
-            path = storageClient.upload_file1(fileBuff, suffix, nvps);
+            // 读取流到池化的缓冲区
+            PushbackInputStream input = new PushbackInputStream(is, 1);
+            content = read(input, size, streamThreshold);
+            if (content.getLength() >= streamThreshold && hasMore(input)) {
+                // 大小未知的大文件先写入临时文件
+                path = uploadSpilled(content, input, suffix, toArray(nvpsList));
+                if (logger.isDebugEnabled()) {
+                    logger.debug("upload file success, return path is {}", path);
+                }
+                return path;
+            }
+            byte[] fileBuff = content.getBuffer();
+            int length = content.getLength();
+
+            // 透明压缩
+            TransparentCompressor.Compressed compressed = transparentCompressor.compress(fileBuff, length, suffix);
+            if (compressed != null) {
+                nvpsList.add(new NameValuePair(TransparentCompressor.COMPRESSION, compressed.getCodec().getName()));
+                nvpsList.add(new NameValuePair(TransparentCompressor.UNCOMPRESSED_SIZE, String.valueOf(length)));
+                fileBuff = compressed.getBytes();
+                length = fileBuff.length;
+            }
+            nvps = toArray(nvpsList);
 
-            if(StringUtils.isBlank(path)) {
-                throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+            // 上传
+            if (uploadSpool.getMode() == UploadSpool.Mode.ALWAYS) {
+                path = uploadSpool.append(fileBuff, length, suffix, nvps);
+            } else {
+                try {
+                    path = uploadBytes(fileBuff, length, suffix, nvps);
+                } catch (FastDFSException e) {
+                    // 文件服务器不可用或繁忙时写入暂存区，稍后上传
+                    if (uploadSpool.getMode() != UploadSpool.Mode.FALLBACK || !UploadSpool.isRetryable(e)) {
+                        throw e;
+                    }
+                    path = uploadSpool.append(fileBuff, length, suffix, nvps);
+                }
             }
 
             if (logger.isDebugEnabled()) {
@@ -298,10 +829,10 @@ public class FastDFSClient {
         } catch (IOException e) {
             e.printStackTrace();
             throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
-        } catch (MyException e) {
-            e.printStackTrace();
-            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
         } finally {
+            if (content != null) {
+                content.close();
+            }
             // 关闭流
             if(is != null){
                 try {
@@ -311,30 +842,418 @@ public class FastDFSClient {
                 }
             }
         }
-        // 返还对象
-        TrackerServerPool.returnObject(trackerServer);
 
         return path;
     }
 
     /**
-     * 以附件形式下载文件
+     * 上传可修改的 appender 文件，之后可以追加、修改、截断，每次只传输变化的部分，不需要重新上传整个文件. <br>
+     * appender 文件不做透明压缩，也不写入暂存区.
      *
-     * @param filepath 文件路径
-     * @param response
+     * @param is 文件输入流，为空时创建空文件
+     * @param size 文件大小，未知时为 -1
+     * @param filename 文件名
+     * @param descriptions 文件描述信息
+     * @return 文件路径，见 {@link #upload(InputStream, String, Map)}
+     * @throws FastDFSException
      */
-    public void downloadFile(String filepath, HttpServletResponse response) throws FastDFSException {
-        download(filepath, null, null, response);
+    public String uploadAppenderFile(InputStream is, long size, String filename, Map<String, String> descriptions) throws FastDFSException {
+        return uploadAppenderFile(is, size, filename, descriptions, 0);
     }
 
     /**
-     * 下载文件 输出文件
+     * 上传可修改的 appender 文件，到期后自动删除，见 {@link #uploadAppenderFile(InputStream, long, String, Map)}
      *
-     * @param filepath 文件路径
-     * @param os 输出流
+     * @param ttl 存活时间(秒)，0 表示不过期
      */
-    public void downloadFile(String filepath, OutputStream os) throws FastDFSException {
-        download(filepath, null, os, null);
+    public String uploadAppenderFile(InputStream is, long size, String filename, Map<String, String> descriptions, long ttl)
+            throws FastDFSException {
+        if (size > maxFileSize) {
+            if (is != null) {
+                closeQuietly(is);
+            }
+            throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
+        }
+
+        filename = toLocal(filename);
+        String suffix = getFilenameSuffix(filename);
+        if (is != null && contentCheck) {
+            is = ContentTypeDetector.markable(is);
+        }
+        NameValuePair[] nvps = toArray(describe(is, filename, suffix, descriptions, expiry(ttl)));
+
+        BufferPool.Lease content = null;
+        try {
+            String path;
+            if (is == null) {
+                path = uploadContent(new UploadContent(new byte[0], 0), true, suffix, nvps);
+            } else if (size >= 0) {
+                path = uploadContent(new UploadContent(is, size), true, suffix, nvps);
+            } else {
+                PushbackInputStream input = new PushbackInputStream(is, 1);
+                content = read(input, size, streamThreshold);
+                path = content.getLength() >= streamThreshold && hasMore(input)
+                        ? uploadAppender(content, input, suffix, nvps)
+                        : uploadContent(new UploadContent(content.getBuffer(), content.getLength()), true, suffix, nvps);
+            }
+            if (logger.isDebugEnabled()) {
+                logger.debug("upload appender file success, return path is {}", path);
+            }
+            return path;
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+        } finally {
+            if (content != null) {
+                content.close();
+            }
+            if (is != null) {
+                closeQuietly(is);
+            }
+        }
+    }
+
+    /**
+     * 追加内容到 appender 文件末尾
+     *
+     * @param filepath appender 文件路径
+     * @param is 追加的内容
+     * @param size 追加的大小，未知时为 -1，分段追加
+     * @return 追加的字节数
+     * @throws FastDFSException 不是 appender 文件、文件不存在或追加失败
+     */
+    public long appendFile(String filepath, InputStream is, long size) throws FastDFSException {
+        return update(StorageOperation.APPEND, filepath, 0, is, size);
+    }
+
+    /**
+     * 从指定偏移开始覆盖 appender 文件的内容，超出文件末尾的部分追加到文件
+     *
+     * @param filepath appender 文件路径
+     * @param offset 偏移，不能超过文件大小
+     * @param is 新的内容
+     * @param size 新内容的大小，未知时为 -1，分段修改
+     * @return 写入的字节数
+     * @throws FastDFSException 不是 appender 文件、文件不存在或修改失败
+     */
+    public long modifyFile(String filepath, long offset, InputStream is, long size) throws FastDFSException {
+        return update(StorageOperation.MODIFY, filepath, offset, is, size);
+    }
+
+    /**
+     * 截断 appender 文件
+     *
+     * @param filepath appender 文件路径
+     * @param size 截断后的大小，不能超过文件大小
+     * @throws FastDFSException 不是 appender 文件、文件不存在或截断失败
+     */
+    public void truncateFile(String filepath, long size) throws FastDFSException {
+        checkAppender(filepath);
+        if (size < 0) {
+            throw new FastDFSException(ErrorCode.FILE_UPDATE_FAILED.CODE, ErrorCode.FILE_UPDATE_FAILED.MESSAGE);
+        }
+        try {
+            int errno = storageExecutor.execute(StorageOperation.TRUNCATE, filepath,
+                    storageClient -> storageClient.truncate_file1(filepath, size));
+            checkUpdated(errno);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPDATE_FAILED.CODE, ErrorCode.FILE_UPDATE_FAILED.MESSAGE);
+        } catch (MyException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPDATE_FAILED.CODE, ErrorCode.FILE_UPDATE_FAILED.MESSAGE);
+        }
+    }
+
+    /**
+     * 追加或修改 appender 文件. 大小已知时直接从输入流发送；未知时分段读取，按顺序追加或写到对应的偏移，
+     * 中途失败时已写入的分段不会回滚.
+     *
+     * @return 写入的字节数
+     */
+    private long update(StorageOperation operation, String filepath, long offset, InputStream is, long size)
+            throws FastDFSException {
+        if (is == null) {
+            throw new FastDFSException(ErrorCode.FILE_ISNULL.CODE, ErrorCode.FILE_ISNULL.MESSAGE);
+        }
+        try {
+            checkAppender(filepath);
+            if (offset < 0) {
+                throw new FastDFSException(ErrorCode.FILE_UPDATE_FAILED.CODE, ErrorCode.FILE_UPDATE_FAILED.MESSAGE);
+            }
+            if (size > maxFileSize) {
+                throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
+            }
+            if (size >= 0) {
+                if (size > 0) {
+                    update(operation, filepath, offset, new UploadContent(is, size));
+                }
+                return size;
+            }
+            byte[] buffer = bufferPool.acquire(UPDATE_CHUNK_SIZE);
+            try {
+                long total = 0;
+                int length;
+                while ((length = fill(is, buffer)) > 0) {
+                    if (total + length > maxFileSize) {
+                        throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
+                    }
+                    update(operation, filepath, offset + total, new UploadContent(buffer, length));
+                    total += length;
+                }
+                return total;
+            } finally {
+                bufferPool.release(buffer);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPDATE_FAILED.CODE, ErrorCode.FILE_UPDATE_FAILED.MESSAGE);
+        } catch (MyException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPDATE_FAILED.CODE, ErrorCode.FILE_UPDATE_FAILED.MESSAGE);
+        } finally {
+            closeQuietly(is);
+        }
+    }
+
+    private void update(StorageOperation operation, String filepath, long offset, UploadContent content)
+            throws FastDFSException, IOException, MyException {
+        int errno = storageExecutor.execute(operation, filepath, storageClient -> {
+            int result = operation == StorageOperation.APPEND
+                    ? storageClient.append_file1(filepath, content.length, content)
+                    : storageClient.modify_file1(filepath, offset, content.length, content);
+            storageExecutor.recordBytes(operation, content.length);
+            return result;
+        });
+        checkUpdated(errno);
+    }
+
+    private static void checkAppender(String filepath) throws FastDFSException {
+        if (StringUtils.isBlank(filepath)) {
+            throw new FastDFSException(ErrorCode.FILE_PATH_ISNULL.CODE, ErrorCode.FILE_PATH_ISNULL.MESSAGE);
+        }
+        if (!isAppenderFile(filepath)) {
+            throw new FastDFSException(ErrorCode.FILE_NOT_APPENDER.CODE, ErrorCode.FILE_NOT_APPENDER.MESSAGE);
+        }
+    }
+
+    private static void checkUpdated(int errno) throws FastDFSException {
+        if (errno == ProtoCommon.ERR_NO_ENOENT) {
+            throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+        }
+        if (errno != 0) {
+            throw new FastDFSException(ErrorCode.FILE_UPDATE_FAILED.CODE, ErrorCode.FILE_UPDATE_FAILED.MESSAGE);
+        }
+    }
+
+    /**
+     * 文件名、内容类型、自定义的描述信息和服务端设置的描述信息
+     *
+     * @param is 开启内容检查时为支持 mark/reset 的输入流，为空时不检查内容
+     * @param filename 文件名
+     * @param suffix 文件后缀
+     * @param descriptions 自定义的描述信息，不能包含保留的名称
+     * @param reserved 服务端设置的描述信息，可为空
+     */
+    private List<NameValuePair> describe(InputStream is, String filename, String suffix, Map<String, String> descriptions,
+                                         Map<String, String> reserved) throws FastDFSException {
+        checkDescriptions(descriptions);
+        List<NameValuePair> nvpsList = new ArrayList<>();
+        // 文件名
+        if (StringUtils.isNotBlank(filename)) {
+            nvpsList.add(new NameValuePair(FILENAME, filename));
+        }
+        // 文件内容类型
+        if (contentCheck && is != null) {
+            String contentType = detectContentType(is, suffix);
+            if (contentType != null) {
+                nvpsList.add(new NameValuePair(CONTENT_TYPE, contentType));
+            }
+        }
+        // 描述信息
+        if (descriptions != null && descriptions.size() > 0) {
+            descriptions.forEach((key, value) -> {
+                nvpsList.add(new NameValuePair(key, value));
+            });
+        }
+        if (reserved != null) {
+            reserved.forEach((key, value) -> {
+                nvpsList.add(new NameValuePair(key, value));
+            });
+        }
+        return nvpsList;
+    }
+
+    /**
+     * 检查调用方的描述信息. 文件名、内容类型、压缩、过期时间、图片优化等由服务端设置，调用方不能覆盖.
+     * 上传和修改描述信息都经过这里
+     *
+     * @param descriptions 描述信息，可为空
+     * @throws FastDFSException 包含保留的名称(不区分大小写)
+     */
+    public static void checkDescriptions(Map<String, String> descriptions) throws FastDFSException {
+        if (descriptions == null) {
+            return;
+        }
+        for (String key : descriptions.keySet()) {
+            if (key == null || RESERVED_DESCRIPTIONS.contains(key.trim().toLowerCase(Locale.ENGLISH))) {
+                throw new FastDFSException(ErrorCode.FILE_DESCRIPTION_RESERVED.CODE, ErrorCode.FILE_DESCRIPTION_RESERVED.MESSAGE);
+            }
+        }
+    }
+
+    /**
+     * @param ttl 存活时间(秒)
+     * @return 包含过期时间的描述信息，ttl 不大于 0 时为空的 Map
+     */
+    private static Map<String, String> expiry(long ttl) {
+        Map<String, String> reserved = new HashMap<>();
+        if (ttl > 0) {
+            reserved.put(EXPIRE_AT, String.valueOf(System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(ttl)));
+        }
+        return reserved;
+    }
+
+    private static NameValuePair[] toArray(List<NameValuePair> nvpsList) {
+        return nvpsList.isEmpty() ? null : nvpsList.toArray(new NameValuePair[nvpsList.size()]);
+    }
+
+    /**
+     * 读取输入流到池化的缓冲区，直到流结束或读满 limit 字节
+     *
+     * @param is 输入流
+     * @param sizeHint 文件大小，未知时为 -1，只作为初始大小
+     * @param limit 最多读取的字节数
+     * @return 租约，使用完后关闭
+     * @throws FastDFSException 超过最大文件大小
+     */
+    private BufferPool.Lease read(InputStream is, long sizeHint, int limit) throws IOException, FastDFSException {
+        int initial = sizeHint >= 0 ? (int) Math.min(sizeHint, limit) : Math.min(BufferPool.SOCKET_BUFFER_SIZE, limit);
+        BufferPool.Lease content = bufferPool.lease(initial);
+        boolean success = false;
+        try {
+            int length = 0;
+            while (length < limit) {
+                byte[] buffer = content.getBuffer();
+                if (length == buffer.length) {
+                    // 缓冲区正好读满时先确认是否已经结束，避免为了读到 EOF 而扩容
+                    int b = is.read();
+                    if (b < 0) {
+                        break;
+                    }
+                    content.grow((int) Math.min(limit, Math.max(BufferPool.SOCKET_BUFFER_SIZE, length * 2L)));
+                    buffer = content.getBuffer();
+                    buffer[length++] = (byte) b;
+                    content.setLength(length);
+                    if (length >= limit) {
+                        break;
+                    }
+                }
+                int len = is.read(buffer, length, Math.min(buffer.length, limit) - length);
+                if (len < 0) {
+                    break;
+                }
+                length += len;
+                content.setLength(length);
+                if (length > maxFileSize) {
+                    throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
+                }
+            }
+            if (length > maxFileSize) {
+                throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
+            }
+            success = true;
+            return content;
+        } finally {
+            if (!success) {
+                content.close();
+            }
+        }
+    }
+
+    /**
+     * @return 输入流是否还有数据，不消耗数据
+     */
+    private static boolean hasMore(PushbackInputStream is) throws IOException {
+        int b = is.read();
+        if (b < 0) {
+            return false;
+        }
+        is.unread(b);
+        return true;
+    }
+
+    /**
+     * 根据文件头识别文件类型，与后缀不一致则抛出异常
+     *
+     * @param is 支持 mark/reset 的输入流
+     * @param suffix 文件后缀
+     * @return MIME 类型，无法识别返回 null
+     */
+    private String detectContentType(InputStream is, String suffix) throws FastDFSException {
+        ContentTypeDetector.ContentType type;
+        try {
+            type = ContentTypeDetector.detect(is);
+        } catch (IOException e) {
+            e.printStackTrace();
+            closeQuietly(is);
+            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+        }
+        String lowerSuffix = suffix == null ? null : suffix.toLowerCase();
+        if (!ContentTypeDetector.matches(type, lowerSuffix)) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("file content does not match suffix {}, detected {}", suffix, type == null ? null : type.getMimeType());
+            }
+            closeQuietly(is);
+            throw new FastDFSException(ErrorCode.FILE_TYPE_ERROR_CONTENT.CODE, ErrorCode.FILE_TYPE_ERROR_CONTENT.MESSAGE);
+        }
+        if (type == null) {
+            return null;
+        }
+        // 后缀与内容一致时使用后缀对应的更具体的类型，如 docx
+        if (lowerSuffix != null && type.getSuffixes().contains(lowerSuffix) && EXT_MAPS.containsKey(lowerSuffix)) {
+            return EXT_MAPS.get(lowerSuffix);
+        }
+        return type.getMimeType();
+    }
+
+    private static void closeQuietly(InputStream is) {
+        try {
+            is.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 以附件形式下载文件
+     *
+     * @param filepath 文件路径
+     * @param response
+     */
+    public void downloadFile(String filepath, HttpServletResponse response) throws FastDFSException {
+        download(filepath, null, null, response);
+    }
+
+    /**
+     * 以附件形式下载文件，客户端支持时压缩存储的文件不解压直接输出
+     *
+     * @param filepath 文件路径
+     * @param request HttpServletRequest，用于读取 Accept-Encoding
+     * @param response HttpServletResponse
+     */
+    public void downloadFile(String filepath, HttpServletRequest request, HttpServletResponse response) throws FastDFSException {
+        download(filepath, null, null, response, request == null ? null : request.getHeader("Accept-Encoding"));
+    }
+
+    /**
+     * 下载文件 输出文件
+     *
+     * @param filepath 文件路径
+     * @param os 输出流
+     */
+    public void downloadFile(String filepath, OutputStream os) throws FastDFSException {
+        download(filepath, null, os, null);
     }
 
     /**
@@ -357,30 +1276,57 @@ public class FastDFSClient {
      * @param response HttpServletResponse
      */
     public void download(String filepath, String filename, OutputStream os, HttpServletResponse response) throws FastDFSException {
+        download(filepath, filename, os, response, null);
+    }
+
+    /**
+     * 下载文件
+     *
+     * @param filepath 文件路径
+     * @param filename 文件名称
+     * @param os 输出流
+     * @param response HttpServletResponse
+     * @param acceptEncoding 客户端的 Accept-Encoding，为空则压缩存储的文件解压后输出
+     */
+    public void download(String filepath, String filename, OutputStream os, HttpServletResponse response, String acceptEncoding) throws FastDFSException {
         if(StringUtils.isBlank(filepath)){
             throw new FastDFSException(ErrorCode.FILE_PATH_ISNULL.CODE, ErrorCode.FILE_PATH_ISNULL.MESSAGE);
         }
 
         filepath = toLocal(filepath);
-        // 文件名
+        String contentType = null;
+        CompressionCodec codec = null;
+        // 文件名，可压缩类型需要读取压缩信息
+        if (StringUtils.isBlank(filename) || transparentCompressor.isCompressibleType(getFilenameSuffix(filepath))) {
+            Map<String, Object> descriptions = getFileDescriptions(filepath);
+            if (descriptions != null) {
+                if (StringUtils.isBlank(filename)) {
+                    filename = (String) descriptions.get(FILENAME);
+                }
+                // 优先使用上传时识别的内容类型
+                contentType = (String) descriptions.get(CONTENT_TYPE);
+                codec = CompressionCodecs.get((String) descriptions.get(TransparentCompressor.COMPRESSION));
+            }
+        }
         if (StringUtils.isBlank(filename)) {
-            filename = getOriginalFilename(filepath);
+            filename = filepath.substring(filepath.lastIndexOf(SEPARATOR) + 1);
+        }
+        if (StringUtils.isBlank(contentType)) {
+            contentType = EXT_MAPS.get(getFilenameSuffix(filename));
         }
-        String contentType = EXT_MAPS.get(getFilenameSuffix(filename));
 
         if(logger.isDebugEnabled()){
             logger.debug("download file, filepath = {}, filename = {}", filepath, filename);
         }
 
-        TrackerServer trackerServer = TrackerServerPool.borrowObject();
-        StorageClient1 storageClient = new StorageClient1(trackerServer, null);
-        InputStream is = null;
+        BufferPool.Lease content = null;
         try {
-            // 下载
-            byte[] fileByte = storageClient.download_file1(filepath);
-
-            if(fileByte == null){
-                throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+            // 不超过 streamThreshold 的文件下载到池化的缓冲区，可以对冲读；更大的文件边接收边写出
+            long size = UploadSpool.isProvisional(filepath) ? -1 : getStoredSize(filepath);
+            boolean streaming = size > streamThreshold;
+            if (!streaming) {
+                content = download(filepath, true);
+                size = content.getLength();
             }
 
             if (response != null) {
@@ -396,11 +1342,30 @@ public class FastDFSClient {
                 }
             }
 
-            is = new ByteArrayInputStream(fileByte);
-            byte[] buffer = new byte[1024 * 5];
-            int len = 0;
-            while ((len = is.read(buffer)) > 0) {
-                os.write(buffer, 0, len);
+            // 按当前请求的租户限制下载速度
+            os = BandwidthThrottle.current().wrap(os);
+            boolean decompressing = false;
+            if (codec != null) {
+                if (response != null && acceptsEncoding(acceptEncoding, codec.getContentEncoding())) {
+                    // 客户端自行解压
+                    response.setHeader("Content-Encoding", codec.getContentEncoding());
+                } else {
+                    os = codec.decompress(os);
+                    decompressing = true;
+                }
+            }
+            if (response != null && !decompressing) {
+                response.setHeader("Content-Length", String.valueOf(size));
+            }
+
+            if (streaming) {
+                download(filepath, size, os);
+            } else {
+                // 按 Socket 缓冲区大小分段写出
+                byte[] buffer = content.getBuffer();
+                for (int offset = 0; offset < content.getLength(); offset += BufferPool.SOCKET_BUFFER_SIZE) {
+                    os.write(buffer, offset, Math.min(BufferPool.SOCKET_BUFFER_SIZE, content.getLength() - offset));
+                }
             }
             os.flush();
         } catch (IOException e) {
@@ -409,11 +1374,11 @@ public class FastDFSClient {
             e.printStackTrace();
             throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
         } finally {
+            if (content != null) {
+                content.close();
+            }
             // 关闭流
             try {
-                if(is != null){
-                    is.close();
-                }
                 if(os != null){
                     os.close();
                 }
@@ -421,42 +1386,351 @@ public class FastDFSClient {
                 e.printStackTrace();
             }
         }
-        // 返还对象
-        TrackerServerPool.returnObject(trackerServer);
     }
 
     /**
-     * 下载文件
+     * 客户端是否支持指定的 Content-Encoding
+     */
+    private static boolean acceptsEncoding(String acceptEncoding, String encoding) {
+        if (StringUtils.isBlank(acceptEncoding) || StringUtils.isBlank(encoding)) {
+            return false;
+        }
+        for (String item : acceptEncoding.split(",")) {
+            String[] parts = item.trim().split(";");
+            if (encoding.equalsIgnoreCase(parts[0].trim())) {
+                // 排除 q=0
+                return parts.length < 2 || !parts[1].trim().matches("q=0(\\.0*)?");
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 输出图片的缩略图，缩略图不存在时生成并保存为原图的从文件
+     *
+     * @param filepath 原图路径
+     * @param width 最大宽度，0 表示不限制，见 {@link ImageThumbnailer#setSizes(String)}
+     * @param height 最大高度，0 表示不限制
+     * @param quality JPEG 质量，0 使用默认质量，见 {@link ImageThumbnailer#setQualities(String)}
+     * @param response HttpServletResponse
+     * @return 缩略图路径
+     */
+    public String downloadThumbnail(String filepath, int width, int height, int quality, HttpServletResponse response) throws FastDFSException {
+        filepath = toLocal(filepath);
+        if (UploadSpool.isProvisional(filepath)) {
+            filepath = getSpooledFileId(filepath);
+        }
+        String contentType = EXT_MAPS.get(ImageProcessor.outputFormat(FileCheck.getFilenameSuffix(filepath)));
+        OutputStream os = null;
+        try {
+            response.setContentType(contentType);
+            os = BandwidthThrottle.current().wrap(response.getOutputStream());
+            return imageThumbnailer.write(filepath, width, height, quality, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+        } finally {
+            try {
+                if (os != null) {
+                    os.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 将多个文件打包成 ZIP 以附件形式下载
+     *
+     * @param filepaths 文件路径集合
+     * @param zipName 压缩包名称
+     * @param response HttpServletResponse
+     */
+    public void downloadZip(List<String> filepaths, String zipName, HttpServletResponse response) throws FastDFSException {
+        if (StringUtils.isBlank(zipName)) {
+            zipName = "download.zip";
+        }
+        OutputStream os = null;
+        try {
+            String encoderName = URLEncoder.encode(zipName, "UTF-8").replace("+", "%20").replace("%2B", "+");
+            response.setHeader("Content-Disposition", "attachment;filename=\"" + encoderName + "\"");
+            response.setContentType(EXT_MAPS.get("zip"));
+
+            os = response.getOutputStream();
+            downloadZip(filepaths, os);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+        } finally {
+            try {
+                if (os != null) {
+                    os.close();
+                }
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 将多个文件打包成 ZIP 输出到流，条目名称使用上传时的原始文件名
+     *
+     * @param filepaths 文件路径集合
+     * @param os 输出流
+     */
+    public void downloadZip(List<String> filepaths, OutputStream os) throws FastDFSException {
+        List<String> localPaths = new ArrayList<>(filepaths == null ? 0 : filepaths.size());
+        if (filepaths != null) {
+            for (String filepath : filepaths) {
+                if (StringUtils.isNotBlank(filepath)) {
+                    filepath = toLocal(filepath);
+                    // 暂存区的文件使用上传后的文件ID
+                    String fileId = UploadSpool.isProvisional(filepath) ? uploadSpool.getFileId(filepath) : null;
+                    localPaths.add(fileId != null ? fileId : filepath);
+                }
+            }
+        }
+        zipArchiveWriter.write(localPaths, BandwidthThrottle.current().wrap(os));
+    }
+
+    /**
+     * 下载文件
+     *
+     * @param filepath 文件路径
+     * @return 返回文件字节
+     * @throws FastDFSException
+     */
+    public byte[] download(String filepath) throws FastDFSException {
+        if(StringUtils.isBlank(filepath)){
+            throw new FastDFSException(ErrorCode.FILE_PATH_ISNULL.CODE, ErrorCode.FILE_PATH_ISNULL.MESSAGE);
+        }
+
+        byte[] fileByte = null;
+        try {
+            fileByte = downloadBytes(filepath);
+        } catch (IOException e) {
+            e.printStackTrace();
+        } catch (MyException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+        }
+
+        // 压缩存储的文件解压后返回
+        if (transparentCompressor.isCompressibleType(getFilenameSuffix(filepath))) {
+            fileByte = decompress(filepath, fileByte);
+        }
+
+        return fileByte;
+    }
+
+    /**
+     * 从 Storage 下载文件内容
+     *
+     * @param filepath 文件路径
+     * @return 文件字节
+     * @throws FastDFSException 文件不存在
+     */
+    private byte[] downloadBytes(String filepath) throws FastDFSException, IOException, MyException {
+        return download(filepath, false).getBuffer();
+    }
+
+    /**
+     * 从 Storage 下载文件内容
+     *
+     * @param filepath 文件路径
+     * @param pooled 是否接收到池化的缓冲区，否则接收到与文件等长的数组
+     * @return 文件内容，使用完后关闭
+     * @throws FastDFSException 文件不存在
+     */
+    private BufferPool.Lease download(String filepath, boolean pooled) throws FastDFSException, IOException, MyException {
+        if (UploadSpool.isProvisional(filepath)) {
+            // 还没有上传的文件从暂存区读取
+            byte[] spooled = uploadSpool.read(filepath);
+            if (spooled != null) {
+                return BufferPool.wrap(spooled);
+            }
+            return download(getSpooledFileId(filepath), pooled);
+        }
+        // 按回调接收，收到第一段数据时按文件大小租用缓冲区，同时记录首字节时间.
+        // 对冲读时回调可能同时执行两次，接收状态放在回调内部，落败一方的缓冲区由 HedgedReader 关闭
+        BufferPool.Lease content = storageExecutor.executeHedged(StorageOperation.DOWNLOAD, filepath, storageClient -> {
+            final BufferPool.Lease[] buffer = new BufferPool.Lease[1];
+            final boolean[] tooLarge = new boolean[1];
+            boolean success = false;
+            try {
+                int errno = storageClient.download_file1(filepath, (fileSize, data, bytes) -> {
+                    if (fileSize > MAX_ARRAY_SIZE) {
+                        // 超过数组的最大长度，只能流式下载
+                        tooLarge[0] = true;
+                        return -1;
+                    }
+                    if (buffer[0] == null) {
+                        storageExecutor.markFirstByte();
+                        buffer[0] = pooled ? bufferPool.lease((int) fileSize) : BufferPool.wrap(new byte[(int) fileSize]);
+                        buffer[0].setLength(0);
+                    }
+                    BufferPool.Lease received = buffer[0];
+                    System.arraycopy(data, 0, received.getBuffer(), received.getLength(), bytes);
+                    received.setLength(received.getLength() + bytes);
+                    return 0;
+                });
+                storageExecutor.recordBytes(StorageOperation.DOWNLOAD, buffer[0] == null ? 0 : buffer[0].getLength());
+                if (tooLarge[0]) {
+                    throw new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE);
+                }
+                if (errno != 0) {
+                    return null;
+                }
+                success = true;
+                return buffer[0] == null ? BufferPool.wrap(new byte[0]) : buffer[0];
+            } finally {
+                if (!success && buffer[0] != null) {
+                    buffer[0].close();
+                }
+            }
+        });
+        if(content == null){
+            throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+        }
+        return content;
+    }
+
+    /**
+     * 边接收边写出到输出流，不缓存整个文件. 已经开始写出，不能对冲读或换副本重试. <br>
+     * 当前租户限速时按 {@link BandwidthThrottle.Session#getChunkBytes()} 分段下载，每段结束归还连接后再限速等待.
+     *
+     * @param filepath 文件路径
+     * @param size 下载的字节数，与已经写出的 Content-Length 一致. appender 文件在查询大小之后可能被追加
+     * @param os 输出流
+     * @throws FastDFSException 文件不存在或写出失败
+     */
+    private void download(String filepath, long size, OutputStream os) throws FastDFSException, IOException, MyException {
+        // 写出到客户端的时间属于调用方
+        OutputStream sink = StorageExecutor.callerStream(os);
+        long chunk = BandwidthThrottle.current().getChunkBytes();
+        if (size <= chunk) {
+            download(filepath, 0, size, sink);
+            return;
+        }
+        for (long offset = 0; offset < size; offset += chunk) {
+            download(filepath, offset, Math.min(chunk, size - offset), sink);
+        }
+    }
+
+    /**
+     * 下载一段写出到输出流
+     *
+     * @param offset 起始偏移
+     * @param length 字节数
+     * @param sink 输出流
+     */
+    private void download(String filepath, long offset, long length, OutputStream sink) throws FastDFSException, IOException, MyException {
+        int errno = storageExecutor.execute(StorageOperation.DOWNLOAD, filepath, storageClient -> {
+            final long[] received = new long[1];
+            final IOException[] writeError = new IOException[1];
+            int result = storageClient.download_file1(filepath, offset, length, (fileSize, data, bytes) -> {
+                if (received[0] == 0) {
+                    storageExecutor.markFirstByte();
+                }
+                try {
+                    sink.write(data, 0, bytes);
+                } catch (IOException e) {
+                    writeError[0] = e;
+                    return -1;
+                }
+                received[0] += bytes;
+                return 0;
+            });
+            storageExecutor.recordBytes(StorageOperation.DOWNLOAD, received[0]);
+            if (writeError[0] != null) {
+                // 客户端断开等写出失败，不算 Storage 的失败
+                if (logger.isWarnEnabled()) {
+                    logger.warn("write file {} failed after {} bytes: {}", filepath, offset + received[0], writeError[0].getMessage());
+                }
+                throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+            }
+            return result;
+        });
+        if (errno != 0) {
+            throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+        }
+    }
+
+    /**
+     * 查询 Storage 上保存的文件大小(压缩存储时为压缩后的大小)，普通文件从文件ID解析
+     *
+     * @param filepath 文件路径
+     * @return 文件大小
+     * @throws FastDFSException 文件不存在
+     */
+    private long getStoredSize(String filepath) throws FastDFSException, IOException, MyException {
+        FileInfo fileInfo = queryFileInfo(filepath);
+        if (fileInfo == null) {
+            throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+        }
+        return fileInfo.getFileSize();
+    }
+
+    /**
+     * 查询文件信息. 普通文件从文件ID解析；appender 文件的大小和 CRC32 会变化，从 Storage 查询，
+     * 最近修改过的文件从源 Storage 查询，其它副本可能还没有同步.
      *
      * @param filepath 文件路径
-     * @return 返回文件字节
-     * @throws FastDFSException
+     * @return 文件信息，不存在时返回 null
      */
-    public byte[] download(String filepath) throws FastDFSException {
-        if(StringUtils.isBlank(filepath)){
-            throw new FastDFSException(ErrorCode.FILE_PATH_ISNULL.CODE, ErrorCode.FILE_PATH_ISNULL.MESSAGE);
+    private FileInfo queryFileInfo(String filepath) throws FastDFSException, IOException, MyException {
+        if (isAppenderFile(filepath)) {
+            return storageExecutor.execute(StorageOperation.QUERY_FILE_INFO, filepath,
+                    storageClient -> storageClient.query_file_info1(filepath));
         }
+        return storageExecutor.execute(StorageOperation.GET_FILE_INFO, filepath,
+                storageClient -> storageClient.get_file_info1(filepath));
+    }
 
-        TrackerServer trackerServer = TrackerServerPool.borrowObject();
-        StorageClient1 storageClient = new StorageClient1(trackerServer, null);
-        InputStream is = null;
-        byte[] fileByte = null;
-        try {
-            fileByte = storageClient.download_file1(filepath);
+    /**
+     * 暂存区的文件已上传时返回最终文件ID
+     *
+     * @param filepath 临时文件ID
+     * @return 最终文件ID
+     * @throws FastDFSException 文件还没有上传、上传失败或不存在
+     */
+    private String getSpooledFileId(String filepath) throws FastDFSException {
+        String fileId = uploadSpool.getFileId(filepath);
+        if (fileId == null) {
+            throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+        }
+        return fileId;
+    }
 
-            if(fileByte == null){
-                throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+    /**
+     * 根据文件描述信息中的压缩信息解压文件
+     */
+    private byte[] decompress(String filepath, byte[] fileByte) throws FastDFSException {
+        Map<String, Object> descriptions = getFileDescriptions(filepath);
+        CompressionCodec codec = descriptions == null ? null
+                : CompressionCodecs.get((String) descriptions.get(TransparentCompressor.COMPRESSION));
+        if (codec == null || fileByte == null) {
+            return fileByte;
+        }
+        try {
+            // 按上传时记录的原始大小分配，没有记录时按 4 倍估算，都不超过 streamThreshold，之后按需扩容
+            long expected = NumberUtils.toLong((String) descriptions.get(TransparentCompressor.UNCOMPRESSED_SIZE), -1);
+            if (expected < 0) {
+                expected = fileByte.length * 4L;
             }
+            ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.max(32, Math.min(expected, streamThreshold)));
+            OutputStream os = codec.decompress(bos);
+            try {
+                os.write(fileByte);
+            } finally {
+                os.close();
+            }
+            return bos.toByteArray();
         } catch (IOException e) {
             e.printStackTrace();
-        } catch (MyException e) {
-            e.printStackTrace();
             throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
         }
-        // 返还对象
-        TrackerServerPool.returnObject(trackerServer);
-
-        return fileByte;
     }
 
     /**
@@ -470,22 +1744,33 @@ public class FastDFSClient {
             throw new FastDFSException(ErrorCode.FILE_PATH_ISNULL.CODE, ErrorCode.FILE_PATH_ISNULL.MESSAGE);
         }
 
-        TrackerServer trackerServer = TrackerServerPool.borrowObject();
-        StorageClient1 storageClient = new StorageClient1(trackerServer, null);
+        if (UploadSpool.isProvisional(filepath)) {
+            // 还没有上传的文件直接从暂存区删除
+            if (uploadSpool.delete(filepath)) {
+                return 0;
+            }
+            String fileId = uploadSpool.getFileId(filepath);
+            if (fileId == null) {
+                throw new FastDFSException(ErrorCode.FILE_DELETE_FAILED.CODE, ErrorCode.FILE_DELETE_FAILED.MESSAGE);
+            }
+            return deleteFile(fileId);
+        }
+
         int success = 0;
         try {
-            success = storageClient.delete_file1(filepath);
+            success = storageExecutor.execute(StorageOperation.DELETE, filepath,
+                    storageClient -> storageClient.delete_file1(filepath));
             if(success != 0){
                 throw new FastDFSException(ErrorCode.FILE_DELETE_FAILED.CODE, ErrorCode.FILE_DELETE_FAILED.MESSAGE);
             }
+            fileIndex.remove(filepath);
+            expirySweeper.cancel(filepath);
         } catch (IOException e) {
             e.printStackTrace();
         } catch (MyException e) {
             e.printStackTrace();
             throw new FastDFSException(ErrorCode.FILE_DELETE_FAILED.CODE, ErrorCode.FILE_DELETE_FAILED.MESSAGE);
         }
-        // 返还对象
-        TrackerServerPool.returnObject(trackerServer);
 
         return success;
     }
@@ -499,55 +1784,182 @@ public class FastDFSClient {
      * <pre>
      *  {<br>
      *      "SourceIpAddr": 源IP <br>
-     *      "FileSize": 文件大小 <br>
+     *      "FileSize": 文件大小，透明压缩的文件为原始大小 <br>
+     *      "StoredSize": 文件服务器上存储的大小 <br>
+     *      "Compressed": 是否透明压缩存储 <br>
      *      "CreateTime": 创建时间 <br>
-     *      "CRC32": 签名 <br>
+     *      "CRC32": 存储内容的签名，透明压缩的文件是压缩后内容的签名 <br>
+     *      "Appender": 是否为可修改的 appender 文件 <br>
      *  }  <br>
      * </pre>
      */
     public Map<String, Object> getFileInfo(String filepath) throws FastDFSException {
-        TrackerServer trackerServer = TrackerServerPool.borrowObject();
-        StorageClient1 storageClient = new StorageClient1(trackerServer, null);
+        if (UploadSpool.isProvisional(filepath)) {
+            UploadSpool.SpooledFile spooled = uploadSpool.getSpooledFile(filepath);
+            byte[] content = spooled == null ? null : uploadSpool.read(filepath);
+            if (content == null) {
+                return getFileInfo(getSpooledFileId(filepath));
+            }
+            CRC32 crc32 = new CRC32();
+            crc32.update(content);
+            long uncompressedSize = -1;
+            for (NameValuePair nvp : spooled.getMetadata()) {
+                if (TransparentCompressor.UNCOMPRESSED_SIZE.equals(nvp.getName())) {
+                    uncompressedSize = NumberUtils.toLong(nvp.getValue(), -1);
+                }
+            }
+            Map<String, Object> infoMap = new HashMap<>(8);
+            infoMap.put("SourceIpAddr", null);
+            infoMap.put("FileSize", uncompressedSize >= 0 ? uncompressedSize : content.length);
+            infoMap.put("StoredSize", (long) content.length);
+            infoMap.put("Compressed", uncompressedSize >= 0);
+            infoMap.put("CreateTime", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(spooled.getCreatedAt())));
+            infoMap.put("CRC32", (int) crc32.getValue());
+            return infoMap;
+        }
         FileInfo fileInfo = null;
         try {
-            fileInfo = storageClient.get_file_info1(filepath);
+            fileInfo = queryFileInfo(filepath);
         } catch (IOException e) {
             e.printStackTrace();
         } catch (MyException e) {
             e.printStackTrace();
         }
-        // 返还对象
-        TrackerServerPool.returnObject(trackerServer);
 
-        Map<String, Object> infoMap = new HashMap<>(4);
+        Map<String, Object> infoMap = new HashMap<>(8);
 
+        long uncompressedSize = getUncompressedSize(filepath);
         infoMap.put("SourceIpAddr", fileInfo.getSourceIpAddr());
-        infoMap.put("FileSize", fileInfo.getFileSize());
+        infoMap.put("FileSize", uncompressedSize >= 0 ? uncompressedSize : fileInfo.getFileSize());
+        infoMap.put("StoredSize", fileInfo.getFileSize());
+        infoMap.put("Compressed", uncompressedSize >= 0);
         infoMap.put("CreateTime", new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(fileInfo.getCreateTimestamp()));
         infoMap.put("CRC32", fileInfo.getCrc32());
+        infoMap.put("Appender", isAppenderFile(filepath));
 
         return infoMap;
     }
 
     /**
-     * 获取文件描述信息
-     * 
+     * 是否透明压缩存储. 压缩存储的文件直接通过文件服务器(nginx)的地址访问时没有 Content-Encoding，
+     * 客户端拿到的是压缩后的内容，只能通过本服务的下载接口访问. <br>
+     * 未启用压缩时直接返回 false，不查询(关闭压缩之前上传的压缩文件也返回 false)；
+     * 只有可压缩类型的文件需要查询压缩信息，启用文件索引时从索引读取，不访问文件服务器
+     *
      * @param filepath 文件路径
-     * @return 文件描述信息
+     * @return 压缩存储返回 true
+     * @throws FastDFSException 查询描述信息失败
      */
-    public Map<String, Object> getFileDescriptions(String filepath) throws FastDFSException {
-        TrackerServer trackerServer = TrackerServerPool.borrowObject();
-        StorageClient1 storageClient = new StorageClient1(trackerServer, null);
-        NameValuePair[] nvps = null;
+    public boolean isCompressed(String filepath) throws FastDFSException {
+        return transparentCompressor.isEnabled() && getUncompressedSize(filepath) >= 0;
+    }
+
+    /**
+     * 不访问文件服务器判断文件是否可能透明压缩存储，批量返回访问地址时使用. 未启用压缩或不是可压缩类型时返回 false；
+     * 已建索引的文件按索引判断，没有索引的可压缩类型文件都当作可能压缩
+     *
+     * @param filepath 文件路径
+     * @return 可能压缩存储返回 true
+     */
+    public boolean mayBeCompressed(String filepath) {
+        if (!transparentCompressor.isEnabled() || !transparentCompressor.isCompressibleType(getFilenameSuffix(filepath))) {
+            return false;
+        }
+        FileIndex.Entry entry = fileIndex.isEnabled() ? fileIndex.get(filepath) : null;
+        return entry == null || CompressionCodecs.get((String) entry.getDescriptions().get(TransparentCompressor.COMPRESSION)) != null;
+    }
+
+    /**
+     * @return 透明压缩存储的文件的原始大小，没有压缩或文件不存在返回 -1
+     * @throws FastDFSException 查询描述信息失败
+     */
+    private long getUncompressedSize(String filepath) throws FastDFSException {
+        if (!transparentCompressor.isCompressibleType(getFilenameSuffix(filepath))) {
+            return -1;
+        }
+        Map<String, ?> descriptions = getCompressionDescriptions(filepath);
+        if (descriptions == null || CompressionCodecs.get((String) descriptions.get(TransparentCompressor.COMPRESSION)) == null) {
+            return -1;
+        }
+        return Math.max(0, NumberUtils.toLong((String) descriptions.get(TransparentCompressor.UNCOMPRESSED_SIZE), 0));
+    }
+
+    /**
+     * 读取包含压缩信息的描述信息：已建索引的文件从索引读取，否则查询 Storage. 与 getFileDescriptions 不同，
+     * 查询失败时抛出异常，不当作没有压缩
+     *
+     * @return 描述信息，文件不存在或没有描述信息时为空
+     */
+    private Map<String, ?> getCompressionDescriptions(String filepath) throws FastDFSException {
+        FileIndex.Entry entry = fileIndex.isEnabled() ? fileIndex.get(filepath) : null;
+        if (entry != null) {
+            return entry.getDescriptions();
+        }
+        if (UploadSpool.isProvisional(filepath)) {
+            return getFileDescriptions(filepath);
+        }
+        byte[] errno = new byte[1];
+        NameValuePair[] nvps;
         try {
-            nvps = storageClient.get_metadata1(filepath);
+            nvps = storageExecutor.executeHedged(StorageOperation.GET_METADATA, filepath, storageClient -> {
+                NameValuePair[] result = storageClient.get_metadata1(filepath);
+                errno[0] = storageClient.getErrorCode();
+                return result;
+            });
         } catch (IOException e) {
             e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE, ErrorCode.FILE_SERVER_CONNECTION_FAILED.MESSAGE);
         } catch (MyException e) {
             e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE, ErrorCode.FILE_SERVER_CONNECTION_FAILED.MESSAGE);
+        }
+        if (errno[0] != 0 && errno[0] != ProtoCommon.ERR_NO_ENOENT) {
+            throw new FastDFSException(ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE, ErrorCode.FILE_SERVER_CONNECTION_FAILED.MESSAGE);
+        }
+        Map<String, String> descriptions = new HashMap<>();
+        if (nvps != null) {
+            for (NameValuePair nvp : nvps) {
+                descriptions.put(nvp.getName(), nvp.getValue());
+            }
+        }
+        return descriptions;
+    }
+
+    /**
+     * 是否为 appender 文件. appender 文件可以追加、修改、截断，大小和内容会变化，文件ID不变.
+     *
+     * @param filepath 文件路径
+     * @return 文件ID中带有 appender 标记时返回 true，暂存区的临时文件ID返回 false
+     */
+    public static boolean isAppenderFile(String filepath) {
+        byte[] buff = ReadYourWrites.decode(FastDFSClusters.toLocalId(filepath));
+        return buff != null && (ProtoCommon.buff2long(buff, 8) & ProtoCommon.APPENDER_FILE_SIZE) != 0;
+    }
+
+    /**
+     * 获取文件描述信息
+     * 
+     * @param filepath 文件路径
+     * @return 文件描述信息
+     */
+    public Map<String, Object> getFileDescriptions(String filepath) throws FastDFSException {
+        NameValuePair[] nvps = null;
+        if (UploadSpool.isProvisional(filepath)) {
+            UploadSpool.SpooledFile spooled = uploadSpool.getSpooledFile(filepath);
+            if (spooled == null) {
+                return getFileDescriptions(getSpooledFileId(filepath));
+            }
+            nvps = spooled.getMetadata();
+        } else {
+            try {
+                nvps = storageExecutor.executeHedged(StorageOperation.GET_METADATA, filepath,
+                        storageClient -> storageClient.get_metadata1(filepath));
+            } catch (IOException e) {
+                e.printStackTrace();
+            } catch (MyException e) {
+                e.printStackTrace();
+            }
         }
-        // 返还对象
-        TrackerServerPool.returnObject(trackerServer);
 
         Map<String, Object> infoMap = null;
 
@@ -570,12 +1982,301 @@ public class FastDFSClient {
      */
     public String getOriginalFilename(String filepath) throws FastDFSException {
         Map<String, Object> descriptions = getFileDescriptions(filepath);
-        if (descriptions.get(FILENAME) != null) {
+        if (descriptions != null && descriptions.get(FILENAME) != null) {
             return (String) descriptions.get(FILENAME);
         }
         return null;
     }
 
+    /**
+     * 修改文件描述信息，与已有的描述信息合并，同名的覆盖. 同步更新本地文件索引. 不能修改服务端设置的描述信息，
+     * 见 {@link #checkDescriptions(Map)}；过期时间通过 {@link #setFileExpiry(String, long)} 修改
+     *
+     * @param filepath 文件路径，暂存区的文件上传后才能修改
+     * @param descriptions 新的描述信息
+     */
+    public void setFileDescriptions(String filepath, Map<String, String> descriptions) throws FastDFSException {
+        checkDescriptions(descriptions);
+        updateDescriptions(filepath, descriptions);
+    }
+
+    /**
+     * 重新设置或取消文件的过期时间
+     *
+     * @param filepath 文件路径，暂存区的文件上传后才能修改
+     * @param ttl 从现在开始的存活时间(秒)，0 表示取消过期
+     */
+    public void setFileExpiry(String filepath, long ttl) throws FastDFSException {
+        Map<String, String> descriptions = expiry(ttl);
+        if (descriptions.isEmpty()) {
+            descriptions.put(EXPIRE_AT, "");
+        }
+        updateDescriptions(filepath, descriptions);
+    }
+
+    /**
+     * 合并描述信息. 包含过期时间 {@link #EXPIRE_AT} 时重新设置，为空或 0 时取消过期
+     */
+    private void updateDescriptions(String filepath, Map<String, String> descriptions) throws FastDFSException {
+        if (StringUtils.isBlank(filepath)) {
+            throw new FastDFSException(ErrorCode.FILE_PATH_ISNULL.CODE, ErrorCode.FILE_PATH_ISNULL.MESSAGE);
+        }
+        if (UploadSpool.isProvisional(filepath)) {
+            updateDescriptions(getSpooledFileId(filepath), descriptions);
+            return;
+        }
+        if (descriptions == null || descriptions.isEmpty()) {
+            return;
+        }
+        List<NameValuePair> nvpsList = new ArrayList<>();
+        descriptions.forEach((key, value) -> {
+            nvpsList.add(new NameValuePair(key, value));
+        });
+        try {
+            int errno = storageExecutor.execute(StorageOperation.SET_METADATA, filepath, storageClient ->
+                    storageClient.set_metadata1(filepath, toArray(nvpsList), ProtoCommon.STORAGE_SET_METADATA_FLAG_MERGE));
+            checkUpdated(errno);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPDATE_FAILED.CODE, ErrorCode.FILE_UPDATE_FAILED.MESSAGE);
+        } catch (MyException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPDATE_FAILED.CODE, ErrorCode.FILE_UPDATE_FAILED.MESSAGE);
+        }
+        fileIndex.merge(filepath, descriptions);
+        if (descriptions.containsKey(EXPIRE_AT)) {
+            scheduleExpiry(filepath, descriptions.get(EXPIRE_AT));
+        }
+    }
+
+    /**
+     * 设置或取消文件的过期时间
+     *
+     * @param expireAt 过期时间(毫秒)，为空、0 或格式错误时取消
+     */
+    private void scheduleExpiry(String fileId, String expireAt) {
+        long time = NumberUtils.toLong(StringUtils.trimToNull(expireAt), 0);
+        if (time > 0) {
+            expirySweeper.schedule(fileId, time);
+        } else {
+            expirySweeper.cancel(fileId);
+        }
+    }
+
+    /**
+     * 从本地文件索引查询文件，不访问文件服务器
+     *
+     * @param query 文件名前缀、描述信息、上传时间范围和翻页条件
+     * @return 一页结果，按上传时间倒序
+     * @throws FastDFSException 没有启用文件索引或翻页位置错误
+     */
+    public FileIndex.Page listFiles(FileIndex.Query query) throws FastDFSException {
+        if (!fileIndex.isEnabled()) {
+            throw new FastDFSException(ErrorCode.FILE_INDEX_DISABLED.CODE, ErrorCode.FILE_INDEX_DISABLED.MESSAGE);
+        }
+        try {
+            return fileIndex.query(query);
+        } catch (IllegalArgumentException e) {
+            throw new FastDFSException(ErrorCode.FILE_INDEX_QUERY_INVALID.CODE, ErrorCode.FILE_INDEX_QUERY_INVALID.MESSAGE);
+        }
+    }
+
+    /**
+     * 从文件ID重建本地文件索引. 并行查询每个文件的上传时间和描述信息，已不存在的文件从索引中删除. <br>
+     * 文件ID可以来自业务数据库、访问日志等，逐个读取，不需要全部加载到内存.
+     *
+     * @param fileIds 文件ID
+     * @param parallelism 并行数
+     * @return 写入索引的文件数
+     * @throws FastDFSException 没有启用文件索引
+     */
+    public int rebuildIndex(Iterable<String> fileIds, int parallelism) throws FastDFSException {
+        if (!fileIndex.isEnabled()) {
+            throw new FastDFSException(ErrorCode.FILE_INDEX_DISABLED.CODE, ErrorCode.FILE_INDEX_DISABLED.MESSAGE);
+        }
+        AtomicInteger sequence = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, parallelism), r -> {
+            Thread thread = new Thread(r, "fastdfs-index-rebuild-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        // 限制排队的任务数，文件ID很多时不占用过多内存
+        Semaphore permits = new Semaphore(Math.max(1, parallelism) * 4);
+        AtomicInteger indexed = new AtomicInteger();
+        AtomicInteger removed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        try {
+            for (String fileId : fileIds) {
+                if (StringUtils.isBlank(fileId)) {
+                    continue;
+                }
+                String id = fileId.trim();
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        if (indexFile(id)) {
+                            indexed.incrementAndGet();
+                        } else {
+                            removed.incrementAndGet();
+                        }
+                    } catch (FastDFSException | IOException | MyException | RuntimeException e) {
+                        failed.incrementAndGet();
+                        logger.warn("index file {} failed: {}", id, e.getMessage());
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            executor.shutdownNow();
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("rebuild file index, indexed = {}, removed = {}, failed = {}", indexed.get(), removed.get(), failed.get());
+        }
+        return indexed.get();
+    }
+
+    /**
+     * 找出没有被业务引用的孤儿文件，如业务事务失败后留下的文件，放入过期清理在低峰时段限速删除. <br>
+     * 业务引用的文件ID逐个读入布隆过滤器(误判率 1%)，再与本地文件索引比较：不在过滤器中且上传超过 minAge 的是孤儿文件.
+     * 误判只会漏掉孤儿文件，不会删除被引用的文件. 暂存区的临时文件ID按上传后的文件ID加入过滤器. 已设置过期时间的文件不重复处理. <br>
+     * 引用列表不完整时会把被引用的文件当作孤儿文件，以下情况只统计不删除，aborted 为原因：
+     * <ul>
+     *     <li>没有给出预计的引用数，或读到的引用数少于预计的引用数(如导出被截断)</li>
+     *     <li>没有读到任何引用</li>
+     *     <li>有无法解析的临时文件ID(映射已确认或不存在)</li>
+     *     <li>孤儿文件占索引文件数的比例超过 maxOrphanRatio</li>
+     * </ul>
+     *
+     * @param referencedIds 业务引用的文件ID，可以来自业务数据库导出
+     * @param expected 预计的引用数，删除时必须给出；小于索引的文件数时过滤器按索引的文件数
+     * @param minAge 只处理上传超过该时间(毫秒)的文件，避免删除业务还没有保存的新文件
+     * @param maxOrphanRatio 孤儿文件占索引文件数的最大比例，超过时不删除
+     * @param dryRun 只统计，不删除
+     * @return 引用数、无法解析的临时文件ID数、索引的文件数、孤儿文件数、放入清理的文件数、不删除的原因和部分孤儿文件ID
+     * @throws FastDFSException 没有启用文件索引或过期清理
+     */
+    public Map<String, Object> reconcileOrphans(Iterable<String> referencedIds, long expected, long minAge,
+                                                double maxOrphanRatio, boolean dryRun) throws FastDFSException {
+        if (!fileIndex.isEnabled()) {
+            throw new FastDFSException(ErrorCode.FILE_INDEX_DISABLED.CODE, ErrorCode.FILE_INDEX_DISABLED.MESSAGE);
+        }
+        if (!dryRun && !expirySweeper.isStarted()) {
+            throw new FastDFSException(ErrorCode.FILE_EXPIRY_DISABLED.CODE, ErrorCode.FILE_EXPIRY_DISABLED.MESSAGE);
+        }
+        BloomFilter references = new BloomFilter(Math.max(expected, fileIndex.size()), 0.01);
+        long referenced = 0;
+        long unresolved = 0;
+        for (String id : referencedIds) {
+            if (StringUtils.isBlank(id)) {
+                continue;
+            }
+            String fileId = id.trim();
+            referenced++;
+            if (UploadSpool.isProvisional(fileId)) {
+                // 还在等待上传的文件不在索引中，上传后也不超过 minAge
+                String uploaded = uploadSpool.getFileId(fileId);
+                if (uploaded != null) {
+                    references.add(uploaded);
+                } else if (uploadSpool.getState(fileId) == null) {
+                    unresolved++;
+                }
+                continue;
+            }
+            references.add(fileId);
+        }
+
+        long now = System.currentTimeMillis();
+        Predicate<FileIndex.Entry> orphan = entry -> entry.getCreatedAt() <= now - minAge
+                && !references.mightContain(entry.getFileId()) && expirySweeper.getExpireAt(entry.getFileId()) < 0;
+        AtomicInteger scanned = new AtomicInteger();
+        AtomicInteger orphans = new AtomicInteger();
+        List<String> samples = new ArrayList<>();
+        fileIndex.forEach(entry -> {
+            scanned.incrementAndGet();
+            if (orphan.test(entry)) {
+                orphans.incrementAndGet();
+                if (samples.size() < 100) {
+                    samples.add(entry.getFileId());
+                }
+            }
+        });
+
+        String aborted = null;
+        if (expected <= 0) {
+            aborted = "expected reference count is required";
+        } else if (referenced == 0) {
+            aborted = "no reference read";
+        } else if (referenced < expected) {
+            aborted = "references read " + referenced + " less than expected " + expected;
+        } else if (unresolved > 0) {
+            aborted = unresolved + " spool ids can not be resolved";
+        } else if (orphans.get() > scanned.get() * maxOrphanRatio) {
+            aborted = "orphans " + orphans.get() + " of " + scanned.get() + " exceed ratio " + maxOrphanRatio;
+        }
+        AtomicInteger scheduled = new AtomicInteger();
+        if (!dryRun && aborted == null) {
+            fileIndex.forEach(entry -> {
+                if (orphan.test(entry)) {
+                    expirySweeper.schedule(entry.getFileId(), now);
+                    scheduled.incrementAndGet();
+                }
+            });
+        }
+        if (!dryRun && aborted != null) {
+            logger.warn("reconcile orphan files aborted: {}", aborted);
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("reconcile orphan files, referenced = {}, unresolved = {}, scanned = {}, orphans = {}, scheduled = {}",
+                    referenced, unresolved, scanned.get(), orphans.get(), scheduled.get());
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("referenced", referenced);
+        result.put("unresolved", unresolved);
+        result.put("scanned", scanned.get());
+        result.put("orphans", orphans.get());
+        result.put("scheduled", scheduled.get());
+        result.put("aborted", aborted);
+        result.put("samples", samples);
+        return result;
+    }
+
+    /**
+     * 查询文件的上传时间和描述信息写入索引
+     *
+     * @return 文件存在时返回 true，不存在时从索引中删除并返回 false
+     */
+    private boolean indexFile(String fileId) throws FastDFSException, IOException, MyException {
+        FileInfo fileInfo = queryFileInfo(fileId);
+        byte[] errno = new byte[1];
+        NameValuePair[] nvps = fileInfo == null ? null : storageExecutor.execute(StorageOperation.GET_METADATA, fileId, storageClient -> {
+            NameValuePair[] result = storageClient.get_metadata1(fileId);
+            errno[0] = storageClient.getErrorCode();
+            return result;
+        });
+        if (fileInfo == null || errno[0] == ProtoCommon.ERR_NO_ENOENT) {
+            fileIndex.remove(fileId);
+            return false;
+        }
+        if (errno[0] != 0) {
+            throw new FastDFSException(ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE, ErrorCode.FILE_SERVER_CONNECTION_FAILED.MESSAGE);
+        }
+        Map<String, String> descriptions = new LinkedHashMap<>();
+        if (nvps != null) {
+            for (NameValuePair nvp : nvps) {
+                descriptions.put(nvp.getName(), nvp.getValue());
+            }
+        }
+        fileIndex.put(fileId, fileInfo.getCreateTimestamp().getTime(), descriptions);
+        if (descriptions.containsKey(EXPIRE_AT)) {
+            scheduleExpiry(fileId, descriptions.get(EXPIRE_AT));
+        }
+        return true;
+    }
+
     /**
      * 获取文件名称的后缀
      *
@@ -637,35 +2338,62 @@ public class FastDFSClient {
      * 获取访问服务器的token，拼接到地址后面
      *
      * @param filepath 文件路径 group1/M00/00/00/wKgzgFnkTPyAIAUGAAEoRmXZPp876.jpeg
-     * @param httpSecretKey 秘钥
+     * @param httpSecretKey 秘钥，文件所在集群配置了秘钥时使用集群的秘钥
      * @return 返回token，如： token=078d370098b03e9020b82c829c205e1f&ts=1508141521
      */
     public static String getToken(String filepath, String httpSecretKey){
         // unix seconds
         int ts = (int) Instant.now().getEpochSecond();
-        // token
-        String token = "null";
-        try {
-            token = ProtoCommon.getToken(getFilename(filepath), ts, httpSecretKey);
-        } catch (UnsupportedEncodingException e) {
-            e.printStackTrace();
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
-        } catch (MyException e) {
-            e.printStackTrace();
+        return TokenSigner.of(getSecretKey(filepath, httpSecretKey)).token(filepath, ts);
+    }
+
+    /**
+     * 批量获取访问服务器的token，使用同一个时间戳. 列表接口一次返回多个文件的访问地址时使用
+     *
+     * @param filepaths 文件路径
+     * @param httpSecretKey 秘钥，文件所在集群配置了秘钥时使用集群的秘钥
+     * @return 文件路径 -> token，顺序与 filepaths 一致，重复的只保留一个
+     */
+    public static Map<String, String> getTokens(Collection<String> filepaths, String httpSecretKey) {
+        int ts = (int) Instant.now().getEpochSecond();
+        Map<String, String> tokens = new LinkedHashMap<>(Math.max(16, filepaths.size() * 4 / 3 + 1));
+        for (String filepath : filepaths) {
+            if (StringUtils.isBlank(filepath) || tokens.containsKey(filepath)) {
+                continue;
+            }
+            // TokenSigner.of 按秘钥内容缓存，同一个秘钥的文件共用签名器
+            tokens.put(filepath, TokenSigner.of(getSecretKey(filepath, httpSecretKey)).token(filepath, ts));
         }
+        return tokens;
+    }
 
-        StringBuilder sb = new StringBuilder();
-        sb.append("token=").append(token);
-        sb.append("&ts=").append(ts);
+    /**
+     * 校验访问地址上的token，与 fastdfs-nginx-module 的防盗链校验一致
+     *
+     * @param filepath 文件路径
+     * @param token token 参数
+     * @param ts ts 参数，unix seconds
+     * @param httpSecretKey 秘钥，文件所在集群配置了秘钥时使用集群的秘钥
+     * @param ttl token 有效期(秒)，与 http.anti_steal.token_ttl 一致
+     * @return 是否有效
+     */
+    public static boolean verifyToken(String filepath, String token, int ts, String httpSecretKey, int ttl) {
+        return TokenSigner.of(getSecretKey(filepath, httpSecretKey))
+                .verify(filepath, token, ts, Instant.now().getEpochSecond(), ttl);
+    }
 
-        return sb.toString();
+    /**
+     * @return 文件所在集群的秘钥，没有配置时为 httpSecretKey
+     */
+    private static String getSecretKey(String filepath, String httpSecretKey) {
+        FastDFSCluster cluster = FastDFSClusters.getInstance().resolve(filepath);
+        return cluster != null && cluster.getHttpSecretKey() != null ? cluster.getHttpSecretKey() : httpSecretKey;
     }
 
     /**
      * @return the max file size
      */
-    public int getMaxFileSize() {
+    public long getMaxFileSize() {
         return maxFileSize;
     }
 
@@ -673,10 +2401,124 @@ public class FastDFSClient {
      * Set max file size, default 100M
      * @param maxFileSize the max file size
      */
-    public void setMaxFileSize(int maxFileSize) {
+    public void setMaxFileSize(long maxFileSize) {
         this.maxFileSize = maxFileSize;
     }
 
+    /**
+     * @return the size above which files are streamed instead of buffered in memory
+     */
+    public int getStreamThreshold() {
+        return streamThreshold;
+    }
+
+    /**
+     * Set the size above which files are streamed instead of buffered in memory, default 16M
+     * @param streamThreshold the stream threshold
+     */
+    public void setStreamThreshold(int streamThreshold) {
+        this.streamThreshold = streamThreshold;
+    }
+
+    /**
+     * @return whether to check the file content on upload
+     */
+    public boolean isContentCheck() {
+        return contentCheck;
+    }
+
+    /**
+     * Set whether to check the file content matches the suffix on upload, default true
+     * @param contentCheck check the file content
+     */
+    public void setContentCheck(boolean contentCheck) {
+        this.contentCheck = contentCheck;
+    }
+
+    /**
+     * @return the transparent compressor
+     */
+    public TransparentCompressor getTransparentCompressor() {
+        return transparentCompressor;
+    }
+
+    /**
+     * @return the image thumbnailer
+     */
+    public ImageThumbnailer getImageThumbnailer() {
+        return imageThumbnailer;
+    }
+
+    /**
+     * @return the image optimizer
+     */
+    public ImageOptimizer getImageOptimizer() {
+        return imageOptimizer;
+    }
+
+    /**
+     * @return the concurrency limiter
+     */
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return storageExecutor.getConcurrencyLimiter();
+    }
+
+    /**
+     * @return the hedged reader
+     */
+    public HedgedReader getHedgedReader() {
+        return storageExecutor.getHedgedReader();
+    }
+
+    /**
+     * @return the upload group selector
+     */
+    public GroupSelector getGroupSelector() {
+        return groupSelector;
+    }
+
+    /**
+     * @param groupSelector the upload group selector, null to let the tracker choose
+     */
+    public void setGroupSelector(GroupSelector groupSelector) {
+        this.groupSelector = groupSelector;
+    }
+
+    /**
+     * @return the clusters files are sharded across
+     */
+    public FastDFSClusters getClusters() {
+        return clusters;
+    }
+
+    /**
+     * @return the write-behind upload spool
+     */
+    public UploadSpool getUploadSpool() {
+        return uploadSpool;
+    }
+
+    /**
+     * @return the local file index
+     */
+    public FileIndex getFileIndex() {
+        return fileIndex;
+    }
+
+    /**
+     * @return the expired file sweeper
+     */
+    public ExpirySweeper getExpirySweeper() {
+        return expirySweeper;
+    }
+
+    /**
+     * @return the read-your-writes routing
+     */
+    public ReadYourWrites getReadYourWrites() {
+        return storageExecutor.getReadYourWrites();
+    }
+
     /**
      * 测试
      */
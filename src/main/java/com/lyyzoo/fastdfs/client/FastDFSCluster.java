@@ -0,0 +1,360 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.apache.commons.pool2.impl.GenericObjectPool;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.csource.common.MyException;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.DownloadCallback;
+import org.csource.fastdfs.FileInfo;
+import org.csource.fastdfs.StorageClient1;
+import org.csource.fastdfs.StorageServer;
+import org.csource.fastdfs.TrackerGroup;
+import org.csource.fastdfs.TrackerServer;
+import org.csource.fastdfs.UploadCallback;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一个独立的 FastDFS 集群：自己的 Tracker、TrackerServer 连接池、组状态和防盗链秘钥.
+ * <p>
+ * 默认集群使用 ClientGlobal 的配置和 {@link TrackerServerPool}，文件ID与单集群时相同；
+ * 其它集群的文件ID带集群前缀，如 cluster2:group1/M00/00/00/xxx.jpg，读取时直接路由到该集群. <br>
+ * 写入权重可以在一段时间内逐渐调整(扩容时新集群从 0 开始)，见 {@link #setWeight(int, long)}.
+ */
+public class FastDFSCluster {
+
+    /**
+     * 集群状态
+     */
+    public enum State {
+        /**
+         * 可读写
+         */
+        ACTIVE,
+        /**
+         * 只读，不再写入新文件
+         */
+        READ_ONLY
+    }
+
+    private final String name;
+
+    /**
+     * Tracker 地址，默认集群为空
+     */
+    private final InetSocketAddress[] trackers;
+
+    /**
+     * TrackerServer 连接池，默认集群为空，使用 TrackerServerPool
+     */
+    private final GenericObjectPool<TrackerServer> pool;
+
+    private final GroupMonitor groupMonitor;
+
+    private volatile State state = State.ACTIVE;
+
+    /**
+     * 防盗链秘钥，为空时使用 fastdfs.http_secret_key
+     */
+    private volatile String httpSecretKey;
+
+    /**
+     * 文件服务器地址，为空时使用 file_server_addr
+     */
+    private volatile String httpServer;
+
+    /**
+     * 权重调整：从 fromWeight 开始，在 rampMillis 内线性变为 toWeight
+     */
+    private volatile int fromWeight;
+    private volatile int toWeight;
+    private volatile long rampStart;
+    private volatile long rampMillis;
+
+    /**
+     * 默认集群
+     */
+    FastDFSCluster(String name) {
+        this.name = name;
+        this.trackers = null;
+        this.pool = null;
+        this.groupMonitor = new GroupMonitor(this);
+        this.fromWeight = this.toWeight = 100;
+    }
+
+    /**
+     * @param name 集群名称，出现在文件ID前缀中
+     * @param trackers Tracker 地址
+     * @param maxConnection 最大连接数
+     */
+    public FastDFSCluster(String name, InetSocketAddress[] trackers, int maxConnection) {
+        if (!FastDFSClusters.isValidName(name)) {
+            throw new IllegalArgumentException("invalid cluster name: " + name);
+        }
+        if (trackers == null || trackers.length == 0) {
+            throw new IllegalArgumentException("cluster " + name + " has no tracker");
+        }
+        this.name = name;
+        this.trackers = trackers;
+        GenericObjectPoolConfig poolConfig = new GenericObjectPoolConfig();
+        poolConfig.setMinIdle(2);
+        if (maxConnection > 0) {
+            poolConfig.setMaxTotal(maxConnection);
+        }
+        this.pool = new GenericObjectPool<>(new TrackerServerFactory(new TrackerGroup(trackers)), poolConfig);
+        this.groupMonitor = new GroupMonitor(this);
+        this.fromWeight = this.toWeight = 100;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return 是否为默认集群，默认集群的文件ID没有前缀
+     */
+    public boolean isDefault() {
+        return pool == null;
+    }
+
+    /**
+     * 获取 TrackerServer
+     *
+     * @return TrackerServer，获取失败返回 null
+     */
+    public TrackerServer borrowObject() throws FastDFSException {
+        if (pool == null) {
+            return TrackerServerPool.borrowObject();
+        }
+        TrackerServer trackerServer = null;
+        try {
+            trackerServer = pool.borrowObject();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return trackerServer;
+    }
+
+    /**
+     * 回收 TrackerServer
+     */
+    public void returnObject(TrackerServer trackerServer) {
+        if (pool == null) {
+            TrackerServerPool.returnObject(trackerServer);
+        } else {
+            pool.returnObject(trackerServer);
+        }
+    }
+
+    /**
+     * 关闭连接池和组状态刷新，默认集群只停止刷新
+     */
+    public void close() {
+        groupMonitor.stop();
+        if (pool != null) {
+            pool.close();
+        }
+    }
+
+    /**
+     * 创建 StorageClient，其它集群返回的客户端在文件ID上去掉和加上集群前缀
+     */
+    public StorageClient1 newStorageClient(TrackerServer trackerServer, StorageServer storageServer) {
+        return pool == null ? new StorageClient1(trackerServer, storageServer)
+                : new ClusterStorageClient(trackerServer, storageServer);
+    }
+
+    /**
+     * @param localId 不带集群前缀的文件ID或组名
+     * @return 带本集群前缀的文件ID，默认集群原样返回
+     */
+    public String toClusterId(String localId) {
+        return isDefault() ? localId : FastDFSClusters.toClusterId(name, localId);
+    }
+
+    /**
+     * @return 当前的写入权重
+     */
+    public int getWeight() {
+        long elapsed = System.currentTimeMillis() - rampStart;
+        if (rampMillis <= 0 || elapsed >= rampMillis) {
+            return toWeight;
+        }
+        return (int) (fromWeight + (toWeight - fromWeight) * elapsed / rampMillis);
+    }
+
+    /**
+     * @return 目标写入权重
+     */
+    public int getTargetWeight() {
+        return toWeight;
+    }
+
+    /**
+     * 调整写入权重. 权重在 rampSeconds 内从当前值线性变为目标值，写入逐渐转移而不是一次性涌向新集群.
+     * 已写入的文件ID带集群前缀，调整权重不影响读取.
+     *
+     * @param weight 目标权重，0 表示不再写入
+     * @param rampSeconds 调整时长(秒)，0 表示立即生效
+     */
+    public synchronized void setWeight(int weight, long rampSeconds) {
+        this.fromWeight = getWeight();
+        this.toWeight = Math.max(0, weight);
+        this.rampStart = System.currentTimeMillis();
+        this.rampMillis = Math.max(0, rampSeconds) * 1000;
+    }
+
+    /**
+     * @return 是否可以写入新文件
+     */
+    public boolean isWritable() {
+        return state == State.ACTIVE && getWeight() > 0;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public void setState(State state) {
+        this.state = state;
+    }
+
+    public String getHttpSecretKey() {
+        return httpSecretKey;
+    }
+
+    public void setHttpSecretKey(String httpSecretKey) {
+        this.httpSecretKey = httpSecretKey;
+    }
+
+    public String getHttpServer() {
+        return httpServer;
+    }
+
+    public void setHttpServer(String httpServer) {
+        this.httpServer = httpServer;
+    }
+
+    public GroupMonitor getGroupMonitor() {
+        return groupMonitor;
+    }
+
+    /**
+     * @return 集群状态、权重、连接池和组状态
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("state", state.name());
+        snapshot.put("weight", getWeight());
+        snapshot.put("targetWeight", toWeight);
+        if (trackers != null) {
+            List<String> addresses = new ArrayList<>(trackers.length);
+            for (InetSocketAddress tracker : trackers) {
+                addresses.add(tracker.getHostString() + ":" + tracker.getPort());
+            }
+            snapshot.put("trackers", addresses);
+        }
+        Map<String, Object> poolMap = new LinkedHashMap<>();
+        poolMap.put("active", pool == null ? TrackerServerPool.getNumActive() : pool.getNumActive());
+        poolMap.put("idle", pool == null ? TrackerServerPool.getNumIdle() : pool.getNumIdle());
+        poolMap.put("waiters", pool == null ? TrackerServerPool.getNumWaiters() : pool.getNumWaiters());
+        poolMap.put("maxTotal", pool == null ? TrackerServerPool.getMaxTotal() : pool.getMaxTotal());
+        snapshot.put("pool", poolMap);
+        snapshot.put("groups", groupMonitor.snapshot());
+        return snapshot;
+    }
+
+    /**
+     * 文件ID带集群前缀的 StorageClient：传入的文件ID去掉前缀，上传返回的文件ID加上本集群的前缀
+     */
+    private class ClusterStorageClient extends StorageClient1 {
+
+        ClusterStorageClient(TrackerServer trackerServer, StorageServer storageServer) {
+            super(trackerServer, storageServer);
+        }
+
+        @Override
+        public String upload_file1(String groupName, byte[] fileBuff, String fileExtName, NameValuePair[] metaList)
+                throws IOException, MyException {
+            return toClusterId(super.upload_file1(FastDFSClusters.toLocalId(groupName), fileBuff, fileExtName, metaList));
+        }
+
+        @Override
+        public String upload_file1(String groupName, long fileSize, UploadCallback callback, String fileExtName,
+                                   NameValuePair[] metaList) throws IOException, MyException {
+            return toClusterId(super.upload_file1(FastDFSClusters.toLocalId(groupName), fileSize, callback, fileExtName,
+                    metaList));
+        }
+
+        @Override
+        public String upload_appender_file1(String groupName, long fileSize, UploadCallback callback, String fileExtName,
+                                            NameValuePair[] metaList) throws IOException, MyException {
+            return toClusterId(super.upload_appender_file1(FastDFSClusters.toLocalId(groupName), fileSize, callback,
+                    fileExtName, metaList));
+        }
+
+        @Override
+        public int append_file1(String appenderFileId, long fileSize, UploadCallback callback) throws IOException, MyException {
+            return super.append_file1(FastDFSClusters.toLocalId(appenderFileId), fileSize, callback);
+        }
+
+        @Override
+        public int modify_file1(String appenderFileId, long fileOffset, long modifySize, UploadCallback callback)
+                throws IOException, MyException {
+            return super.modify_file1(FastDFSClusters.toLocalId(appenderFileId), fileOffset, modifySize, callback);
+        }
+
+        @Override
+        public int truncate_file1(String appenderFileId, long truncatedFileSize) throws IOException, MyException {
+            return super.truncate_file1(FastDFSClusters.toLocalId(appenderFileId), truncatedFileSize);
+        }
+
+        @Override
+        public String upload_file1(String masterFileId, String prefixName, byte[] fileBuff, String fileExtName,
+                                   NameValuePair[] metaList) throws IOException, MyException {
+            return toClusterId(super.upload_file1(FastDFSClusters.toLocalId(masterFileId), prefixName, fileBuff,
+                    fileExtName, metaList));
+        }
+
+        @Override
+        public int download_file1(String fileId, DownloadCallback callback) throws IOException, MyException {
+            return super.download_file1(FastDFSClusters.toLocalId(fileId), callback);
+        }
+
+        @Override
+        public int download_file1(String fileId, long fileOffset, long downloadBytes, DownloadCallback callback)
+                throws IOException, MyException {
+            return super.download_file1(FastDFSClusters.toLocalId(fileId), fileOffset, downloadBytes, callback);
+        }
+
+        @Override
+        public int delete_file1(String fileId) throws IOException, MyException {
+            return super.delete_file1(FastDFSClusters.toLocalId(fileId));
+        }
+
+        @Override
+        public NameValuePair[] get_metadata1(String fileId) throws IOException, MyException {
+            return super.get_metadata1(FastDFSClusters.toLocalId(fileId));
+        }
+
+        @Override
+        public int set_metadata1(String fileId, NameValuePair[] metaList, byte opFlag) throws IOException, MyException {
+            return super.set_metadata1(FastDFSClusters.toLocalId(fileId), metaList, opFlag);
+        }
+
+        @Override
+        public FileInfo get_file_info1(String fileId) throws IOException, MyException {
+            return super.get_file_info1(FastDFSClusters.toLocalId(fileId));
+        }
+
+        @Override
+        public FileInfo query_file_info1(String fileId) throws IOException, MyException {
+            return super.query_file_info1(FastDFSClusters.toLocalId(fileId));
+        }
+    }
+}
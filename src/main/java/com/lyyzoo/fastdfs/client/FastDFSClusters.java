@@ -0,0 +1,338 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 多集群分片.
+ * <p>
+ * 每个集群有独立的 Tracker、连接池和秘钥，见 {@link FastDFSCluster}. <br>
+ * 写入时按加权 Rendezvous 哈希选择集群：配置了 shardKey 时按该描述信息(如租户)计算，同一个值总是写入同一个集群，
+ * 增加集群只会把约 新权重/总权重 的值转移到新集群；没有该描述信息时按权重随机. <br>
+ * 文件ID带集群前缀(默认集群没有前缀)，读取、删除直接路由到文件所在的集群，扩容和调整权重不需要迁移已有文件. <br>
+ * 与 TrackerServer 连接池一样是进程内共享的.
+ */
+public class FastDFSClusters {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(FastDFSClusters.class);
+
+    /**
+     * 默认集群的名称
+     */
+    public static final String DEFAULT = "default";
+
+    /**
+     * 集群名称与文件ID之间的分隔符，如 cluster2:group1/M00/00/00/xxx.jpg
+     */
+    public static final String SEPARATOR = ":";
+
+    private static final String PREFIX = "cluster.";
+
+    private static final FastDFSClusters INSTANCE = new FastDFSClusters();
+
+    private final ConcurrentMap<String, FastDFSCluster> clusters = new ConcurrentHashMap<>();
+
+    private final FastDFSCluster defaultCluster = new FastDFSCluster(DEFAULT);
+
+    /**
+     * 按该描述信息选择写入的集群，为空时按权重随机
+     */
+    private volatile String shardKey;
+
+    /**
+     * 组状态刷新间隔(秒)
+     */
+    private volatile long groupRefreshSeconds = 30;
+
+    FastDFSClusters() {
+        clusters.put(DEFAULT, defaultCluster);
+    }
+
+    public static FastDFSClusters getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 按配置添加集群，已存在的集群只更新权重、状态和秘钥
+     * <pre>
+     * cluster.names=cluster2,cluster3
+     * cluster.shard_key=tenant
+     * cluster.default.weight=100
+     * cluster.cluster2.tracker_servers=10.0.0.1:22122,10.0.0.2:22122
+     * cluster.cluster2.http_secret_key=...
+     * cluster.cluster2.http_server=http://10.0.0.1
+     * cluster.cluster2.max_connection=8
+     * cluster.cluster2.weight=100
+     * cluster.cluster2.ramp_seconds=600
+     * cluster.cluster2.read_only=false
+     * </pre>
+     *
+     * @param properties 配置
+     */
+    public synchronized void configure(Properties properties) {
+        setShardKey(StringUtils.trimToNull(properties.getProperty(PREFIX + "shard_key")));
+        configure(defaultCluster, properties);
+        String names = properties.getProperty(PREFIX + "names");
+        if (StringUtils.isBlank(names)) {
+            return;
+        }
+        for (String name : names.split(",")) {
+            name = name.trim();
+            if (name.isEmpty() || DEFAULT.equals(name)) {
+                continue;
+            }
+            FastDFSCluster cluster = clusters.get(name);
+            if (cluster == null) {
+                String key = PREFIX + name + ".";
+                InetSocketAddress[] trackers = parseTrackers(properties.getProperty(key + "tracker_servers"));
+                int maxConnection = Integer.parseInt(properties.getProperty(key + "max_connection", "8").trim());
+                cluster = new FastDFSCluster(name, trackers, maxConnection);
+                // 新集群的权重从 0 开始逐渐增加
+                cluster.setWeight(0, 0);
+                add(cluster);
+            }
+            configure(cluster, properties);
+        }
+    }
+
+    private static void configure(FastDFSCluster cluster, Properties properties) {
+        String key = PREFIX + cluster.getName() + ".";
+        String weight = properties.getProperty(key + "weight");
+        if (StringUtils.isNotBlank(weight)) {
+            cluster.setWeight(Integer.parseInt(weight.trim()),
+                    Long.parseLong(properties.getProperty(key + "ramp_seconds", "0").trim()));
+        } else if (!cluster.isDefault() && cluster.getTargetWeight() == 0) {
+            cluster.setWeight(100, Long.parseLong(properties.getProperty(key + "ramp_seconds", "0").trim()));
+        }
+        cluster.setState(Boolean.parseBoolean(properties.getProperty(key + "read_only", "false").trim())
+                ? FastDFSCluster.State.READ_ONLY : FastDFSCluster.State.ACTIVE);
+        if (properties.getProperty(key + "http_secret_key") != null) {
+            cluster.setHttpSecretKey(StringUtils.trimToNull(properties.getProperty(key + "http_secret_key")));
+        }
+        if (properties.getProperty(key + "http_server") != null) {
+            cluster.setHttpServer(StringUtils.trimToNull(properties.getProperty(key + "http_server")));
+        }
+    }
+
+    private static InetSocketAddress[] parseTrackers(String trackerServers) {
+        if (StringUtils.isBlank(trackerServers)) {
+            return null;
+        }
+        String[] servers = trackerServers.split(",");
+        InetSocketAddress[] trackers = new InetSocketAddress[servers.length];
+        for (int i = 0; i < servers.length; i++) {
+            String[] parts = servers[i].trim().split(":");
+            if (parts.length != 2) {
+                throw new IllegalArgumentException("invalid tracker server: " + servers[i]);
+            }
+            trackers[i] = new InetSocketAddress(parts[0].trim(), Integer.parseInt(parts[1].trim()));
+        }
+        return trackers;
+    }
+
+    /**
+     * 添加集群
+     *
+     * @param cluster 集群
+     */
+    public void add(FastDFSCluster cluster) {
+        cluster.getGroupMonitor().setRefreshSeconds(groupRefreshSeconds);
+        if (clusters.putIfAbsent(cluster.getName(), cluster) != null) {
+            throw new IllegalArgumentException("cluster " + cluster.getName() + " already exists");
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("add cluster {}, weight = {}", cluster.getName(), cluster.getTargetWeight());
+        }
+    }
+
+    /**
+     * 移除集群，该集群上的文件将不能访问. 下线集群应先设置为只读，确认文件不再访问后再移除.
+     *
+     * @param name 集群名称，不能移除默认集群
+     */
+    public void remove(String name) {
+        if (DEFAULT.equals(name)) {
+            throw new IllegalArgumentException("can not remove the default cluster");
+        }
+        FastDFSCluster cluster = clusters.remove(name);
+        if (cluster != null) {
+            cluster.close();
+        }
+    }
+
+    /**
+     * @param name 集群名称
+     * @return 集群，不存在返回 null
+     */
+    public FastDFSCluster get(String name) {
+        return clusters.get(name);
+    }
+
+    public FastDFSCluster getDefault() {
+        return defaultCluster;
+    }
+
+    public List<FastDFSCluster> getClusters() {
+        return new ArrayList<>(clusters.values());
+    }
+
+    /**
+     * 根据文件ID的前缀找到集群
+     *
+     * @param fileId 文件ID或带前缀的组名
+     * @return 集群，没有前缀时为默认集群，前缀对应的集群不存在时返回 null
+     */
+    public FastDFSCluster resolve(String fileId) {
+        String name = getClusterName(fileId);
+        return name == null ? defaultCluster : clusters.get(name);
+    }
+
+    /**
+     * 选择写入的集群
+     *
+     * @param descriptions 文件描述信息，包含 shardKey 时按其值选择
+     * @return 集群，没有可写的集群时返回默认集群
+     */
+    public FastDFSCluster place(Map<String, String> descriptions) {
+        String key = shardKey == null || descriptions == null ? null : descriptions.get(shardKey);
+        return place(key);
+    }
+
+    /**
+     * 加权 Rendezvous 哈希：每个集群的得分为 -权重 / ln(hash(key, 集群))，取得分最高的集群.
+     *
+     * @param key 分片键，为空时按权重随机
+     * @return 集群，没有可写的集群时返回默认集群
+     */
+    public FastDFSCluster place(String key) {
+        FastDFSCluster best = null;
+        double bestScore = 0;
+        for (FastDFSCluster cluster : clusters.values()) {
+            int weight = cluster.getWeight();
+            if (cluster.getState() != FastDFSCluster.State.ACTIVE || weight <= 0) {
+                continue;
+            }
+            double u = key == null ? ThreadLocalRandom.current().nextDouble() : hash(key, cluster.getName());
+            double score = -weight / Math.log(Math.max(u, Double.MIN_VALUE));
+            if (best == null || score > bestScore) {
+                best = cluster;
+                bestScore = score;
+            }
+        }
+        return best == null ? defaultCluster : best;
+    }
+
+    /**
+     * @return (0, 1) 之间均匀分布的哈希值
+     */
+    private static double hash(String key, String cluster) {
+        // FNV-1a 64
+        long h = 0xcbf29ce484222325L;
+        for (byte b : (key + SEPARATOR + cluster).getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        // splitmix64 混合
+        h ^= h >>> 30;
+        h *= 0xbf58476d1ce4e5b9L;
+        h ^= h >>> 27;
+        h *= 0x94d049bb133111ebL;
+        h ^= h >>> 31;
+        return ((h >>> 11) + 0.5) / (1L << 53);
+    }
+
+    /**
+     * @param fileId 文件ID，如 cluster2:group1/M00/00/00/xxx.jpg
+     * @return 集群名称，没有前缀返回 null
+     */
+    public static String getClusterName(String fileId) {
+        if (fileId == null) {
+            return null;
+        }
+        int index = fileId.indexOf(SEPARATOR);
+        if (index <= 0) {
+            return null;
+        }
+        int slash = fileId.indexOf(FastDFSClient.SEPARATOR);
+        return slash >= 0 && slash < index ? null : fileId.substring(0, index);
+    }
+
+    /**
+     * @param fileId 文件ID
+     * @return 去掉集群前缀的文件ID，为空字符串时返回 null
+     */
+    public static String toLocalId(String fileId) {
+        String name = getClusterName(fileId);
+        if (name == null) {
+            return fileId;
+        }
+        String localId = fileId.substring(name.length() + SEPARATOR.length());
+        return localId.isEmpty() ? null : localId;
+    }
+
+    /**
+     * @param name 集群名称
+     * @param localId 不带前缀的文件ID或组名，可为空
+     * @return 带集群前缀的文件ID
+     */
+    public static String toClusterId(String name, String localId) {
+        if (localId == null || getClusterName(localId) != null) {
+            return localId;
+        }
+        return name + SEPARATOR + localId;
+    }
+
+    static boolean isValidName(String name) {
+        // spool: 是暂存区临时文件ID的前缀
+        return StringUtils.isNotBlank(name) && !DEFAULT.equals(name) && !UploadSpool.PREFIX.equals(name + SEPARATOR)
+                && !name.contains(SEPARATOR) && !name.contains(FastDFSClient.SEPARATOR) && !name.contains(",");
+    }
+
+    public String getShardKey() {
+        return shardKey;
+    }
+
+    public void setShardKey(String shardKey) {
+        this.shardKey = shardKey;
+    }
+
+    public long getGroupRefreshSeconds() {
+        return groupRefreshSeconds;
+    }
+
+    /**
+     * @param groupRefreshSeconds 所有集群的组状态刷新间隔(秒)
+     */
+    public void setGroupRefreshSeconds(long groupRefreshSeconds) {
+        this.groupRefreshSeconds = groupRefreshSeconds;
+        for (FastDFSCluster cluster : clusters.values()) {
+            cluster.getGroupMonitor().setRefreshSeconds(groupRefreshSeconds);
+        }
+    }
+
+    /**
+     * @return 集群名称 -> 状态
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        for (FastDFSCluster cluster : new TreeMap<>(clusters).values()) {
+            snapshot.put(cluster.getName(), cluster.snapshot());
+        }
+        return snapshot;
+    }
+}
@@ -0,0 +1,347 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.Attribute;
+import javax.management.AttributeList;
+import javax.management.AttributeNotFoundException;
+import javax.management.DynamicMBean;
+import javax.management.MBeanAttributeInfo;
+import javax.management.MBeanInfo;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FastDFS 客户端统计信息.
+ * <p>
+ * 按操作和阶段(等待连接池、查询 Tracker、连接 Storage、传输)记录延迟直方图，另外统计传输字节数、
+ * 按 {@link ErrorCode} 统计返回给调用方的错误次数，以及 TrackerServer 连接池的活动、空闲、等待数. <br>
+ * 统计数据通过 JMX(com.lyyzoo.fastdfs:type=FastDFSMetrics) 和 /fastdfs/metrics 接口查看.
+ * 记录时只做原子加法，不分配对象.
+ */
+public class FastDFSMetrics {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(FastDFSMetrics.class);
+    /**
+     * JMX 名称
+     */
+    public static final String OBJECT_NAME = "com.lyyzoo.fastdfs:type=FastDFSMetrics";
+
+    private static final StorageOperation[] OPERATIONS = StorageOperation.values();
+    private static final Phase[] PHASES = Phase.values();
+    private static final ErrorCode[] ERROR_CODES = ErrorCode.values();
+
+    private static final FastDFSMetrics INSTANCE = new FastDFSMetrics();
+
+    /**
+     * [操作][阶段] 延迟直方图
+     */
+    private final LatencyHistogram[][] latencies = new LatencyHistogram[OPERATIONS.length][PHASES.length];
+    /**
+     * 各操作失败次数
+     */
+    private final LongAdder[] failures = new LongAdder[OPERATIONS.length];
+    /**
+     * 各操作传输字节数
+     */
+    private final LongAdder[] bytes = new LongAdder[OPERATIONS.length];
+    /**
+     * 各操作对冲次数
+     */
+    private final LongAdder[] hedges = new LongAdder[OPERATIONS.length];
+    /**
+     * 各操作对冲请求先完成的次数
+     */
+    private final LongAdder[] hedgeWins = new LongAdder[OPERATIONS.length];
+    /**
+     * 各错误码次数，最后一个为未知错误
+     */
+    private final LongAdder[] errors = new LongAdder[ERROR_CODES.length + 1];
+
+    static {
+        INSTANCE.registerMBean();
+    }
+
+    private FastDFSMetrics() {
+        for (int i = 0; i < OPERATIONS.length; i++) {
+            for (int j = 0; j < PHASES.length; j++) {
+                latencies[i][j] = new LatencyHistogram();
+            }
+            failures[i] = new LongAdder();
+            bytes[i] = new LongAdder();
+            hedges[i] = new LongAdder();
+            hedgeWins[i] = new LongAdder();
+        }
+        for (int i = 0; i < errors.length; i++) {
+            errors[i] = new LongAdder();
+        }
+    }
+
+    public static FastDFSMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * 记录阶段耗时
+     *
+     * @param operation 操作
+     * @param phase 阶段
+     * @param nanos 耗时(纳秒)
+     */
+    public void record(StorageOperation operation, Phase phase, long nanos) {
+        latencies[operation.ordinal()][phase.ordinal()].recordNanos(nanos);
+    }
+
+    /**
+     * 记录一次失败的操作
+     *
+     * @param operation 操作
+     */
+    public void recordFailure(StorageOperation operation) {
+        failures[operation.ordinal()].increment();
+    }
+
+    /**
+     * 记录传输字节数
+     *
+     * @param operation 操作
+     * @param count 字节数
+     */
+    public void recordBytes(StorageOperation operation, long count) {
+        if (count > 0) {
+            bytes[operation.ordinal()].add(count);
+        }
+    }
+
+    /**
+     * 记录一次对冲读
+     *
+     * @param operation 操作
+     * @param won 对冲请求是否先完成
+     */
+    public void recordHedge(StorageOperation operation, boolean won) {
+        hedges[operation.ordinal()].increment();
+        if (won) {
+            hedgeWins[operation.ordinal()].increment();
+        }
+    }
+
+    /**
+     * 记录返回给调用方的错误码. 在处理错误的地方(接口的异常处理、过滤器)调用，内部捕获并处理的异常不计数
+     *
+     * @param code 错误码
+     * @param message 错误消息，用于区分错误码相同的 ErrorCode
+     */
+    public void recordError(String code, String message) {
+        int index = ERROR_CODES.length;
+        for (int i = 0; i < ERROR_CODES.length; i++) {
+            if (ERROR_CODES[i].CODE.equals(code) && (message == null || ERROR_CODES[i].MESSAGE.equals(message))) {
+                index = i;
+                break;
+            }
+        }
+        errors[index].increment();
+    }
+
+    /**
+     * 获取延迟直方图
+     *
+     * @param operation 操作
+     * @param phase 阶段
+     * @return 直方图
+     */
+    public LatencyHistogram getLatency(StorageOperation operation, Phase phase) {
+        return latencies[operation.ordinal()][phase.ordinal()];
+    }
+
+    /**
+     * 统计快照
+     *
+     * @return 快照，延迟单位为微秒
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+
+        Map<String, Object> operations = new LinkedHashMap<>();
+        long uploaded = 0;
+        long downloaded = 0;
+        for (StorageOperation operation : OPERATIONS) {
+            int i = operation.ordinal();
+            Map<String, Object> op = new LinkedHashMap<>();
+            op.put("count", latencies[i][Phase.TOTAL.ordinal()].getCount());
+            op.put("failures", failures[i].sum());
+            op.put("bytes", bytes[i].sum());
+            op.put("hedges", hedges[i].sum());
+            op.put("hedgeWins", hedgeWins[i].sum());
+            Map<String, Object> phases = new LinkedHashMap<>();
+            for (Phase phase : PHASES) {
+                phases.put(phase.NAME, latencies[i][phase.ordinal()].snapshot());
+            }
+            op.put("latency", phases);
+            operations.put(operation.NAME, op);
+
+            if (operation.UPLOADING) {
+                uploaded += bytes[i].sum();
+            } else {
+                downloaded += bytes[i].sum();
+            }
+        }
+        snapshot.put("operations", operations);
+
+        Map<String, Object> bytesMap = new LinkedHashMap<>();
+        bytesMap.put("uploaded", uploaded);
+        bytesMap.put("downloaded", downloaded);
+        snapshot.put("bytes", bytesMap);
+
+        Map<String, Object> errorMap = new LinkedHashMap<>();
+        for (int i = 0; i < ERROR_CODES.length; i++) {
+            errorMap.put(ERROR_CODES[i].name(), errors[i].sum());
+        }
+        errorMap.put("UNKNOWN", errors[ERROR_CODES.length].sum());
+        snapshot.put("errors", errorMap);
+
+        Map<String, Object> pool = new LinkedHashMap<>();
+        pool.put("active", TrackerServerPool.getNumActive());
+        pool.put("idle", TrackerServerPool.getNumIdle());
+        pool.put("waiters", TrackerServerPool.getNumWaiters());
+        pool.put("maxTotal", TrackerServerPool.getMaxTotal());
+        snapshot.put("pool", pool);
+        snapshot.put("buffers", BufferPool.getInstance().snapshot());
+
+        snapshot.put("breakers", CircuitBreakerRegistry.getInstance().snapshot());
+
+        FastDFSClusters clusters = FastDFSClusters.getInstance();
+        snapshot.put("groups", clusters.getDefault().getGroupMonitor().snapshot());
+        snapshot.put("clusters", clusters.snapshot());
+
+        return snapshot;
+    }
+
+    /**
+     * 展开快照为 JMX 属性，如 operations.upload.latency.transfer.p99
+     */
+    private Map<String, Object> flatten() {
+        Map<String, Object> attributes = new LinkedHashMap<>();
+        flatten("", snapshot(), attributes);
+        return attributes;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static void flatten(String prefix, Map<String, Object> map, Map<String, Object> attributes) {
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            if (entry.getValue() instanceof Map) {
+                flatten(prefix + entry.getKey() + ".", (Map<String, Object>) entry.getValue(), attributes);
+            } else {
+                attributes.put(prefix + entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private void registerMBean() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                // 应用重新部署时替换旧的 MBean
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(new MetricsMBean(), name);
+        } catch (Exception e) {
+            logger.warn("register FastDFS metrics MBean failed", e);
+        }
+    }
+
+    /**
+     * 统计阶段
+     */
+    public enum Phase {
+        /**
+         * 等待 TrackerServer 连接池
+         */
+        POOL_WAIT("pool_wait"),
+        /**
+         * 向 Tracker 查询 Storage
+         */
+        TRACKER_QUERY("tracker_query"),
+        /**
+         * 连接 Storage
+         */
+        STORAGE_CONNECT("storage_connect"),
+        /**
+         * 与 Storage 传输数据
+         */
+        TRANSFER("transfer"),
+        /**
+         * 总耗时
+         */
+        TOTAL("total");
+
+        public final String NAME;
+
+        Phase(String name) {
+            this.NAME = name;
+        }
+    }
+
+    /**
+     * 只读的 JMX 视图，属性为展开后的统计项
+     */
+    private class MetricsMBean implements DynamicMBean {
+
+        @Override
+        public Object getAttribute(String attribute) throws AttributeNotFoundException {
+            Object value = flatten().get(attribute);
+            if (value == null) {
+                throw new AttributeNotFoundException(attribute);
+            }
+            return value;
+        }
+
+        @Override
+        public void setAttribute(Attribute attribute) {
+            throw new UnsupportedOperationException("read only");
+        }
+
+        @Override
+        public AttributeList getAttributes(String[] attributes) {
+            Map<String, Object> values = flatten();
+            AttributeList list = new AttributeList();
+            for (String attribute : attributes) {
+                if (values.containsKey(attribute)) {
+                    list.add(new Attribute(attribute, values.get(attribute)));
+                }
+            }
+            return list;
+        }
+
+        @Override
+        public AttributeList setAttributes(AttributeList attributes) {
+            return new AttributeList();
+        }
+
+        @Override
+        public Object invoke(String actionName, Object[] params, String[] signature) {
+            throw new UnsupportedOperationException(actionName);
+        }
+
+        @Override
+        public MBeanInfo getMBeanInfo() {
+            List<MBeanAttributeInfo> infos = new ArrayList<>();
+            for (Map.Entry<String, Object> entry : flatten().entrySet()) {
+                infos.add(new MBeanAttributeInfo(entry.getKey(), entry.getValue().getClass().getName(),
+                        entry.getKey(), true, false, false));
+            }
+            return new MBeanInfo(FastDFSMetrics.class.getName(), "FastDFS client metrics",
+                    infos.toArray(new MBeanAttributeInfo[0]), null, null, null);
+        }
+    }
+}
@@ -0,0 +1,650 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * 本地文件索引.
+ * <p>
+ * FastDFS 没有列表和搜索接口，按租户、标签列出文件需要逐个获取描述信息. 开启后上传成功时把文件ID、上传时间和描述信息写入索引，
+ * 删除文件、修改描述信息时同步更新，列表查询在本地完成. <br>
+ * 文件按上传时间倒序排列. 配置的少数取值有限的描述信息(如租户、标签，见 {@link #setIndexedTags(String)})每个 name=value
+ * 有一个同样排序的倒排列表，多个条件时从最短的列表开始过滤，其它描述信息逐条过滤；时间范围和翻页是有序集合上的区间查询，
+ * 文件名前缀逐条过滤. 文件名、大小等每个文件都不同的描述信息不建倒排列表，避免列表数随文件数增长. <br>
+ * 索引保存在内存中，变更追加到 index.log，启动时重放，无效记录过多时压缩. 写入不 fsync：索引丢失或与文件服务器不一致时，
+ * 用 {@link FastDFSClient#rebuildIndex(Iterable, int)} 从文件ID重建. 暂存区的文件上传到文件服务器后才写入索引.
+ */
+public class FileIndex {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(FileIndex.class);
+
+    private static final String INDEX_FILE = "index.log";
+    private static final String PUT = "+";
+    private static final String REMOVE = "-";
+
+    /**
+     * 上传时间倒序，相同时按文件ID
+     */
+    private static final Comparator<Entry> ORDER = (a, b) -> {
+        int c = Long.compare(b.createdAt, a.createdAt);
+        return c != 0 ? c : a.fileId.compareTo(b.fileId);
+    };
+
+    /**
+     * 日志中的记录数超过有效记录数的两倍且超过该值时压缩
+     */
+    private static final int COMPACT_MIN_RECORDS = 1000;
+
+    /**
+     * 每页最多返回的文件数
+     */
+    public static final int MAX_LIMIT = 1000;
+
+    private volatile boolean enabled = false;
+    /**
+     * 索引目录，必须配置
+     */
+    private volatile File directory;
+    /**
+     * 建倒排列表的描述信息
+     */
+    private volatile Set<String> indexedTags = Collections.emptySet();
+
+    /**
+     * 文件ID -> 索引项
+     */
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * 所有索引项，按上传时间倒序
+     */
+    private final ConcurrentSkipListSet<Entry> ordered = new ConcurrentSkipListSet<>(ORDER);
+    /**
+     * name=value -> 倒排列表
+     */
+    private final ConcurrentMap<String, Posting> postings = new ConcurrentHashMap<>();
+
+    private Writer writer;
+    /**
+     * 日志中的记录数
+     */
+    private long records;
+
+    /**
+     * 加载索引并开始记录变更
+     *
+     * @throws IOException 索引目录不可写
+     * @throws IllegalStateException 没有配置索引目录
+     */
+    public synchronized void start() throws IOException {
+        if (writer != null) {
+            return;
+        }
+        if (directory == null) {
+            throw new IllegalStateException("index directory is not configured");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create index directory " + directory);
+        }
+        load();
+        writer = open();
+        if (needsCompact()) {
+            compact();
+        }
+        enabled = true;
+        if (logger.isInfoEnabled()) {
+            logger.info("file index started, directory = {}, files = {}, tags = {}", directory, entries.size(), indexedTags);
+        }
+    }
+
+    /**
+     * 停止记录变更
+     */
+    public synchronized void close() {
+        enabled = false;
+        if (writer != null) {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+            writer = null;
+        }
+    }
+
+    /**
+     * 添加或替换索引项
+     *
+     * @param fileId 文件ID
+     * @param createdAt 上传时间(毫秒)
+     * @param descriptions 文件描述信息，可为空
+     */
+    public void put(String fileId, long createdAt, Map<String, String> descriptions) {
+        if (!enabled || fileId == null) {
+            return;
+        }
+        Entry entry = new Entry(fileId, createdAt, descriptions);
+        synchronized (this) {
+            apply(entry);
+            write(PUT + "\t" + encode(fileId) + "\t" + createdAt + "\t" + encode(entry.descriptions));
+        }
+    }
+
+    /**
+     * 合并描述信息，保留上传时间. 文件不在索引中时忽略
+     *
+     * @param fileId 文件ID
+     * @param descriptions 新的描述信息
+     */
+    public void merge(String fileId, Map<String, String> descriptions) {
+        if (!enabled || fileId == null) {
+            return;
+        }
+        synchronized (this) {
+            Entry entry = entries.get(fileId);
+            if (entry != null) {
+                Map<String, String> merged = new LinkedHashMap<>(entry.descriptions);
+                merged.putAll(descriptions);
+                put(fileId, entry.createdAt, merged);
+            }
+        }
+    }
+
+    /**
+     * 删除索引项
+     *
+     * @param fileId 文件ID
+     */
+    public void remove(String fileId) {
+        if (!enabled || fileId == null) {
+            return;
+        }
+        synchronized (this) {
+            if (unapply(fileId) != null) {
+                write(REMOVE + "\t" + encode(fileId));
+            }
+        }
+    }
+
+    /**
+     * @param fileId 文件ID
+     * @return 索引项，不存在返回 null
+     */
+    public Entry get(String fileId) {
+        return fileId == null ? null : entries.get(fileId);
+    }
+
+    /**
+     * 查询文件. 按上传时间倒序，翻页时把上一页的 next 作为 cursor
+     *
+     * @param query 查询条件
+     * @return 一页结果
+     * @throws IllegalArgumentException cursor 格式错误
+     */
+    public Page query(Query query) {
+        int limit = Math.max(1, Math.min(query.limit, MAX_LIMIT));
+
+        // 从最短的倒排列表开始，没有条件时遍历所有文件
+        NavigableSet<Entry> candidates = ordered;
+        int candidateSize = Integer.MAX_VALUE;
+        for (Map.Entry<String, String> tag : query.tags.entrySet()) {
+            if (!indexedTags.contains(tag.getKey())) {
+                continue;
+            }
+            Posting posting = postings.get(tag.getKey() + "=" + tag.getValue());
+            if (posting == null) {
+                return new Page(Collections.emptyList(), null);
+            }
+            int size = posting.size.get();
+            if (size < candidateSize) {
+                candidates = posting.entries;
+                candidateSize = size;
+            }
+        }
+
+        // 起点：上一页的最后一项之后，或者结束时间之前的第一项
+        Entry cursor = parseCursor(query.cursor);
+        Entry before = query.to > 0 ? new Entry("", query.to - 1, null) : null;
+        if (cursor != null && (before == null || ORDER.compare(cursor, before) >= 0)) {
+            candidates = candidates.tailSet(cursor, false);
+        } else if (before != null) {
+            candidates = candidates.tailSet(before, true);
+        }
+
+        List<Entry> items = new ArrayList<>(Math.min(limit, 64));
+        for (Entry entry : candidates) {
+            if (query.from > 0 && entry.createdAt < query.from) {
+                break;
+            }
+            if (entry.matches(query)) {
+                items.add(entry);
+                if (items.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        String next = items.size() < limit ? null : items.get(items.size() - 1).getCursor();
+        return new Page(items, next);
+    }
+
+    private static Entry parseCursor(String cursor) {
+        if (StringUtils.isBlank(cursor)) {
+            return null;
+        }
+        int index = cursor.indexOf(':');
+        if (index <= 0 || index == cursor.length() - 1) {
+            throw new IllegalArgumentException("invalid cursor: " + cursor);
+        }
+        try {
+            return new Entry(cursor.substring(index + 1), Long.parseLong(cursor.substring(0, index)), null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid cursor: " + cursor);
+        }
+    }
+
+    /**
+     * @return 索引的文件数
+     */
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * 遍历所有索引项，不保证顺序，遍历时可以修改索引
+     *
+     * @param action 处理每个索引项
+     */
+    public void forEach(Consumer<Entry> action) {
+        entries.values().forEach(action);
+    }
+
+    private void apply(Entry entry) {
+        unapply(entry.fileId);
+        entries.put(entry.fileId, entry);
+        ordered.add(entry);
+        for (String key : postingKeys(entry)) {
+            Posting posting = postings.computeIfAbsent(key, k -> new Posting());
+            if (posting.entries.add(entry)) {
+                posting.size.incrementAndGet();
+            }
+        }
+    }
+
+    private List<String> postingKeys(Entry entry) {
+        List<String> keys = new ArrayList<>(indexedTags.size());
+        for (String tag : indexedTags) {
+            String value = entry.descriptions.get(tag);
+            if (value != null) {
+                keys.add(tag + "=" + value);
+            }
+        }
+        return keys;
+    }
+
+    private Entry unapply(String fileId) {
+        Entry entry = entries.remove(fileId);
+        if (entry == null) {
+            return null;
+        }
+        ordered.remove(entry);
+        for (String key : postingKeys(entry)) {
+            Posting posting = postings.get(key);
+            if (posting != null && posting.entries.remove(entry) && posting.size.decrementAndGet() == 0) {
+                postings.remove(key, posting);
+            }
+        }
+        return entry;
+    }
+
+    /**
+     * 重放日志，不完整的记录(如写入时进程退出)忽略
+     */
+    private void load() throws IOException {
+        File file = new File(directory, INDEX_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                records++;
+                String[] parts = line.split("\t", -1);
+                try {
+                    if (PUT.equals(parts[0]) && parts.length == 4) {
+                        apply(new Entry(decode(parts[1]), Long.parseLong(parts[2]), decodeMap(parts[3])));
+                    } else if (REMOVE.equals(parts[0]) && parts.length == 2) {
+                        unapply(decode(parts[1]));
+                    } else {
+                        logger.warn("skip invalid index record: {}", line);
+                    }
+                } catch (RuntimeException e) {
+                    logger.warn("skip invalid index record: {}", line);
+                }
+            }
+        }
+    }
+
+    private Writer open() throws IOException {
+        return new OutputStreamWriter(new FileOutputStream(new File(directory, INDEX_FILE), true), StandardCharsets.UTF_8);
+    }
+
+    private void write(String record) {
+        if (writer == null) {
+            return;
+        }
+        try {
+            writer.write(record + "\n");
+            writer.flush();
+            records++;
+            if (needsCompact()) {
+                compact();
+            }
+        } catch (IOException e) {
+            // 索引可以重建，写入失败不影响上传、删除
+            logger.warn("write file index failed: {}", e.getMessage());
+        }
+    }
+
+    private boolean needsCompact() {
+        return records > COMPACT_MIN_RECORDS && records > 2L * entries.size();
+    }
+
+    /**
+     * 只保留有效记录，写入临时文件后替换日志
+     */
+    private void compact() throws IOException {
+        File tmp = new File(directory, INDEX_FILE + ".tmp");
+        try (Writer out = new OutputStreamWriter(new FileOutputStream(tmp), StandardCharsets.UTF_8)) {
+            for (Entry entry : entries.values()) {
+                out.write(PUT + "\t" + encode(entry.fileId) + "\t" + entry.createdAt + "\t" + encode(entry.descriptions) + "\n");
+            }
+        }
+        writer.close();
+        try {
+            Files.move(tmp.toPath(), new File(directory, INDEX_FILE).toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            writer = open();
+        }
+        if (logger.isDebugEnabled()) {
+            logger.debug("compact file index, {} records -> {}", records, entries.size());
+        }
+        records = entries.size();
+    }
+
+    private static String encode(String value) {
+        try {
+            return URLEncoder.encode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String decode(String value) {
+        try {
+            return URLDecoder.decode(value, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String encode(Map<String, String> descriptions) {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<String, String> description : descriptions.entrySet()) {
+            if (builder.length() > 0) {
+                builder.append('&');
+            }
+            builder.append(encode(description.getKey())).append('=').append(encode(description.getValue()));
+        }
+        return builder.toString();
+    }
+
+    private static Map<String, String> decodeMap(String value) {
+        Map<String, String> descriptions = new LinkedHashMap<>();
+        if (value.isEmpty()) {
+            return descriptions;
+        }
+        for (String pair : value.split("&")) {
+            int index = pair.indexOf('=');
+            descriptions.put(decode(pair.substring(0, index)), decode(pair.substring(index + 1)));
+        }
+        return descriptions;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public Set<String> getIndexedTags() {
+        return indexedTags;
+    }
+
+    /**
+     * 在 {@link #start()} 之前设置
+     *
+     * @param tags 建倒排列表的描述信息，逗号分隔，如 tenant,tag，只配置取值有限的
+     */
+    public void setIndexedTags(String tags) {
+        Set<String> indexedTags = new LinkedHashSet<>();
+        for (String tag : StringUtils.split(StringUtils.defaultString(tags), ',')) {
+            if (StringUtils.isNotBlank(tag)) {
+                indexedTags.add(tag.trim());
+            }
+        }
+        this.indexedTags = Collections.unmodifiableSet(indexedTags);
+    }
+
+    /**
+     * @return 是否开启、文件数、倒排列表数和日志记录数
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        snapshot.put("enabled", enabled);
+        snapshot.put("files", entries.size());
+        snapshot.put("postings", postings.size());
+        synchronized (this) {
+            snapshot.put("records", records);
+        }
+        return snapshot;
+    }
+
+    /**
+     * 倒排列表
+     */
+    private static class Posting {
+        private final ConcurrentSkipListSet<Entry> entries = new ConcurrentSkipListSet<>(ORDER);
+        /**
+         * ConcurrentSkipListSet.size() 需要遍历，单独计数
+         */
+        private final AtomicInteger size = new AtomicInteger();
+    }
+
+    /**
+     * 索引项，创建后不变
+     */
+    public static class Entry {
+        private final String fileId;
+        private final long createdAt;
+        private final Map<String, String> descriptions;
+
+        Entry(String fileId, long createdAt, Map<String, String> descriptions) {
+            this.fileId = fileId;
+            this.createdAt = createdAt;
+            this.descriptions = descriptions == null ? Collections.emptyMap()
+                    : Collections.unmodifiableMap(new LinkedHashMap<>(descriptions));
+        }
+
+        private boolean matches(Query query) {
+            if (StringUtils.isNotEmpty(query.prefix)) {
+                String filename = getFilename();
+                if (filename == null || !filename.startsWith(query.prefix)) {
+                    return false;
+                }
+            }
+            for (Map.Entry<String, String> tag : query.tags.entrySet()) {
+                if (!tag.getValue().equals(descriptions.get(tag.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public String getFileId() {
+            return fileId;
+        }
+
+        public long getCreatedAt() {
+            return createdAt;
+        }
+
+        public String getFilename() {
+            return descriptions.get(FastDFSClient.FILENAME);
+        }
+
+        public Map<String, String> getDescriptions() {
+            return descriptions;
+        }
+
+        /**
+         * @return 翻页位置：上传时间:文件ID
+         */
+        public String getCursor() {
+            return createdAt + ":" + fileId;
+        }
+    }
+
+    /**
+     * 查询条件，都为空时列出所有文件
+     */
+    public static class Query {
+        /**
+         * 文件名前缀
+         */
+        private String prefix;
+        /**
+         * 描述信息，都要相等
+         */
+        private final Map<String, String> tags = new LinkedHashMap<>();
+        /**
+         * 上传时间范围 [from, to)，毫秒，0 表示不限制
+         */
+        private long from;
+        private long to;
+        /**
+         * 上一页返回的 next
+         */
+        private String cursor;
+        private int limit = 100;
+
+        public String getPrefix() {
+            return prefix;
+        }
+
+        public void setPrefix(String prefix) {
+            this.prefix = prefix;
+        }
+
+        public Map<String, String> getTags() {
+            return tags;
+        }
+
+        public void addTag(String name, String value) {
+            tags.put(name, value);
+        }
+
+        public long getFrom() {
+            return from;
+        }
+
+        public void setFrom(long from) {
+            this.from = from;
+        }
+
+        public long getTo() {
+            return to;
+        }
+
+        public void setTo(long to) {
+            this.to = to;
+        }
+
+        public String getCursor() {
+            return cursor;
+        }
+
+        public void setCursor(String cursor) {
+            this.cursor = cursor;
+        }
+
+        public int getLimit() {
+            return limit;
+        }
+
+        public void setLimit(int limit) {
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * 一页查询结果
+     */
+    public static class Page {
+        private final List<Entry> items;
+        /**
+         * 下一页的 cursor，没有更多时为 null
+         */
+        private final String next;
+
+        Page(List<Entry> items, String next) {
+            this.items = items;
+            this.next = next;
+        }
+
+        public List<Entry> getItems() {
+            return items;
+        }
+
+        public String getNext() {
+            return next;
+        }
+    }
+}
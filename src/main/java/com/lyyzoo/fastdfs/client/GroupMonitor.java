@@ -0,0 +1,263 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.fastdfs.StructGroupStat;
+import org.csource.fastdfs.TrackerClient;
+import org.csource.fastdfs.TrackerServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 组状态监控，供 {@link GroupSelector} 选择上传的组.
+ * <p>
+ * 定时通过 Tracker 的 list_groups 查询每个组的总空间、剩余空间和在线 Storage 数，
+ * 同时按组记录上传每字节耗时的指数移动平均：只计与 Storage 交互的时间，不包括排队、等待客户端的时间，
+ * 按字节数归一，大文件不会让组看起来比小文件多的组慢. <br>
+ * 每个集群一个，第一次查询组状态时开始定时刷新.
+ */
+public class GroupMonitor {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(GroupMonitor.class);
+
+    /**
+     * 每字节耗时的平滑系数
+     */
+    private static final double LATENCY_ALPHA = 0.2;
+    /**
+     * 小于该大小的上传按该大小计算每字节耗时，小文件的耗时主要是固定开销
+     */
+    private static final long MIN_SAMPLE_BYTES = 64 * 1024;
+    /**
+     * 上传失败时每字节耗时至少按该值(纳秒，相当于 1MB/s)计入平均值
+     */
+    private static final double FAILURE_PENALTY_NANOS_PER_BYTE = 1000;
+
+    private final FastDFSCluster cluster;
+
+    private final ConcurrentMap<String, GroupState> groups = new ConcurrentHashMap<>();
+
+    /**
+     * 刷新间隔(秒)
+     */
+    private volatile long refreshSeconds = 30;
+
+    private volatile ScheduledExecutorService scheduler;
+
+    GroupMonitor(FastDFSCluster cluster) {
+        this.cluster = cluster;
+    }
+
+    /**
+     * 开始定时刷新，重复调用无效
+     */
+    public synchronized void start() {
+        if (scheduler != null) {
+            return;
+        }
+        scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fastdfs-group-monitor-" + cluster.getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        scheduler.scheduleWithFixedDelay(this::refresh, 0, refreshSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * 停止定时刷新
+     */
+    public synchronized void stop() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * 立即从 Tracker 刷新所有组的状态
+     */
+    public void refresh() {
+        TrackerServer trackerServer = null;
+        try {
+            trackerServer = cluster.borrowObject();
+            if (trackerServer == null) {
+                return;
+            }
+            StructGroupStat[] stats = new TrackerClient().listGroups(trackerServer);
+            if (stats == null) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("list groups of cluster {} failed", cluster.getName());
+                }
+                return;
+            }
+            List<String> names = new ArrayList<>(stats.length);
+            for (StructGroupStat stat : stats) {
+                GroupState state = get(stat.getGroupName());
+                state.totalMB = stat.getTotalMB();
+                state.freeMB = stat.getFreeMB();
+                state.storageCount = stat.getStorageCount();
+                state.activeCount = stat.getActiveCount();
+                state.updatedAt = System.currentTimeMillis();
+                names.add(stat.getGroupName());
+            }
+            // 已删除的组
+            groups.keySet().retainAll(names);
+        } catch (IOException | FastDFSException e) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("list groups of cluster {} failed: {}", cluster.getName(), e.getMessage());
+            }
+        } finally {
+            if (trackerServer != null) {
+                cluster.returnObject(trackerServer);
+            }
+        }
+    }
+
+    /**
+     * 记录一次上传. 并发限制拒绝等没有到达 Storage 的上传不需要记录
+     *
+     * @param group 组名
+     * @param nanos 与 Storage 交互的耗时，不包括等待连接、读取客户端请求体和限速的时间
+     * @param bytes 上传的字节数
+     * @param success 是否成功
+     */
+    public void recordUpload(String group, long nanos, long bytes, boolean success) {
+        if (group == null || group.isEmpty()) {
+            return;
+        }
+        GroupState state = get(group);
+        double sample = (double) Math.max(0, nanos) / Math.max(bytes, MIN_SAMPLE_BYTES);
+        if (!success) {
+            sample = Math.max(sample, FAILURE_PENALTY_NANOS_PER_BYTE);
+        }
+        synchronized (state) {
+            state.nanosPerByte = state.nanosPerByte < 0 ? sample
+                    : state.nanosPerByte + (sample - state.nanosPerByte) * LATENCY_ALPHA;
+        }
+    }
+
+    /**
+     * @return 已知的组，还没有开始刷新时开始定时刷新
+     */
+    public List<GroupState> getGroups() {
+        if (scheduler == null) {
+            start();
+        }
+        return new ArrayList<>(groups.values());
+    }
+
+    /**
+     * @param group 组名
+     * @return 组状态，没有则返回 null
+     */
+    public GroupState getGroup(String group) {
+        return groups.get(group);
+    }
+
+    private GroupState get(String group) {
+        GroupState state = groups.get(group);
+        if (state == null) {
+            groups.putIfAbsent(group, new GroupState(group));
+            state = groups.get(group);
+        }
+        return state;
+    }
+
+    /**
+     * @return 组名 -> 状态
+     */
+    public Map<String, Object> snapshot() {
+        Map<String, Object> snapshot = new LinkedHashMap<>();
+        for (GroupState state : new TreeMap<>(groups).values()) {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("totalMB", state.totalMB);
+            map.put("freeMB", state.freeMB);
+            map.put("storageCount", state.storageCount);
+            map.put("activeCount", state.activeCount);
+            map.put("uploadNanosPerByte", state.nanosPerByte < 0 ? -1 : Math.round(state.nanosPerByte * 100) / 100.0);
+            snapshot.put(state.name, map);
+        }
+        return snapshot;
+    }
+
+    public long getRefreshSeconds() {
+        return refreshSeconds;
+    }
+
+    /**
+     * @param refreshSeconds 刷新间隔(秒)，已开始刷新时需要重新 start
+     */
+    public void setRefreshSeconds(long refreshSeconds) {
+        this.refreshSeconds = Math.max(1, refreshSeconds);
+    }
+
+    /**
+     * 组状态
+     */
+    public static class GroupState {
+        private final String name;
+        private volatile long totalMB = -1;
+        private volatile long freeMB = -1;
+        private volatile int storageCount;
+        private volatile int activeCount;
+        private volatile long updatedAt;
+        /**
+         * 上传每字节耗时(纳秒)的移动平均，没有样本时为 -1
+         */
+        private volatile double nanosPerByte = -1;
+
+        GroupState(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getTotalMB() {
+            return totalMB;
+        }
+
+        public long getFreeMB() {
+            return freeMB;
+        }
+
+        public int getStorageCount() {
+            return storageCount;
+        }
+
+        public int getActiveCount() {
+            return activeCount;
+        }
+
+        public long getUpdatedAt() {
+            return updatedAt;
+        }
+
+        /**
+         * @return 上传每字节耗时(纳秒)的移动平均，没有样本时为 -1
+         */
+        public double getNanosPerByte() {
+            return nanosPerByte;
+        }
+
+        /**
+         * @return 是否已从 Tracker 查询到且有在线的 Storage
+         */
+        public boolean isAvailable() {
+            return updatedAt > 0 && activeCount > 0;
+        }
+    }
+}
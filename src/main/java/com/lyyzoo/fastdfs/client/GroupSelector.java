@@ -0,0 +1,24 @@
+package com.lyyzoo.fastdfs.client;
+
+import java.util.Map;
+
+/**
+ * 上传时选择组. 内置的策略见 {@link GroupSelectors}.
+ * <p>
+ */
+@FunctionalInterface
+public interface GroupSelector {
+
+    /**
+     * 选择上传的组
+     *
+     * @param groups 写入的集群的组状态
+     * @param suffix 文件后缀
+     * @param contentType 内容类型，可能为空
+     * @param size 上传的字节数
+     * @param descriptions 文件描述信息，可能为空
+     * @return 组名，返回 null 时由 Tracker 选择
+     */
+    String select(GroupMonitor groups, String suffix, String contentType, long size, Map<String, String> descriptions);
+
+}
@@ -0,0 +1,166 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.apache.commons.lang3.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 内置的上传组选择策略
+ * <p>
+ * tracker: 由 Tracker 选择(默认). <br>
+ * free_space: 按剩余空间(减去保留空间)加权随机选择. <br>
+ * latency: 最近上传每字节耗时最低，随机取两个组比较，避免所有上传同时涌向一个组. <br>
+ * affinity: 按后缀、内容类型或描述信息(如租户)指定组，没有匹配时使用其它策略.
+ */
+public class GroupSelectors {
+
+    public static final String TRACKER = "tracker";
+    public static final String FREE_SPACE = "free_space";
+    public static final String LATENCY = "latency";
+    public static final String AFFINITY = "affinity";
+
+    private GroupSelectors(){}
+
+    /**
+     * 根据名称创建策略，free_space 和 latency 第一次选择时开始定时刷新组状态
+     *
+     * @param policy 策略名称
+     * @param reservedMB free_space 策略的保留空间(MB)，剩余空间低于该值的组不再上传
+     * @param affinityRules affinity 策略的规则，见 {@link #affinity(String, GroupSelector)}
+     * @param fallback affinity 策略没有匹配时使用的策略名称
+     * @return 策略，tracker 或未知名称返回 null
+     */
+    public static GroupSelector create(String policy, long reservedMB, String affinityRules, String fallback) {
+        if (FREE_SPACE.equals(policy)) {
+            return freeSpace(reservedMB);
+        }
+        if (LATENCY.equals(policy)) {
+            return lowestLatency();
+        }
+        if (AFFINITY.equals(policy)) {
+            GroupSelector fallbackSelector = AFFINITY.equals(fallback) ? null : create(fallback, reservedMB, null, null);
+            return affinity(affinityRules, fallbackSelector);
+        }
+        return null;
+    }
+
+    /**
+     * @param reservedMB 保留空间(MB)
+     * @return 按剩余空间加权随机选择的策略
+     */
+    public static GroupSelector freeSpace(long reservedMB) {
+        return (monitor, suffix, contentType, size, descriptions) -> {
+            List<GroupMonitor.GroupState> groups = monitor.getGroups();
+            long total = 0;
+            long[] weights = new long[groups.size()];
+            for (int i = 0; i < weights.length; i++) {
+                GroupMonitor.GroupState group = groups.get(i);
+                if (group.isAvailable()) {
+                    weights[i] = Math.max(0, group.getFreeMB() - reservedMB - size / (1024 * 1024));
+                    total += weights[i];
+                }
+            }
+            if (total <= 0) {
+                return null;
+            }
+            long point = ThreadLocalRandom.current().nextLong(total);
+            for (int i = 0; i < weights.length; i++) {
+                point -= weights[i];
+                if (point < 0) {
+                    return groups.get(i).getName();
+                }
+            }
+            return null;
+        };
+    }
+
+    /**
+     * @return 选择最近上传每字节耗时较低的组的策略，还没有上传过的组优先
+     */
+    public static GroupSelector lowestLatency() {
+        return (monitor, suffix, contentType, size, descriptions) -> {
+            List<GroupMonitor.GroupState> candidates = new ArrayList<>();
+            List<GroupMonitor.GroupState> unmeasured = new ArrayList<>();
+            for (GroupMonitor.GroupState group : monitor.getGroups()) {
+                if (!group.isAvailable()) {
+                    continue;
+                }
+                if (group.getNanosPerByte() < 0) {
+                    unmeasured.add(group);
+                } else {
+                    candidates.add(group);
+                }
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            if (!unmeasured.isEmpty()) {
+                return unmeasured.get(random.nextInt(unmeasured.size())).getName();
+            }
+            if (candidates.isEmpty()) {
+                return null;
+            }
+            GroupMonitor.GroupState first = candidates.get(random.nextInt(candidates.size()));
+            GroupMonitor.GroupState second = candidates.get(random.nextInt(candidates.size()));
+            return (first.getNanosPerByte() <= second.getNanosPerByte() ? first : second).getName();
+        };
+    }
+
+    /**
+     * 按规则指定组. 规则以逗号分隔，每条为 匹配条件:组名，按顺序匹配：
+     * <ul>
+     *     <li>image/* 或 application/pdf: 按内容类型匹配，支持 /* 通配</li>
+     *     <li>key=value: 按文件描述信息匹配，如 tenant=acme</li>
+     *     <li>其它: 按文件后缀匹配，如 mp4</li>
+     * </ul>
+     *
+     * @param rules 规则，如 image/*:group2,mp4:group3,tenant=acme:group4
+     * @param fallback 没有匹配时使用的策略，为空时由 Tracker 选择
+     * @return 策略
+     */
+    public static GroupSelector affinity(String rules, GroupSelector fallback) {
+        List<String[]> parsed = parseRules(rules);
+        return (monitor, suffix, contentType, size, descriptions) -> {
+            for (String[] rule : parsed) {
+                if (matches(rule[0], suffix, contentType, descriptions)) {
+                    return rule[1];
+                }
+            }
+            return fallback == null ? null : fallback.select(monitor, suffix, contentType, size, descriptions);
+        };
+    }
+
+    private static List<String[]> parseRules(String rules) {
+        if (StringUtils.isBlank(rules)) {
+            return Collections.emptyList();
+        }
+        List<String[]> parsed = new ArrayList<>();
+        for (String rule : rules.split(",")) {
+            int index = rule.lastIndexOf(':');
+            if (index <= 0 || index == rule.length() - 1) {
+                throw new IllegalArgumentException("invalid group affinity rule: " + rule);
+            }
+            parsed.add(new String[]{rule.substring(0, index).trim(), rule.substring(index + 1).trim()});
+        }
+        return parsed;
+    }
+
+    private static boolean matches(String condition, String suffix, String contentType, Map<String, String> descriptions) {
+        int eq = condition.indexOf('=');
+        if (eq > 0) {
+            return descriptions != null && condition.substring(eq + 1).equals(descriptions.get(condition.substring(0, eq)));
+        }
+        if (condition.indexOf('/') > 0) {
+            if (contentType == null) {
+                return false;
+            }
+            if (condition.endsWith("/*")) {
+                return contentType.startsWith(condition.substring(0, condition.length() - 1));
+            }
+            return contentType.equalsIgnoreCase(condition);
+        }
+        return condition.equalsIgnoreCase(suffix);
+    }
+}
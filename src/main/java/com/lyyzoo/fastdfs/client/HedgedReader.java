@@ -0,0 +1,521 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.common.MyException;
+import org.csource.fastdfs.StorageClient1;
+import org.csource.fastdfs.StorageServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 对冲读.
+ * <p>
+ * 下载文件、获取文件描述信息时，第一个副本在对冲延迟内没有返回第一个字节，就向该文件的另一个副本(Tracker fetch-all 查询)
+ * 发送相同的请求，先完成的结果生效，另一个请求被取消(关闭其 Socket 的输入). <br>
+ * 对冲延迟取最近 {@link #WINDOW_SIZE} 次首字节耗时的 percentile 分位数，限制在 minDelayMillis ~ maxDelayMillis 之间，
+ * 样本不足时使用 maxDelayMillis. <br>
+ * 对冲预算：每次读请求积累 budgetPercent% 个令牌，每次对冲消耗一个，最多积累 maxBudget 个.
+ * 故障期间所有请求都变慢时，对冲数也不会超过读请求的 budgetPercent%，不会成倍放大 Storage 的负载.
+ */
+public class HedgedReader {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(HedgedReader.class);
+
+    /**
+     * 首字节耗时的样本数
+     */
+    private static final int WINDOW_SIZE = 500;
+    /**
+     * 至少多少个样本才按分位数计算延迟
+     */
+    private static final int MIN_SAMPLES = 100;
+    /**
+     * 每多少个样本重新计算一次延迟
+     */
+    private static final int RECOMPUTE_INTERVAL = 50;
+
+    private static final ThreadLocal<Attempt<?>> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 对冲定时器
+     */
+    private static final ScheduledExecutorService SCHEDULER =
+            Executors.newSingleThreadScheduledExecutor(daemonThreadFactory("fastdfs-hedge-timer"));
+
+    /**
+     * 执行对冲请求的线程，没有空闲线程时不对冲
+     */
+    private static final ThreadPoolExecutor EXECUTOR = new ThreadPoolExecutor(0, 64, 60, TimeUnit.SECONDS,
+            new SynchronousQueue<>(), daemonThreadFactory("fastdfs-hedge"));
+
+    private final FastDFSMetrics metrics = FastDFSMetrics.getInstance();
+
+    private volatile boolean enabled = false;
+    /**
+     * 对冲延迟的分位数
+     */
+    private volatile double percentile = 95;
+    private volatile long minDelayMillis = 5;
+    private volatile long maxDelayMillis = 500;
+    /**
+     * 对冲数占读请求数的百分比上限
+     */
+    private volatile double budgetPercent = 5;
+    /**
+     * 最多积累的对冲令牌数
+     */
+    private volatile double maxBudget = 10;
+
+    private final long[] samples = new long[WINDOW_SIZE];
+    private int sampleIndex;
+    private int sampleCount;
+    private int sinceRecompute;
+    /**
+     * 按分位数计算的延迟，样本不足时为 -1
+     */
+    private volatile long delayNanos = -1;
+
+    private double budget = maxBudget;
+
+    /**
+     * 在回调中收到第一个字节时调用
+     */
+    static void markFirstByte() {
+        Attempt<?> attempt = CURRENT.get();
+        if (attempt != null && attempt.firstByte == 0) {
+            attempt.firstByte = System.nanoTime();
+        }
+    }
+
+    /**
+     * 执行对冲读. 在调用线程中读取已连接的第一个副本，必要时在对冲线程中读取 nodes 中的另一个副本.
+     *
+     * @param operation 操作
+     * @param callback 回调，可能在两个线程中同时执行
+     * @param cluster 文件所在的集群
+     * @param server 已连接的第一个副本，由调用方关闭
+     * @param node 第一个副本
+     * @param breaker 第一个副本的熔断器，未启用熔断时为 null
+     * @param nodes 该文件的所有副本
+     * @param trace 当前跟踪
+     * @param span 当前操作
+     * @return 先完成的结果
+     */
+    <T> T read(StorageOperation operation, StorageCallback<T> callback, FastDFSCluster cluster, StorageServer server, StorageNode node,
+               CircuitBreaker breaker, List<StorageNode> nodes, RequestTrace trace, RequestTrace.Span span)
+            throws IOException, MyException, FastDFSException {
+        HedgedRead<T> read = new HedgedRead<>(operation, callback, cluster, nodes);
+        Attempt<T> primary = new Attempt<>(read, node, breaker);
+        primary.server = server;
+        read.primary = primary;
+        read.pending = 1;
+        deposit();
+
+        ScheduledFuture<?> trigger = null;
+        if (nodes.size() > 1) {
+            trigger = SCHEDULER.schedule(() -> hedge(read), getDelayNanos(), TimeUnit.NANOSECONDS);
+        }
+        try {
+            primary.run();
+        } finally {
+            if (trigger != null) {
+                trigger.cancel(false);
+            }
+        }
+
+        Attempt<T> winner = read.await();
+        Attempt<T> hedge = read.hedge;
+        if (hedge != null) {
+            span.hedge = hedge.node.getAddress();
+            span.hedgeWon = winner == hedge;
+            metrics.recordHedge(operation, winner == hedge);
+        }
+        if (winner == null) {
+            // 都失败时，Storage 返回了错误码(如文件不存在)则与不对冲时一样返回空结果，否则抛出第一个副本的异常
+            Attempt<T> answered = primary.error == null ? primary : hedge != null && hedge.error == null ? hedge : null;
+            if (answered != null) {
+                if (answered.errno != 0) {
+                    span.error = "errno " + answered.errno;
+                }
+                return null;
+            }
+            Exception error = primary.error != null ? primary.error : hedge.error;
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error instanceof MyException) {
+                throw (MyException) error;
+            } else if (error instanceof FastDFSException) {
+                throw (FastDFSException) error;
+            }
+            throw (RuntimeException) error;
+        }
+        span.storage = winner.node.getAddress();
+        if (winner != primary && winner.firstByte > 0 && span.firstByte < 0) {
+            span.firstByte = Math.max(0, trace.offset() - (System.nanoTime() - winner.firstByte) / 1000);
+        }
+        if (winner.errno != 0) {
+            span.error = "errno " + winner.errno;
+        }
+        return winner.result;
+    }
+
+    /**
+     * 对冲延迟到期，第一个副本仍未返回时向另一个副本发送请求
+     */
+    private <T> void hedge(HedgedRead<T> read) {
+        if (read.primary.firstByte != 0 || !withdraw()) {
+            return;
+        }
+        CircuitBreakerRegistry breakers = CircuitBreakerRegistry.getInstance();
+        Attempt<T> hedge = null;
+        for (StorageNode node : read.nodes) {
+            if (node.getAddress().equals(read.primary.node.getAddress())) {
+                continue;
+            }
+            CircuitBreaker breaker = breakers.isEnabled() ? breakers.get(node.getAddress()) : null;
+            if (breaker == null || breaker.tryAcquire()) {
+                hedge = new Attempt<>(read, node, breaker);
+                break;
+            }
+        }
+        if (hedge == null || !read.startHedge(hedge)) {
+            refund();
+            if (hedge != null && hedge.breaker != null) {
+                hedge.breaker.release();
+            }
+            return;
+        }
+
+        final Attempt<T> attempt = hedge;
+        try {
+            EXECUTOR.execute(() -> {
+                try {
+                    attempt.connect();
+                } catch (IOException e) {
+                    if (logger.isWarnEnabled()) {
+                        logger.warn("connect storage {} for hedged read failed: {}", attempt.node.getAddress(), e.getMessage());
+                    }
+                    attempt.fail(e);
+                    return;
+                }
+                try {
+                    if (attempt.cancelled) {
+                        attempt.fail(new IOException("hedged read cancelled"));
+                        return;
+                    }
+                    attempt.run();
+                } finally {
+                    try {
+                        attempt.server.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refund();
+            attempt.fail(new IOException("no hedge thread available"));
+        }
+    }
+
+    /**
+     * 记录首字节耗时样本
+     */
+    private synchronized void recordSample(long nanos) {
+        samples[sampleIndex] = nanos;
+        sampleIndex = (sampleIndex + 1) % samples.length;
+        if (sampleCount < samples.length) {
+            sampleCount++;
+        }
+        if (++sinceRecompute < RECOMPUTE_INTERVAL || sampleCount < MIN_SAMPLES) {
+            return;
+        }
+        sinceRecompute = 0;
+        long[] sorted = Arrays.copyOf(samples, sampleCount);
+        Arrays.sort(sorted);
+        int index = (int) Math.min(sampleCount - 1, Math.ceil(percentile / 100 * sampleCount) - 1);
+        delayNanos = sorted[Math.max(0, index)];
+    }
+
+    private synchronized void deposit() {
+        budget = Math.min(maxBudget, budget + budgetPercent / 100);
+    }
+
+    private synchronized boolean withdraw() {
+        if (budget < 1) {
+            return false;
+        }
+        budget -= 1;
+        return true;
+    }
+
+    private synchronized void refund() {
+        budget = Math.min(maxBudget, budget + 1);
+    }
+
+    /**
+     * @return 当前的对冲延迟(纳秒)
+     */
+    public long getDelayNanos() {
+        long delay = delayNanos;
+        if (delay < 0) {
+            return TimeUnit.MILLISECONDS.toNanos(maxDelayMillis);
+        }
+        return Math.max(TimeUnit.MILLISECONDS.toNanos(minDelayMillis),
+                Math.min(TimeUnit.MILLISECONDS.toNanos(maxDelayMillis), delay));
+    }
+
+    /**
+     * @return 剩余的对冲令牌数
+     */
+    public synchronized double getBudget() {
+        return budget;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public double getPercentile() {
+        return percentile;
+    }
+
+    public void setPercentile(double percentile) {
+        this.percentile = Math.max(1, Math.min(100, percentile));
+    }
+
+    public long getMinDelayMillis() {
+        return minDelayMillis;
+    }
+
+    public void setMinDelayMillis(long minDelayMillis) {
+        this.minDelayMillis = minDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public void setMaxDelayMillis(long maxDelayMillis) {
+        this.maxDelayMillis = Math.max(minDelayMillis, maxDelayMillis);
+    }
+
+    public double getBudgetPercent() {
+        return budgetPercent;
+    }
+
+    public void setBudgetPercent(double budgetPercent) {
+        this.budgetPercent = budgetPercent;
+    }
+
+    public double getMaxBudget() {
+        return maxBudget;
+    }
+
+    public synchronized void setMaxBudget(double maxBudget) {
+        this.maxBudget = maxBudget;
+        this.budget = Math.min(budget, maxBudget);
+    }
+
+    private static ThreadFactory daemonThreadFactory(String prefix) {
+        AtomicInteger sequence = new AtomicInteger();
+        return r -> {
+            Thread thread = new Thread(r, prefix + "-" + sequence.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 一次对冲读，第一个成功完成的请求胜出
+     */
+    private static class HedgedRead<T> {
+        private final StorageOperation operation;
+        private final StorageCallback<T> callback;
+        private final FastDFSCluster cluster;
+        private final List<StorageNode> nodes;
+        private Attempt<T> primary;
+        private volatile Attempt<T> hedge;
+        private Attempt<T> winner;
+        /**
+         * 未完成的请求数
+         */
+        private int pending;
+
+        HedgedRead(StorageOperation operation, StorageCallback<T> callback, FastDFSCluster cluster, List<StorageNode> nodes) {
+            this.operation = operation;
+            this.callback = callback;
+            this.cluster = cluster;
+            this.nodes = nodes;
+        }
+
+        /**
+         * 第一个副本还在执行时才开始对冲
+         */
+        synchronized boolean startHedge(Attempt<T> attempt) {
+            if (winner != null || primary.done) {
+                return false;
+            }
+            hedge = attempt;
+            pending++;
+            return true;
+        }
+
+        /**
+         * 请求完成，成功(没有异常、错误码为 0 且有结果)且没有其它请求胜出时成为胜者，并取消另一个请求.
+         * 失败的请求不取消另一个请求，继续等待. 不是胜者的请求，结果如果是 Closeable(如池化的缓冲区)则关闭
+         */
+        synchronized void complete(Attempt<T> attempt) {
+            attempt.done = true;
+            pending--;
+            if (winner == null && attempt.isSuccess()) {
+                winner = attempt;
+                Attempt<T> loser = attempt == primary ? hedge : primary;
+                if (loser != null && !loser.done) {
+                    loser.cancel();
+                }
+            } else if (attempt.result instanceof Closeable) {
+                try {
+                    ((Closeable) attempt.result).close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            notifyAll();
+        }
+
+        /**
+         * 等待胜者，还有未完成的请求时继续等待，所有请求都失败时返回 null
+         */
+        synchronized Attempt<T> await() {
+            while (winner == null && pending > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+            return winner;
+        }
+    }
+
+    /**
+     * 向一个副本发出的请求
+     */
+    private class Attempt<T> {
+        private final HedgedRead<T> read;
+        private final StorageNode node;
+        private final CircuitBreaker breaker;
+        private final long start = System.nanoTime();
+        private volatile StorageServer server;
+        private volatile long firstByte;
+        private volatile boolean cancelled;
+        private volatile boolean done;
+        private T result;
+        private byte errno;
+        private Exception error;
+
+        Attempt(HedgedRead<T> read, StorageNode node, CircuitBreaker breaker) {
+            this.read = read;
+            this.node = node;
+            this.breaker = breaker;
+        }
+
+        void connect() throws IOException {
+            StorageServer storageServer = new StorageServer(node.getIp(), node.getPort(), node.getStorePathIndex());
+            storageServer.getSocket().setTcpNoDelay(true);
+            server = storageServer;
+            if (cancelled) {
+                cancel();
+            }
+        }
+
+        void run() {
+            CURRENT.set(this);
+            try {
+                StorageClient1 storageClient = read.cluster.newStorageClient(null, server);
+                result = read.callback.doInStorage(storageClient);
+                errno = storageClient.getErrorCode();
+            } catch (IOException | MyException | FastDFSException | RuntimeException e) {
+                error = e;
+            } finally {
+                CURRENT.remove();
+            }
+            long elapsed = System.nanoTime() - start;
+            if (error == null) {
+                recordSample(firstByte > 0 ? firstByte - start : elapsed);
+            }
+            record(elapsed);
+            read.complete(this);
+        }
+
+        /**
+         * @return 是否成功：没有异常、Storage 没有返回错误码且有结果
+         */
+        boolean isSuccess() {
+            return error == null && errno == 0 && result != null;
+        }
+
+        /**
+         * 连接失败
+         */
+        void fail(Exception e) {
+            error = e;
+            record(System.nanoTime() - start);
+            read.complete(this);
+        }
+
+        /**
+         * 取消请求，关闭 Socket 的输入使阻塞的读取立即返回
+         */
+        void cancel() {
+            cancelled = true;
+            StorageServer storageServer = server;
+            if (storageServer == null) {
+                return;
+            }
+            try {
+                storageServer.getSocket().shutdownInput();
+            } catch (IOException e) {
+                // 已关闭
+            }
+        }
+
+        /**
+         * 记录到熔断器，被取消的请求不记录
+         */
+        private void record(long elapsed) {
+            if (breaker == null) {
+                return;
+            }
+            if (cancelled && error != null) {
+                breaker.release();
+            } else if (error instanceof IOException || error instanceof MyException
+                    || StorageExecutor.isStorageFailure(errno)) {
+                breaker.onFailure();
+            } else {
+                breaker.onSuccess(elapsed);
+            }
+        }
+    }
+}
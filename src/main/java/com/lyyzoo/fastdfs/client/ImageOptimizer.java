@@ -0,0 +1,220 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 上传图片优化. 按配置的质量和最大尺寸重新编码图片，去掉 EXIF 等元数据，JPEG 输出为渐进式，PNG 使用最高压缩级别.
+ * <p>
+ * 优化在固定大小的线程池中执行，线程池繁忙、超时或处理失败时直接使用原图，不影响上传. <br>
+ * 只处理 jpg/jpeg/png，gif(可能是动图)等其它格式保持原样. <br>
+ * 解码前先从图片头部读取宽高，像素数超过 maxPixels 的图片不优化，直接上传原图.
+ */
+public class ImageOptimizer {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(ImageOptimizer.class);
+    /**
+     * 原图大小描述Key
+     */
+    public static final String ORIGINAL_SIZE = "original_size";
+    /**
+     * 优化后大小描述Key
+     */
+    public static final String OPTIMIZED_SIZE = "optimized_size";
+    /**
+     * 图片优化线程池
+     */
+    private static final ThreadPoolExecutor WORKERS;
+
+    static {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        AtomicInteger index = new AtomicInteger();
+        WORKERS = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(32), r -> {
+            Thread thread = new Thread(r, "fastdfs-image-optimizer-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 是否启用
+     */
+    private boolean enabled = false;
+    /**
+     * JPEG 质量 1~100
+     */
+    private int quality = 85;
+    /**
+     * 最大宽度，0 表示不限制
+     */
+    private int maxWidth = 2048;
+    /**
+     * 最大高度，0 表示不限制
+     */
+    private int maxHeight = 2048;
+    /**
+     * 等待优化结果的超时时间(秒)
+     */
+    private int timeout = 10;
+    /**
+     * 最大像素数(宽 x 高)，超过时不优化
+     */
+    private long maxPixels = ImageProcessor.DEFAULT_MAX_PIXELS;
+
+    /**
+     * 是否需要优化该图片. 只从图片头部读取宽高，不解码图片，不需要优化的图片可以直接上传原图
+     *
+     * @param suffix 文件后缀
+     * @param is 图片输入流，由调用者关闭
+     * @return 启用优化、格式支持且像素数不超过上限时返回 true
+     */
+    public boolean accepts(String suffix, InputStream is) {
+        if (!enabled || format(suffix) == null) {
+            return false;
+        }
+        try {
+            Dimension size = ImageProcessor.readSize(is);
+            long pixels = (long) size.width * size.height;
+            if (pixels > maxPixels) {
+                logger.info("image has {} pixels, over the limit {}, upload original image", pixels, maxPixels);
+                return false;
+            }
+            return true;
+        } catch (IOException e) {
+            logger.warn("read image size failed, upload original image: {}", e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * 优化图片
+     *
+     * @param bytes 原图
+     * @param suffix 文件后缀
+     * @return 优化后的图片，不需要优化或优化后更大则返回原图
+     */
+    public byte[] optimize(final byte[] bytes, String suffix) {
+        if (!enabled || bytes == null || bytes.length == 0) {
+            return bytes;
+        }
+        final String format = format(suffix);
+        if (format == null) {
+            return bytes;
+        }
+
+        Future<byte[]> future;
+        try {
+            future = WORKERS.submit(() -> encode(bytes, format));
+        } catch (RejectedExecutionException e) {
+            logger.warn("image optimizer busy, upload original image");
+            return bytes;
+        }
+        try {
+            byte[] optimized = future.get(timeout, TimeUnit.SECONDS);
+            if (logger.isDebugEnabled()) {
+                logger.debug("optimize image {} bytes -> {} bytes", bytes.length, optimized.length);
+            }
+            return optimized.length < bytes.length ? optimized : bytes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            future.cancel(true);
+        } catch (TimeoutException e) {
+            logger.warn("optimize image timeout, upload original image");
+            future.cancel(true);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof ImageProcessor.PixelLimitException) {
+                logger.info("{}, upload original image", e.getCause().getMessage());
+            } else {
+                logger.warn("optimize image failed, upload original image", e.getCause());
+            }
+        }
+        return bytes;
+    }
+
+    private byte[] encode(byte[] bytes, String format) throws Exception {
+        BufferedImage image = ImageProcessor.read(bytes, maxPixels);
+        if (ImageProcessor.FORMAT_JPEG.equals(format)) {
+            // 去掉 EXIF 前先按方向旋转
+            image = ImageProcessor.applyOrientation(image, ImageProcessor.readOrientation(bytes));
+        }
+        boolean opaque = ImageProcessor.FORMAT_JPEG.equals(format) || !image.getColorModel().hasAlpha();
+        image = ImageProcessor.resize(image, maxWidth, maxHeight, opaque);
+        return ImageProcessor.write(image, format, quality, true);
+    }
+
+    /**
+     * 只优化 JPEG 和 PNG，输出格式与原图一致
+     */
+    private static String format(String suffix) {
+        if ("jpg".equals(suffix) || "jpeg".equals(suffix)) {
+            return ImageProcessor.FORMAT_JPEG;
+        }
+        if ("png".equals(suffix)) {
+            return ImageProcessor.FORMAT_PNG;
+        }
+        return null;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getQuality() {
+        return quality;
+    }
+
+    public void setQuality(int quality) {
+        this.quality = quality;
+    }
+
+    public int getMaxWidth() {
+        return maxWidth;
+    }
+
+    public void setMaxWidth(int maxWidth) {
+        this.maxWidth = maxWidth;
+    }
+
+    public int getMaxHeight() {
+        return maxHeight;
+    }
+
+    public void setMaxHeight(int maxHeight) {
+        this.maxHeight = maxHeight;
+    }
+
+    public int getTimeout() {
+        return timeout;
+    }
+
+    public void setTimeout(int timeout) {
+        this.timeout = timeout;
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    public void setMaxPixels(long maxPixels) {
+        this.maxPixels = maxPixels;
+    }
+}
@@ -0,0 +1,317 @@
+package com.lyyzoo.fastdfs.client;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * 图片处理工具类，基于 JDK 自带的 ImageIO / Java2D 实现缩放和重新编码.
+ * <p>
+ */
+public class ImageProcessor {
+    /**
+     * JPEG 格式
+     */
+    public static final String FORMAT_JPEG = "jpg";
+    /**
+     * PNG 格式
+     */
+    public static final String FORMAT_PNG = "png";
+    /**
+     * 默认的最大像素数(宽 x 高)，解码后约占 160MB 内存
+     */
+    public static final long DEFAULT_MAX_PIXELS = 40L * 1000 * 1000;
+
+    private ImageProcessor(){}
+
+    /**
+     * 解码图片. 解码前先从图片头部读取宽高，像素数超过上限时不解码，
+     * 避免几 KB 的图片声明极大的尺寸、解码时耗尽内存
+     *
+     * @param bytes 图片字节
+     * @param maxPixels 最大像素数(宽 x 高)
+     * @return BufferedImage
+     * @throws IOException 无法识别的图片格式
+     * @throws PixelLimitException 像素数超过上限
+     */
+    public static BufferedImage read(byte[] bytes, long maxPixels) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(bytes));
+        try {
+            ImageReader reader = reader(iis);
+            try {
+                long pixels = (long) reader.getWidth(0) * reader.getHeight(0);
+                if (pixels > maxPixels) {
+                    throw new PixelLimitException(pixels, maxPixels);
+                }
+                return reader.read(0);
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            iis.close();
+        }
+    }
+
+    /**
+     * 只从图片头部读取宽高，不解码图片
+     *
+     * @param is 图片输入流，由调用者关闭
+     * @return 宽高
+     * @throws IOException 无法识别的图片格式
+     */
+    public static Dimension readSize(InputStream is) throws IOException {
+        ImageInputStream iis = ImageIO.createImageInputStream(is);
+        try {
+            ImageReader reader = reader(iis);
+            try {
+                return new Dimension(reader.getWidth(0), reader.getHeight(0));
+            } finally {
+                reader.dispose();
+            }
+        } finally {
+            if (iis != null) {
+                iis.close();
+            }
+        }
+    }
+
+    private static ImageReader reader(ImageInputStream iis) throws IOException {
+        Iterator<ImageReader> readers = iis == null ? null : ImageIO.getImageReaders(iis);
+        if (readers == null || !readers.hasNext()) {
+            throw new IOException("unsupported image format");
+        }
+        ImageReader reader = readers.next();
+        reader.setInput(iis, true, true);
+        return reader;
+    }
+
+    /**
+     * 等比缩放到指定范围内，不会放大图片. 宽或高为 0 表示不限制.
+     *
+     * @param image 原图
+     * @param maxWidth 最大宽度
+     * @param maxHeight 最大高度
+     * @param opaque 是否输出不透明图片(JPEG)
+     * @return 缩放后的图片
+     */
+    public static BufferedImage resize(BufferedImage image, int maxWidth, int maxHeight, boolean opaque) {
+        int width = image.getWidth();
+        int height = image.getHeight();
+        double scale = 1.0;
+        if (maxWidth > 0 && width > maxWidth) {
+            scale = Math.min(scale, (double) maxWidth / width);
+        }
+        if (maxHeight > 0 && height > maxHeight) {
+            scale = Math.min(scale, (double) maxHeight / height);
+        }
+        int targetWidth = Math.max(1, (int) Math.round(width * scale));
+        int targetHeight = Math.max(1, (int) Math.round(height * scale));
+        int type = opaque ? BufferedImage.TYPE_INT_RGB : BufferedImage.TYPE_INT_ARGB;
+
+        BufferedImage current = image;
+        // 每次缩小一半，最后一步再缩放到目标大小，避免一次大比例缩小产生锯齿
+        while (current.getWidth() / 2 >= targetWidth && current.getHeight() / 2 >= targetHeight) {
+            current = draw(current, current.getWidth() / 2, current.getHeight() / 2, type, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        if (current.getWidth() != targetWidth || current.getHeight() != targetHeight || current.getType() != type) {
+            current = draw(current, targetWidth, targetHeight, type, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+        }
+        return current;
+    }
+
+    /**
+     * 编码图片
+     *
+     * @param image 图片
+     * @param format 输出格式 jpg / png
+     * @param quality JPEG 质量 1~100
+     * @param progressive 是否输出渐进式 JPEG
+     * @return 图片字节
+     */
+    public static byte[] write(BufferedImage image, String format, int quality, boolean progressive) throws IOException {
+        String formatName = FORMAT_JPEG.equals(format) ? "jpeg" : FORMAT_PNG;
+        Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(formatName);
+        if (!writers.hasNext()) {
+            throw new IOException("no image writer for " + formatName);
+        }
+        ImageWriter writer = writers.next();
+        ImageWriteParam param = writer.getDefaultWriteParam();
+        if (FORMAT_JPEG.equals(format)) {
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(Math.max(1, Math.min(100, quality)) / 100f);
+            if (progressive) {
+                param.setProgressiveMode(ImageWriteParam.MODE_DEFAULT);
+            }
+        } else if (param.canWriteCompressed()) {
+            // PNG 使用最高压缩级别
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(0f);
+        }
+
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(64 * 1024);
+        ImageOutputStream ios = ImageIO.createImageOutputStream(bos);
+        try {
+            writer.setOutput(ios);
+            // 不写出原图的元数据(EXIF等)
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+            ios.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * 根据文件后缀选择输出格式，JPEG 保持 JPEG，其余输出 PNG
+     *
+     * @param suffix 文件后缀
+     * @return jpg / png
+     */
+    public static String outputFormat(String suffix) {
+        if ("jpg".equals(suffix) || "jpeg".equals(suffix)) {
+            return FORMAT_JPEG;
+        }
+        return FORMAT_PNG;
+    }
+
+    /**
+     * 读取 JPEG EXIF 中的方向(Orientation)
+     *
+     * @param bytes JPEG 字节
+     * @return 1~8，没有方向信息返回 1
+     */
+    public static int readOrientation(byte[] bytes) {
+        if (bytes.length < 4 || (bytes[0] & 0xFF) != 0xFF || (bytes[1] & 0xFF) != 0xD8) {
+            return 1;
+        }
+        int offset = 2;
+        while (offset + 4 <= bytes.length && (bytes[offset] & 0xFF) == 0xFF) {
+            int marker = bytes[offset + 1] & 0xFF;
+            int length = ((bytes[offset + 2] & 0xFF) << 8) | (bytes[offset + 3] & 0xFF);
+            // SOS 之后是图像数据
+            if (marker == 0xDA || length < 2) {
+                break;
+            }
+            int start = offset + 4;
+            if (marker == 0xE1 && start + 14 <= bytes.length && bytes[start] == 'E' && bytes[start + 1] == 'x'
+                    && bytes[start + 2] == 'i' && bytes[start + 3] == 'f') {
+                return readTiffOrientation(bytes, start + 6, Math.min(bytes.length, offset + 2 + length));
+            }
+            offset += 2 + length;
+        }
+        return 1;
+    }
+
+    /**
+     * 按 EXIF 方向旋转/翻转图片，去掉 EXIF 之后图片仍然正向显示
+     *
+     * @param image 图片
+     * @param orientation EXIF 方向 1~8
+     * @return 旋转后的图片
+     */
+    public static BufferedImage applyOrientation(BufferedImage image, int orientation) {
+        if (orientation <= 1 || orientation > 8) {
+            return image;
+        }
+        int width = image.getWidth();
+        int height = image.getHeight();
+        boolean swap = orientation >= 5;
+        AffineTransform transform = new AffineTransform();
+        switch (orientation) {
+            case 2: transform.scale(-1, 1); transform.translate(-width, 0); break;
+            case 3: transform.translate(width, height); transform.rotate(Math.PI); break;
+            case 4: transform.scale(1, -1); transform.translate(0, -height); break;
+            case 5: transform.rotate(-Math.PI / 2); transform.scale(-1, 1); break;
+            case 6: transform.translate(height, 0); transform.rotate(Math.PI / 2); break;
+            case 7: transform.scale(-1, 1); transform.translate(-height, 0); transform.translate(0, width); transform.rotate(3 * Math.PI / 2); break;
+            default: transform.translate(0, width); transform.rotate(3 * Math.PI / 2); break;
+        }
+        int type = image.getColorModel().hasAlpha() ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB;
+        BufferedImage target = new BufferedImage(swap ? height : width, swap ? width : height, type);
+        Graphics2D g = target.createGraphics();
+        try {
+            g.drawImage(image, transform, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    private static int readTiffOrientation(byte[] bytes, int tiff, int end) {
+        if (tiff + 8 > end) {
+            return 1;
+        }
+        boolean little = bytes[tiff] == 'I';
+        int ifd = tiff + readInt(bytes, tiff + 4, little);
+        if (ifd < tiff || ifd + 2 > end) {
+            return 1;
+        }
+        int count = readShort(bytes, ifd, little);
+        for (int i = 0; i < count; i++) {
+            int entry = ifd + 2 + i * 12;
+            if (entry + 12 > end) {
+                break;
+            }
+            // 0x0112 Orientation
+            if (readShort(bytes, entry, little) == 0x0112) {
+                return readShort(bytes, entry + 8, little);
+            }
+        }
+        return 1;
+    }
+
+    private static int readShort(byte[] bytes, int offset, boolean little) {
+        int b0 = bytes[offset] & 0xFF;
+        int b1 = bytes[offset + 1] & 0xFF;
+        return little ? (b1 << 8) | b0 : (b0 << 8) | b1;
+    }
+
+    private static int readInt(byte[] bytes, int offset, boolean little) {
+        int high = readShort(bytes, little ? offset + 2 : offset, little);
+        int low = readShort(bytes, little ? offset : offset + 2, little);
+        return (high << 16) | low;
+    }
+
+    private static BufferedImage draw(BufferedImage source, int width, int height, int type, Object interpolation) {
+        BufferedImage target = new BufferedImage(width, height, type);
+        Graphics2D g = target.createGraphics();
+        try {
+            if (type == BufferedImage.TYPE_INT_RGB) {
+                // 透明背景转为白色
+                g.setColor(Color.WHITE);
+                g.fillRect(0, 0, width, height);
+            }
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, width, height, null);
+        } finally {
+            g.dispose();
+        }
+        return target;
+    }
+
+    /**
+     * 图片像素数超过上限
+     */
+    public static class PixelLimitException extends IOException {
+
+        public PixelLimitException(long pixels, long maxPixels) {
+            super("image has " + pixels + " pixels, over the limit " + maxPixels);
+        }
+    }
+}
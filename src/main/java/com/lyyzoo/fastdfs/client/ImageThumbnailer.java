@@ -0,0 +1,346 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.apache.commons.lang3.StringUtils;
+import org.csource.common.MyException;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.StorageClient1;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 图片缩略图. 缩略图作为原图的从文件(slave file)保存在 FastDFS 中，只在第一次访问时生成.
+ * <p>
+ * 从文件名由原图文件名加前缀 _{宽}x{高}_q{质量} 组成，如：<br>
+ * group1/M00/00/00/wKgzgFnkTPyAIAUGAAEoRmXZPp876_128x128_q80.jpg <br>
+ * 同一个缩略图的并发请求只会生成一次，生成任务在固定大小的线程池中执行，限制 CPU 占用. <br>
+ * 宽高和质量只能取配置的值(见 {@link #setSizes(String)}、{@link #setQualities(String)})，任意组合的请求不会生成大量从文件.
+ */
+public class ImageThumbnailer {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(ImageThumbnailer.class);
+    /**
+     * 缩略图最大边长
+     */
+    public static final int MAX_SIZE = 4096;
+    /**
+     * 默认质量
+     */
+    public static final int DEFAULT_QUALITY = 80;
+    /**
+     * 原图描述Key
+     */
+    private static final String MASTER = "master";
+    /**
+     * 文件已存在
+     */
+    private static final int ERR_NO_EEXIST = 17;
+    /**
+     * 生成缩略图的线程池
+     */
+    private static final ThreadPoolExecutor WORKERS;
+    /**
+     * 正在生成的缩略图
+     */
+    private static final ConcurrentMap<String, Future<Boolean>> GENERATING = new ConcurrentHashMap<>();
+
+    static {
+        int threads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        AtomicInteger index = new AtomicInteger();
+        WORKERS = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(64), r -> {
+            Thread thread = new Thread(r, "fastdfs-thumbnail-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 等待生成的超时时间(秒)
+     */
+    private int generateTimeout = 30;
+    /**
+     * 允许的宽高
+     */
+    private volatile Set<Integer> sizes = parse("64,128,256,512,1024", MAX_SIZE);
+    /**
+     * 允许的质量，不指定质量时使用 DEFAULT_QUALITY
+     */
+    private volatile Set<Integer> qualities = parse("60," + DEFAULT_QUALITY + ",90", 100);
+    /**
+     * 原图的最大像素数(宽 x 高)，超过时不生成缩略图
+     */
+    private long maxPixels = ImageProcessor.DEFAULT_MAX_PIXELS;
+    /**
+     * Storage 操作模板
+     */
+    private final StorageExecutor storageExecutor;
+
+    public ImageThumbnailer(StorageExecutor storageExecutor) {
+        this.storageExecutor = storageExecutor;
+    }
+
+    /**
+     * 输出缩略图，不存在则先生成
+     *
+     * @param filepath 原图路径
+     * @param width 最大宽度，0 表示不限制，其它值必须是允许的宽高
+     * @param height 最大高度，0 表示不限制，其它值必须是允许的宽高
+     * @param quality JPEG 质量，0 使用默认质量，其它值必须是允许的质量
+     * @param os 输出流
+     * @return 缩略图路径
+     */
+    public String write(String filepath, int width, int height, int quality, OutputStream os) throws FastDFSException {
+        if (StringUtils.isBlank(filepath)) {
+            throw new FastDFSException(ErrorCode.FILE_PATH_ISNULL.CODE, ErrorCode.FILE_PATH_ISNULL.MESSAGE);
+        }
+        quality = quality == 0 ? DEFAULT_QUALITY : quality;
+        if ((width != 0 && !sizes.contains(width)) || (height != 0 && !sizes.contains(height))
+                || !qualities.contains(quality)) {
+            throw new FastDFSException(ErrorCode.FILE_THUMBNAIL_INVALID.CODE, ErrorCode.FILE_THUMBNAIL_INVALID.MESSAGE);
+        }
+
+        String suffix = FileCheck.getFilenameSuffix(filepath);
+        String format = ImageProcessor.outputFormat(suffix);
+        String prefix = "_" + width + "x" + height + "_q" + quality;
+        String slavePath = slavePath(filepath, prefix, format);
+
+        if (download(slavePath, os)) {
+            return slavePath;
+        }
+
+        // 缩略图不存在，生成后再输出
+        generate(filepath, slavePath, prefix, format, width, height, quality);
+        if (!download(slavePath, os)) {
+            throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+        }
+        return slavePath;
+    }
+
+    /**
+     * 生成缩略图，同一个缩略图同时只有一个生成任务
+     */
+    private void generate(final String filepath, final String slavePath, final String prefix, final String format,
+                          final int width, final int height, final int quality) throws FastDFSException {
+        FutureTask<Boolean> task = new FutureTask<Boolean>(() -> {
+            createSlave(filepath, prefix, format, width, height, quality);
+            return true;
+        }) {
+            @Override
+            protected void done() {
+                // 生成结束后移除，之后的请求直接读取从文件
+                GENERATING.remove(slavePath, this);
+            }
+        };
+        Future<Boolean> future = GENERATING.putIfAbsent(slavePath, task);
+        if (future == null) {
+            future = task;
+            try {
+                WORKERS.execute(task);
+            } catch (RejectedExecutionException e) {
+                GENERATING.remove(slavePath, task);
+                logger.warn("thumbnail workers busy, reject {}", slavePath);
+                throw new FastDFSException(ErrorCode.FILE_IMAGE_PROCESS_FAILED.CODE, ErrorCode.FILE_IMAGE_PROCESS_FAILED.MESSAGE);
+            }
+        }
+
+        try {
+            future.get(generateTimeout, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FastDFSException(ErrorCode.FILE_IMAGE_PROCESS_FAILED.CODE, ErrorCode.FILE_IMAGE_PROCESS_FAILED.MESSAGE);
+        } catch (TimeoutException e) {
+            logger.warn("generate thumbnail timeout, {}", slavePath);
+            throw new FastDFSException(ErrorCode.FILE_IMAGE_PROCESS_FAILED.CODE, ErrorCode.FILE_IMAGE_PROCESS_FAILED.MESSAGE);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FastDFSException) {
+                throw (FastDFSException) e.getCause();
+            }
+            logger.error("generate thumbnail failed, " + slavePath, e.getCause());
+            throw new FastDFSException(ErrorCode.FILE_IMAGE_PROCESS_FAILED.CODE, ErrorCode.FILE_IMAGE_PROCESS_FAILED.MESSAGE);
+        }
+    }
+
+    /**
+     * 下载原图，缩放后作为从文件上传
+     */
+    private void createSlave(String filepath, String prefix, String format, int width, int height, int quality)
+            throws FastDFSException, IOException, MyException {
+        byte[] master = storageExecutor.execute(StorageOperation.DOWNLOAD, filepath, storageClient -> {
+            byte[] content = storageClient.download_file1(filepath);
+            if (content != null) {
+                storageExecutor.recordBytes(StorageOperation.DOWNLOAD, content.length);
+            }
+            return content;
+        });
+        if (master == null) {
+            throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+        }
+
+        BufferedImage image;
+        try {
+            image = ImageProcessor.read(master, maxPixels);
+        } catch (ImageProcessor.PixelLimitException e) {
+            logger.warn("refuse to create thumbnail of {}, {}", filepath, e.getMessage());
+            throw new FastDFSException(ErrorCode.FILE_IMAGE_TOO_LARGE.CODE, ErrorCode.FILE_IMAGE_TOO_LARGE.MESSAGE);
+        }
+        image = ImageProcessor.resize(image, width, height, ImageProcessor.FORMAT_JPEG.equals(format));
+        byte[] thumbnail = ImageProcessor.write(image, format, quality, false);
+
+        NameValuePair[] nvps = new NameValuePair[]{ new NameValuePair(MASTER, filepath) };
+        boolean uploaded = storageExecutor.execute(StorageOperation.UPLOAD_SLAVE, filepath, storageClient -> {
+            String path = storageClient.upload_file1(filepath, prefix, thumbnail, format, nvps);
+            storageExecutor.recordBytes(StorageOperation.UPLOAD_SLAVE, thumbnail.length);
+            return StringUtils.isNotBlank(path) || storageClient.getErrorCode() == ERR_NO_EEXIST;
+        });
+        if (!uploaded) {
+            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+        }
+
+        if (logger.isDebugEnabled()) {
+            logger.debug("create thumbnail {}{}, {} bytes -> {} bytes", filepath, prefix, master.length, thumbnail.length);
+        }
+    }
+
+    /**
+     * 下载从文件输出
+     *
+     * @return 文件不存在返回 false
+     */
+    private boolean download(String slavePath, OutputStream os) throws FastDFSException {
+        // 写出到客户端的时间属于调用方
+        final OutputStream sink = StorageExecutor.callerStream(os);
+        final IOException[] writeError = new IOException[1];
+        final long[] received = new long[1];
+        try {
+            int result = storageExecutor.execute(StorageOperation.DOWNLOAD, slavePath, storageClient -> {
+                int errno = storageClient.download_file1(slavePath, (fileSize, data, bytes) -> {
+                    try {
+                        if (received[0] == 0) {
+                            storageExecutor.markFirstByte();
+                        }
+                        sink.write(data, 0, bytes);
+                        received[0] += bytes;
+                        return 0;
+                    } catch (IOException e) {
+                        writeError[0] = e;
+                        return -1;
+                    }
+                });
+                storageExecutor.recordBytes(StorageOperation.DOWNLOAD, received[0]);
+                return errno;
+            });
+            if (writeError[0] != null) {
+                throw writeError[0];
+            }
+            if (result == ProtoCommon.ERR_NO_ENOENT) {
+                return false;
+            }
+            if (result != 0) {
+                throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+            }
+            os.flush();
+            return true;
+        } catch (FastDFSException e) {
+            // Tracker 查询不到从文件
+            if (ErrorCode.FILE_NOT_EXIST.CODE.equals(e.getCode())) {
+                return false;
+            }
+            throw e;
+        } catch (IOException | MyException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+        }
+    }
+
+    /**
+     * 计算从文件路径
+     */
+    private static String slavePath(String filepath, String prefix, String format) throws FastDFSException {
+        String[] results = new String[2];
+        StorageClient1.split_file_id(filepath, results);
+        if (results[0] == null || results[1] == null) {
+            throw new FastDFSException(ErrorCode.FILE_PATH_ISNULL.CODE, ErrorCode.FILE_PATH_ISNULL.MESSAGE);
+        }
+        try {
+            return results[0] + FastDFSClient.SEPARATOR + ProtoCommon.genSlaveFilename(results[1], prefix, format);
+        } catch (MyException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+        }
+    }
+
+    /**
+     * @param values 逗号分隔的正整数
+     * @param max 最大值
+     * @throws IllegalArgumentException 格式错误或超出范围
+     */
+    private static Set<Integer> parse(String values, int max) {
+        Set<Integer> result = new TreeSet<>();
+        for (String value : StringUtils.split(values, ',')) {
+            int v = Integer.parseInt(value.trim());
+            if (v <= 0 || v > max) {
+                throw new IllegalArgumentException("value out of range 1~" + max + ": " + v);
+            }
+            result.add(v);
+        }
+        return Collections.unmodifiableSet(result);
+    }
+
+    public Set<Integer> getSizes() {
+        return sizes;
+    }
+
+    /**
+     * @param sizes 允许的宽高，逗号分隔，如 64,128,256，每个不超过 MAX_SIZE
+     */
+    public void setSizes(String sizes) {
+        this.sizes = parse(sizes, MAX_SIZE);
+    }
+
+    public Set<Integer> getQualities() {
+        return qualities;
+    }
+
+    /**
+     * @param qualities 允许的质量，逗号分隔，如 60,80,90，每个 1~100. 总是允许 DEFAULT_QUALITY
+     */
+    public void setQualities(String qualities) {
+        this.qualities = parse(qualities + "," + DEFAULT_QUALITY, 100);
+    }
+
+    public int getGenerateTimeout() {
+        return generateTimeout;
+    }
+
+    public void setGenerateTimeout(int generateTimeout) {
+        this.generateTimeout = generateTimeout;
+    }
+
+    public long getMaxPixels() {
+        return maxPixels;
+    }
+
+    public void setMaxPixels(long maxPixels) {
+        this.maxPixels = maxPixels;
+    }
+}
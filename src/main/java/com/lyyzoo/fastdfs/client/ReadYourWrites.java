@@ -0,0 +1,240 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.common.Base64;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.StorageClient1;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 读己之写.
+ * <p>
+ * 文件上传后只在源 Storage 上，组内其它 Storage 同步完成之前，Tracker 把读请求分配到其它 Storage 会返回文件不存在. <br>
+ * 上传时间在同步窗口(syncWindowSeconds)内的文件，读请求优先发往源 Storage：本客户端上传的文件记录了源 Storage，
+ * 其它文件从文件ID解析源 Storage 的 IP 和创建时间(端口与组内其它 Storage 相同). <br>
+ * 同步窗口内的文件仍然返回不存在时，按指数退避加随机抖动重试，最多 maxRetries 次.
+ */
+public class ReadYourWrites {
+
+    /**
+     * 文件ID中 Base64 编码部分的起止位置(相对于组名之后的文件名)：源 Storage IP(4) + 创建时间(4) + 文件大小(8) + CRC32(4)
+     */
+    private static final int ENCODED_BEGIN = 10;
+    private static final int ENCODED_END = 37;
+
+    /**
+     * 与 StorageClient 解析文件信息时相同的编码
+     */
+    private static final Base64 BASE64 = new Base64('-', '_', '.', 0);
+
+    private volatile boolean enabled = true;
+    /**
+     * 同步窗口(秒)
+     */
+    private volatile long syncWindowSeconds = 60;
+    /**
+     * 文件不存在时的最大重试次数
+     */
+    private volatile int maxRetries = 3;
+    /**
+     * 第一次重试的基础等待时间(毫秒)，之后每次翻倍
+     */
+    private volatile long retryBaseMillis = 50;
+    /**
+     * 最多记录多少个最近上传的文件
+     */
+    private volatile int maxRecentUploads = 10000;
+
+    /**
+     * 最近上传的文件ID -> 源 Storage，按上传顺序淘汰
+     */
+    private final Map<String, Upload> recentUploads = new LinkedHashMap<String, Upload>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Upload> eldest) {
+            return size() > maxRecentUploads;
+        }
+    };
+
+    /**
+     * 记录上传的文件
+     *
+     * @param fileId 文件ID
+     * @param node 源 Storage
+     */
+    public void recordUpload(String fileId, StorageNode node) {
+        if (!enabled || fileId == null || node == null) {
+            return;
+        }
+        synchronized (recentUploads) {
+            recentUploads.put(fileId, new Upload(node, System.currentTimeMillis()));
+        }
+    }
+
+    /**
+     * @param fileId 文件ID
+     * @return 文件是否在同步窗口内，不能解析文件ID时返回 false
+     */
+    public boolean isRecent(String fileId) {
+        return enabled && (getRecentUpload(fileId) != null || getSourceIp(fileId) != null);
+    }
+
+    /**
+     * 同步窗口内的文件把源 Storage 排在第一位，Tracker 没有返回源 Storage 时补充
+     *
+     * @param fileId 文件ID
+     * @param nodes Tracker 返回的节点
+     * @return 调整顺序后的节点
+     */
+    public List<StorageNode> route(String fileId, List<StorageNode> nodes) {
+        if (!enabled) {
+            return nodes;
+        }
+        StorageNode source;
+        Upload upload = getRecentUpload(fileId);
+        if (upload != null) {
+            source = upload.node;
+        } else {
+            String ip = getSourceIp(fileId);
+            if (ip == null || nodes.isEmpty()) {
+                return nodes;
+            }
+            source = new StorageNode(ip, nodes.get(0).getPort(), (byte) 0);
+        }
+
+        List<StorageNode> routed = new ArrayList<>(nodes.size() + 1);
+        routed.add(source);
+        for (StorageNode node : nodes) {
+            if (!node.getAddress().equals(source.getAddress())) {
+                routed.add(node);
+            }
+        }
+        return routed;
+    }
+
+    /**
+     * 同步窗口内的文件返回不存在时是否重试
+     *
+     * @param fileId 文件ID
+     * @param errno Storage 返回的错误码
+     * @param retries 已重试次数
+     */
+    public boolean shouldRetry(String fileId, byte errno, int retries) {
+        return errno == ProtoCommon.ERR_NO_ENOENT && retries < maxRetries && isRecent(fileId);
+    }
+
+    /**
+     * 第 retries + 1 次重试前的等待时间，指数退避并在 50% ~ 150% 之间随机抖动，避免同时重试
+     *
+     * @param retries 已重试次数
+     * @return 等待时间(毫秒)
+     */
+    public long getRetryDelayMillis(int retries) {
+        long delay = retryBaseMillis << Math.min(retries, 10);
+        return (long) (delay * (0.5 + ThreadLocalRandom.current().nextDouble()));
+    }
+
+    private Upload getRecentUpload(String fileId) {
+        synchronized (recentUploads) {
+            Upload upload = recentUploads.get(fileId);
+            if (upload != null && System.currentTimeMillis() - upload.timestamp >= syncWindowSeconds * 1000) {
+                recentUploads.remove(fileId);
+                return null;
+            }
+            return upload;
+        }
+    }
+
+    /**
+     * 从文件ID解析源 Storage 的 IP
+     *
+     * @return 创建时间在同步窗口内时返回 IP，否则返回 null
+     */
+    private String getSourceIp(String fileId) {
+        byte[] buff = decode(fileId);
+        if (buff == null) {
+            return null;
+        }
+        long createTime = ProtoCommon.buff2int(buff, 4) & 0xFFFFFFFFL;
+        if (System.currentTimeMillis() / 1000 - createTime >= syncWindowSeconds) {
+            return null;
+        }
+        return ProtoCommon.getIpAddress(buff, 0);
+    }
+
+    /**
+     * 解析文件ID中编码的源 Storage IP(4)、创建时间(4)、文件大小(8)、CRC32(4)
+     *
+     * @param fileId 不带集群前缀的文件ID
+     * @return 解码后的 20 个字节，不能解析时返回 null
+     */
+    static byte[] decode(String fileId) {
+        String[] parts = new String[2];
+        if (fileId == null || StorageClient1.split_file_id(fileId, parts) != 0 || parts[1].length() < ENCODED_END) {
+            return null;
+        }
+        byte[] buff;
+        try {
+            buff = BASE64.decodeAuto(parts[1].substring(ENCODED_BEGIN, ENCODED_END));
+        } catch (RuntimeException e) {
+            return null;
+        }
+        return buff == null || buff.length < 20 ? null : buff;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public long getSyncWindowSeconds() {
+        return syncWindowSeconds;
+    }
+
+    public void setSyncWindowSeconds(long syncWindowSeconds) {
+        this.syncWindowSeconds = syncWindowSeconds;
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    public long getRetryBaseMillis() {
+        return retryBaseMillis;
+    }
+
+    public void setRetryBaseMillis(long retryBaseMillis) {
+        this.retryBaseMillis = retryBaseMillis;
+    }
+
+    public int getMaxRecentUploads() {
+        return maxRecentUploads;
+    }
+
+    public void setMaxRecentUploads(int maxRecentUploads) {
+        this.maxRecentUploads = maxRecentUploads;
+    }
+
+    /**
+     * 上传记录
+     */
+    private static class Upload {
+        private final StorageNode node;
+        private final long timestamp;
+
+        Upload(StorageNode node, long timestamp) {
+            this.node = node;
+            this.timestamp = timestamp;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package com.lyyzoo.fastdfs.client;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.slf4j.MDC;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 请求跟踪上下文，绑定在当前线程上.
+ * <p>
+ * 一次请求中的每个 Storage 操作记录为一个 {@link Span}，包括借出 TrackerServer、查询 Tracker、连接 Storage、
+ * 收到第一个字节和完成的时间点(相对请求开始的微秒数)、Storage 地址和收发字节数. <br>
+ * 请求结束时，耗时超过 slowThresholdMillis 的请求以 JSON 输出到 com.lyyzoo.fastdfs.trace 日志，
+ * 其余请求按 sampleRate 采样输出，不需要打开 DEBUG 日志就能定位慢请求对应的 Storage 和文件. <br>
+ * Web 请求由 {@link com.lyyzoo.fastdfs.web.TraceFilter} 开启；没有开启时，{@link StorageExecutor} 为每个操作单独开启.
+ */
+public class RequestTrace {
+    /**
+     * MDC 中的请求ID，logback.xml 中通过 %X{requestId} 输出
+     */
+    public static final String REQUEST_ID = "requestId";
+
+    /**
+     * 跟踪日志
+     */
+    private static final Logger TRACE_LOGGER = LoggerFactory.getLogger("com.lyyzoo.fastdfs.trace");
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final ThreadLocal<RequestTrace> CURRENT = new ThreadLocal<>();
+
+    /**
+     * 慢请求阈值(毫秒)
+     */
+    private static volatile long slowThresholdMillis = 1000;
+
+    /**
+     * 正常请求的采样率 0~1
+     */
+    private static volatile double sampleRate = 0.01;
+
+    private final String requestId;
+    private final String name;
+    private final long startMillis = System.currentTimeMillis();
+    private final long startNanos = System.nanoTime();
+    /**
+     * 请求ID是否由当前跟踪放入 MDC，结束时需要移除
+     */
+    private boolean mdcOwner;
+    private final List<Span> spans = new ArrayList<>(4);
+    private Span current;
+    private int status;
+    private String error;
+
+    private RequestTrace(String requestId, String name) {
+        this.requestId = requestId;
+        this.name = name;
+    }
+
+    /**
+     * 开启当前线程的跟踪
+     *
+     * @param requestId 请求ID，为空时生成
+     * @param name 请求名称，如 GET /fastdfs/download/file
+     * @return 跟踪上下文
+     */
+    public static RequestTrace start(String requestId, String name) {
+        RequestTrace trace = new RequestTrace(requestId == null || requestId.isEmpty() ? newRequestId() : requestId, name);
+        if (MDC.get(REQUEST_ID) == null) {
+            MDC.put(REQUEST_ID, trace.requestId);
+            trace.mdcOwner = true;
+        }
+        CURRENT.set(trace);
+        return trace;
+    }
+
+    /**
+     * @return 当前线程的跟踪，没有时返回 null
+     */
+    public static RequestTrace current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 结束当前线程的跟踪，慢请求或被采样的请求输出到跟踪日志
+     */
+    public static void finish() {
+        RequestTrace trace = CURRENT.get();
+        if (trace == null) {
+            return;
+        }
+        CURRENT.remove();
+        if (trace.mdcOwner) {
+            MDC.remove(REQUEST_ID);
+        }
+
+        long duration = (System.nanoTime() - trace.startNanos) / 1000;
+        boolean slow = duration >= slowThresholdMillis * 1000;
+        if ((slow || ThreadLocalRandom.current().nextDouble() < sampleRate) && TRACE_LOGGER.isInfoEnabled()) {
+            try {
+                TRACE_LOGGER.info(MAPPER.writeValueAsString(trace.toMap(slow ? "slow" : "sample", duration)));
+            } catch (JsonProcessingException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * @return 16 位十六进制的随机请求ID
+     */
+    public static String newRequestId() {
+        return String.format("%016x", ThreadLocalRandom.current().nextLong());
+    }
+
+    /**
+     * 开始一个 Storage 操作
+     *
+     * @param operation 操作
+     * @param target 组名或文件ID
+     * @return Span
+     */
+    Span startSpan(StorageOperation operation, String target) {
+        current = new Span(operation, target, offset());
+        spans.add(current);
+        return current;
+    }
+
+    /**
+     * 结束当前的 Storage 操作
+     */
+    void endSpan(Throwable e) {
+        if (current != null) {
+            current.completed = offset();
+            if (e != null) {
+                current.error = describe(e);
+            }
+            current = null;
+        }
+    }
+
+    /**
+     * @return 正在执行的 Storage 操作，没有时返回 null
+     */
+    Span currentSpan() {
+        return current;
+    }
+
+    /**
+     * @return 相对请求开始的微秒数
+     */
+    long offset() {
+        return (System.nanoTime() - startNanos) / 1000;
+    }
+
+    private Map<String, Object> toMap(String type, long duration) {
+        Map<String, Object> record = new LinkedHashMap<>();
+        record.put("timestamp", new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ").format(new Date(startMillis)));
+        record.put("type", type);
+        record.put("requestId", requestId);
+        record.put("name", name);
+        if (status > 0) {
+            record.put("status", status);
+        }
+        record.put("durationMicros", duration);
+        long bytesIn = 0;
+        long bytesOut = 0;
+        List<Map<String, Object>> list = new ArrayList<>(spans.size());
+        for (Span span : spans) {
+            bytesIn += span.bytesIn;
+            bytesOut += span.bytesOut;
+            list.add(span.toMap());
+        }
+        record.put("bytesIn", bytesIn);
+        record.put("bytesOut", bytesOut);
+        if (error != null) {
+            record.put("error", error);
+        }
+        record.put("spans", list);
+        return record;
+    }
+
+    static String describe(Throwable e) {
+        if (e instanceof FastDFSException) {
+            return ((FastDFSException) e).getCode() + " " + e.getMessage();
+        }
+        return e.getClass().getSimpleName() + ": " + e.getMessage();
+    }
+
+    public String getRequestId() {
+        return requestId;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @param status HTTP 状态码
+     */
+    public void setStatus(int status) {
+        this.status = status;
+    }
+
+    /**
+     * @param e 请求失败的异常
+     */
+    public void setError(Throwable e) {
+        this.error = describe(e);
+    }
+
+    public static long getSlowThresholdMillis() {
+        return slowThresholdMillis;
+    }
+
+    public static void setSlowThresholdMillis(long slowThresholdMillis) {
+        RequestTrace.slowThresholdMillis = slowThresholdMillis;
+    }
+
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
+    public static void setSampleRate(double sampleRate) {
+        RequestTrace.sampleRate = sampleRate;
+    }
+
+    /**
+     * 一次 Storage 操作，时间点为相对请求开始的微秒数，-1 表示没有经过该阶段
+     */
+    static class Span {
+        private final StorageOperation operation;
+        private final String target;
+        private final long start;
+        long borrowed = -1;
+        long located = -1;
+        long connected = -1;
+        long firstByte = -1;
+        long completed = -1;
+        String storage;
+        /**
+         * 对冲读的另一个副本
+         */
+        String hedge;
+        boolean hedgeWon;
+        long bytesIn;
+        long bytesOut;
+        String error;
+
+        Span(StorageOperation operation, String target, long start) {
+            this.operation = operation;
+            this.target = target;
+            this.start = start;
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<>();
+            map.put("operation", operation.NAME);
+            if (target != null) {
+                map.put("target", target);
+            }
+            if (storage != null) {
+                map.put("storage", storage);
+            }
+            if (hedge != null) {
+                map.put("hedge", hedge);
+                map.put("hedgeWon", hedgeWon);
+            }
+            map.put("start", start);
+            putIfSet(map, "borrowed", borrowed);
+            putIfSet(map, "located", located);
+            putIfSet(map, "connected", connected);
+            putIfSet(map, "firstByte", firstByte);
+            putIfSet(map, "completed", completed);
+            map.put("bytesIn", bytesIn);
+            map.put("bytesOut", bytesOut);
+            if (error != null) {
+                map.put("error", error);
+            }
+            return map;
+        }
+
+        private static void putIfSet(Map<String, Object> map, String name, long value) {
+            if (value >= 0) {
+                map.put(name, value);
+            }
+        }
+    }
+}
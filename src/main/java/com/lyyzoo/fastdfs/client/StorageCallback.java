@@ -0,0 +1,23 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.common.MyException;
+import org.csource.fastdfs.StorageClient1;
+
+import java.io.IOException;
+
+/**
+ * 使用已连接的 StorageClient 执行操作
+ * <p>
+ */
+@FunctionalInterface
+public interface StorageCallback<T> {
+
+    /**
+     * 执行操作
+     *
+     * @param storageClient 已连接 Storage 的 StorageClient，不要关闭
+     * @return 操作结果
+     */
+    T doInStorage(StorageClient1 storageClient) throws IOException, MyException, FastDFSException;
+
+}
@@ -0,0 +1,561 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.common.MyException;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.StorageClient1;
+import org.csource.fastdfs.StorageServer;
+import org.csource.fastdfs.TrackerServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 执行 Storage 操作的模板.
+ * <p>
+ * 统一处理 TrackerServer 的借出与归还、Storage 的查询与连接，调用方只需要在回调中使用 StorageClient. <br>
+ * 每个阶段(等待连接池、查询 Tracker、连接 Storage、传输)的耗时记录到 {@link FastDFSMetrics}，
+ * 各阶段的时间点和 Storage 地址记录到当前的 {@link RequestTrace}. <br>
+ * 执行前先经过 {@link ConcurrencyLimiter}，超过并发上限时抛出 FILE_SERVER_OVERLOADED. <br>
+ * 回调中读取上传内容、写出下载内容的时间属于调用方(客户端网络、限速)，通过 {@link #callerStream(InputStream)}、
+ * {@link #callerStream(OutputStream)} 计时，不计入 Storage 的耗时. 回调中不做限速等待，传输的字节数记为当前租户的欠额，
+ * 归还连接和并发许可后再等待，见 {@link BandwidthThrottle.Session#consume(long)}. <br>
+ * 每个 Storage 节点的调用结果记录到 {@link CircuitBreaker}，被熔断的节点不再路由，下载和上传转到组内其它节点. <br>
+ * 通过 executeHedged 执行的读操作可以启用 {@link HedgedReader} 对冲读. <br>
+ * 刚上传的文件按 {@link ReadYourWrites} 优先从源 Storage 读取. <br>
+ * 目标带集群前缀时使用该集群的 Tracker，见 {@link FastDFSClusters}.
+ */
+public class StorageExecutor {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(StorageExecutor.class);
+
+    private final FastDFSMetrics metrics = FastDFSMetrics.getInstance();
+
+    /**
+     * 并发限制
+     */
+    private final ConcurrencyLimiter concurrencyLimiter = new ConcurrencyLimiter();
+
+    /**
+     * Storage 节点熔断器
+     */
+    private final CircuitBreakerRegistry breakers = CircuitBreakerRegistry.getInstance();
+
+    /**
+     * 对冲读
+     */
+    private final HedgedReader hedgedReader = new HedgedReader();
+
+    /**
+     * 读己之写
+     */
+    private final ReadYourWrites readYourWrites = new ReadYourWrites();
+
+    /**
+     * 多集群
+     */
+    private final FastDFSClusters clusters = FastDFSClusters.getInstance();
+
+    /**
+     * 当前线程在调用方一侧(读取上传内容、写出下载内容)的累计耗时(纳秒)
+     */
+    private static final ThreadLocal<long[]> CALLER_NANOS = ThreadLocal.withInitial(() -> new long[1]);
+
+    /**
+     * 当前线程正在执行的操作数，大于 0 时持有并发许可、TrackerServer 或 Storage 连接
+     */
+    private static final ThreadLocal<int[]> EXCHANGES = ThreadLocal.withInitial(() -> new int[1]);
+
+    /**
+     * 执行操作
+     *
+     * @param operation 操作类型
+     * @param target 上传时为组名(可为空)，其它操作为文件ID，写入其它集群时带集群前缀(如 cluster2:group1 或 cluster2:)
+     * @param callback 回调
+     * @return 回调的返回值
+     * @throws FastDFSException 获取不到 TrackerServer 或查询不到 Storage 时抛出 FILE_SERVER_CONNECTION_FAILED，
+     *                          超过并发上限时抛出 FILE_SERVER_OVERLOADED
+     */
+    public <T> T execute(StorageOperation operation, String target, StorageCallback<T> callback)
+            throws FastDFSException, IOException, MyException {
+        return execute(operation, target, callback, false);
+    }
+
+    /**
+     * 执行读操作，启用对冲读时第一个副本响应慢则同时读取另一个副本，见 {@link HedgedReader}.
+     * 回调可能在两个线程中同时执行，只能把结果保存在回调内部并返回，不能写入共享的输出流.
+     *
+     * @param operation 读操作
+     * @param fileId 文件ID
+     * @param callback 回调
+     * @return 先完成的回调的返回值
+     */
+    public <T> T executeHedged(StorageOperation operation, String fileId, StorageCallback<T> callback)
+            throws FastDFSException, IOException, MyException {
+        return execute(operation, fileId, callback, operation.ROUTE == StorageOperation.Route.FETCH && hedgedReader.isEnabled());
+    }
+
+    /**
+     * 执行期间标记当前线程持有 Storage 资源. 成功后按回调中传输的字节数限速，此时已经归还所有资源
+     */
+    private <T> T execute(StorageOperation operation, String target, StorageCallback<T> callback, boolean hedge)
+            throws FastDFSException, IOException, MyException {
+        int[] exchanges = EXCHANGES.get();
+        T result;
+        int retries = 0;
+        while (true) {
+            long delay;
+            exchanges[0]++;
+            try {
+                result = doExecute(operation, target, callback, hedge, retries);
+                break;
+            } catch (ReadYourWritesRetry e) {
+                delay = e.delay;
+            } finally {
+                exchanges[0]--;
+            }
+            // 已经归还 TrackerServer、Storage 连接和并发许可，等待期间不占用资源，也不计入响应时间
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            retries++;
+        }
+        if (exchanges[0] == 0) {
+            BandwidthThrottle.current().settle();
+        }
+        return result;
+    }
+
+    /**
+     * @param retries 读己之写已重试次数
+     * @throws ReadYourWritesRetry 刚上传的文件在源 Storage 上也不存在，需要等待后重新执行
+     */
+    private <T> T doExecute(StorageOperation operation, String target, StorageCallback<T> callback, boolean hedge, int retries)
+            throws FastDFSException, IOException, MyException, ReadYourWritesRetry {
+        long start = System.nanoTime();
+        long callerStart = getCallerNanos();
+        boolean success = false;
+        boolean retry = false;
+        // 没有开启跟踪(如非 Web 请求)时，单独跟踪本次操作
+        boolean traceOwner = RequestTrace.current() == null;
+        RequestTrace trace = traceOwner ? RequestTrace.start(null, operation.NAME) : RequestTrace.current();
+        RequestTrace.Span span = trace.startSpan(operation, target);
+        Throwable error = null;
+        FastDFSCluster cluster = null;
+        TrackerServer trackerServer = null;
+        StorageServer storageServer = null;
+        int permit = 0;
+        try {
+            // 超过并发上限时快速失败，不在连接池中排队
+            permit = concurrencyLimiter.tryAcquire();
+            if (permit < 0) {
+                throw new FastDFSException(ErrorCode.FILE_SERVER_OVERLOADED.CODE, ErrorCode.FILE_SERVER_OVERLOADED.MESSAGE);
+            }
+
+            cluster = clusters.resolve(target);
+            if (cluster == null) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("unknown cluster, operation = {}, target = {}", operation.NAME, target);
+                }
+                throw new FastDFSException(ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE, ErrorCode.FILE_SERVER_CONNECTION_FAILED.MESSAGE);
+            }
+            trackerServer = cluster.borrowObject();
+            long borrowed = System.nanoTime();
+            metrics.record(operation, FastDFSMetrics.Phase.POOL_WAIT, borrowed - start);
+            span.borrowed = trace.offset();
+            if (trackerServer == null) {
+                throw new FastDFSException(ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE, ErrorCode.FILE_SERVER_CONNECTION_FAILED.MESSAGE);
+            }
+
+            if (operation.ROUTE == StorageOperation.Route.NONE) {
+                StorageClient1 storageClient = cluster.newStorageClient(trackerServer, null);
+                T result = callback.doInStorage(storageClient);
+                metrics.record(operation, FastDFSMetrics.Phase.TRANSFER, System.nanoTime() - borrowed);
+                if (storageClient.getErrorCode() != 0) {
+                    span.error = "errno " + storageClient.getErrorCode();
+                }
+                success = true;
+                return result;
+            }
+
+            List<StorageNode> nodes = locate(trackerServer, operation, FastDFSClusters.toLocalId(target), hedge);
+            long located = System.nanoTime();
+            metrics.record(operation, FastDFSMetrics.Phase.TRACKER_QUERY, located - borrowed);
+            span.located = trace.offset();
+            // 刚上传的文件优先读源 Storage，其它副本可能还没有同步
+            boolean recent = operation.ROUTE == StorageOperation.Route.FETCH && readYourWrites.isRecent(target);
+            if (recent) {
+                nodes = readYourWrites.route(target, nodes);
+                hedge = false;
+            }
+
+            // 依次尝试可用的节点，被熔断的节点跳过，连接失败时立即换下一个副本
+            Exception lastError = null;
+            for (int i = 0; i < nodes.size(); i++) {
+                StorageNode node = nodes.get(i);
+                CircuitBreaker breaker = breakers.isEnabled() ? breakers.get(node.getAddress()) : null;
+                if (breaker != null && !breaker.tryAcquire()) {
+                    continue;
+                }
+                long nodeStart = System.nanoTime();
+                long nodeCallerStart = getCallerNanos();
+                span.storage = node.getAddress();
+                try {
+                    storageServer = new StorageServer(node.getIp(), node.getPort(), node.getStorePathIndex());
+                    // 请求头和文件内容分开写出，关闭 Nagle 避免与服务端的延迟确认叠加
+                    storageServer.getSocket().setTcpNoDelay(true);
+                } catch (IOException e) {
+                    if (breaker != null) {
+                        breaker.onFailure();
+                    }
+                    if (logger.isWarnEnabled()) {
+                        logger.warn("connect storage {} failed: {}", node.getAddress(), e.getMessage());
+                    }
+                    lastError = e;
+                    continue;
+                }
+                long connected = System.nanoTime();
+                metrics.record(operation, FastDFSMetrics.Phase.STORAGE_CONNECT, connected - located);
+                span.connected = trace.offset();
+
+                if (hedge && nodes.size() > 1) {
+                    T result = hedgedReader.read(operation, callback, cluster, storageServer, node, breaker, nodes, trace, span);
+                    metrics.record(operation, FastDFSMetrics.Phase.TRANSFER, System.nanoTime() - connected);
+                    success = true;
+                    return result;
+                }
+
+                StorageClient1 storageClient = cluster.newStorageClient(trackerServer, storageServer);
+                T result;
+                try {
+                    result = callback.doInStorage(storageClient);
+                } catch (IOException | MyException e) {
+                    if (breaker != null) {
+                        breaker.onFailure();
+                    }
+                    throw e;
+                } catch (FastDFSException | RuntimeException e) {
+                    // 业务异常，节点本身正常
+                    if (breaker != null) {
+                        breaker.onSuccess(exchangeNanos(nodeStart, nodeCallerStart, System.nanoTime()));
+                    }
+                    throw e;
+                }
+                long transferred = System.nanoTime();
+                metrics.record(operation, FastDFSMetrics.Phase.TRANSFER, transferred - connected);
+                byte errno = storageClient.getErrorCode();
+                if (breaker != null) {
+                    if (isStorageFailure(errno)) {
+                        breaker.onFailure();
+                    } else {
+                        breaker.onSuccess(exchangeNanos(nodeStart, nodeCallerStart, transferred));
+                    }
+                }
+
+                // Storage 返回的错误码不抛异常，记录到跟踪中
+                if (errno != 0) {
+                    span.error = "errno " + errno;
+                }
+                // 刚上传的文件还没有同步到该节点，归还资源后由 execute 等待并从源 Storage 重新读取
+                if (recent && readYourWrites.shouldRetry(target, errno, retries)) {
+                    long delay = readYourWrites.getRetryDelayMillis(retries);
+                    if (logger.isDebugEnabled()) {
+                        logger.debug("recent file {} not found on {}, retry {} after {}ms", target, node.getAddress(), retries + 1, delay);
+                    }
+                    retry = true;
+                    throw new ReadYourWritesRetry(delay);
+                }
+                // 上传的回调返回文件ID，记录源 Storage；追加、修改、截断后重新开始同步窗口
+                if (operation.ROUTE == StorageOperation.Route.STORE && result instanceof String) {
+                    readYourWrites.recordUpload((String) result, node);
+                } else if ((operation == StorageOperation.APPEND || operation == StorageOperation.MODIFY
+                        || operation == StorageOperation.TRUNCATE) && errno == 0) {
+                    readYourWrites.recordUpload(target, node);
+                }
+                success = true;
+                return result;
+            }
+
+            if (lastError instanceof IOException) {
+                throw (IOException) lastError;
+            }
+            if (logger.isWarnEnabled()) {
+                logger.warn("no available storage, operation = {}, target = {}, all nodes are ejected", operation.NAME, target);
+            }
+            throw new FastDFSException(ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE, ErrorCode.FILE_SERVER_CONNECTION_FAILED.MESSAGE);
+        } catch (IOException | MyException | FastDFSException | RuntimeException e) {
+            error = e;
+            throw e;
+        } finally {
+            if (storageServer != null) {
+                try {
+                    storageServer.close();
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            }
+            if (trackerServer != null) {
+                cluster.returnObject(trackerServer);
+            }
+            long elapsed = System.nanoTime() - start;
+            // 并发上限按 Storage 的响应时间调整，不包括回调中等待客户端的时间
+            concurrencyLimiter.release(permit, Math.max(0, elapsed - (getCallerNanos() - callerStart)), isDropped(error));
+            metrics.record(operation, FastDFSMetrics.Phase.TOTAL, elapsed);
+            if (!success && !retry) {
+                metrics.recordFailure(operation);
+            }
+            trace.endSpan(error);
+            if (traceOwner) {
+                RequestTrace.finish();
+            }
+        }
+    }
+
+    /**
+     * @return 当前线程是否正在执行 Storage 操作(持有并发许可、TrackerServer 或 Storage 连接)
+     */
+    public static boolean isInExchange() {
+        return EXCHANGES.get()[0] > 0;
+    }
+
+    /**
+     * @return 当前线程在调用方一侧的累计耗时(纳秒)，两次调用的差值是这段时间内不属于 Storage 交互的部分
+     */
+    public static long getCallerNanos() {
+        return CALLER_NANOS.get()[0];
+    }
+
+    /**
+     * 记录调用方一侧的耗时，如在回调中等待客户端
+     *
+     * @param nanos 耗时(纳秒)
+     */
+    public static void addCallerNanos(long nanos) {
+        CALLER_NANOS.get()[0] += nanos;
+    }
+
+    /**
+     * 与 Storage 交互的耗时，慢调用按该耗时判断，客户端读写慢不算节点慢
+     *
+     * @param start 开始时间
+     * @param callerStart 开始时的 {@link #getCallerNanos()}
+     * @param end 结束时间
+     */
+    private static long exchangeNanos(long start, long callerStart, long end) {
+        return Math.max(0, end - start - (getCallerNanos() - callerStart));
+    }
+
+    /**
+     * 包装调用方一侧的输入流(如上传的请求体)，在回调中读取的时间不计入 Storage 的耗时
+     *
+     * @param is 输入流
+     * @return 计时的输入流
+     */
+    public static InputStream callerStream(InputStream is) {
+        return is == null || is instanceof CallerInputStream ? is : new CallerInputStream(is);
+    }
+
+    /**
+     * 包装调用方一侧的输出流(如下载的响应)，在回调中写出的时间不计入 Storage 的耗时
+     *
+     * @param os 输出流
+     * @return 计时的输出流
+     */
+    public static OutputStream callerStream(OutputStream os) {
+        return os == null || os instanceof CallerOutputStream ? os : new CallerOutputStream(os);
+    }
+
+    /**
+     * 连接失败、超时等说明 Storage 已经过载，并发上限需要收缩
+     */
+    private static boolean isDropped(Throwable error) {
+        if (error instanceof IOException) {
+            return true;
+        }
+        return error instanceof FastDFSException
+                && ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE.equals(((FastDFSException) error).getCode());
+    }
+
+    /**
+     * Storage 返回的错误码是否说明节点异常，文件不存在、已存在、参数错误等不算
+     */
+    static boolean isStorageFailure(byte errno) {
+        return errno == ProtoCommon.ERR_NO_EIO || errno == ProtoCommon.ERR_NO_EBUSY || errno == ProtoCommon.ERR_NO_ENOSPC;
+    }
+
+    /**
+     * 向 Tracker 查询 Storage. 启用熔断或对冲读时，下载查询该文件的所有副本；
+     * 上传时 Tracker 选择的节点被熔断则查询组内所有可写节点.
+     *
+     * @return 候选节点，按优先顺序
+     */
+    private List<StorageNode> locate(TrackerServer trackerServer, StorageOperation operation, String target, boolean hedge)
+            throws IOException, FastDFSException {
+        StorageLocator locator = new StorageLocator();
+        List<StorageNode> nodes;
+        switch (operation.ROUTE) {
+            case STORE:
+                StorageNode node = locator.queryStore(trackerServer, target);
+                nodes = node == null ? null : Collections.singletonList(node);
+                if (node != null && !breakers.isAvailable(node.getAddress())) {
+                    List<StorageNode> all = locator.queryStoreAll(trackerServer, target);
+                    if (all != null) {
+                        nodes = all;
+                    }
+                }
+                break;
+            case FETCH:
+                nodes = breakers.isEnabled() || hedge ? locator.queryFetchAll(trackerServer, target)
+                        : singleton(locator.queryFetch(trackerServer, target));
+                break;
+            default:
+                nodes = singleton(locator.queryUpdate(trackerServer, target));
+                break;
+        }
+        if (nodes == null || nodes.isEmpty()) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("query storage failed, operation = {}, target = {}, errno = {}", operation.NAME, target, locator.getErrorCode());
+            }
+            // 文件不存在时 Tracker 返回 ENOENT，上传时为组不存在
+            if (locator.getErrorCode() == ProtoCommon.ERR_NO_ENOENT && operation.ROUTE != StorageOperation.Route.STORE) {
+                throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+            }
+            throw new FastDFSException(ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE, ErrorCode.FILE_SERVER_CONNECTION_FAILED.MESSAGE);
+        }
+        return nodes;
+    }
+
+    private static List<StorageNode> singleton(StorageNode node) {
+        return node == null ? null : Collections.singletonList(node);
+    }
+
+    public ConcurrencyLimiter getConcurrencyLimiter() {
+        return concurrencyLimiter;
+    }
+
+    public HedgedReader getHedgedReader() {
+        return hedgedReader;
+    }
+
+    public ReadYourWrites getReadYourWrites() {
+        return readYourWrites;
+    }
+
+    /**
+     * 记录传输字节数，在回调中调用时同时记录到当前跟踪
+     *
+     * @param operation 操作
+     * @param count 字节数
+     */
+    public void recordBytes(StorageOperation operation, long count) {
+        metrics.recordBytes(operation, count);
+        RequestTrace trace = RequestTrace.current();
+        RequestTrace.Span span = trace == null ? null : trace.currentSpan();
+        if (span != null) {
+            if (operation.UPLOADING) {
+                span.bytesOut += count;
+            } else {
+                span.bytesIn += count;
+            }
+        }
+    }
+
+    /**
+     * 在回调中收到第一个字节时调用，记录首字节时间
+     */
+    public void markFirstByte() {
+        RequestTrace trace = RequestTrace.current();
+        RequestTrace.Span span = trace == null ? null : trace.currentSpan();
+        if (span != null && span.firstByte < 0) {
+            span.firstByte = trace.offset();
+        }
+        HedgedReader.markFirstByte();
+    }
+
+    /**
+     * 读己之写需要重试，doExecute 归还资源后抛出，不作为失败记录
+     */
+    private static class ReadYourWritesRetry extends Exception {
+
+        private final long delay;
+
+        ReadYourWritesRetry(long delay) {
+            super(null, null, false, false);
+            this.delay = delay;
+        }
+    }
+
+    private static class CallerInputStream extends FilterInputStream {
+
+        CallerInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            try {
+                return in.read();
+            } finally {
+                addCallerNanos(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            try {
+                return in.read(b, off, len);
+            } finally {
+                addCallerNanos(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static class CallerOutputStream extends FilterOutputStream {
+
+        CallerOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            long start = System.nanoTime();
+            try {
+                out.write(b);
+            } finally {
+                addCallerNanos(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            try {
+                out.write(b, off, len);
+            } finally {
+                addCallerNanos(System.nanoTime() - start);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            long start = System.nanoTime();
+            try {
+                out.flush();
+            } finally {
+                addCallerNanos(System.nanoTime() - start);
+            }
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.apache.commons.lang3.StringUtils;
+import org.csource.fastdfs.ClientGlobal;
+import org.csource.fastdfs.ProtoCommon;
+import org.csource.fastdfs.ServerInfo;
+import org.csource.fastdfs.StorageClient1;
+import org.csource.fastdfs.TrackerClient;
+import org.csource.fastdfs.TrackerServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 向 Tracker 查询 Storage 节点，只查询不建立连接.
+ * <p>
+ * TrackerClient 的 getStoreStorage 等方法查询后会直接连接 Storage，这里把查询和连接分开，便于分别统计耗时.
+ */
+public class StorageLocator extends TrackerClient {
+
+    /**
+     * 查询上传的 Storage
+     *
+     * @param trackerServer TrackerServer
+     * @param group 组名，为空则由 Tracker 选择
+     * @return Storage 节点，查询失败返回 null，错误码见 {@link #getErrorCode()}
+     */
+    public StorageNode queryStore(TrackerServer trackerServer, String group) throws IOException {
+        boolean withGroup = StringUtils.isNotBlank(group);
+        byte cmd = withGroup ? ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE
+                : ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE;
+        int bodyLength = withGroup ? ProtoCommon.FDFS_GROUP_NAME_MAX_LEN : 0;
+        try {
+            byte[] header = ProtoCommon.packHeader(cmd, bodyLength, (byte) 0);
+            byte[] request = new byte[header.length + bodyLength];
+            System.arraycopy(header, 0, request, 0, header.length);
+            if (withGroup) {
+                byte[] bs = group.getBytes(ClientGlobal.g_charset);
+                System.arraycopy(bs, 0, request, header.length, Math.min(bs.length, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN));
+            }
+            OutputStream out = trackerServer.getOutputStream();
+            out.write(request);
+
+            ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trackerServer.getInputStream(),
+                    ProtoCommon.TRACKER_PROTO_CMD_RESP, ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN);
+            this.errno = pkgInfo.errno;
+            if (pkgInfo.errno != 0) {
+                return null;
+            }
+
+            byte[] body = pkgInfo.body;
+            String ip = new String(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, ProtoCommon.FDFS_IPADDR_SIZE - 1).trim();
+            int port = (int) ProtoCommon.buff2long(body, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ProtoCommon.FDFS_IPADDR_SIZE - 1);
+            byte storePathIndex = body[ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN - 1];
+            return new StorageNode(ip, port, storePathIndex);
+        } catch (IOException e) {
+            // 与 TrackerClient 一致，出错时关闭连接，下次使用时重连
+            closeQuietly(trackerServer);
+            throw e;
+        }
+    }
+
+    /**
+     * 查询组内所有可上传的 Storage
+     *
+     * @param trackerServer TrackerServer
+     * @param group 组名，为空则由 Tracker 选择
+     * @return Storage 节点，查询失败返回 null
+     */
+    public List<StorageNode> queryStoreAll(TrackerServer trackerServer, String group) throws IOException {
+        boolean withGroup = StringUtils.isNotBlank(group);
+        byte cmd = withGroup ? ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL
+                : ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL;
+        int bodyLength = withGroup ? ProtoCommon.FDFS_GROUP_NAME_MAX_LEN : 0;
+        try {
+            byte[] header = ProtoCommon.packHeader(cmd, bodyLength, (byte) 0);
+            byte[] request = new byte[header.length + bodyLength];
+            System.arraycopy(header, 0, request, 0, header.length);
+            if (withGroup) {
+                byte[] bs = group.getBytes(ClientGlobal.g_charset);
+                System.arraycopy(bs, 0, request, header.length, Math.min(bs.length, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN));
+            }
+            OutputStream out = trackerServer.getOutputStream();
+            out.write(request);
+
+            ProtoCommon.RecvPackageInfo pkgInfo = ProtoCommon.recvPackage(trackerServer.getInputStream(),
+                    ProtoCommon.TRACKER_PROTO_CMD_RESP, -1);
+            this.errno = pkgInfo.errno;
+            if (pkgInfo.errno != 0) {
+                return null;
+            }
+
+            // 组名(16) + n * (IP(15) + 端口(8)) + 存储路径索引(1)
+            byte[] body = pkgInfo.body;
+            int itemSize = ProtoCommon.FDFS_IPADDR_SIZE - 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+            int itemsLength = body.length - ProtoCommon.FDFS_GROUP_NAME_MAX_LEN - 1;
+            if (itemsLength <= 0 || itemsLength % itemSize != 0) {
+                this.errno = ProtoCommon.ERR_NO_EINVAL;
+                return null;
+            }
+            byte storePathIndex = body[body.length - 1];
+            List<StorageNode> nodes = new ArrayList<>(itemsLength / itemSize);
+            for (int offset = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN; offset < body.length - 1; offset += itemSize) {
+                String ip = new String(body, offset, ProtoCommon.FDFS_IPADDR_SIZE - 1).trim();
+                int port = (int) ProtoCommon.buff2long(body, offset + ProtoCommon.FDFS_IPADDR_SIZE - 1);
+                nodes.add(new StorageNode(ip, port, storePathIndex));
+            }
+            return nodes;
+        } catch (IOException e) {
+            closeQuietly(trackerServer);
+            throw e;
+        }
+    }
+
+    /**
+     * 查询下载文件的 Storage
+     *
+     * @param trackerServer TrackerServer
+     * @param fileId 文件ID
+     * @return Storage 节点，查询失败返回 null
+     */
+    public StorageNode queryFetch(TrackerServer trackerServer, String fileId) throws IOException {
+        return query(trackerServer, ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ONE, fileId);
+    }
+
+    /**
+     * 查询保存该文件的所有 Storage，第一个为 Tracker 优先选择的节点
+     *
+     * @param trackerServer TrackerServer
+     * @param fileId 文件ID
+     * @return Storage 节点，查询失败返回 null
+     */
+    public List<StorageNode> queryFetchAll(TrackerServer trackerServer, String fileId) throws IOException {
+        ServerInfo[] servers = getStorages(trackerServer, ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ALL, fileId);
+        if (servers == null || servers.length == 0) {
+            return null;
+        }
+        List<StorageNode> nodes = new ArrayList<>(servers.length);
+        for (ServerInfo server : servers) {
+            nodes.add(new StorageNode(server.getIpAddr(), server.getPort(), (byte) 0));
+        }
+        return nodes;
+    }
+
+    /**
+     * 查询修改、删除文件的 Storage(源 Storage)
+     *
+     * @param trackerServer TrackerServer
+     * @param fileId 文件ID
+     * @return Storage 节点，查询失败返回 null
+     */
+    public StorageNode queryUpdate(TrackerServer trackerServer, String fileId) throws IOException {
+        return query(trackerServer, ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE, fileId);
+    }
+
+    private StorageNode query(TrackerServer trackerServer, byte cmd, String fileId) throws IOException {
+        ServerInfo[] servers = getStorages(trackerServer, cmd, fileId);
+        if (servers == null || servers.length == 0) {
+            return null;
+        }
+        return new StorageNode(servers[0].getIpAddr(), servers[0].getPort(), (byte) 0);
+    }
+
+    private ServerInfo[] getStorages(TrackerServer trackerServer, byte cmd, String fileId) throws IOException {
+        String[] parts = new String[2];
+        this.errno = StorageClient1.split_file_id(fileId, parts);
+        if (this.errno != 0) {
+            return null;
+        }
+        return getStorages(trackerServer, cmd, parts[0], parts[1]);
+    }
+
+    private static void closeQuietly(TrackerServer trackerServer) {
+        try {
+            trackerServer.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package com.lyyzoo.fastdfs.client;
+
+/**
+ * Tracker 分配的 Storage 节点
+ * <p>
+ */
+public class StorageNode {
+    /**
+     * IP
+     */
+    private final String ip;
+    /**
+     * 端口
+     */
+    private final int port;
+    /**
+     * 存储路径索引，只有上传时有效
+     */
+    private final byte storePathIndex;
+
+    public StorageNode(String ip, int port, byte storePathIndex) {
+        this.ip = ip;
+        this.port = port;
+        this.storePathIndex = storePathIndex;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public byte getStorePathIndex() {
+        return storePathIndex;
+    }
+
+    /**
+     * @return ip:port
+     */
+    public String getAddress() {
+        return ip + ":" + port;
+    }
+
+    @Override
+    public String toString() {
+        return getAddress();
+    }
+}
@@ -0,0 +1,97 @@
+package com.lyyzoo.fastdfs.client;
+
+/**
+ * Storage 操作类型，决定向 Tracker 查询哪类 Storage，也用作统计的维度
+ * <p>
+ */
+public enum StorageOperation {
+    /**
+     * 上传文件
+     */
+    UPLOAD("upload", Route.STORE, true),
+    /**
+     * 上传从文件，需要连接主文件所在的源 Storage
+     */
+    UPLOAD_SLAVE("upload_slave", Route.UPDATE, true),
+    /**
+     * 上传可追加的文件
+     */
+    UPLOAD_APPENDER("upload_appender", Route.STORE, true),
+    /**
+     * 向 appender 文件追加内容，需要连接文件所在的源 Storage
+     */
+    APPEND("append", Route.UPDATE, true),
+    /**
+     * 修改 appender 文件的一段内容，需要连接文件所在的源 Storage
+     */
+    MODIFY("modify", Route.UPDATE, true),
+    /**
+     * 截断 appender 文件，需要连接文件所在的源 Storage
+     */
+    TRUNCATE("truncate", Route.UPDATE, false),
+    /**
+     * 下载文件
+     */
+    DOWNLOAD("download", Route.FETCH, false),
+    /**
+     * 获取文件描述信息
+     */
+    GET_METADATA("get_metadata", Route.FETCH, false),
+    /**
+     * 修改文件描述信息，需要连接文件所在的源 Storage
+     */
+    SET_METADATA("set_metadata", Route.UPDATE, false),
+    /**
+     * 获取文件信息，普通文件从文件ID解析，不需要连接 Storage
+     */
+    GET_FILE_INFO("get_file_info", Route.NONE, false),
+    /**
+     * 从 Storage 查询文件信息，appender 文件的大小和 CRC32 会变化，不能从文件ID解析
+     */
+    QUERY_FILE_INFO("query_file_info", Route.FETCH, false),
+    /**
+     * 删除文件
+     */
+    DELETE("delete", Route.UPDATE, false);
+
+    /**
+     * 名称
+     */
+    public final String NAME;
+    /**
+     * 查询的 Storage 类型
+     */
+    public final Route ROUTE;
+    /**
+     * 是否向 Storage 写入文件内容
+     */
+    public final boolean UPLOADING;
+
+    StorageOperation(String name, Route route, boolean uploading) {
+        this.NAME = name;
+        this.ROUTE = route;
+        this.UPLOADING = uploading;
+    }
+
+    /**
+     * Storage 类型
+     */
+    public enum Route {
+        /**
+         * 可上传的 Storage
+         */
+        STORE,
+        /**
+         * 可下载文件的 Storage
+         */
+        FETCH,
+        /**
+         * 文件所在的源 Storage
+         */
+        UPDATE,
+        /**
+         * 不预先查询，由 StorageClient 自行处理
+         */
+        NONE
+    }
+}
@@ -0,0 +1,122 @@
+package com.lyyzoo.fastdfs.client;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.ToLongFunction;
+
+/**
+ * 分层时间轮.
+ * <p>
+ * 4 层，每层 64 个槽：第 0 层每槽 1 个 tick，第 n 层每槽 64^n 个 tick，共覆盖 64^4 个 tick(tick 为 1 秒时约 194 天)，
+ * 更远的先放在最高层能到达的最远槽，转到时按实际到期时间重新放置. <br>
+ * 添加 O(1)；每个 tick 只处理第 0 层的一个槽，低一层转完一圈时把上一层的一个槽重新分配到下面各层(cascade). <br>
+ * 只保存 key，到期时间由调用方保存：取消或修改到期时间后旧位置上的 key 不删除，转到时按调用方的到期时间丢弃或重新放置. <br>
+ * 非线程安全，由调用方同步.
+ */
+class TimingWheel {
+
+    private static final int BITS = 6;
+    private static final int SLOTS = 1 << BITS;
+    private static final int MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    /**
+     * 能直接放置的最大 tick 数
+     */
+    private static final long MAX_DELTA = 1L << (BITS * LEVELS);
+
+    /**
+     * 取消的 key 的到期时间
+     */
+    static final long NONE = -1;
+
+    private final long tickMillis;
+
+    private final List<Set<String>> slots;
+
+    /**
+     * 已经处理到的 tick
+     */
+    private long currentTick;
+
+    TimingWheel(long tickMillis, long now) {
+        this.tickMillis = tickMillis;
+        this.slots = new ArrayList<>(Collections.nCopies(LEVELS * SLOTS, (Set<String>) null));
+        this.currentTick = now / tickMillis;
+    }
+
+    /**
+     * 放入时间轮
+     *
+     * @param key key
+     * @param expireAt 到期时间(毫秒)
+     * @return 已经到期时不放入，返回 false
+     */
+    boolean add(String key, long expireAt) {
+        // 向上取整，不会提前到期
+        long expireTick = expireAt / tickMillis + (expireAt % tickMillis == 0 ? 0 : 1);
+        long delta = expireTick - currentTick;
+        if (delta <= 0) {
+            return false;
+        }
+        if (delta >= MAX_DELTA) {
+            delta = MAX_DELTA - 1;
+            expireTick = currentTick + delta;
+        }
+        int level = 0;
+        while (delta >= 1L << (BITS * (level + 1))) {
+            level++;
+        }
+        int index = level * SLOTS + (int) ((expireTick >>> (BITS * level)) & MASK);
+        Set<String> keys = slots.get(index);
+        if (keys == null) {
+            keys = new HashSet<>();
+            slots.set(index, keys);
+        }
+        keys.add(key);
+        return true;
+    }
+
+    /**
+     * 转到 now，输出到期的 key
+     *
+     * @param now 当前时间(毫秒)
+     * @param deadlines key 当前的到期时间，已取消返回 {@link #NONE}
+     * @param expired 到期的 key
+     */
+    void advance(long now, ToLongFunction<String> deadlines, Consumer<String> expired) {
+        long nowTick = now / tickMillis;
+        while (currentTick < nowTick) {
+            long tick = ++currentTick;
+            // 低一层转完一圈时，把上一层对应的槽重新分配到下面各层
+            for (int level = 1; level < LEVELS && ((tick >>> (BITS * (level - 1))) & MASK) == 0; level++) {
+                Set<String> keys = take(level * SLOTS + (int) ((tick >>> (BITS * level)) & MASK));
+                if (keys != null) {
+                    for (String key : keys) {
+                        reschedule(key, deadlines, expired);
+                    }
+                }
+            }
+            Set<String> keys = take((int) (tick & MASK));
+            if (keys != null) {
+                for (String key : keys) {
+                    reschedule(key, deadlines, expired);
+                }
+            }
+        }
+    }
+
+    private void reschedule(String key, ToLongFunction<String> deadlines, Consumer<String> expired) {
+        long expireAt = deadlines.applyAsLong(key);
+        if (expireAt != NONE && !add(key, expireAt)) {
+            expired.accept(key);
+        }
+    }
+
+    private Set<String> take(int index) {
+        return slots.set(index, null);
+    }
+}
@@ -4,6 +4,7 @@ import org.apache.commons.pool2.BasePooledObjectFactory;
 import org.apache.commons.pool2.PooledObject;
 import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.csource.fastdfs.TrackerClient;
+import org.csource.fastdfs.TrackerGroup;
 import org.csource.fastdfs.TrackerServer;
 
 /**
@@ -15,10 +16,26 @@ import org.csource.fastdfs.TrackerServer;
  */
 public class TrackerServerFactory extends BasePooledObjectFactory<TrackerServer> {
 
+    /**
+     * Tracker 地址，为空时使用 ClientGlobal 的配置
+     */
+    private final TrackerGroup trackerGroup;
+
+    public TrackerServerFactory() {
+        this(null);
+    }
+
+    /**
+     * @param trackerGroup 其它集群的 Tracker 地址
+     */
+    public TrackerServerFactory(TrackerGroup trackerGroup) {
+        this.trackerGroup = trackerGroup;
+    }
+
     @Override
     public TrackerServer create() throws Exception {
         // TrackerClient
-        TrackerClient trackerClient = new TrackerClient();
+        TrackerClient trackerClient = trackerGroup == null ? new TrackerClient() : new TrackerClient(trackerGroup);
         // TrackerServer
         TrackerServer trackerServer = trackerClient.getConnection();
 
@@ -40,15 +40,17 @@ public class TrackerServerPool {
      * TrackerServer 对象池.
      * GenericObjectPool 没有无参构造
      */
-    private static GenericObjectPool<TrackerServer> trackerServerPool;
+    private static volatile GenericObjectPool<TrackerServer> trackerServerPool;
 
     private TrackerServerPool(){};
 
     private static synchronized GenericObjectPool<TrackerServer> getObjectPool(){
         if(trackerServerPool == null){
             try {
-                // 加载配置文件
-                ClientGlobal.initByProperties(FASTDFS_CONFIG_PATH);
+                // 加载配置文件，已通过代码初始化(如内嵌服务)则不再加载
+                if (ClientGlobal.g_tracker_group == null) {
+                    ClientGlobal.initByProperties(FASTDFS_CONFIG_PATH);
+                }
             } catch (IOException e) {
                 e.printStackTrace();
             } catch (MyException e) {
@@ -98,5 +100,50 @@ public class TrackerServerPool {
         getObjectPool().returnObject(trackerServer);
     }
 
+    /**
+     * @return 已借出的 TrackerServer 数量，连接池未初始化返回 0
+     */
+    public static int getNumActive() {
+        GenericObjectPool<TrackerServer> pool = trackerServerPool;
+        return pool == null ? 0 : pool.getNumActive();
+    }
+
+    /**
+     * @return 空闲的 TrackerServer 数量，连接池未初始化返回 0
+     */
+    public static int getNumIdle() {
+        GenericObjectPool<TrackerServer> pool = trackerServerPool;
+        return pool == null ? 0 : pool.getNumIdle();
+    }
+
+    /**
+     * @return 等待获取 TrackerServer 的线程数，连接池未初始化返回 0
+     */
+    public static int getNumWaiters() {
+        GenericObjectPool<TrackerServer> pool = trackerServerPool;
+        return pool == null ? 0 : pool.getNumWaiters();
+    }
+
+    /**
+     * @return 最大连接数，连接池未初始化返回 0
+     */
+    public static int getMaxTotal() {
+        GenericObjectPool<TrackerServer> pool = trackerServerPool;
+        return pool == null ? 0 : pool.getMaxTotal();
+    }
+
+    /**
+     * 设置最大连接数，连接池已初始化时立即生效
+     *
+     * @param maxStorageConnection 最大连接数
+     */
+    public static void setMaxStorageConnection(int maxStorageConnection) {
+        TrackerServerPool.maxStorageConnection = maxStorageConnection;
+        GenericObjectPool<TrackerServer> pool = trackerServerPool;
+        if (pool != null && maxStorageConnection > 0) {
+            pool.setMaxTotal(maxStorageConnection);
+        }
+    }
+
 
 }
@@ -0,0 +1,209 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 透明压缩. 上传时压缩文本、CSV、JSON、XML、旧版 Office 等压缩率高的文件，下载时自动解压或直接以
+ * Content-Encoding 输出给支持的客户端.
+ * <p>
+ * 先压缩文件开头的一段样本估算压缩率，压缩率达不到要求的文件不压缩. 压缩后文件描述信息中记录
+ * compression(编解码器名称) 和 uncompressed_size(原始大小). <br>
+ * 文件ID保留原始后缀，只有可压缩类型的文件下载时才需要查询描述信息.
+ */
+public class TransparentCompressor {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(TransparentCompressor.class);
+    /**
+     * 编解码器描述Key
+     */
+    public static final String COMPRESSION = "compression";
+    /**
+     * 原始大小描述Key
+     */
+    public static final String UNCOMPRESSED_SIZE = "uncompressed_size";
+    /**
+     * 默认可压缩的文件类型
+     */
+    private static final Set<String> DEFAULT_TYPES = Collections.unmodifiableSet(new HashSet<>(Arrays.asList(
+            "txt", "csv", "json", "xml", "log", "html", "htm", "css", "js", "svg", "md", "doc", "xls", "ppt")));
+    /**
+     * 估算压缩率的样本大小
+     */
+    private static final int SAMPLE_SIZE = 64 * 1024;
+
+    /**
+     * 是否启用
+     */
+    private boolean enabled = false;
+    /**
+     * 编解码器名称
+     */
+    private String codec = CompressionCodecs.GZIP.getName();
+    /**
+     * 小于该大小的文件不压缩
+     */
+    private int minSize = 1024;
+    /**
+     * 压缩后大小与原始大小之比高于该值则不压缩
+     */
+    private double maxRatio = 0.8;
+    /**
+     * 可压缩的文件类型
+     */
+    private Set<String> types = DEFAULT_TYPES;
+
+    /**
+     * 上传时是否压缩该类型的文件
+     *
+     * @param suffix 文件后缀
+     * @return 启用压缩且是可压缩类型时返回 true
+     */
+    public boolean isCompressible(String suffix) {
+        return enabled && isCompressibleType(suffix);
+    }
+
+    /**
+     * 是否可压缩类型，不考虑是否启用. 读取时用来判断文件是否可能压缩存储，关闭压缩之前上传的文件仍然是压缩的
+     *
+     * @param suffix 文件后缀
+     * @return 可压缩类型返回 true
+     */
+    public boolean isCompressibleType(String suffix) {
+        return suffix != null && types.contains(suffix.toLowerCase());
+    }
+
+    /**
+     * 压缩文件
+     *
+     * @param bytes 文件内容
+     * @param suffix 文件后缀
+     * @return 压缩结果，不需要压缩返回 null
+     */
+    public Compressed compress(byte[] bytes, String suffix) {
+        return bytes == null ? null : compress(bytes, bytes.length, suffix);
+    }
+
+    /**
+     * 压缩文件
+     *
+     * @param bytes 文件内容，可以是比内容长的缓冲区
+     * @param length 文件长度
+     * @param suffix 文件后缀
+     * @return 压缩结果，不需要压缩返回 null
+     */
+    public Compressed compress(byte[] bytes, int length, String suffix) {
+        if (bytes == null || length < minSize || !isCompressible(suffix)) {
+            return null;
+        }
+        CompressionCodec compressionCodec = CompressionCodecs.get(codec);
+        if (compressionCodec == null) {
+            logger.warn("compression codec {} not registered", codec);
+            return null;
+        }
+
+        try {
+            // 大文件先用样本估算压缩率
+            if (length > SAMPLE_SIZE * 2) {
+                byte[] sample = encode(compressionCodec, bytes, SAMPLE_SIZE);
+                if (sample.length > SAMPLE_SIZE * maxRatio) {
+                    return null;
+                }
+            }
+            byte[] compressed = encode(compressionCodec, bytes, length);
+            if (compressed.length > length * maxRatio) {
+                return null;
+            }
+
+            if (logger.isDebugEnabled()) {
+                logger.debug("compress file with {}, {} bytes -> {} bytes", codec, length, compressed.length);
+            }
+            return new Compressed(compressionCodec, compressed);
+        } catch (IOException e) {
+            logger.warn("compress file failed, upload uncompressed", e);
+            return null;
+        }
+    }
+
+    private static byte[] encode(CompressionCodec codec, byte[] bytes, int length) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(Math.max(64, length / 3));
+        OutputStream os = codec.compress(bos);
+        try {
+            os.write(bytes, 0, length);
+        } finally {
+            os.close();
+        }
+        return bos.toByteArray();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public String getCodec() {
+        return codec;
+    }
+
+    public void setCodec(String codec) {
+        this.codec = codec;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    public void setMinSize(int minSize) {
+        this.minSize = minSize;
+    }
+
+    public double getMaxRatio() {
+        return maxRatio;
+    }
+
+    public void setMaxRatio(double maxRatio) {
+        this.maxRatio = maxRatio;
+    }
+
+    public Set<String> getTypes() {
+        return types;
+    }
+
+    public void setTypes(Set<String> types) {
+        this.types = types;
+    }
+
+    /**
+     * 压缩结果
+     */
+    public static class Compressed {
+        private final CompressionCodec codec;
+        private final byte[] bytes;
+
+        Compressed(CompressionCodec codec, byte[] bytes) {
+            this.codec = codec;
+            this.bytes = bytes;
+        }
+
+        public CompressionCodec getCodec() {
+            return codec;
+        }
+
+        public byte[] getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,1015 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.common.NameValuePair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * 上传暂存区(write-behind).
+ * <p>
+ * 上传的文件先追加到本地的日志段文件，fsync 后返回临时文件ID(spool: 开头)，由后台线程以有限的并发上传到 FastDFS，
+ * 失败按指数退避重试. 多个并发写入共享一次 fsync(组提交). <br>
+ * 还没有上传的文件从暂存区读取；临时文件ID到最终文件ID的映射记录在 mapping.log，可以查询. 映射一直保留，
+ * 直到调用方保存最终文件ID后通过 {@link #acknowledge(String)} 确认，不按时间过期. <br>
+ * 重启后重新上传还没有完成的文件. 段内的文件都上传后删除该段.
+ * <p>
+ * 模式：off 不使用；always 所有上传都先写入暂存区，削平上传高峰；fallback 直接上传失败(文件服务器不可用、繁忙)时写入暂存区.
+ */
+public class UploadSpool {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(UploadSpool.class);
+
+    /**
+     * 临时文件ID前缀
+     */
+    public static final String PREFIX = "spool:";
+
+    /**
+     * 模式
+     */
+    public enum Mode {
+        OFF, ALWAYS, FALLBACK
+    }
+
+    /**
+     * 暂存文件的状态
+     */
+    public enum State {
+        /**
+         * 等待上传
+         */
+        PENDING,
+        /**
+         * 已上传，可以查询最终文件ID
+         */
+        UPLOADED,
+        /**
+         * 上传前已删除
+         */
+        DELETED,
+        /**
+         * 上传失败且不能重试，如文件服务器拒绝
+         */
+        FAILED
+    }
+
+    /**
+     * 暂存文件的上传目标
+     */
+    public interface Sink {
+        /**
+         * @return 最终文件ID
+         * @throws FastDFSException 连接失败、繁忙、上传失败时稍后重试，其它错误不再重试
+         */
+        String upload(byte[] content, String suffix, NameValuePair[] nvps) throws FastDFSException;
+
+        /**
+         * 上传期间临时文件被删除时删除已上传的文件
+         */
+        void delete(String fileId) throws FastDFSException;
+    }
+
+    private static final int MAGIC = 0x53504F4C;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String MAPPING_FILE = "mapping.log";
+    /**
+     * 映射文件中的确认记录
+     */
+    private static final String ACK = "ACK";
+
+    private final Sink sink;
+
+    private volatile Mode mode = Mode.OFF;
+    /**
+     * 暂存目录，必须配置. 保存还没有上传的文件和映射，不能使用会被清理的临时目录
+     */
+    private volatile File directory;
+    /**
+     * 每个段文件的大小上限
+     */
+    private volatile long segmentBytes = 64L * 1024 * 1024;
+    /**
+     * 暂存区未上传文件的总大小上限，超过时写入返回繁忙
+     */
+    private volatile long maxBytes = 1024L * 1024 * 1024;
+    /**
+     * fsync 前等待更多写入的时间(毫秒)，0 表示只合并已经在等待的写入
+     */
+    private volatile long fsyncBatchMillis = 2;
+    /**
+     * 上传线程数
+     */
+    private volatile int concurrency = 4;
+    /**
+     * 第一次重试的等待时间(毫秒)，之后每次翻倍，最多 retryMaxMillis
+     */
+    private volatile long retryBaseMillis = 1000;
+    private volatile long retryMaxMillis = 60000;
+
+    /**
+     * 追加写入的锁，保护 active、written
+     */
+    private final Object lock = new Object();
+    private Segment active;
+    private long nextSegmentId;
+    /**
+     * 已写入的记录数
+     */
+    private long written;
+
+    /**
+     * 组提交的锁，保护 synced、syncing
+     */
+    private final Object syncLock = new Object();
+    /**
+     * 已 fsync 的记录数
+     */
+    private long synced;
+    private boolean syncing;
+
+    private final ConcurrentMap<Long, Segment> segments = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Entry> pending = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Mapping> mappings = new ConcurrentHashMap<>();
+    private final AtomicLong pendingBytes = new AtomicLong();
+    private final BlockingQueue<Entry> queue = new LinkedBlockingQueue<>();
+
+    private Writer mappingWriter;
+    private FileOutputStream mappingStream;
+
+    private ExecutorService drainers;
+    private ScheduledExecutorService retryScheduler;
+    private volatile boolean started;
+
+    public UploadSpool(Sink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @param fileId 文件ID
+     * @return 是否为暂存区的临时文件ID
+     */
+    public static boolean isProvisional(String fileId) {
+        return fileId != null && fileId.startsWith(PREFIX);
+    }
+
+    /**
+     * @return 直接上传失败时是否可以写入暂存区稍后重试
+     */
+    public static boolean isRetryable(FastDFSException e) {
+        String code = e.getCode();
+        return ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE.equals(code)
+                || ErrorCode.FILE_SERVER_OVERLOADED.CODE.equals(code)
+                || ErrorCode.FILE_UPLOAD_FAILED.CODE.equals(code);
+    }
+
+    /**
+     * 打开暂存目录，恢复未上传的文件并开始上传. 重复调用无效.
+     *
+     * @throws IllegalStateException 没有配置暂存目录
+     */
+    public synchronized void start() throws IOException {
+        if (started) {
+            return;
+        }
+        if (directory == null) {
+            throw new IllegalStateException("spool directory is not configured");
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("can not create spool directory " + directory);
+        }
+        Set<String> acknowledged = new HashSet<>();
+        loadMappings(acknowledged);
+        recover(acknowledged);
+        rewriteMappings(acknowledged);
+        synchronized (lock) {
+            active = openSegment(nextSegmentId++);
+        }
+
+        retryScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "fastdfs-spool-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+        started = true;
+        AtomicInteger index = new AtomicInteger();
+        drainers = Executors.newFixedThreadPool(concurrency, r -> {
+            Thread thread = new Thread(r, "fastdfs-spool-drainer-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        for (int i = 0; i < concurrency; i++) {
+            drainers.execute(this::drain);
+        }
+        if (logger.isInfoEnabled()) {
+            logger.info("upload spool started at {}, mode = {}, {} pending files", directory, mode, pending.size());
+        }
+    }
+
+    /**
+     * 停止上传并关闭文件，未上传的文件下次启动时继续上传
+     */
+    public synchronized void stop() {
+        if (!started) {
+            return;
+        }
+        started = false;
+        drainers.shutdownNow();
+        retryScheduler.shutdownNow();
+        for (Segment segment : segments.values()) {
+            segment.close();
+        }
+        segments.clear();
+        pending.clear();
+        queue.clear();
+        pendingBytes.set(0);
+        try {
+            mappingWriter.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 写入暂存区，fsync 后返回
+     *
+     * @param content 文件内容
+     * @param suffix 文件后缀
+     * @param nvps 文件描述信息
+     * @return 临时文件ID，如 spool:3f2a6c0e9b8d4b5f8a1c2d3e4f5a6b7c.jpg
+     * @throws FastDFSException 暂存区已满时抛出 FILE_SERVER_OVERLOADED，写入失败抛出 FILE_UPLOAD_FAILED
+     */
+    public String append(byte[] content, String suffix, NameValuePair[] nvps) throws FastDFSException {
+        return append(content, content.length, suffix, nvps);
+    }
+
+    /**
+     * 写入暂存区，fsync 后返回
+     *
+     * @param content 文件内容，可以是比内容长的缓冲区，返回后不再引用
+     * @param length 文件长度
+     * @param suffix 文件后缀
+     * @param nvps 文件描述信息
+     * @return 临时文件ID
+     * @throws FastDFSException 暂存区已满时抛出 FILE_SERVER_OVERLOADED，写入失败抛出 FILE_UPLOAD_FAILED
+     */
+    public String append(byte[] content, int length, String suffix, NameValuePair[] nvps) throws FastDFSException {
+        if (!started) {
+            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+        }
+        if (pendingBytes.get() + length > maxBytes) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("upload spool is full, {} bytes pending", pendingBytes.get());
+            }
+            throw new FastDFSException(ErrorCode.FILE_SERVER_OVERLOADED.CODE, ErrorCode.FILE_SERVER_OVERLOADED.MESSAGE);
+        }
+        String id = PREFIX + UUID.randomUUID().toString().replace("-", "")
+                + (suffix == null || suffix.isEmpty() ? "" : FastDFSClient.POINT + suffix);
+        long createdAt = System.currentTimeMillis();
+        Entry entry;
+        long seq;
+        try {
+            byte[] record = encode(id, suffix, createdAt, nvps, content, length);
+            synchronized (lock) {
+                if (active.size > 0 && active.size + record.length > segmentBytes) {
+                    rotate();
+                }
+                Segment segment = active;
+                long position = segment.size;
+                ByteBuffer buffer = ByteBuffer.wrap(record);
+                while (buffer.hasRemaining()) {
+                    segment.channel.write(buffer, position + buffer.position());
+                }
+                segment.size += record.length;
+                segment.pending.incrementAndGet();
+                seq = ++written;
+                // 内容位于记录末尾的 CRC32 之前
+                entry = new Entry(id, suffix, createdAt, nvps, segment, position + record.length - 8 - length, length);
+            }
+            sync(seq);
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_UPLOAD_FAILED.CODE, ErrorCode.FILE_UPLOAD_FAILED.MESSAGE);
+        }
+        pending.put(id, entry);
+        pendingBytes.addAndGet(length);
+        queue.offer(entry);
+        if (logger.isDebugEnabled()) {
+            logger.debug("spool file {}, {} bytes", id, length);
+        }
+        return id;
+    }
+
+    /**
+     * 组提交：第一个等待的写入者执行 fsync，期间写入的记录由下一次 fsync 一起提交
+     */
+    private void sync(long seq) throws IOException {
+        synchronized (syncLock) {
+            while (synced < seq) {
+                if (!syncing) {
+                    syncing = true;
+                    break;
+                }
+                try {
+                    syncLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted while waiting for spool fsync");
+                }
+            }
+            if (synced >= seq) {
+                return;
+            }
+        }
+        long target = -1;
+        try {
+            if (fsyncBatchMillis > 0) {
+                try {
+                    Thread.sleep(fsyncBatchMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            Segment segment;
+            synchronized (lock) {
+                target = written;
+                segment = active;
+            }
+            segment.channel.force(false);
+        } catch (IOException e) {
+            target = -1;
+            throw e;
+        } finally {
+            synchronized (syncLock) {
+                syncing = false;
+                if (target > synced) {
+                    synced = target;
+                }
+                syncLock.notifyAll();
+            }
+        }
+    }
+
+    /**
+     * 切换到新的段文件，旧段先 fsync. 调用方持有 lock.
+     */
+    private void rotate() throws IOException {
+        Segment old = active;
+        old.channel.force(false);
+        synchronized (syncLock) {
+            if (written > synced) {
+                synced = written;
+                syncLock.notifyAll();
+            }
+        }
+        active = openSegment(nextSegmentId++);
+        old.sealed = true;
+        releaseIfDone(old);
+    }
+
+    private Segment openSegment(long id) throws IOException {
+        File file = new File(directory, String.format("%s%012d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+        FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        Segment segment = new Segment(id, file, channel);
+        segment.size = channel.size();
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static byte[] encode(String id, String suffix, long createdAt, NameValuePair[] nvps, byte[] content,
+                                 int length) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream(length + 256);
+        DataOutputStream out = new DataOutputStream(bos);
+        out.writeInt(MAGIC);
+        // 记录长度稍后填写
+        out.writeInt(0);
+        out.writeUTF(id);
+        out.writeUTF(suffix == null ? "" : suffix);
+        out.writeLong(createdAt);
+        out.writeInt(nvps == null ? 0 : nvps.length);
+        if (nvps != null) {
+            for (NameValuePair nvp : nvps) {
+                out.writeUTF(nvp.getName());
+                out.writeUTF(nvp.getValue() == null ? "" : nvp.getValue());
+            }
+        }
+        out.writeInt(length);
+        out.write(content, 0, length);
+        out.flush();
+        byte[] record = bos.toByteArray();
+        int payloadLength = record.length - 8;
+        ByteBuffer.wrap(record, 4, 4).putInt(payloadLength);
+        CRC32 crc = new CRC32();
+        crc.update(record, 8, payloadLength);
+        byte[] result = new byte[record.length + 8];
+        System.arraycopy(record, 0, result, 0, record.length);
+        ByteBuffer.wrap(result, record.length, 8).putLong(crc.getValue());
+        return result;
+    }
+
+    /**
+     * 扫描已有的段文件，没有映射也没有确认的记录重新上传. 不完整的末尾记录(写入时宕机)被截断.
+     *
+     * @param acknowledged 已确认的临时文件ID，恢复后只保留段文件还没有删除的
+     */
+    private void recover(Set<String> acknowledged) throws IOException {
+        Map<String, Segment> acknowledgedSegments = new HashMap<>();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        TreeMap<Long, File> sorted = new TreeMap<>();
+        if (files != null) {
+            for (File file : files) {
+                String name = file.getName();
+                try {
+                    sorted.put(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())), file);
+                } catch (NumberFormatException e) {
+                    // 忽略其它文件
+                }
+            }
+        }
+        for (Map.Entry<Long, File> item : sorted.entrySet()) {
+            Segment segment = openSegment(item.getKey());
+            long position = 0;
+            while (true) {
+                Entry entry;
+                try {
+                    entry = readRecord(segment, position);
+                } catch (IOException e) {
+                    entry = null;
+                }
+                if (entry == null) {
+                    break;
+                }
+                position = entry.contentOffset + entry.length + 8;
+                if (acknowledged.contains(entry.id)) {
+                    acknowledgedSegments.put(entry.id, segment);
+                } else if (!mappings.containsKey(entry.id)) {
+                    segment.pending.incrementAndGet();
+                    pending.put(entry.id, entry);
+                    pendingBytes.addAndGet(entry.length);
+                    queue.offer(entry);
+                }
+            }
+            if (position < segment.channel.size()) {
+                if (logger.isWarnEnabled()) {
+                    logger.warn("truncate incomplete spool record in {} at {}", segment.file.getName(), position);
+                }
+                segment.channel.truncate(position);
+            }
+            segment.size = position;
+            segment.sealed = true;
+            releaseIfDone(segment);
+            nextSegmentId = item.getKey() + 1;
+        }
+        // 段文件已删除的确认记录不再需要
+        acknowledged.clear();
+        acknowledgedSegments.forEach((id, segment) -> {
+            if (segments.get(segment.id) == segment) {
+                acknowledged.add(id);
+            }
+        });
+    }
+
+    /**
+     * @return 记录，已到末尾或记录不完整时返回 null
+     */
+    private static Entry readRecord(Segment segment, long position) throws IOException {
+        long size = segment.channel.size();
+        if (position + 8 > size) {
+            return null;
+        }
+        ByteBuffer header = ByteBuffer.allocate(8);
+        readFully(segment.channel, header, position);
+        header.flip();
+        if (header.getInt() != MAGIC) {
+            return null;
+        }
+        int payloadLength = header.getInt();
+        if (payloadLength < 0 || position + 16 + payloadLength > size) {
+            return null;
+        }
+        ByteBuffer body = ByteBuffer.allocate(payloadLength + 8);
+        readFully(segment.channel, body, position + 8);
+        byte[] payload = body.array();
+        CRC32 crc = new CRC32();
+        crc.update(payload, 0, payloadLength);
+        if (ByteBuffer.wrap(payload, payloadLength, 8).getLong() != crc.getValue()) {
+            return null;
+        }
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 0, payloadLength));
+        String id = in.readUTF();
+        String suffix = in.readUTF();
+        long createdAt = in.readLong();
+        int count = in.readInt();
+        NameValuePair[] nvps = count == 0 ? null : new NameValuePair[count];
+        for (int i = 0; i < count; i++) {
+            nvps[i] = new NameValuePair(in.readUTF(), in.readUTF());
+        }
+        int length = in.readInt();
+        long contentOffset = position + 8 + payloadLength - length;
+        return new Entry(id, suffix.isEmpty() ? null : suffix, createdAt, nvps, segment, contentOffset, length);
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        long offset = position;
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, offset);
+            if (n < 0) {
+                throw new EOFException();
+            }
+            offset += n;
+        }
+    }
+
+    /**
+     * 上传线程
+     */
+    private void drain() {
+        while (!Thread.currentThread().isInterrupted()) {
+            Entry entry;
+            try {
+                entry = queue.take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (pending.get(entry.id) != entry) {
+                // 已删除
+                continue;
+            }
+            byte[] content;
+            try {
+                content = read(entry);
+            } catch (IOException e) {
+                e.printStackTrace();
+                complete(entry, State.FAILED, ErrorCode.FILE_UPLOAD_FAILED.CODE);
+                continue;
+            }
+            try {
+                String fileId = sink.upload(content, entry.suffix, entry.nvps);
+                if (!complete(entry, State.UPLOADED, fileId)) {
+                    // 上传期间被删除
+                    sink.delete(fileId);
+                }
+                if (logger.isDebugEnabled()) {
+                    logger.debug("spooled file {} uploaded as {}", entry.id, fileId);
+                }
+            } catch (FastDFSException e) {
+                if (isRetryable(e)) {
+                    retry(entry);
+                } else {
+                    if (logger.isErrorEnabled()) {
+                        logger.error("upload spooled file {} failed: {}", entry.id, e.getCode());
+                    }
+                    complete(entry, State.FAILED, e.getCode());
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                retry(entry);
+            }
+        }
+    }
+
+    private void retry(Entry entry) {
+        int attempts = ++entry.attempts;
+        long delay = Math.min(retryMaxMillis, retryBaseMillis << Math.min(attempts - 1, 20));
+        delay = (long) (delay * (0.5 + ThreadLocalRandom.current().nextDouble()));
+        if (logger.isWarnEnabled()) {
+            logger.warn("upload spooled file {} failed, retry {} after {}ms", entry.id, attempts, delay);
+        }
+        if (started) {
+            retryScheduler.schedule(() -> queue.offer(entry), delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * 记录结果
+     *
+     * @return 文件仍在等待上传(没有被删除)时返回 true
+     */
+    private boolean complete(Entry entry, State state, String value) {
+        if (!pending.remove(entry.id, entry)) {
+            return false;
+        }
+        pendingBytes.addAndGet(-entry.length);
+        Mapping mapping = new Mapping(state, value, System.currentTimeMillis());
+        mappings.put(entry.id, mapping);
+        writeMapping(entry.id, mapping);
+        if (entry.segment.pending.decrementAndGet() == 0) {
+            releaseIfDone(entry.segment);
+        }
+        return true;
+    }
+
+    /**
+     * 已切换且所有文件都已上传的段文件删除
+     */
+    private void releaseIfDone(Segment segment) {
+        if (segment.sealed && segment.pending.get() == 0 && segments.remove(segment.id, segment)) {
+            segment.close();
+            if (!segment.file.delete() && logger.isWarnEnabled()) {
+                logger.warn("delete spool segment {} failed", segment.file);
+            }
+        }
+    }
+
+    private byte[] read(Entry entry) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+        readFully(entry.segment.channel, buffer, entry.contentOffset);
+        return buffer.array();
+    }
+
+    /**
+     * 读取还没有上传的文件
+     *
+     * @param id 临时文件ID
+     * @return 文件内容，已上传或不存在时返回 null
+     */
+    public byte[] read(String id) {
+        Entry entry = pending.get(id);
+        if (entry == null) {
+            return null;
+        }
+        try {
+            return read(entry);
+        } catch (IOException e) {
+            // 读取期间上传完成，段文件已删除
+            return null;
+        }
+    }
+
+    /**
+     * @param id 临时文件ID
+     * @return 还没有上传的文件，已上传或不存在时返回 null
+     */
+    public SpooledFile getSpooledFile(String id) {
+        Entry entry = pending.get(id);
+        return entry == null ? null : new SpooledFile(entry);
+    }
+
+    /**
+     * @param id 临时文件ID
+     * @return 状态，不存在(或已确认)时返回 null
+     */
+    public State getState(String id) {
+        if (pending.containsKey(id)) {
+            return State.PENDING;
+        }
+        Mapping mapping = mappings.get(id);
+        return mapping == null ? null : mapping.state;
+    }
+
+    /**
+     * @param id 临时文件ID
+     * @return 最终文件ID，还没有上传或上传失败时返回 null
+     */
+    public String getFileId(String id) {
+        Mapping mapping = mappings.get(id);
+        return mapping == null || mapping.state != State.UPLOADED ? null : mapping.value;
+    }
+
+    /**
+     * 确认已保存最终文件ID(或已处理删除、失败的结果)，删除映射. 之后临时文件ID不能再访问
+     *
+     * @param id 临时文件ID
+     * @return 有映射时返回 true，还在等待上传或不存在时返回 false
+     */
+    public boolean acknowledge(String id) {
+        if (id == null) {
+            return false;
+        }
+        synchronized (mappings) {
+            if (mappings.remove(id) == null) {
+                return false;
+            }
+            writeMappingRecord(id + "\t" + ACK + "\t-\t" + System.currentTimeMillis() + "\n");
+        }
+        return true;
+    }
+
+    /**
+     * @return 没有确认的映射数
+     */
+    public int getMappingCount() {
+        return mappings.size();
+    }
+
+    /**
+     * 删除还没有上传的文件
+     *
+     * @param id 临时文件ID
+     * @return 文件在等待上传时返回 true
+     */
+    public boolean delete(String id) {
+        Entry entry = pending.get(id);
+        return entry != null && complete(entry, State.DELETED, null);
+    }
+
+    /**
+     * @return 等待上传的文件数
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * @return 等待上传的字节数
+     */
+    public long getPendingBytes() {
+        return pendingBytes.get();
+    }
+
+    /**
+     * 读取映射文件
+     *
+     * @param acknowledged 已确认的临时文件ID
+     */
+    private void loadMappings(Set<String> acknowledged) throws IOException {
+        File file = new File(directory, MAPPING_FILE);
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                if (parts.length != 4) {
+                    continue;
+                }
+                if (ACK.equals(parts[1])) {
+                    mappings.remove(parts[0]);
+                    acknowledged.add(parts[0]);
+                    continue;
+                }
+                try {
+                    mappings.put(parts[0], new Mapping(State.valueOf(parts[1]), "-".equals(parts[2]) ? null : parts[2],
+                            Long.parseLong(parts[3])));
+                } catch (IllegalArgumentException e) {
+                    // 忽略不完整的记录
+                }
+            }
+        }
+    }
+
+    /**
+     * 重写映射文件，去掉已确认的映射. 段文件还没有删除的确认记录保留，重启后不会重新上传
+     */
+    private void rewriteMappings(Set<String> acknowledged) throws IOException {
+        File file = new File(directory, MAPPING_FILE);
+        File tmp = new File(directory, MAPPING_FILE + ".tmp");
+        try (FileOutputStream fos = new FileOutputStream(tmp);
+             Writer writer = new OutputStreamWriter(fos, StandardCharsets.UTF_8)) {
+            for (Map.Entry<String, Mapping> item : mappings.entrySet()) {
+                writer.write(format(item.getKey(), item.getValue()));
+            }
+            long now = System.currentTimeMillis();
+            for (String id : acknowledged) {
+                writer.write(id + "\t" + ACK + "\t-\t" + now + "\n");
+            }
+            writer.flush();
+            fos.getFD().sync();
+        }
+        if (file.exists() && !file.delete() || !tmp.renameTo(file)) {
+            throw new IOException("can not rewrite " + file);
+        }
+        mappingStream = new FileOutputStream(file, true);
+        mappingWriter = new OutputStreamWriter(mappingStream, StandardCharsets.UTF_8);
+    }
+
+    private static String format(String id, Mapping mapping) {
+        return id + "\t" + mapping.state.name() + "\t" + (mapping.value == null ? "-" : mapping.value) + "\t" + mapping.timestamp + "\n";
+    }
+
+    private void writeMapping(String id, Mapping mapping) {
+        synchronized (mappings) {
+            writeMappingRecord(format(id, mapping));
+        }
+    }
+
+    /**
+     * 追加一条记录并 fsync，调用方持有 mappings 的锁
+     */
+    private void writeMappingRecord(String record) {
+        try {
+            mappingWriter.write(record);
+            mappingWriter.flush();
+            mappingStream.getFD().sync();
+        } catch (IOException e) {
+            // 映射丢失时重启后会重新上传
+            e.printStackTrace();
+        }
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public void setMode(Mode mode) {
+        this.mode = mode;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param directory 暂存目录，start 之前设置
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    public long getSegmentBytes() {
+        return segmentBytes;
+    }
+
+    public void setSegmentBytes(long segmentBytes) {
+        this.segmentBytes = segmentBytes;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public long getFsyncBatchMillis() {
+        return fsyncBatchMillis;
+    }
+
+    public void setFsyncBatchMillis(long fsyncBatchMillis) {
+        this.fsyncBatchMillis = fsyncBatchMillis;
+    }
+
+    public int getConcurrency() {
+        return concurrency;
+    }
+
+    /**
+     * @param concurrency 上传线程数，start 之前设置
+     */
+    public void setConcurrency(int concurrency) {
+        this.concurrency = Math.max(1, concurrency);
+    }
+
+    public long getRetryBaseMillis() {
+        return retryBaseMillis;
+    }
+
+    public void setRetryBaseMillis(long retryBaseMillis) {
+        this.retryBaseMillis = retryBaseMillis;
+    }
+
+    public long getRetryMaxMillis() {
+        return retryMaxMillis;
+    }
+
+    public void setRetryMaxMillis(long retryMaxMillis) {
+        this.retryMaxMillis = retryMaxMillis;
+    }
+
+    /**
+     * 还没有上传的文件
+     */
+    public static class SpooledFile {
+        private final Entry entry;
+
+        SpooledFile(Entry entry) {
+            this.entry = entry;
+        }
+
+        public String getId() {
+            return entry.id;
+        }
+
+        public String getSuffix() {
+            return entry.suffix;
+        }
+
+        public long getCreatedAt() {
+            return entry.createdAt;
+        }
+
+        public int getLength() {
+            return entry.length;
+        }
+
+        public NameValuePair[] getMetadata() {
+            return entry.nvps;
+        }
+    }
+
+    /**
+     * 段文件
+     */
+    private static class Segment {
+        private final long id;
+        private final File file;
+        private final FileChannel channel;
+        /**
+         * 已写入的字节数，写入时由 lock 保护
+         */
+        private long size;
+        /**
+         * 等待上传的文件数
+         */
+        private final AtomicInteger pending = new AtomicInteger();
+        /**
+         * 不再写入
+         */
+        private volatile boolean sealed;
+
+        Segment(long id, File file, FileChannel channel) {
+            this.id = id;
+            this.file = file;
+            this.channel = channel;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 等待上传的文件
+     */
+    private static class Entry {
+        private final String id;
+        private final String suffix;
+        private final long createdAt;
+        private final NameValuePair[] nvps;
+        private final Segment segment;
+        private final long contentOffset;
+        private final int length;
+        private int attempts;
+
+        Entry(String id, String suffix, long createdAt, NameValuePair[] nvps, Segment segment, long contentOffset, int length) {
+            this.id = id;
+            this.suffix = suffix;
+            this.createdAt = createdAt;
+            this.nvps = nvps;
+            this.segment = segment;
+            this.contentOffset = contentOffset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * 临时文件ID的结果
+     */
+    private static class Mapping {
+        private final State state;
+        private final String value;
+        private final long timestamp;
+
+        Mapping(State state, String value, long timestamp) {
+            this.state = state;
+            this.value = value;
+            this.timestamp = timestamp;
+        }
+    }
+}
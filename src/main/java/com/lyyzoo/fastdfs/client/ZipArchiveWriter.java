@@ -0,0 +1,353 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.csource.common.MyException;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.FileInfo;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * 将多个文件打包成 ZIP 以流的形式输出.
+ * <p>
+ * 当前条目写出时，后台线程并行预取后续条目(元数据、大小，小文件连同内容)，预取窗口和单文件预取大小都有上限，
+ * 超过上限的文件在写出时直接从 Storage 流式读取，因此内存占用与压缩包大小无关. <br>
+ * 条目数或大小超出 ZIP 限制时 {@link ZipOutputStream} 会自动写出 ZIP64 结构. <br>
+ * 已压缩的类型(图片、音视频、压缩包)不再压缩：预取到内存的文件以 STORED 写出；STORED 需要提前知道 CRC，
+ * 流式写出的大文件仍是 DEFLATED 条目，只是压缩级别为 NO_COMPRESSION，每个块有几个字节的额外开销.
+ */
+public class ZipArchiveWriter {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(ZipArchiveWriter.class);
+    /**
+     * 已经压缩过的文件类型，直接存储不再压缩
+     */
+    private static final Set<String> STORED_TYPES = new HashSet<>(Arrays.asList(
+            "jpg", "jpeg", "png", "gif", "mp3", "mp4", "flv", "zip", "rar", "7z", "gz", "docx", "xlsx", "pptx"));
+    /**
+     * 预取线程池
+     */
+    private static final ExecutorService PREFETCH_EXECUTOR = Executors.newFixedThreadPool(
+            Math.max(2, Runtime.getRuntime().availableProcessors()), new PrefetchThreadFactory());
+    /**
+     * 输出缓冲大小
+     */
+    private static final int OUTPUT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 预取窗口大小，即当前条目之后最多预取的条目数
+     */
+    private int prefetchCount = 4;
+    /**
+     * 小于该大小的文件在预取时连同内容一起读入内存
+     */
+    private long prefetchMaxSize = 4 * 1024 * 1024;
+    /**
+     * Storage 操作模板
+     */
+    private final StorageExecutor storageExecutor;
+
+    public ZipArchiveWriter(StorageExecutor storageExecutor) {
+        this.storageExecutor = storageExecutor;
+    }
+
+    /**
+     * 打包输出文件
+     *
+     * @param filepaths 文件路径集合
+     * @param os 输出流，由调用者关闭
+     * @throws FastDFSException 文件不存在或下载失败
+     */
+    public void write(List<String> filepaths, OutputStream os) throws FastDFSException {
+        if (filepaths == null || filepaths.isEmpty()) {
+            throw new FastDFSException(ErrorCode.FILE_PATH_ISNULL.CODE, ErrorCode.FILE_PATH_ISNULL.MESSAGE);
+        }
+
+        Deque<Future<ZipSource>> window = new ArrayDeque<>(prefetchCount + 1);
+        Iterator<String> iterator = filepaths.iterator();
+        try {
+            while (window.size() < prefetchCount && iterator.hasNext()) {
+                window.add(prefetch(iterator.next()));
+            }
+
+            ZipOutputStream zos = new ZipOutputStream(new BufferedOutputStream(os, OUTPUT_BUFFER_SIZE));
+            Set<String> entryNames = new HashSet<>(filepaths.size() * 2);
+            while (!window.isEmpty()) {
+                ZipSource source = await(window.poll());
+                if (iterator.hasNext()) {
+                    window.add(prefetch(iterator.next()));
+                }
+                writeEntry(zos, source, entryNames);
+            }
+            zos.finish();
+            zos.flush();
+        } catch (IOException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+        } finally {
+            for (Future<ZipSource> future : window) {
+                future.cancel(true);
+            }
+        }
+    }
+
+    /**
+     * 写出一个条目
+     */
+    private void writeEntry(ZipOutputStream zos, ZipSource source, Set<String> entryNames) throws IOException, FastDFSException {
+        ZipEntry entry = new ZipEntry(uniqueName(source.filename, source.filepath, entryNames));
+        boolean stored = STORED_TYPES.contains(FileCheck.getFilenameSuffix(source.filename));
+
+        if (source.content != null) {
+            if (stored) {
+                // STORED 需要提前知道大小和CRC，只有预取到内存的文件可以直接存储
+                CRC32 crc = new CRC32();
+                crc.update(source.content);
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(source.content.length);
+                entry.setCompressedSize(source.content.length);
+                entry.setCrc(crc.getValue());
+            } else {
+                entry.setMethod(ZipEntry.DEFLATED);
+                zos.setLevel(Deflater.DEFAULT_COMPRESSION);
+            }
+            zos.putNextEntry(entry);
+            zos.write(source.content);
+            zos.closeEntry();
+            return;
+        }
+
+        // 大文件边下载边写出，事先不知道 CRC 不能 STORED，已压缩类型用 NO_COMPRESSION 级别的 DEFLATED
+        entry.setMethod(ZipEntry.DEFLATED);
+        zos.setLevel(stored ? Deflater.NO_COMPRESSION : Deflater.DEFAULT_COMPRESSION);
+        zos.putNextEntry(entry);
+        streamEntry(zos, source);
+        zos.closeEntry();
+    }
+
+    /**
+     * 从 Storage 流式读取文件并写出到当前条目
+     */
+    private void streamEntry(ZipOutputStream zos, ZipSource source) throws IOException, FastDFSException {
+        final IOException[] writeError = new IOException[1];
+        // 压缩存储的文件边下载边解压，不关闭 zos
+        final OutputStream os = source.codec == null ? zos : source.codec.decompress(new CloseShieldOutputStream(zos));
+        // 压缩、写出到客户端的时间属于调用方
+        final OutputStream sink = StorageExecutor.callerStream(os);
+        final long[] received = new long[1];
+        try {
+            int result = storageExecutor.execute(StorageOperation.DOWNLOAD, source.filepath, storageClient -> {
+                int errno = storageClient.download_file1(source.filepath, (fileSize, data, bytes) -> {
+                    try {
+                        if (received[0] == 0) {
+                            storageExecutor.markFirstByte();
+                        }
+                        sink.write(data, 0, bytes);
+                        received[0] += bytes;
+                        return 0;
+                    } catch (IOException e) {
+                        writeError[0] = e;
+                        return -1;
+                    }
+                });
+                storageExecutor.recordBytes(StorageOperation.DOWNLOAD, received[0]);
+                return errno;
+            });
+            if (writeError[0] != null) {
+                throw writeError[0];
+            }
+            if (result != 0) {
+                throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+            }
+            if (os != zos) {
+                os.close();
+            }
+        } catch (MyException e) {
+            e.printStackTrace();
+            throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+        }
+    }
+
+    /**
+     * 提交预取任务：读取原始文件名、大小，小文件同时读取内容
+     */
+    private Future<ZipSource> prefetch(final String filepath) {
+        // 同一个 Storage 连接上依次读取描述信息、文件信息和内容
+        return PREFETCH_EXECUTOR.submit(() -> storageExecutor.execute(StorageOperation.DOWNLOAD, filepath, storageClient -> {
+            ZipSource source = new ZipSource(filepath);
+
+            long uncompressedSize = -1;
+            NameValuePair[] nvps = storageClient.get_metadata1(filepath);
+            if (nvps != null) {
+                for (NameValuePair nvp : nvps) {
+                    if (FastDFSClient.FILENAME.equals(nvp.getName())) {
+                        source.filename = nvp.getValue();
+                    } else if (TransparentCompressor.COMPRESSION.equals(nvp.getName())) {
+                        source.codec = CompressionCodecs.get(nvp.getValue());
+                    } else if (TransparentCompressor.UNCOMPRESSED_SIZE.equals(nvp.getName())) {
+                        uncompressedSize = NumberUtils.toLong(nvp.getValue(), -1);
+                    }
+                }
+            }
+            if (StringUtils.isBlank(source.filename)) {
+                source.filename = filepath.substring(filepath.lastIndexOf(FastDFSClient.SEPARATOR) + 1);
+            }
+
+            FileInfo fileInfo = storageClient.get_file_info1(filepath);
+            if (fileInfo == null) {
+                throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+            }
+            long size = source.codec != null && uncompressedSize >= 0 ? uncompressedSize : fileInfo.getFileSize();
+            if (size <= prefetchMaxSize) {
+                source.content = storageClient.download_file1(filepath);
+                if (source.content == null) {
+                    throw new FastDFSException(ErrorCode.FILE_NOT_EXIST.CODE, ErrorCode.FILE_NOT_EXIST.MESSAGE);
+                }
+                storageExecutor.recordBytes(StorageOperation.DOWNLOAD, source.content.length);
+                if (source.codec != null) {
+                    source.content = decompress(source.codec, source.content, size);
+                }
+            }
+            return source;
+        }));
+    }
+
+    /**
+     * 在内存中解压预取的文件
+     */
+    private static byte[] decompress(CompressionCodec codec, byte[] content, long size) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream((int) Math.max(size, content.length));
+        OutputStream os = codec.decompress(bos);
+        try {
+            os.write(content);
+        } finally {
+            os.close();
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * 等待预取结果
+     */
+    private ZipSource await(Future<ZipSource> future) throws FastDFSException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof FastDFSException) {
+                throw (FastDFSException) e.getCause();
+            }
+            logger.error("prefetch zip entry failed", e.getCause());
+            throw new FastDFSException(ErrorCode.FILE_DOWNLOAD_FAILED.CODE, ErrorCode.FILE_DOWNLOAD_FAILED.MESSAGE);
+        }
+    }
+
+    /**
+     * 同名文件加上序号，避免 ZIP 条目重复. 原始文件名由上传方提供，只保留最后一段，
+     * 去掉路径分隔符和 . 、.. ，避免解压时写到目标目录之外(zip-slip)
+     *
+     * @param filename 原始文件名
+     * @param filepath 文件ID，原始文件名去掉路径后为空时使用文件ID中的文件名
+     */
+    private static String uniqueName(String filename, String filepath, Set<String> entryNames) {
+        filename = entryName(filename);
+        if (filename == null) {
+            filename = entryName(filepath);
+        }
+        String name = filename;
+        int index = 1;
+        while (!entryNames.add(name)) {
+            int point = filename.lastIndexOf(FastDFSClient.POINT);
+            if (point > 0) {
+                name = filename.substring(0, point) + " (" + index + ")" + filename.substring(point);
+            } else {
+                name = filename + " (" + index + ")";
+            }
+            index++;
+        }
+        return name;
+    }
+
+    /**
+     * @return 路径的最后一段，没有有效的文件名时返回 null
+     */
+    private static String entryName(String path) {
+        if (path == null) {
+            return null;
+        }
+        String name = path.substring(Math.max(path.lastIndexOf('/'), path.lastIndexOf('\\')) + 1).trim();
+        return name.isEmpty() || ".".equals(name) || "..".equals(name) ? null : name;
+    }
+
+    public int getPrefetchCount() {
+        return prefetchCount;
+    }
+
+    public void setPrefetchCount(int prefetchCount) {
+        this.prefetchCount = prefetchCount;
+    }
+
+    public long getPrefetchMaxSize() {
+        return prefetchMaxSize;
+    }
+
+    public void setPrefetchMaxSize(long prefetchMaxSize) {
+        this.prefetchMaxSize = prefetchMaxSize;
+    }
+
+    /**
+     * 预取到的条目
+     */
+    private static class ZipSource {
+        private final String filepath;
+        private String filename;
+        private byte[] content;
+        private CompressionCodec codec;
+
+        ZipSource(String filepath) {
+            this.filepath = filepath;
+        }
+    }
+
+    /**
+     * 预取线程使用守护线程，不阻止容器关闭
+     */
+    private static class PrefetchThreadFactory implements ThreadFactory {
+        private final AtomicInteger index = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "fastdfs-zip-prefetch-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
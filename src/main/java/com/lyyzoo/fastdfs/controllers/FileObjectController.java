@@ -1,17 +1,39 @@
 package com.lyyzoo.fastdfs.controllers;
 
 import com.lyyzoo.fastdfs.client.*;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
+import org.apache.commons.fileupload.FileUploadException;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
 import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.ExceptionHandler;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.multipart.MaxUploadSizeExceededException;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * 文件接口
@@ -24,7 +46,12 @@ import java.util.Locale;
  */
 @Controller
 @RequestMapping("/fastdfs")
-public class FileObjectController {
+public class FileObjectController implements InitializingBean {
+
+    /**
+     * 配置文件路径，多集群的配置按前缀读取
+     */
+    private static final String CONFIG_PATH = "config.properties";
 
     private FastDFSClient fastDFSClient = new FastDFSClient();
 
@@ -40,6 +67,555 @@ public class FileObjectController {
     @Value("${fastdfs.http_secret_key}")
     private String fastDFSHttpSecretKey;
 
+    /**
+     * 是否启用上传图片优化
+     */
+    @Value("${image.optimize.enabled:false}")
+    private boolean imageOptimizeEnabled;
+
+    /**
+     * 上传图片优化后的 JPEG 质量
+     */
+    @Value("${image.optimize.quality:85}")
+    private int imageOptimizeQuality;
+
+    /**
+     * 上传图片优化后的最大宽度
+     */
+    @Value("${image.optimize.max_width:2048}")
+    private int imageOptimizeMaxWidth;
+
+    /**
+     * 上传图片优化后的最大高度
+     */
+    @Value("${image.optimize.max_height:2048}")
+    private int imageOptimizeMaxHeight;
+
+    /**
+     * 缩略图允许的宽高
+     */
+    @Value("${image.thumbnail.sizes:64,128,256,512,1024}")
+    private String thumbnailSizes;
+
+    /**
+     * 缩略图允许的质量
+     */
+    @Value("${image.thumbnail.qualities:60,80,90}")
+    private String thumbnailQualities;
+
+    /**
+     * 解码图片的最大像素数
+     */
+    @Value("${image.max_pixels:40000000}")
+    private long imageMaxPixels;
+
+    /**
+     * 是否启用透明压缩
+     */
+    @Value("${compress.enabled:false}")
+    private boolean compressEnabled;
+
+    /**
+     * 透明压缩使用的编解码器
+     */
+    @Value("${compress.codec:gzip}")
+    private String compressCodec;
+
+    /**
+     * 是否启用自适应并发限制
+     */
+    @Value("${limiter.enabled:true}")
+    private boolean limiterEnabled;
+
+    /**
+     * 初始并发上限
+     */
+    @Value("${limiter.initial_limit:20}")
+    private int limiterInitialLimit;
+
+    /**
+     * 最小并发上限
+     */
+    @Value("${limiter.min_limit:4}")
+    private int limiterMinLimit;
+
+    /**
+     * 最大并发上限
+     */
+    @Value("${limiter.max_limit:200}")
+    private int limiterMaxLimit;
+
+    /**
+     * 超过并发上限时 Retry-After 响应头的秒数
+     */
+    @Value("${limiter.retry_after_seconds:1}")
+    private int retryAfterSeconds;
+
+    /**
+     * 是否启用 Storage 节点熔断
+     */
+    @Value("${breaker.enabled:true}")
+    private boolean breakerEnabled;
+
+    /**
+     * 熔断统计窗口的调用次数
+     */
+    @Value("${breaker.window_size:20}")
+    private int breakerWindowSize;
+
+    /**
+     * 窗口内至少多少次调用才计算比率
+     */
+    @Value("${breaker.minimum_calls:10}")
+    private int breakerMinimumCalls;
+
+    /**
+     * 失败率阈值(百分比)
+     */
+    @Value("${breaker.failure_rate_threshold:50}")
+    private int breakerFailureRateThreshold;
+
+    /**
+     * 慢调用率阈值(百分比)
+     */
+    @Value("${breaker.slow_call_rate_threshold:80}")
+    private int breakerSlowCallRateThreshold;
+
+    /**
+     * 慢调用耗时(毫秒)
+     */
+    @Value("${breaker.slow_call_duration_millis:5000}")
+    private long breakerSlowCallDurationMillis;
+
+    /**
+     * 连续失败次数
+     */
+    @Value("${breaker.consecutive_failures:5}")
+    private int breakerConsecutiveFailures;
+
+    /**
+     * 摘除时长(毫秒)
+     */
+    @Value("${breaker.open_duration_millis:10000}")
+    private long breakerOpenDurationMillis;
+
+    /**
+     * 是否启用对冲读
+     */
+    @Value("${hedge.enabled:false}")
+    private boolean hedgeEnabled;
+
+    /**
+     * 对冲延迟取首字节耗时的分位数
+     */
+    @Value("${hedge.percentile:95}")
+    private double hedgePercentile;
+
+    /**
+     * 最小对冲延迟(毫秒)
+     */
+    @Value("${hedge.min_delay_millis:5}")
+    private long hedgeMinDelayMillis;
+
+    /**
+     * 最大对冲延迟(毫秒)
+     */
+    @Value("${hedge.max_delay_millis:500}")
+    private long hedgeMaxDelayMillis;
+
+    /**
+     * 对冲数占读请求数的百分比上限
+     */
+    @Value("${hedge.budget_percent:5}")
+    private double hedgeBudgetPercent;
+
+    /**
+     * 刚上传的文件是否优先从源 Storage 读取
+     */
+    @Value("${read_your_writes.enabled:true}")
+    private boolean readYourWritesEnabled;
+
+    /**
+     * 副本同步窗口(秒)
+     */
+    @Value("${read_your_writes.sync_window_seconds:60}")
+    private long readYourWritesSyncWindowSeconds;
+
+    /**
+     * 同步窗口内的文件不存在时的最大重试次数
+     */
+    @Value("${read_your_writes.max_retries:3}")
+    private int readYourWritesMaxRetries;
+
+    /**
+     * 第一次重试的等待时间(毫秒)
+     */
+    @Value("${read_your_writes.retry_base_millis:50}")
+    private long readYourWritesRetryBaseMillis;
+
+    /**
+     * 单个文件的最大大小(MB)
+     */
+    @Value("${upload.max_file_mb:100}")
+    private long uploadMaxFileMB;
+
+    /**
+     * 超过该大小(MB)的文件流式上传和下载
+     */
+    @Value("${upload.stream_threshold_mb:16}")
+    private int uploadStreamThresholdMB;
+
+    /**
+     * 上传组选择策略
+     */
+    @Value("${upload.group_policy:tracker}")
+    private String uploadGroupPolicy;
+
+    /**
+     * 组状态刷新间隔(秒)
+     */
+    @Value("${upload.group_refresh_seconds:30}")
+    private long uploadGroupRefreshSeconds;
+
+    /**
+     * free_space 策略保留的空间(MB)
+     */
+    @Value("${upload.group_reserved_mb:1024}")
+    private long uploadGroupReservedMB;
+
+    /**
+     * affinity 策略的规则
+     */
+    @Value("${upload.group_affinity:}")
+    private String uploadGroupAffinity;
+
+    /**
+     * affinity 策略没有匹配时使用的策略
+     */
+    @Value("${upload.group_affinity_fallback:tracker}")
+    private String uploadGroupAffinityFallback;
+
+    /**
+     * 上传暂存区模式：off、always、fallback
+     */
+    @Value("${spool.mode:off}")
+    private String spoolMode;
+
+    /**
+     * 暂存目录
+     */
+    @Value("${spool.dir:}")
+    private String spoolDir;
+
+    /**
+     * 段文件大小(MB)
+     */
+    @Value("${spool.segment_mb:64}")
+    private long spoolSegmentMB;
+
+    /**
+     * 暂存区未上传文件的总大小上限(MB)
+     */
+    @Value("${spool.max_mb:1024}")
+    private long spoolMaxMB;
+
+    /**
+     * fsync 前等待合并写入的时间(毫秒)
+     */
+    @Value("${spool.fsync_batch_millis:2}")
+    private long spoolFsyncBatchMillis;
+
+    /**
+     * 上传线程数
+     */
+    @Value("${spool.concurrency:4}")
+    private int spoolConcurrency;
+
+    /**
+     * 第一次重试的等待时间(毫秒)
+     */
+    @Value("${spool.retry_base_millis:1000}")
+    private long spoolRetryBaseMillis;
+
+    /**
+     * 最大重试等待时间(毫秒)
+     */
+    @Value("${spool.retry_max_millis:60000}")
+    private long spoolRetryMaxMillis;
+
+    /**
+     * 是否启用本地文件索引
+     */
+    @Value("${index.enabled:false}")
+    private boolean indexEnabled;
+
+    /**
+     * 索引目录
+     */
+    @Value("${index.dir:}")
+    private String indexDir;
+
+    /**
+     * 建倒排列表的描述信息
+     */
+    @Value("${index.tags:tenant,tag}")
+    private String indexTags;
+
+    /**
+     * 重建索引的并行数
+     */
+    @Value("${index.rebuild_parallelism:8}")
+    private int indexRebuildParallelism;
+
+    /**
+     * 是否启用过期文件清理
+     */
+    @Value("${expiry.enabled:false}")
+    private boolean expiryEnabled;
+
+    /**
+     * 过期索引目录
+     */
+    @Value("${expiry.dir:}")
+    private String expiryDir;
+
+    /**
+     * 每秒最多删除的文件数
+     */
+    @Value("${expiry.deletes_per_second:20}")
+    private int expiryDeletesPerSecond;
+
+    /**
+     * 允许删除的时段，如 01:00-06:00，为空时不限制
+     */
+    @Value("${expiry.window:}")
+    private String expiryWindow;
+
+    /**
+     * 删除失败的最大尝试次数
+     */
+    @Value("${expiry.max_attempts:5}")
+    private int expiryMaxAttempts;
+
+    /**
+     * 只清理上传超过该时长(小时)的孤儿文件
+     */
+    @Value("${expiry.orphan_min_age_hours:24}")
+    private long expiryOrphanMinAgeHours;
+
+    /**
+     * 孤儿文件占索引文件数的最大比例，超过时不删除
+     */
+    @Value("${expiry.orphan_max_ratio:0.2}")
+    private double expiryOrphanMaxRatio;
+
+    /**
+     * 是否启用按租户限流
+     */
+    @Value("${throttle.enabled:false}")
+    private boolean throttleEnabled;
+
+    /**
+     * 总带宽(KB/秒)，按权重分配给正在传输的租户，0 表示不限制
+     */
+    @Value("${throttle.total_kb_per_second:0}")
+    private long throttleTotalKbPerSecond;
+
+    /**
+     * 令牌桶可以突发的秒数
+     */
+    @Value("${throttle.burst_seconds:1}")
+    private double throttleBurstSeconds;
+
+    /**
+     * 每个租户的带宽(KB/秒)，0 表示不限制
+     */
+    @Value("${throttle.tenant_kb_per_second:0}")
+    private long throttleTenantKbPerSecond;
+
+    /**
+     * 每个租户的请求数/秒，0 表示不限制
+     */
+    @Value("${throttle.tenant_requests_per_second:0}")
+    private double throttleTenantRequestsPerSecond;
+
+    /**
+     * 单独配置的租户，如 acme:kb=20480,requests=100,weight=4;beta:weight=2
+     */
+    @Value("${throttle.tenants:}")
+    private String throttleTenants;
+
+    @Override
+    public void afterPropertiesSet(){
+        TransparentCompressor transparentCompressor = fastDFSClient.getTransparentCompressor();
+        transparentCompressor.setEnabled(compressEnabled);
+        transparentCompressor.setCodec(compressCodec);
+
+        ImageOptimizer imageOptimizer = fastDFSClient.getImageOptimizer();
+        imageOptimizer.setEnabled(imageOptimizeEnabled);
+        imageOptimizer.setQuality(imageOptimizeQuality);
+        imageOptimizer.setMaxWidth(imageOptimizeMaxWidth);
+        imageOptimizer.setMaxHeight(imageOptimizeMaxHeight);
+        imageOptimizer.setMaxPixels(imageMaxPixels);
+
+        ImageThumbnailer imageThumbnailer = fastDFSClient.getImageThumbnailer();
+        imageThumbnailer.setSizes(thumbnailSizes);
+        imageThumbnailer.setQualities(thumbnailQualities);
+        imageThumbnailer.setMaxPixels(imageMaxPixels);
+
+        ConcurrencyLimiter concurrencyLimiter = fastDFSClient.getConcurrencyLimiter();
+        concurrencyLimiter.setEnabled(limiterEnabled);
+        concurrencyLimiter.setMinLimit(limiterMinLimit);
+        concurrencyLimiter.setMaxLimit(limiterMaxLimit);
+        concurrencyLimiter.setInitialLimit(limiterInitialLimit);
+
+        CircuitBreakerRegistry breakers = CircuitBreakerRegistry.getInstance();
+        breakers.setEnabled(breakerEnabled);
+        breakers.setWindowSize(breakerWindowSize);
+        breakers.setMinimumCalls(breakerMinimumCalls);
+        breakers.setFailureRateThreshold(breakerFailureRateThreshold);
+        breakers.setSlowCallRateThreshold(breakerSlowCallRateThreshold);
+        breakers.setSlowCallDurationMillis(breakerSlowCallDurationMillis);
+        breakers.setConsecutiveFailures(breakerConsecutiveFailures);
+        breakers.setOpenDurationMillis(breakerOpenDurationMillis);
+
+        HedgedReader hedgedReader = fastDFSClient.getHedgedReader();
+        hedgedReader.setEnabled(hedgeEnabled);
+        hedgedReader.setPercentile(hedgePercentile);
+        hedgedReader.setMinDelayMillis(hedgeMinDelayMillis);
+        hedgedReader.setMaxDelayMillis(hedgeMaxDelayMillis);
+        hedgedReader.setBudgetPercent(hedgeBudgetPercent);
+
+        ReadYourWrites readYourWrites = fastDFSClient.getReadYourWrites();
+        readYourWrites.setEnabled(readYourWritesEnabled);
+        readYourWrites.setSyncWindowSeconds(readYourWritesSyncWindowSeconds);
+        readYourWrites.setMaxRetries(readYourWritesMaxRetries);
+        readYourWrites.setRetryBaseMillis(readYourWritesRetryBaseMillis);
+
+        fastDFSClient.setMaxFileSize(uploadMaxFileMB * 1024 * 1024);
+        fastDFSClient.setStreamThreshold(uploadStreamThresholdMB * 1024 * 1024);
+
+        FastDFSClusters clusters = fastDFSClient.getClusters();
+        clusters.setGroupRefreshSeconds(uploadGroupRefreshSeconds);
+        try {
+            clusters.configure(PropertiesLoaderUtils.loadAllProperties(CONFIG_PATH));
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        fastDFSClient.setGroupSelector(GroupSelectors.create(uploadGroupPolicy, uploadGroupReservedMB,
+                uploadGroupAffinity, uploadGroupAffinityFallback));
+
+        UploadSpool uploadSpool = fastDFSClient.getUploadSpool();
+        uploadSpool.setMode(UploadSpool.Mode.valueOf(spoolMode.trim().toUpperCase(Locale.ENGLISH)));
+        if (uploadSpool.getMode() != UploadSpool.Mode.OFF) {
+            if (spoolDir.trim().isEmpty()) {
+                throw new IllegalStateException("spool.dir is required when spool.mode is " + spoolMode);
+            }
+            uploadSpool.setDirectory(new File(spoolDir.trim()));
+            uploadSpool.setSegmentBytes(spoolSegmentMB * 1024 * 1024);
+            uploadSpool.setMaxBytes(spoolMaxMB * 1024 * 1024);
+            uploadSpool.setFsyncBatchMillis(spoolFsyncBatchMillis);
+            uploadSpool.setConcurrency(spoolConcurrency);
+            uploadSpool.setRetryBaseMillis(spoolRetryBaseMillis);
+            uploadSpool.setRetryMaxMillis(spoolRetryMaxMillis);
+            try {
+                uploadSpool.start();
+            } catch (IOException e) {
+                // 暂存区不可用时直接上传
+                e.printStackTrace();
+                uploadSpool.setMode(UploadSpool.Mode.OFF);
+            }
+        }
+
+        if (indexEnabled) {
+            FileIndex fileIndex = fastDFSClient.getFileIndex();
+            if (indexDir.trim().isEmpty()) {
+                throw new IllegalStateException("index.dir is required when index.enabled is true");
+            }
+            fileIndex.setDirectory(new File(indexDir.trim()));
+            fileIndex.setIndexedTags(indexTags);
+            try {
+                fileIndex.start();
+            } catch (IOException e) {
+                // 索引不可用时只影响列表查询
+                e.printStackTrace();
+            }
+        }
+
+        BandwidthThrottle throttle = BandwidthThrottle.getInstance();
+        throttle.setTotalBytesPerSecond(throttleTotalKbPerSecond * 1024);
+        throttle.setBurstSeconds(throttleBurstSeconds);
+        throttle.setDefaultPolicy(new BandwidthThrottle.Policy(throttleTenantKbPerSecond * 1024, throttleTenantRequestsPerSecond, 1));
+        throttle.setPolicies(throttleTenants);
+        throttle.setEnabled(throttleEnabled);
+
+        if (expiryEnabled) {
+            ExpirySweeper expirySweeper = fastDFSClient.getExpirySweeper();
+            if (expiryDir.trim().isEmpty()) {
+                throw new IllegalStateException("expiry.dir is required when expiry.enabled is true");
+            }
+            expirySweeper.setDirectory(new File(expiryDir.trim()));
+            expirySweeper.setDeletesPerSecond(expiryDeletesPerSecond);
+            expirySweeper.setWindow(expiryWindow);
+            expirySweeper.setMaxAttempts(expiryMaxAttempts);
+            try {
+                expirySweeper.start();
+            } catch (IOException e) {
+                // 过期清理不可用时文件不会自动删除
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * 下载等接口抛出的异常. 文件服务器繁忙时返回 503 和 Retry-After，客户端稍后重试；其它返回 500.
+     *
+     * @param e FastDFSException
+     * @param response
+     * @return 错误信息
+     */
+    @ExceptionHandler(FastDFSException.class)
+    @ResponseBody
+    public FileResponseData handleFastDFSException(FastDFSException e, HttpServletResponse response) {
+        FastDFSMetrics.getInstance().recordError(e.getCode(), e.getMessage());
+        FileResponseData responseData = new FileResponseData(false);
+        responseData.setCode(e.getCode());
+        responseData.setMessage(e.getMessage());
+        if (!setServiceUnavailable(e, response)) {
+            response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+        }
+        return responseData;
+    }
+
+    /**
+     * 上传的文件或请求超过 upload.max_file_mb，返回 413
+     *
+     * @param e MaxUploadSizeExceededException
+     * @param response
+     * @return 错误信息
+     */
+    @ExceptionHandler(MaxUploadSizeExceededException.class)
+    @ResponseBody
+    public FileResponseData handleMaxUploadSizeExceeded(MaxUploadSizeExceededException e, HttpServletResponse response) {
+        FileResponseData responseData = error(new FastDFSException(ErrorCode.FILE_OUT_SIZE.CODE, ErrorCode.FILE_OUT_SIZE.MESSAGE), null);
+        response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+        return responseData;
+    }
+
+    /**
+     * 文件服务器繁忙时设置 503 和 Retry-After
+     *
+     * @return 是否繁忙
+     */
+    private boolean setServiceUnavailable(FastDFSException e, HttpServletResponse response) {
+        if (response == null || !ErrorCode.FILE_SERVER_OVERLOADED.CODE.equals(e.getCode())) {
+            return false;
+        }
+        response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+        response.setHeader("Retry-After", String.valueOf(retryAfterSeconds));
+        return true;
+    }
+
     @RequestMapping("/test")
     @ResponseBody
     public FileResponseData test(){
@@ -50,13 +626,15 @@ public class FileObjectController {
      * 上传文件通用，只上传文件到服务器，不会保存记录到数据库
      *
      * @param file
+     * @param ttl 存活时间(秒)，到期后自动删除，0 表示不过期
      * @param request
      * @return 返回文件路径等信息
      */
     @RequestMapping(value = "/upload/file/sample")
     @ResponseBody
-    public FileResponseData uploadFileSample(MultipartFile file, HttpServletRequest request){
-        return uploadSample(file, request);
+    public FileResponseData uploadFileSample(MultipartFile file, @RequestParam(defaultValue = "0") long ttl,
+                                             HttpServletRequest request, HttpServletResponse response){
+        return uploadSample(file, false, ttl, response);
     }
 
     /**
@@ -64,21 +642,20 @@ public class FileObjectController {
      * 会检查文件格式是否正确，默认只能上传 ['png', 'gif', 'jpeg', 'jpg'] 几种类型.
      *
      * @param file
+     * @param ttl 存活时间(秒)，到期后自动删除，0 表示不过期
      * @param request
      * @return 返回文件路径等信息
      */
     @RequestMapping("/upload/image/sample")
     @ResponseBody
-    public FileResponseData uploadImageSample(@RequestParam MultipartFile file, HttpServletRequest request){
+    public FileResponseData uploadImageSample(@RequestParam MultipartFile file, @RequestParam(defaultValue = "0") long ttl,
+                                              HttpServletRequest request, HttpServletResponse response){
         // 检查文件类型
         if(!FileCheck.checkImage(file.getOriginalFilename())){
-            FileResponseData responseData = new FileResponseData(false);
-            responseData.setCode(ErrorCode.FILE_TYPE_ERROR_IMAGE.CODE);
-            responseData.setMessage(ErrorCode.FILE_TYPE_ERROR_IMAGE.MESSAGE);
-            return responseData;
+            return error(ErrorCode.FILE_TYPE_ERROR_IMAGE);
         }
 
-        return uploadSample(file, request);
+        return uploadSample(file, true, ttl, response);
     }
 
     /**
@@ -86,21 +663,245 @@ public class FileObjectController {
      * 会检查文件格式是否正确，默认只能上传 ['pdf', 'ppt', 'xls', 'xlsx', 'pptx', 'doc', 'docx'] 几种类型.
      *
      * @param file
+     * @param ttl 存活时间(秒)，到期后自动删除，0 表示不过期
      * @param request
      * @return 返回文件路径等信息
      */
     @RequestMapping("/upload/doc/sample")
     @ResponseBody
-    public FileResponseData uploadDocSample(@RequestParam MultipartFile file, HttpServletRequest request){
+    public FileResponseData uploadDocSample(@RequestParam MultipartFile file, @RequestParam(defaultValue = "0") long ttl,
+                                            HttpServletRequest request, HttpServletResponse response){
         // 检查文件类型
         if(!FileCheck.checkDoc(file.getOriginalFilename())){
-            FileResponseData responseData = new FileResponseData(false);
-            responseData.setCode(ErrorCode.FILE_TYPE_ERROR_DOC.CODE);
-            responseData.setMessage(ErrorCode.FILE_TYPE_ERROR_DOC.MESSAGE);
-            return responseData;
+            return error(ErrorCode.FILE_TYPE_ERROR_DOC);
         }
 
-        return uploadSample(file, request);
+        return uploadSample(file, false, ttl, response);
+    }
+
+    /**
+     * 流式上传，边解析请求体边上传到文件服务器，文件内容不经过临时文件，大文件不缓存在内存中. <br>
+     * 支持一次上传多个文件，文件之前的普通表单字段作为其后文件的描述信息. 文件类型在读取文件内容之前按文件名检查，
+     * 文件内容与后缀是否一致、大小是否超过上限在上传过程中检查. 图片不做上传优化.
+     *
+     * @param type 文件类型：file(默认，不限制)、image、doc、video、compress，通过 URL 参数传递
+     * @param ttl 存活时间(秒)，到期后自动删除，0 表示不过期，通过 URL 参数传递
+     * @param request
+     * @param response
+     * @return 每个文件的上传结果
+     */
+    @RequestMapping(value = "/upload/stream", method = RequestMethod.POST)
+    @ResponseBody
+    public List<FileResponseData> uploadStream(String type, @RequestParam(defaultValue = "0") long ttl,
+                                               HttpServletRequest request, HttpServletResponse response) {
+        List<FileResponseData> responseDatas = new ArrayList<>();
+        if (!ServletFileUpload.isMultipartContent(request)) {
+            responseDatas.add(error(ErrorCode.FILE_ISNULL));
+            return responseDatas;
+        }
+        Map<String, String> descriptions = new HashMap<>();
+        try {
+            ServletFileUpload upload = new ServletFileUpload();
+            upload.setHeaderEncoding("UTF-8");
+            FileItemIterator items = upload.getItemIterator(request);
+            while (items.hasNext()) {
+                FileItemStream item = items.next();
+                if (item.isFormField()) {
+                    descriptions.put(item.getFieldName(), Streams.asString(item.openStream(), "UTF-8"));
+                } else if (StringUtils.isNotBlank(item.getName())) {
+                    responseDatas.add(uploadStream(item, type, new HashMap<>(descriptions), ttl, response));
+                }
+            }
+        } catch (FileUploadException | IOException e) {
+            // 请求体格式错误或客户端断开
+            e.printStackTrace();
+            responseDatas.add(error(ErrorCode.FILE_UPLOAD_FAILED));
+        }
+        if (responseDatas.isEmpty()) {
+            responseDatas.add(error(ErrorCode.FILE_ISNULL));
+        }
+        return responseDatas;
+    }
+
+    /**
+     * 上传一个文件. 类型不符时不读取文件内容，由 FileItemIterator 跳过
+     */
+    private FileResponseData uploadStream(FileItemStream item, String type, Map<String, String> descriptions, long ttl,
+                                          HttpServletResponse response) throws IOException {
+        // 部分浏览器的文件名带有客户端路径
+        String filename = item.getName();
+        filename = filename.substring(Math.max(filename.lastIndexOf('/'), filename.lastIndexOf('\\')) + 1);
+        ErrorCode typeError = checkType(type, filename);
+        if (typeError != null) {
+            return error(typeError);
+        }
+        // 文件的 Content-Length 通常没有，有时按已知大小直接发送
+        String length = item.getHeaders() == null ? null : item.getHeaders().getHeader("Content-Length");
+        long size = StringUtils.isNumeric(length) ? Long.parseLong(length) : -1;
+
+        FileResponseData responseData = new FileResponseData();
+        try {
+            String filepath = fastDFSClient.upload(item.openStream(), size, filename, descriptions, ttl);
+            setFile(responseData, filename, filepath);
+        } catch (FastDFSException e) {
+            return error(e, response);
+        }
+        return responseData;
+    }
+
+    /**
+     * 按文件名检查文件类型
+     *
+     * @return 类型不符时的错误，符合时返回 null
+     */
+    private static ErrorCode checkType(String type, String filename) {
+        if (StringUtils.isBlank(type) || "file".equals(type)) {
+            return null;
+        }
+        switch (type) {
+            case "image":
+                return FileCheck.checkImage(filename) ? null : ErrorCode.FILE_TYPE_ERROR_IMAGE;
+            case "doc":
+                return FileCheck.checkDoc(filename) ? null : ErrorCode.FILE_TYPE_ERROR_DOC;
+            case "video":
+                return FileCheck.checkVideo(filename) ? null : ErrorCode.FILE_TYPE_ERROR_VIDEO;
+            case "compress":
+                return FileCheck.checkCompress(filename) ? null : ErrorCode.FILE_TYPE_ERROR_COMPRESS;
+            default:
+                return ErrorCode.FILE_TYPE_ERROR_CONTENT;
+        }
+    }
+
+    /**
+     * 返回给调用方的错误，按错误码计数
+     */
+    private static FileResponseData error(ErrorCode errorCode) {
+        FastDFSMetrics.getInstance().recordError(errorCode.CODE, errorCode.MESSAGE);
+        FileResponseData responseData = new FileResponseData(false);
+        responseData.setCode(errorCode.CODE);
+        responseData.setMessage(errorCode.MESSAGE);
+        return responseData;
+    }
+
+    /**
+     * 上传可修改的 appender 文件. 日志、导出、自动保存等不断变化的文件之后通过追加、修改、截断接口只传输变化的部分，
+     * 不需要每次重新上传整个文件再删除旧文件.
+     *
+     * @param file 文件，为空时按 filename 创建空文件
+     * @param filename 创建空文件时的文件名
+     * @param ttl 存活时间(秒)，到期后自动删除，0 表示不过期
+     * @return 返回文件路径等信息
+     */
+    @RequestMapping(value = "/upload/appender", method = RequestMethod.POST)
+    @ResponseBody
+    public FileResponseData uploadAppender(MultipartFile file, String filename, @RequestParam(defaultValue = "0") long ttl,
+                                           HttpServletResponse response) {
+        FileResponseData responseData = new FileResponseData();
+        try {
+            String name = file == null ? filename : file.getOriginalFilename();
+            String filepath = file == null ? fastDFSClient.uploadAppenderFile(null, 0, name, null, ttl)
+                    : fastDFSClient.uploadAppenderFile(file.getInputStream(), file.getSize(), name, null, ttl);
+            setFile(responseData, name, filepath);
+        } catch (FastDFSException e) {
+            return error(e, response);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return error(ErrorCode.FILE_UPLOAD_FAILED);
+        }
+        return responseData;
+    }
+
+    /**
+     * 追加内容到 appender 文件末尾
+     *
+     * @param filePath appender 文件路径
+     * @param file 追加的内容，为空时为整个请求体
+     */
+    @RequestMapping(value = "/append/file", method = {RequestMethod.POST, RequestMethod.PUT})
+    @ResponseBody
+    public FileResponseData appendFile(String filePath, MultipartFile file, HttpServletRequest request, HttpServletResponse response) {
+        FileResponseData responseData = new FileResponseData();
+        responseData.setFilePath(filePath);
+        try {
+            fastDFSClient.appendFile(filePath, openContent(file, request), getContentLength(file, request));
+        } catch (FastDFSException e) {
+            return error(e, response);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return error(ErrorCode.FILE_UPDATE_FAILED);
+        }
+        return responseData;
+    }
+
+    /**
+     * 从指定偏移开始覆盖 appender 文件的内容
+     *
+     * @param filePath appender 文件路径
+     * @param offset 偏移，不能超过文件大小
+     * @param file 新的内容，为空时为整个请求体
+     */
+    @RequestMapping(value = "/modify/file", method = {RequestMethod.POST, RequestMethod.PUT})
+    @ResponseBody
+    public FileResponseData modifyFile(String filePath, @RequestParam long offset, MultipartFile file,
+                                       HttpServletRequest request, HttpServletResponse response) {
+        FileResponseData responseData = new FileResponseData();
+        responseData.setFilePath(filePath);
+        try {
+            fastDFSClient.modifyFile(filePath, offset, openContent(file, request), getContentLength(file, request));
+        } catch (FastDFSException e) {
+            return error(e, response);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return error(ErrorCode.FILE_UPDATE_FAILED);
+        }
+        return responseData;
+    }
+
+    /**
+     * 截断 appender 文件
+     *
+     * @param filePath appender 文件路径
+     * @param size 截断后的大小，默认清空
+     */
+    @RequestMapping(value = "/truncate/file", method = RequestMethod.POST)
+    @ResponseBody
+    public FileResponseData truncateFile(String filePath, @RequestParam(defaultValue = "0") long size, HttpServletResponse response) {
+        FileResponseData responseData = new FileResponseData();
+        responseData.setFilePath(filePath);
+        try {
+            fastDFSClient.truncateFile(filePath, size);
+        } catch (FastDFSException e) {
+            return error(e, response);
+        }
+        return responseData;
+    }
+
+    /**
+     * 修改的内容：multipart 请求中的文件，不是 multipart 请求时为整个请求体
+     *
+     * @return 输入流，multipart 请求中没有文件时返回 null
+     */
+    private static InputStream openContent(MultipartFile file, HttpServletRequest request) throws IOException {
+        if (file != null) {
+            return file.getInputStream();
+        }
+        return ServletFileUpload.isMultipartContent(request) ? null : request.getInputStream();
+    }
+
+    private static long getContentLength(MultipartFile file, HttpServletRequest request) {
+        return file != null ? file.getSize() : request.getContentLengthLong();
+    }
+
+    /**
+     * 返回给调用方的错误，按错误码计数. 文件服务器繁忙时设置 503，response 可为空
+     */
+    private FileResponseData error(FastDFSException e, HttpServletResponse response) {
+        FastDFSMetrics.getInstance().recordError(e.getCode(), e.getMessage());
+        FileResponseData responseData = new FileResponseData(false);
+        responseData.setCode(e.getCode());
+        responseData.setMessage(e.getMessage());
+        setServiceUnavailable(e, response);
+        return responseData;
     }
 
     /**
@@ -110,9 +911,26 @@ public class FileObjectController {
      * @param response
      */
     @RequestMapping("/download/file")
-    public void downloadFile(String filePath, HttpServletResponse response) throws FastDFSException {
+    public void downloadFile(String filePath, HttpServletRequest request, HttpServletResponse response) throws FastDFSException {
+        try {
+            fastDFSClient.downloadFile(filePath, request, response);
+        } catch (FastDFSException e) {
+            e.printStackTrace();
+            throw e;
+        }
+    }
+
+    /**
+     * 将多个文件打包成 ZIP 下载. 启用防盗链时按 filePaths 的顺序传入每个文件的 token 和同一个 ts(见 /get/tokens)
+     *
+     * @param filePaths 文件地址，多个用逗号分隔或重复传参
+     * @param filename 压缩包名称，默认 download.zip
+     * @param response
+     */
+    @RequestMapping("/download/zip")
+    public void downloadZip(@RequestParam List<String> filePaths, String filename, HttpServletResponse response) throws FastDFSException {
         try {
-            fastDFSClient.downloadFile(filePath, response);
+            fastDFSClient.downloadZip(filePaths, filename, response);
         } catch (FastDFSException e) {
             e.printStackTrace();
             throw e;
@@ -121,14 +939,26 @@ public class FileObjectController {
 
     /**
      * 获取图片 使用输出流输出字节码，可以使用< img>标签显示图片<br>
+     * 指定宽或高时返回等比缩放后的缩略图，缩略图第一次访问时生成，之后直接读取.
      *
      * @param filePath 图片地址
+     * @param width 缩略图最大宽度，只能取 image.thumbnail.sizes 中的值
+     * @param height 缩略图最大高度，只能取 image.thumbnail.sizes 中的值
+     * @param quality 缩略图质量，只能取 image.thumbnail.qualities 中的值
      * @param response
      */
     @RequestMapping("/download/image")
-    public void downloadImage(String filePath, HttpServletResponse response) throws FastDFSException {
+    public void downloadImage(String filePath,
+                              @RequestParam(defaultValue = "0") int width,
+                              @RequestParam(defaultValue = "0") int height,
+                              @RequestParam(defaultValue = "0") int quality,
+                              HttpServletResponse response) throws FastDFSException {
         try {
-            fastDFSClient.downloadFile(filePath, response.getOutputStream());
+            if (width > 0 || height > 0) {
+                fastDFSClient.downloadThumbnail(filePath, width, height, quality, response);
+            } else {
+                fastDFSClient.downloadFile(filePath, response.getOutputStream());
+            }
         } catch (FastDFSException e) {
             e.printStackTrace();
             throw e;
@@ -149,31 +979,298 @@ public class FileObjectController {
             fastDFSClient.deleteFile(filePath);
         } catch (FastDFSException e) {
             e.printStackTrace();
-            responseData.setSuccess(false);
-            responseData.setCode(e.getCode());
-            responseData.setMessage(e.getMessage());
+            return error(e, null);
         }
         return responseData;
     }
 
     /**
-     * 获取访问文件的token
+     * 获取访问文件的token. 透明压缩存储的文件没有 httpUrl，带 token 通过下载接口访问
      *
      * @param filePath 文件路径
      * @return
      */
     @RequestMapping("/get/token")
     @ResponseBody
-    public FileResponseData getToken(String filePath){
+    public FileResponseData getToken(String filePath, HttpServletResponse response){
         FileResponseData responseData = new FileResponseData();
         // 设置访文件的Http地址. 有时效性.
         String token = FastDFSClient.getToken(filePath, fastDFSHttpSecretKey);
         responseData.setToken(token);
-        responseData.setHttpUrl(fileServerAddr+"/"+filePath+"?"+token);
+        try {
+            responseData.setHttpUrl(getHttpUrl(filePath, token));
+        } catch (FastDFSException e) {
+            return error(e, response);
+        }
 
         return responseData;
     }
 
+    /**
+     * 批量获取访问文件的token和地址，使用同一个时间戳. 有时效性. 只在本地签名，不访问文件服务器：
+     * 可能透明压缩存储的文件(见 {@link FastDFSClient#mayBeCompressed(String)})没有 httpUrl，带 token 通过下载接口访问
+     *
+     * @param filePaths 文件路径
+     * @return 每个文件的路径、token 和访问地址，顺序与 filePaths 一致
+     */
+    @RequestMapping("/get/tokens")
+    @ResponseBody
+    public List<FileResponseData> getTokens(@RequestParam List<String> filePaths) {
+        Map<String, String> tokens = FastDFSClient.getTokens(filePaths, fastDFSHttpSecretKey);
+        List<FileResponseData> responseDatas = new ArrayList<>(tokens.size());
+        tokens.forEach((filePath, token) -> {
+            FileResponseData responseData = new FileResponseData();
+            responseData.setFilePath(filePath);
+            responseData.setToken(token);
+            if (!fastDFSClient.mayBeCompressed(filePath)) {
+                responseData.setHttpUrl(toHttpUrl(filePath, token));
+            }
+            responseDatas.add(responseData);
+        });
+        return responseDatas;
+    }
+
+    /**
+     * 查询暂存区临时文件ID的上传状态
+     *
+     * @param filePath 临时文件ID
+     * @return state: PENDING(等待上传)、UPLOADED、DELETED、FAILED，不存在时为空；fileId: 上传后的文件ID
+     */
+    @RequestMapping("/spool/status")
+    @ResponseBody
+    public Map<String, Object> getSpoolStatus(String filePath) {
+        UploadSpool uploadSpool = fastDFSClient.getUploadSpool();
+        UploadSpool.State state = uploadSpool.getState(filePath);
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("filePath", filePath);
+        status.put("state", state == null ? null : state.name());
+        status.put("fileId", uploadSpool.getFileId(filePath));
+        return status;
+    }
+
+    /**
+     * 确认已保存临时文件ID的上传结果，之后删除映射，临时文件ID不能再查询和访问. 映射不会过期，调用方需要确认
+     *
+     * @param filePath 临时文件ID
+     * @return acknowledged: 是否已确认，还在等待上传或不存在时为 false；fileId: 上传后的文件ID
+     */
+    @RequestMapping("/spool/ack")
+    @ResponseBody
+    public Map<String, Object> acknowledgeSpool(String filePath) {
+        UploadSpool uploadSpool = fastDFSClient.getUploadSpool();
+        String fileId = uploadSpool.getFileId(filePath);
+        Map<String, Object> status = new LinkedHashMap<>();
+        status.put("filePath", filePath);
+        status.put("acknowledged", uploadSpool.acknowledge(filePath));
+        status.put("fileId", fileId);
+        return status;
+    }
+
+    /**
+     * 从本地文件索引查询文件，不访问文件服务器. 需要启用 index.enabled
+     *
+     * @param tags 描述信息，name=value，多个时都要相等，如 tags=tenant=acme&amp;tags=tag=invoice. index.tags 中的描述信息查询最快
+     * @param from 上传时间不早于(毫秒)，0 表示不限制
+     * @param to 上传时间早于(毫秒)，0 表示不限制
+     * @param cursor 上一页返回的 next
+     * @param limit 每页数量，最多 1000
+     * @return items: 文件ID、上传时间、描述信息，按上传时间倒序；next: 下一页的 cursor，没有更多时为空
+     */
+    @RequestMapping("/list/files")
+    @ResponseBody
+    public FileIndex.Page listFiles(String prefix, @RequestParam(required = false) List<String> tags,
+                                    @RequestParam(defaultValue = "0") long from, @RequestParam(defaultValue = "0") long to,
+                                    String cursor, @RequestParam(defaultValue = "100") int limit) throws FastDFSException {
+        FileIndex.Query query = new FileIndex.Query();
+        query.setPrefix(prefix);
+        if (tags != null) {
+            for (String tag : tags) {
+                int index = tag.indexOf('=');
+                if (index <= 0) {
+                    throw new FastDFSException(ErrorCode.FILE_INDEX_QUERY_INVALID.CODE, ErrorCode.FILE_INDEX_QUERY_INVALID.MESSAGE);
+                }
+                query.addTag(tag.substring(0, index), tag.substring(index + 1));
+            }
+        }
+        query.setFrom(from);
+        query.setTo(to);
+        query.setCursor(cursor);
+        query.setLimit(limit);
+        return fastDFSClient.listFiles(query);
+    }
+
+    /**
+     * 修改文件描述信息，与已有的合并. 除 filePath、ttl 外的参数都作为描述信息，不能包含文件名、内容类型、
+     * 过期时间等服务端设置的名称
+     *
+     * @param filePath 文件路径
+     * @param ttl 重新设置存活时间(秒)，0 表示取消过期，不传时不修改
+     * @param params 描述信息
+     */
+    @RequestMapping(value = "/update/descriptions", method = RequestMethod.POST)
+    @ResponseBody
+    public FileResponseData updateDescriptions(String filePath, Long ttl, @RequestParam Map<String, String> params,
+                                               HttpServletResponse response) {
+        FileResponseData responseData = new FileResponseData();
+        responseData.setFilePath(filePath);
+        Map<String, String> descriptions = new LinkedHashMap<>(params);
+        descriptions.remove("filePath");
+        descriptions.remove("ttl");
+        try {
+            fastDFSClient.setFileDescriptions(filePath, descriptions);
+            if (ttl != null) {
+                fastDFSClient.setFileExpiry(filePath, ttl);
+            }
+        } catch (FastDFSException e) {
+            return error(e, response);
+        }
+        return responseData;
+    }
+
+    /**
+     * 从文件ID重建本地文件索引，并行查询每个文件的上传时间和描述信息. 管理接口，需要管理令牌，见 {@link com.lyyzoo.fastdfs.web.AdminFilter}
+     *
+     * @param file 文件ID列表，每行一个，为空时为整个请求体
+     * @return indexed: 写入索引的文件数，files: 索引中的文件数
+     */
+    @RequestMapping(value = "/index/rebuild", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> rebuildIndex(MultipartFile file, HttpServletRequest request) throws FastDFSException, IOException {
+        InputStream is = openContent(file, request);
+        if (is == null) {
+            throw new FastDFSException(ErrorCode.FILE_ISNULL.CODE, ErrorCode.FILE_ISNULL.MESSAGE);
+        }
+        Map<String, Object> result = new LinkedHashMap<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            result.put("indexed", fastDFSClient.rebuildIndex(reader.lines()::iterator, indexRebuildParallelism));
+        }
+        result.put("files", fastDFSClient.getFileIndex().size());
+        return result;
+    }
+
+    /**
+     * 找出没有被业务引用的孤儿文件，放入过期清理在低峰时段限速删除. 需要启用 index.enabled，删除时需要启用 expiry.enabled.
+     * 管理接口，需要管理令牌
+     *
+     * @param file 业务引用的文件ID列表，每行一个，为空时为整个请求体
+     * @param dryRun 只统计，不删除，默认为 true
+     * @param expected 预计的引用数，删除时必须给出，读到的引用数少于该值时不删除
+     * @return referenced: 引用数，unresolved: 无法解析的临时文件ID数，scanned: 索引的文件数，orphans: 孤儿文件数，
+     *         scheduled: 放入清理的文件数，aborted: 不删除的原因，samples: 部分孤儿文件ID
+     */
+    @RequestMapping(value = "/expiry/reconcile", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> reconcileOrphans(MultipartFile file, @RequestParam(defaultValue = "true") boolean dryRun,
+                                                @RequestParam(defaultValue = "0") long expected,
+                                                HttpServletRequest request) throws FastDFSException, IOException {
+        InputStream is = openContent(file, request);
+        if (is == null) {
+            throw new FastDFSException(ErrorCode.FILE_ISNULL.CODE, ErrorCode.FILE_ISNULL.MESSAGE);
+        }
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(is, StandardCharsets.UTF_8))) {
+            return fastDFSClient.reconcileOrphans(reader.lines()::iterator, expected,
+                    TimeUnit.HOURS.toMillis(expiryOrphanMinAgeHours), expiryOrphanMaxRatio, dryRun);
+        }
+    }
+
+    /**
+     * 过期清理状态. 与 /expiry/reconcile 在同一目录下，同样需要管理令牌
+     *
+     * @param filePath 文件路径，不为空时返回该文件的过期时间
+     * @return scheduled: 等待过期的文件数，due: 待删除的文件数，deleted、failed、abandoned: 已删除、删除失败、放弃的次数
+     */
+    @RequestMapping("/expiry/status")
+    @ResponseBody
+    public Map<String, Object> getExpiryStatus(String filePath) {
+        ExpirySweeper expirySweeper = fastDFSClient.getExpirySweeper();
+        Map<String, Object> status = expirySweeper.snapshot();
+        if (StringUtils.isNotBlank(filePath)) {
+            status.put("filePath", filePath);
+            status.put("expireAt", expirySweeper.getExpireAt(filePath));
+        }
+        return status;
+    }
+
+    /**
+     * 按租户限流的配置和每个租户的请求数、字节数、被拒绝的请求数和等待时间. 需要管理令牌
+     */
+    @RequestMapping("/throttle/status")
+    @ResponseBody
+    public Map<String, Object> getThrottleStatus() {
+        return BandwidthThrottle.getInstance().snapshot();
+    }
+
+    /**
+     * 运行时修改按租户限流的配置，没有传的参数不变. 重启后恢复 config.properties 中的配置. 管理接口，需要管理令牌
+     *
+     * @param enabled 是否启用
+     * @param totalKbPerSecond 总带宽(KB/秒)，0 表示不限制
+     * @param defaults 默认限制，如 kb=1024,requests=20
+     * @param tenant 租户
+     * @param rule 租户的限制，如 kb=20480,requests=100,weight=4，为空时移除，使用默认限制
+     * @return 修改后的状态
+     */
+    @RequestMapping(value = "/throttle/config", method = RequestMethod.POST)
+    @ResponseBody
+    public Map<String, Object> updateThrottle(Boolean enabled, Long totalKbPerSecond, String defaults, String tenant, String rule)
+            throws FastDFSException {
+        BandwidthThrottle throttle = BandwidthThrottle.getInstance();
+        try {
+            if (StringUtils.isNotBlank(defaults)) {
+                throttle.setDefaultPolicy(throttle.getDefaultPolicy().with(defaults));
+            }
+            if (StringUtils.isNotBlank(tenant)) {
+                throttle.setPolicy(tenant, StringUtils.isBlank(rule) ? null : throttle.getDefaultPolicy().with(rule));
+            }
+        } catch (IllegalArgumentException e) {
+            throw new FastDFSException(ErrorCode.THROTTLE_RULE_INVALID.CODE, ErrorCode.THROTTLE_RULE_INVALID.MESSAGE);
+        }
+        if (totalKbPerSecond != null) {
+            throttle.setTotalBytesPerSecond(totalKbPerSecond * 1024);
+        }
+        if (enabled != null) {
+            throttle.setEnabled(enabled);
+        }
+        return throttle.snapshot();
+    }
+
+    /**
+     * 设置上传结果的文件名、路径和访问地址
+     */
+    private void setFile(FileResponseData responseData, String filename, String filepath) throws FastDFSException {
+        responseData.setFileName(filename);
+        responseData.setFilePath(filepath);
+        responseData.setFileType(FastDFSClient.getFilenameSuffix(filename));
+        // 设置访文件的Http地址. 有时效性. 暂存区的文件还没有上传到文件服务器，通过下载接口访问
+        if (!UploadSpool.isProvisional(filepath)) {
+            String token = FastDFSClient.getToken(filepath, fastDFSHttpSecretKey);
+            responseData.setToken(token);
+            responseData.setHttpUrl(getHttpUrl(filepath, token));
+        }
+    }
+
+    /**
+     * 访问文件的Http地址，其它集群的文件使用该集群的文件服务器地址，路径去掉集群前缀.
+     * 透明压缩存储的文件返回 null：文件服务器输出时没有 Content-Encoding，只能通过 /fastdfs/download/file 下载
+     *
+     * @throws FastDFSException 无法确认是否压缩
+     */
+    private String getHttpUrl(String filepath, String token) throws FastDFSException {
+        if (fastDFSClient.isCompressed(filepath)) {
+            return null;
+        }
+        return toHttpUrl(filepath, token);
+    }
+
+    /**
+     * 拼接文件服务器上的访问地址，不检查是否压缩
+     */
+    private String toHttpUrl(String filepath, String token) {
+        FastDFSCluster cluster = fastDFSClient.getClusters().resolve(filepath);
+        String serverAddr = cluster == null || cluster.getHttpServer() == null ? fileServerAddr : cluster.getHttpServer();
+        return serverAddr + "/" + FastDFSClusters.toLocalId(filepath) + "?" + token;
+    }
+
     /**
      * 上传通用方法，只上传到服务器，不保存记录到数据库
      *
@@ -182,22 +1279,28 @@ public class FileObjectController {
      * @return
      */
     public FileResponseData uploadSample(MultipartFile file, HttpServletRequest request){
+        return uploadSample(file, false, 0, null);
+    }
+
+    /**
+     * 上传通用方法，图片会经过上传图片优化
+     *
+     * @param file
+     * @param image 是否图片
+     * @param ttl 存活时间(秒)，0 表示不过期
+     * @param response 文件服务器繁忙时设置 503，可为空
+     * @return
+     */
+    private FileResponseData uploadSample(MultipartFile file, boolean image, long ttl, HttpServletResponse response){
         FileResponseData responseData = new FileResponseData();
         try {
             // 上传到服务器
-            String filepath = fastDFSClient.uploadFileWithMultipart(file);
+            String filepath = image ? fastDFSClient.uploadImageWithMultipart(file, null, ttl)
+                    : fastDFSClient.uploadFileWithMultipart(file, null, ttl);
 
-            responseData.setFileName(file.getOriginalFilename());
-            responseData.setFilePath(filepath);
-            responseData.setFileType(FastDFSClient.getFilenameSuffix(file.getOriginalFilename()));
-            // 设置访文件的Http地址. 有时效性.
-            String token = FastDFSClient.getToken(filepath, fastDFSHttpSecretKey);
-            responseData.setToken(token);
-            responseData.setHttpUrl(fileServerAddr+"/"+filepath+"?"+token);
+            setFile(responseData, file.getOriginalFilename(), filepath);
         } catch (FastDFSException e) {
-            responseData.setSuccess(false);
-            responseData.setCode(e.getCode());
-            responseData.setMessage(e.getMessage());
+            return error(e, response);
         }
 
         return responseData;
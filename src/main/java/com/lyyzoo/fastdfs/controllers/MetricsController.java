@@ -0,0 +1,29 @@
+package com.lyyzoo.fastdfs.controllers;
+
+import com.lyyzoo.fastdfs.client.FastDFSMetrics;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+import java.util.Map;
+
+/**
+ * FastDFS 客户端统计接口
+ * <p>
+ */
+@Controller
+@RequestMapping("/fastdfs")
+public class MetricsController {
+
+    /**
+     * 各操作各阶段的延迟(微秒)、传输字节数、错误次数和连接池状态
+     *
+     * @return 统计快照
+     */
+    @RequestMapping("/metrics")
+    @ResponseBody
+    public Map<String, Object> metrics() {
+        return FastDFSMetrics.getInstance().snapshot();
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.lyyzoo.fastdfs.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lyyzoo.fastdfs.client.ErrorCode;
+import com.lyyzoo.fastdfs.client.FastDFSMetrics;
+import com.lyyzoo.fastdfs.client.FileResponseData;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+/**
+ * 保护重建索引、清理孤儿文件等管理接口，请求头中的管理令牌与配置一致才放行，否则返回 403.
+ * <p>
+ * 没有配置令牌时拒绝所有请求，即默认关闭管理接口. 在 web.xml 中通过 init-param 配置：
+ * <ul>
+ *     <li>header 令牌所在的请求头，默认 X-Admin-Token</li>
+ *     <li>token 管理令牌，默认为 config.properties 的 admin.token</li>
+ * </ul>
+ */
+public class AdminFilter extends OncePerRequestFilter {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(AdminFilter.class);
+
+    private static final String CONFIG_PATH = "config.properties";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private String header = "X-Admin-Token";
+
+    private String token;
+
+    @Override
+    protected void initFilterBean() throws ServletException {
+        if (token == null) {
+            try {
+                token = StringUtils.trimToNull(PropertiesLoaderUtils.loadAllProperties(CONFIG_PATH).getProperty("admin.token"));
+            } catch (IOException e) {
+                throw new ServletException("can not load " + CONFIG_PATH, e);
+            }
+        }
+        if (token == null && logger.isInfoEnabled()) {
+            logger.info("admin token is not configured, admin endpoints are disabled");
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        if (!verify(request.getHeader(header))) {
+            if (logger.isWarnEnabled()) {
+                logger.warn("admin request rejected, uri = {}, remote = {}", request.getRequestURI(), request.getRemoteAddr());
+            }
+            FastDFSMetrics.getInstance().recordError(ErrorCode.ADMIN_FORBIDDEN.CODE, ErrorCode.ADMIN_FORBIDDEN.MESSAGE);
+            FileResponseData responseData = new FileResponseData(false);
+            responseData.setCode(ErrorCode.ADMIN_FORBIDDEN.CODE);
+            responseData.setMessage(ErrorCode.ADMIN_FORBIDDEN.MESSAGE);
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            response.setContentType("application/json;charset=UTF-8");
+            MAPPER.writeValue(response.getOutputStream(), responseData);
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * 按固定时间比较，不从耗时泄露令牌
+     */
+    private boolean verify(String value) {
+        return token != null && value != null
+                && MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8), value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public void setHeader(String header) {
+        this.header = header;
+    }
+
+    public void setToken(String token) {
+        this.token = StringUtils.trimToNull(token);
+    }
+}
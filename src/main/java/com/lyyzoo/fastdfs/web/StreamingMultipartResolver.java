@@ -0,0 +1,52 @@
+package com.lyyzoo.fastdfs.web;
+
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.PathMatcher;
+import org.springframework.web.multipart.commons.CommonsMultipartResolver;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 跳过流式上传接口的文件解析器.
+ * <p>
+ * CommonsMultipartResolver 在进入 Controller 之前把每个文件写入内存或临时文件，流式上传接口需要自己用
+ * commons-fileupload 的 FileItemIterator 边解析边上传，所以对这些路径不解析，请求体原样保留. <br>
+ * 其它路径与 CommonsMultipartResolver 相同. 在 applicationContext.xml 中配置：
+ * <ul>
+ *     <li>streamingPaths 不解析的路径，不含 ContextPath，支持 Ant 风格通配符，如 /fastdfs/upload/stream</li>
+ * </ul>
+ */
+public class StreamingMultipartResolver extends CommonsMultipartResolver {
+
+    private final PathMatcher pathMatcher = new AntPathMatcher();
+
+    private List<String> streamingPaths = new ArrayList<>();
+
+    @Override
+    public boolean isMultipart(HttpServletRequest request) {
+        return super.isMultipart(request) && !isStreaming(request);
+    }
+
+    /**
+     * @return 是否为流式上传接口
+     */
+    public boolean isStreaming(HttpServletRequest request) {
+        String path = request.getRequestURI().substring(request.getContextPath().length());
+        for (String pattern : streamingPaths) {
+            if (pathMatcher.match(pattern, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public List<String> getStreamingPaths() {
+        return streamingPaths;
+    }
+
+    public void setStreamingPaths(List<String> streamingPaths) {
+        this.streamingPaths = streamingPaths;
+    }
+}
@@ -0,0 +1,113 @@
+package com.lyyzoo.fastdfs.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lyyzoo.fastdfs.client.BandwidthThrottle;
+import com.lyyzoo.fastdfs.client.FastDFSException;
+import com.lyyzoo.fastdfs.client.FastDFSMetrics;
+import com.lyyzoo.fastdfs.client.FileResponseData;
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * 为上传下载请求绑定 {@link BandwidthThrottle} 的租户，请求数超过限制时返回 429 和 Retry-After.
+ * <p>
+ * 租户依次取自：已认证的用户(request.getRemoteUser())；来自可信代理的请求的租户请求头(默认 X-Tenant-Id)；客户端地址.
+ * 请求头可以由客户端任意设置，只有经过会覆盖该请求头的网关时才可信. 在 web.xml 中通过 init-param 配置：
+ * <ul>
+ *     <li>tenantHeader 租户请求头，默认 X-Tenant-Id</li>
+ *     <li>trustedProxies 可信代理的地址，逗号分隔，与 request.getRemoteAddr() 比较. 默认为空，不使用租户请求头</li>
+ * </ul>
+ * 限制在 config.properties 中配置，运行时通过 /fastdfs/throttle/config 修改.
+ */
+public class ThrottleFilter extends OncePerRequestFilter {
+    /**
+     * 429 Too Many Requests，Servlet 3.0 没有常量
+     */
+    private static final int SC_TOO_MANY_REQUESTS = 429;
+
+    /**
+     * 租户标识的最大长度，超过时截断
+     */
+    private static final int MAX_TENANT_LENGTH = 64;
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private String tenantHeader = "X-Tenant-Id";
+
+    private Set<String> trustedProxies = Collections.emptySet();
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        BandwidthThrottle throttle = BandwidthThrottle.getInstance();
+        if (!throttle.isEnabled()) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        String tenant = getTenant(request);
+        BandwidthThrottle.Session session;
+        try {
+            session = throttle.open(tenant);
+        } catch (FastDFSException e) {
+            FastDFSMetrics.getInstance().recordError(e.getCode(), e.getMessage());
+            FileResponseData responseData = new FileResponseData(false);
+            responseData.setCode(e.getCode());
+            responseData.setMessage(e.getMessage());
+            response.setStatus(SC_TOO_MANY_REQUESTS);
+            response.setHeader("Retry-After", String.valueOf(throttle.getRetryAfterSeconds(tenant)));
+            response.setContentType("application/json;charset=UTF-8");
+            MAPPER.writeValue(response.getOutputStream(), responseData);
+            return;
+        }
+        try {
+            filterChain.doFilter(request, response);
+        } finally {
+            session.close();
+        }
+    }
+
+    /**
+     * @return 已认证的用户；可信代理转发的租户请求头；客户端地址
+     */
+    private String getTenant(HttpServletRequest request) {
+        String tenant = StringUtils.left(StringUtils.trimToNull(request.getRemoteUser()), MAX_TENANT_LENGTH);
+        if (tenant == null && trustedProxies.contains(request.getRemoteAddr())) {
+            tenant = StringUtils.left(StringUtils.trimToNull(request.getHeader(tenantHeader)), MAX_TENANT_LENGTH);
+        }
+        return tenant == null ? request.getRemoteAddr() : tenant;
+    }
+
+    public String getTenantHeader() {
+        return tenantHeader;
+    }
+
+    public void setTenantHeader(String tenantHeader) {
+        this.tenantHeader = tenantHeader;
+    }
+
+    public Set<String> getTrustedProxies() {
+        return trustedProxies;
+    }
+
+    /**
+     * @param trustedProxies 可信代理的地址，逗号分隔，为空时不使用租户请求头
+     */
+    public void setTrustedProxies(String trustedProxies) {
+        Set<String> proxies = new HashSet<>();
+        for (String proxy : StringUtils.split(StringUtils.defaultString(trustedProxies), ',')) {
+            if (StringUtils.isNotBlank(proxy)) {
+                proxies.add(proxy.trim());
+            }
+        }
+        this.trustedProxies = Collections.unmodifiableSet(proxies);
+    }
+}
@@ -0,0 +1,129 @@
+package com.lyyzoo.fastdfs.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.lyyzoo.fastdfs.client.ErrorCode;
+import com.lyyzoo.fastdfs.client.FastDFSClient;
+import com.lyyzoo.fastdfs.client.FastDFSMetrics;
+import com.lyyzoo.fastdfs.client.FileResponseData;
+import org.apache.commons.lang3.StringUtils;
+import org.apache.commons.lang3.math.NumberUtils;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 校验下载接口上的防盗链 token，与 fastdfs-nginx-module 的校验一致，由本服务直接提供签名地址的下载时使用.
+ * <p>
+ * 单个文件的路径取自 filePath 参数，token 和 ts 取自同名参数(即 {@link FastDFSClient#getToken(String, String)} 的返回值).
+ * 多个文件(如 /download/zip)的路径取自 filePaths 参数，token 按相同的顺序传入多个(逗号分隔或重复传参)，
+ * 使用同一个 ts(即 {@link FastDFSClient#getTokens(java.util.Collection, String)} 的返回值)，每个文件都要校验通过. <br>
+ * 校验失败返回 403. 在 web.xml 中通过 init-param 配置：
+ * <ul>
+ *     <li>ttlSeconds token 有效期(秒)，与 Storage 的 http.anti_steal.token_ttl 一致，默认 900</li>
+ *     <li>required 是否必须带 token，默认 false，只校验带 token 的请求，不带 token 的请求直接放行.
+ *     需要防盗链时必须设置为 true</li>
+ *     <li>secretKey 秘钥，默认为 config.properties 的 fastdfs.http_secret_key，文件所在集群配置了秘钥时使用集群的秘钥</li>
+ * </ul>
+ */
+public class TokenFilter extends OncePerRequestFilter {
+
+    private static final String CONFIG_PATH = "config.properties";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private int ttlSeconds = 900;
+
+    private boolean required;
+
+    private String secretKey;
+
+    @Override
+    protected void initFilterBean() throws ServletException {
+        if (secretKey == null) {
+            try {
+                secretKey = PropertiesLoaderUtils.loadAllProperties(CONFIG_PATH).getProperty("fastdfs.http_secret_key");
+            } catch (IOException e) {
+                throw new ServletException("can not load " + CONFIG_PATH, e);
+            }
+        }
+    }
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        String token = request.getParameter("token");
+        if (token == null && !required) {
+            filterChain.doFilter(request, response);
+            return;
+        }
+        if (!verify(request)) {
+            FastDFSMetrics.getInstance().recordError(ErrorCode.FILE_TOKEN_INVALID.CODE, ErrorCode.FILE_TOKEN_INVALID.MESSAGE);
+            FileResponseData responseData = new FileResponseData(false);
+            responseData.setCode(ErrorCode.FILE_TOKEN_INVALID.CODE);
+            responseData.setMessage(ErrorCode.FILE_TOKEN_INVALID.MESSAGE);
+            response.setStatus(HttpServletResponse.SC_FORBIDDEN);
+            response.setContentType("application/json;charset=UTF-8");
+            MAPPER.writeValue(response.getOutputStream(), responseData);
+            return;
+        }
+        filterChain.doFilter(request, response);
+    }
+
+    /**
+     * @return 每个文件都有对应的 token 且校验通过
+     */
+    private boolean verify(HttpServletRequest request) {
+        String ts = request.getParameter("ts");
+        if (!NumberUtils.isDigits(ts) || ts.length() > 10) {
+            return false;
+        }
+        List<String> filePaths = split(request.getParameterValues("filePath"));
+        if (filePaths.isEmpty()) {
+            filePaths = split(request.getParameterValues("filePaths"));
+        }
+        List<String> tokens = split(request.getParameterValues("token"));
+        if (filePaths.isEmpty() || filePaths.size() != tokens.size()) {
+            return false;
+        }
+        int timestamp = (int) Long.parseLong(ts);
+        for (int i = 0; i < filePaths.size(); i++) {
+            if (!FastDFSClient.verifyToken(filePaths.get(i), tokens.get(i), timestamp, secretKey, ttlSeconds)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 与 Spring 绑定 List 参数一致：多个值，或一个逗号分隔的值
+     */
+    private static List<String> split(String[] values) {
+        List<String> list = new ArrayList<>();
+        if (values == null) {
+            return list;
+        }
+        for (String value : values.length == 1 ? StringUtils.splitPreserveAllTokens(values[0], ',') : values) {
+            list.add(StringUtils.trimToEmpty(value));
+        }
+        return list;
+    }
+
+    public void setTtlSeconds(int ttlSeconds) {
+        this.ttlSeconds = ttlSeconds;
+    }
+
+    public void setRequired(boolean required) {
+        this.required = required;
+    }
+
+    public void setSecretKey(String secretKey) {
+        this.secretKey = StringUtils.trimToNull(secretKey);
+    }
+}
@@ -0,0 +1,51 @@
+package com.lyyzoo.fastdfs.web;
+
+import com.lyyzoo.fastdfs.client.RequestTrace;
+import org.springframework.web.filter.OncePerRequestFilter;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
+
+/**
+ * 为每个请求开启 {@link RequestTrace}，并把请求ID放入 MDC 和响应头 X-Request-Id.
+ * <p>
+ * 请求头中带有 X-Request-Id 时沿用，便于和网关日志关联. 在 web.xml 中通过 init-param 配置：
+ * <ul>
+ *     <li>slowThresholdMillis 慢请求阈值(毫秒)，默认 1000</li>
+ *     <li>sampleRate 正常请求的采样率 0~1，默认 0.01</li>
+ * </ul>
+ */
+public class TraceFilter extends OncePerRequestFilter {
+    /**
+     * 请求ID的请求头和响应头
+     */
+    public static final String REQUEST_ID_HEADER = "X-Request-Id";
+
+    @Override
+    protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response, FilterChain filterChain)
+            throws ServletException, IOException {
+        RequestTrace trace = RequestTrace.start(request.getHeader(REQUEST_ID_HEADER),
+                request.getMethod() + " " + request.getRequestURI());
+        response.setHeader(REQUEST_ID_HEADER, trace.getRequestId());
+        try {
+            filterChain.doFilter(request, response);
+        } catch (IOException | ServletException | RuntimeException e) {
+            trace.setError(e);
+            throw e;
+        } finally {
+            trace.setStatus(response.getStatus());
+            RequestTrace.finish();
+        }
+    }
+
+    public void setSlowThresholdMillis(long slowThresholdMillis) {
+        RequestTrace.setSlowThresholdMillis(slowThresholdMillis);
+    }
+
+    public void setSampleRate(double sampleRate) {
+        RequestTrace.setSampleRate(sampleRate);
+    }
+}
@@ -0,0 +1,159 @@
+package com.lyyzoo.fastdfs.client;
+
+import com.lyyzoo.fastdfs.embedded.EmbeddedFastDFSServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * appender 文件的追加、修改和截断，后端为进程内的 {@link EmbeddedFastDFSServer}
+ */
+public class AppenderFileTest {
+
+    private static EmbeddedFastDFSServer server;
+
+    private FastDFSClient client;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = EmbeddedFastDFSServer.shared();
+    }
+
+    @Before
+    public void setUp() {
+        client = new FastDFSClient();
+        client.setContentCheck(false);
+    }
+
+    /**
+     * surefire 开启了泄漏检测，传输路径上租用的缓冲区都应该已经归还
+     */
+    @After
+    public void checkLeaks() {
+        assertEquals(0, BufferPool.getInstance().reportLeaks());
+    }
+
+    @Test
+    public void appendModifyAndTruncate() throws Exception {
+        String filepath = client.uploadAppenderFile(stream("hello"), 5, "log.txt", null);
+        assertEquals(true, client.getFileInfo(filepath).get("Appender"));
+
+        assertEquals(6, client.appendFile(filepath, stream(" world"), 6));
+        assertContent("hello world", filepath);
+
+        assertEquals(5, client.modifyFile(filepath, 6, stream("there"), 5));
+        assertContent("hello there", filepath);
+
+        // 超出文件末尾的部分追加到文件
+        assertEquals(7, client.modifyFile(filepath, 9, stream("reafter"), 7));
+        assertContent("hello thereafter", filepath);
+
+        client.truncateFile(filepath, 5);
+        assertContent("hello", filepath);
+        // 文件大小从 Storage 查询，而不是从文件ID解码
+        assertEquals(5L, client.getFileInfo(filepath).get("FileSize"));
+
+        client.truncateFile(filepath, 0);
+        assertArrayEquals(new byte[0], client.download(filepath));
+        client.deleteFile(filepath);
+    }
+
+    @Test
+    public void emptyAppenderFile() throws Exception {
+        String filepath = client.uploadAppenderFile(null, 0, "empty.txt", null);
+        assertArrayEquals(new byte[0], client.download(filepath));
+        client.appendFile(filepath, stream("first"), 5);
+        assertContent("first", filepath);
+        client.deleteFile(filepath);
+    }
+
+    @Test
+    public void unknownSizeIsSentInChunks() throws Exception {
+        byte[] content = new byte[(1 << 20) * 2 + 1000];
+        new Random(46).nextBytes(content);
+        String filepath = client.uploadAppenderFile(null, 0, "chunks.bin", null);
+
+        assertEquals(content.length, client.appendFile(filepath, unknownSize(content), -1));
+        assertArrayEquals(content, client.download(filepath));
+
+        byte[] patch = new byte[(1 << 20) + 10];
+        Arrays.fill(patch, (byte) 7);
+        int offset = 100;
+        assertEquals(patch.length, client.modifyFile(filepath, offset, unknownSize(patch), -1));
+        System.arraycopy(patch, 0, content, offset, patch.length);
+        assertArrayEquals(content, client.download(filepath));
+        client.deleteFile(filepath);
+    }
+
+    @Test
+    public void rejectsNormalFile() throws Exception {
+        String filepath = client.upload(stream("immutable"), "normal.txt", null);
+        assertEquals(false, client.getFileInfo(filepath).get("Appender"));
+        try {
+            client.appendFile(filepath, stream("more"), 4);
+            fail();
+        } catch (FastDFSException e) {
+            assertEquals(ErrorCode.FILE_NOT_APPENDER.CODE, e.getCode());
+        }
+        try {
+            client.truncateFile(filepath, 0);
+            fail();
+        } catch (FastDFSException e) {
+            assertEquals(ErrorCode.FILE_NOT_APPENDER.CODE, e.getCode());
+        }
+        assertContent("immutable", filepath);
+        client.deleteFile(filepath);
+    }
+
+    @Test
+    public void rejectsNegativeOffsetAndSize() throws Exception {
+        String filepath = client.uploadAppenderFile(stream("abc"), 3, "bad.txt", null);
+        try {
+            client.modifyFile(filepath, -1, stream("x"), 1);
+            fail();
+        } catch (FastDFSException e) {
+            assertEquals(ErrorCode.FILE_UPDATE_FAILED.CODE, e.getCode());
+        }
+        try {
+            client.truncateFile(filepath, -1);
+            fail();
+        } catch (FastDFSException e) {
+            assertEquals(ErrorCode.FILE_UPDATE_FAILED.CODE, e.getCode());
+        }
+        assertContent("abc", filepath);
+        assertEquals(0, client.deleteFile(filepath));
+    }
+
+    private void assertContent(String expected, String filepath) throws FastDFSException {
+        assertEquals(expected, new String(client.download(filepath), StandardCharsets.UTF_8));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 每次最多返回 4KB，模拟大小未知的网络流
+     */
+    private static InputStream unknownSize(byte[] content) {
+        return new FilterInputStream(new ByteArrayInputStream(content)) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(len, 4096));
+            }
+        };
+    }
+}
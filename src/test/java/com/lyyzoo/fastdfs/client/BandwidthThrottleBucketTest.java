@@ -0,0 +1,80 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * BandwidthThrottle.Bucket(GCRA)的突发、预支和恢复
+ */
+public class BandwidthThrottleBucketTest {
+
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+    /**
+     * 测试执行期间经过的时间
+     */
+    private static final long TOLERANCE = TimeUnit.MILLISECONDS.toNanos(500);
+
+    @Test
+    public void allowsBurstThenRejects() {
+        BandwidthThrottle.Bucket bucket = new BandwidthThrottle.Bucket();
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(1, 1, 10));
+        }
+        assertFalse(bucket.tryAcquire(1, 1, 10));
+    }
+
+    @Test
+    public void allowsSingleRequestLargerThanBurstWhenFull() {
+        BandwidthThrottle.Bucket bucket = new BandwidthThrottle.Bucket();
+        assertTrue(bucket.tryAcquire(100, 1, 10));
+        assertFalse(bucket.tryAcquire(1, 1, 10));
+        assertFalse(bucket.tryAcquire(100, 1, 10));
+    }
+
+    @Test
+    public void refillsAtRate() throws InterruptedException {
+        BandwidthThrottle.Bucket bucket = new BandwidthThrottle.Bucket();
+        // 每秒 100 个，突发 10 个
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(1, 100, 0.1));
+        }
+        assertFalse(bucket.tryAcquire(1, 100, 0.1));
+        Thread.sleep(50);
+        assertTrue(bucket.tryAcquire(1, 100, 0.1));
+    }
+
+    @Test
+    public void reserveReturnsWaitBeyondBurst() {
+        BandwidthThrottle.Bucket bucket = new BandwidthThrottle.Bucket();
+        assertTrue(bucket.reserve(5, 1, 10) <= 0);
+        long wait = bucket.reserve(10, 1, 10);
+        assertEquals(5 * SECOND, wait, TOLERANCE);
+        // 已预支，之后的请求排在后面
+        assertEquals(6 * SECOND, bucket.waitNanos(1, 1, 10), TOLERANCE);
+        assertFalse(bucket.tryAcquire(1, 1, 10));
+    }
+
+    @Test
+    public void waitNanosDoesNotConsume() {
+        BandwidthThrottle.Bucket bucket = new BandwidthThrottle.Bucket();
+        assertEquals(0, bucket.waitNanos(10, 1, 10));
+        assertEquals(10 * SECOND, bucket.waitNanos(20, 1, 10), TOLERANCE);
+        for (int i = 0; i < 10; i++) {
+            assertTrue(bucket.tryAcquire(1, 1, 10));
+        }
+    }
+
+    @Test
+    public void fullUntilConsumed() {
+        BandwidthThrottle.Bucket bucket = new BandwidthThrottle.Bucket();
+        assertTrue(bucket.isFull(System.nanoTime()));
+        bucket.reserve(1, 1, 10);
+        assertFalse(bucket.isFull(System.nanoTime()));
+        assertTrue(bucket.isFull(System.nanoTime() + 2 * SECOND));
+    }
+}
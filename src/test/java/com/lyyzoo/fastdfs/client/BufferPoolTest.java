@@ -0,0 +1,118 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * BufferPool 的分级、复用和泄漏检测
+ */
+public class BufferPoolTest {
+
+    @Test
+    public void acquireRoundsUpToSizeClass() {
+        BufferPool pool = new BufferPool(false);
+        assertEquals(4096, pool.acquire(1).length);
+        assertEquals(4096, pool.acquire(4096).length);
+        assertEquals(8192, pool.acquire(4097).length);
+        assertEquals(BufferPool.SOCKET_BUFFER_SIZE, pool.acquire(BufferPool.SOCKET_BUFFER_SIZE).length);
+        assertEquals(16 * 1024 * 1024, pool.acquire(16 * 1024 * 1024).length);
+        // 超过最大级别时按需分配
+        assertEquals(16 * 1024 * 1024 + 1, pool.acquire(16 * 1024 * 1024 + 1).length);
+    }
+
+    @Test
+    public void releasedBufferIsReused() {
+        BufferPool pool = new BufferPool(false);
+        // 线程内缓存的级别
+        byte[] small = pool.acquire(5000);
+        pool.release(small);
+        assertSame(small, pool.acquire(5000));
+        // 共享队列的级别
+        byte[] large = pool.acquire(1024 * 1024);
+        pool.release(large);
+        assertSame(large, pool.acquire(1024 * 1024));
+    }
+
+    @Test
+    public void oversizedBufferIsNotPooled() {
+        BufferPool pool = new BufferPool(false);
+        byte[] huge = pool.acquire(16 * 1024 * 1024 + 1);
+        pool.release(huge);
+        assertNotSame(huge, pool.acquire(16 * 1024 * 1024 + 1));
+        assertEquals(0L, pool.snapshot().get("sharedBytes"));
+    }
+
+    @Test
+    public void doubleReleaseIsIgnored() {
+        BufferPool pool = new BufferPool(true);
+        byte[] buffer = pool.acquire(8192);
+        pool.release(buffer);
+        pool.release(buffer);
+        assertEquals(1L, pool.snapshot().get("released"));
+        // 只放回池中一次，不会同时租给两个调用方
+        byte[] first = pool.acquire(8192);
+        byte[] second = pool.acquire(8192);
+        assertSame(buffer, first);
+        assertNotSame(first, second);
+    }
+
+    @Test
+    public void foreignBufferIsNotPooled() {
+        BufferPool pool = new BufferPool(true);
+        byte[] foreign = new byte[8192];
+        pool.release(foreign);
+        assertNotSame(foreign, pool.acquire(8192));
+    }
+
+    @Test
+    public void reportLeaksCountsOutstandingBuffers() {
+        BufferPool pool = new BufferPool(true);
+        byte[] leaked = pool.acquire(100);
+        byte[] returned = pool.acquire(100000);
+        pool.release(returned);
+        assertEquals(1, pool.getOutstanding());
+        assertEquals(1, pool.reportLeaks());
+        pool.release(leaked);
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(0, pool.reportLeaks());
+    }
+
+    @Test
+    public void reportLeaksWithoutDetection() {
+        BufferPool pool = new BufferPool(false);
+        pool.acquire(100);
+        assertEquals(1, pool.getOutstanding());
+        assertEquals(0, pool.reportLeaks());
+    }
+
+    @Test
+    public void leaseReleasesOnce() {
+        BufferPool pool = new BufferPool(true);
+        BufferPool.Lease lease = pool.lease(100);
+        lease.grow(10000);
+        assertEquals(16384, lease.getBuffer().length);
+        lease.close();
+        lease.close();
+        assertNull(lease.getBuffer());
+        assertEquals(0, pool.getOutstanding());
+        assertEquals(2L, pool.snapshot().get("released"));
+    }
+
+    @Test
+    public void growKeepsContent() {
+        BufferPool pool = new BufferPool(false);
+        try (BufferPool.Lease lease = pool.lease(4)) {
+            lease.getBuffer()[0] = 1;
+            lease.getBuffer()[1] = 2;
+            lease.setLength(2);
+            lease.grow(100000);
+            assertEquals(1, lease.getBuffer()[0]);
+            assertEquals(2, lease.getBuffer()[1]);
+            assertEquals(2, lease.getLength());
+        }
+    }
+}
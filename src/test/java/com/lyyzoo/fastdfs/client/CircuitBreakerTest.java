@@ -0,0 +1,132 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * CircuitBreaker 的打开、半开探测和关闭
+ */
+public class CircuitBreakerTest {
+
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    private CircuitBreakerRegistry config;
+
+    @Before
+    public void setUp() {
+        config = new CircuitBreakerRegistry();
+        config.setWindowSize(10);
+        config.setMinimumCalls(10);
+        config.setFailureRateThreshold(50);
+        config.setSlowCallRateThreshold(80);
+        config.setSlowCallDurationMillis(100);
+        config.setConsecutiveFailures(3);
+        config.setOpenDurationMillis(60000);
+    }
+
+    @Test
+    public void opensAfterConsecutiveFailures() {
+        CircuitBreaker breaker = new CircuitBreaker("127.0.0.1:23000", config);
+        breaker.onFailure();
+        breaker.onFailure();
+        breaker.onSuccess(FAST);
+        breaker.onFailure();
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.tryAcquire());
+        assertFalse(breaker.isAvailable());
+    }
+
+    @Test
+    public void opensOnFailureRate() {
+        config.setConsecutiveFailures(Integer.MAX_VALUE);
+        CircuitBreaker breaker = new CircuitBreaker("127.0.0.1:23000", config);
+        for (int i = 0; i < 4; i++) {
+            breaker.onSuccess(FAST);
+            breaker.onFailure();
+        }
+        // 不到 minimumCalls 不计算比率
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onSuccess(FAST);
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void opensOnSlowCallRate() {
+        CircuitBreaker breaker = new CircuitBreaker("127.0.0.1:23000", config);
+        for (int i = 0; i < 2; i++) {
+            breaker.onSuccess(FAST);
+        }
+        for (int i = 0; i < 7; i++) {
+            breaker.onSuccess(SLOW);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        breaker.onSuccess(SLOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    @Test
+    public void oldOutcomesLeaveTheWindow() {
+        config.setConsecutiveFailures(Integer.MAX_VALUE);
+        CircuitBreaker breaker = new CircuitBreaker("127.0.0.1:23000", config);
+        for (int i = 0; i < 4; i++) {
+            breaker.onFailure();
+        }
+        for (int i = 0; i < 100; i++) {
+            breaker.onSuccess(FAST);
+        }
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(10, breaker.snapshot().get("calls"));
+        assertEquals(0, breaker.snapshot().get("failures"));
+    }
+
+    @Test
+    public void halfOpenAllowsSingleProbe() {
+        config.setOpenDurationMillis(0);
+        CircuitBreaker breaker = openBreaker();
+        assertTrue(breaker.isAvailable());
+        assertTrue(breaker.tryAcquire());
+        assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+        assertFalse(breaker.isAvailable());
+        assertFalse(breaker.tryAcquire());
+
+        // 交还探测机会后其他调用者可以探测
+        breaker.release();
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(FAST);
+        assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+        assertEquals(0, breaker.snapshot().get("calls"));
+    }
+
+    @Test
+    public void failedOrSlowProbeReopens() {
+        config.setOpenDurationMillis(0);
+        CircuitBreaker breaker = openBreaker();
+        assertTrue(breaker.tryAcquire());
+        breaker.onFailure();
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+
+        assertTrue(breaker.tryAcquire());
+        breaker.onSuccess(SLOW);
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private CircuitBreaker openBreaker() {
+        CircuitBreaker breaker = new CircuitBreaker("127.0.0.1:23000", config);
+        for (int i = 0; i < config.getConsecutiveFailures(); i++) {
+            breaker.onFailure();
+        }
+        assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+        return breaker;
+    }
+}
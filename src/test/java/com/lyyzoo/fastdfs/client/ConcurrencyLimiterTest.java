@@ -0,0 +1,107 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ConcurrencyLimiter 的拒绝、退避、增长和收缩
+ */
+public class ConcurrencyLimiterTest {
+
+    private static final long RTT = TimeUnit.MILLISECONDS.toNanos(10);
+
+    @Test
+    public void rejectsAboveLimit() {
+        ConcurrencyLimiter limiter = limiter(4);
+        for (int i = 1; i <= 4; i++) {
+            assertEquals(i, limiter.tryAcquire());
+        }
+        assertEquals(-1, limiter.tryAcquire());
+        assertEquals(1, limiter.getRejected());
+        assertEquals(4, limiter.getInFlight());
+
+        limiter.release(4, RTT, false);
+        assertEquals(3, limiter.getInFlight());
+        assertEquals(4, limiter.tryAcquire());
+    }
+
+    @Test
+    public void disabledLimiterNeedsNoRelease() {
+        ConcurrencyLimiter limiter = limiter(4);
+        limiter.setEnabled(false);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, limiter.tryAcquire());
+        }
+        limiter.release(0, RTT, true);
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(4, limiter.getLimit());
+    }
+
+    @Test
+    public void dropBacksOffToMinLimit() {
+        ConcurrencyLimiter limiter = limiter(20);
+        limiter.release(limiter.tryAcquire(), RTT, true);
+        assertEquals(18, limiter.getLimit());
+        for (int i = 0; i < 100; i++) {
+            limiter.release(limiter.tryAcquire(), RTT, true);
+        }
+        assertEquals(limiter.getMinLimit(), limiter.getLimit());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    @Test
+    public void growsWhileSaturatedWithStableRtt() {
+        ConcurrencyLimiter limiter = limiter(10);
+        for (int i = 0; i < 50; i++) {
+            window(limiter, limiter.getLimit(), RTT);
+        }
+        assertTrue(limiter.getLimit() > 10);
+        assertTrue(limiter.getLimit() <= limiter.getMaxLimit());
+    }
+
+    @Test
+    public void doesNotGrowWhenNotSaturated() {
+        ConcurrencyLimiter limiter = limiter(20);
+        for (int i = 0; i < 50; i++) {
+            window(limiter, 2, RTT);
+        }
+        assertEquals(20, limiter.getLimit());
+    }
+
+    @Test
+    public void shrinksWhenRttRises() {
+        ConcurrencyLimiter limiter = limiter(40);
+        window(limiter, 10, RTT);
+        int before = limiter.getLimit();
+        for (int i = 0; i < 5; i++) {
+            window(limiter, limiter.getLimit(), RTT * 10);
+        }
+        assertTrue(limiter.getLimit() < before);
+        assertTrue(limiter.getLimit() >= limiter.getMinLimit());
+    }
+
+    private static ConcurrencyLimiter limiter(int initialLimit) {
+        ConcurrencyLimiter limiter = new ConcurrencyLimiter();
+        limiter.setMinLimit(4);
+        limiter.setMaxLimit(200);
+        limiter.setInitialLimit(initialLimit);
+        return limiter;
+    }
+
+    /**
+     * 同时发出 concurrency 个请求，全部以 rttNanos 完成，后发出的先完成
+     */
+    private static void window(ConcurrencyLimiter limiter, int concurrency, long rttNanos) {
+        int[] permits = new int[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            permits[i] = limiter.tryAcquire();
+        }
+        for (int i = concurrency - 1; i >= 0; i--) {
+            limiter.release(permits[i], rttNanos, false);
+        }
+    }
+}
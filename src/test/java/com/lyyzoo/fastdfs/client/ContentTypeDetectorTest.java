@@ -0,0 +1,126 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * ContentTypeDetector 按魔数识别文件类型
+ */
+public class ContentTypeDetectorTest {
+
+    @Test
+    public void detectsBySignature() {
+        assertMime("image/png", 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0, 0, 0, 0x0D);
+        assertMime("image/gif", 'G', 'I', 'F', '8', '9', 'a', 1, 0);
+        assertMime("image/jpeg", 0xFF, 0xD8, 0xFF, 0xE0, 0, 0x10);
+        assertMime("application/pdf", '%', 'P', 'D', 'F', '-', '1', '.', '4');
+        assertMime("application/zip", 'P', 'K', 0x03, 0x04, 0x14, 0);
+        assertMime("application/x-rar", 'R', 'a', 'r', '!', 0x1A, 0x07, 0x00);
+        assertMime("application/x-ole-storage", 0xD0, 0xCF, 0x11, 0xE0, 0xA1, 0xB1, 0x1A, 0xE1);
+        assertMime("video/x-flv", 'F', 'L', 'V', 0x01, 0x05);
+    }
+
+    @Test
+    public void wildcardBytesInSignature() {
+        // mp4 的前 4 个字节是 box 大小
+        assertMime("video/mp4", 0, 0, 0, 0x20, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm');
+        assertMime("video/mp4", 0, 0, 0, 0x18, 'f', 't', 'y', 'p', 'm', 'p', '4', '2');
+    }
+
+    @Test
+    public void bmpRequiresKnownInfoHeaderSize() {
+        byte[] bmp = new byte[54];
+        bmp[0] = 'B';
+        bmp[1] = 'M';
+        bmp[14] = 40;
+        assertEquals("image/bmp", ContentTypeDetector.detect(bmp, bmp.length).getMimeType());
+        // 以 BM 开头的文本不是 BMP
+        byte[] text = "BMW is a car brand".getBytes(StandardCharsets.US_ASCII);
+        assertSame(ContentTypeDetector.TEXT, ContentTypeDetector.detect(text, text.length));
+    }
+
+    @Test
+    public void mp3ById3TagOrFrameHeader() {
+        assertMime("audio/mpeg", 'I', 'D', '3', 3, 0, 0, 0, 0, 0x0F, 0x76);
+        // MPEG-1 Layer III, 128kbps, 44.1kHz
+        assertMime("audio/mpeg", 0xFF, 0xFB, 0x90, 0x64);
+        // 保留的采样率索引，没有控制字符，按文本处理
+        assertSame(ContentTypeDetector.TEXT, ContentTypeDetector.detect(bytes(0xFF, 0xFB, 0x9C, 0x64), 4));
+        // ID3 版本错误
+        assertNull(ContentTypeDetector.detect(bytes('I', 'D', '3', 9, 0, 0, 0, 0, 0, 0), 10));
+    }
+
+    @Test
+    public void textAndBinary() {
+        byte[] text = "{\"name\": \"value\"}\r\n\tline".getBytes(StandardCharsets.UTF_8);
+        assertSame(ContentTypeDetector.TEXT, ContentTypeDetector.detect(text, text.length));
+        assertSame(ContentTypeDetector.TEXT, ContentTypeDetector.detect(new byte[0], 0));
+        assertNull(ContentTypeDetector.detect(bytes('a', 'b', 0, 'c'), 4));
+    }
+
+    @Test
+    public void matchesSuffix() {
+        ContentTypeDetector.ContentType png = detect(0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A);
+        ContentTypeDetector.ContentType zip = detect('P', 'K', 0x03, 0x04);
+        assertTrue(ContentTypeDetector.matches(png, "png"));
+        assertFalse(ContentTypeDetector.matches(png, "jpg"));
+        assertTrue(ContentTypeDetector.matches(zip, "docx"));
+        // 没有魔数的后缀不检查
+        assertTrue(ContentTypeDetector.matches(null, "exe"));
+        assertTrue(ContentTypeDetector.matches(null, null));
+        assertFalse(ContentTypeDetector.matches(null, "pdf"));
+        assertFalse(ContentTypeDetector.matches(ContentTypeDetector.TEXT, "pdf"));
+        assertTrue(ContentTypeDetector.matches(ContentTypeDetector.TEXT, "txt"));
+    }
+
+    @Test
+    public void detectFromStreamDoesNotConsume() throws Exception {
+        byte[] content = new byte[2000];
+        content[0] = '%';
+        content[1] = 'P';
+        content[2] = 'D';
+        content[3] = 'F';
+        InputStream is = ContentTypeDetector.markable(new ByteArrayInputStream(content) {
+            @Override
+            public boolean markSupported() {
+                return false;
+            }
+        });
+        assertEquals("application/pdf", ContentTypeDetector.detect(is).getMimeType());
+        byte[] read = new byte[content.length];
+        int length = 0;
+        int n;
+        while ((n = is.read(read, length, read.length - length)) > 0) {
+            length += n;
+        }
+        assertEquals(content.length, length);
+        assertEquals('%', read[0]);
+    }
+
+    private static void assertMime(String mimeType, int... head) {
+        ContentTypeDetector.ContentType type = detect(head);
+        assertEquals(mimeType, type == null ? null : type.getMimeType());
+    }
+
+    private static ContentTypeDetector.ContentType detect(int... head) {
+        byte[] bytes = bytes(head);
+        return ContentTypeDetector.detect(bytes, bytes.length);
+    }
+
+    private static byte[] bytes(int... values) {
+        byte[] bytes = new byte[values.length];
+        for (int i = 0; i < values.length; i++) {
+            bytes[i] = (byte) values[i];
+        }
+        return bytes;
+    }
+}
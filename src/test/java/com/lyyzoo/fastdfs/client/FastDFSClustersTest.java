@@ -0,0 +1,150 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * FastDFSClusters 按分片键的加权 Rendezvous 放置
+ */
+public class FastDFSClustersTest {
+
+    private static final int KEYS = 10000;
+
+    private FastDFSClusters clusters;
+
+    @Before
+    public void setUp() {
+        clusters = new FastDFSClusters();
+    }
+
+    @After
+    public void tearDown() {
+        for (FastDFSCluster cluster : clusters.getClusters()) {
+            cluster.close();
+        }
+    }
+
+    @Test
+    public void sameKeySameCluster() {
+        clusters.add(cluster("cluster2", 100));
+        clusters.add(cluster("cluster3", 100));
+        for (int i = 0; i < 100; i++) {
+            String key = "tenant-" + i;
+            assertSame(clusters.place(key), clusters.place(key));
+        }
+    }
+
+    @Test
+    public void addingClusterOnlyMovesKeysToIt() {
+        clusters.add(cluster("cluster2", 100));
+        String[] before = placeAll();
+        clusters.add(cluster("cluster3", 100));
+        String[] after = placeAll();
+        int moved = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (!before[i].equals(after[i])) {
+                assertEquals("cluster3", after[i]);
+                moved++;
+            }
+        }
+        // 三个权重相同的集群，约 1/3 的键迁移
+        assertEquals(1.0 / 3, (double) moved / KEYS, 0.05);
+    }
+
+    @Test
+    public void removingClusterOnlyMovesItsKeys() {
+        clusters.add(cluster("cluster2", 100));
+        clusters.add(cluster("cluster3", 100));
+        String[] before = placeAll();
+        clusters.remove("cluster3");
+        String[] after = placeAll();
+        for (int i = 0; i < KEYS; i++) {
+            if (!before[i].equals(after[i])) {
+                assertEquals("cluster3", before[i]);
+            }
+        }
+    }
+
+    @Test
+    public void placementFollowsWeight() {
+        clusters.add(cluster("cluster2", 300));
+        int heavy = 0;
+        for (String name : placeAll()) {
+            if ("cluster2".equals(name)) {
+                heavy++;
+            }
+        }
+        assertEquals(0.75, (double) heavy / KEYS, 0.03);
+    }
+
+    @Test
+    public void skipsReadOnlyAndZeroWeightClusters() {
+        FastDFSCluster readOnly = cluster("cluster2", 100);
+        readOnly.setState(FastDFSCluster.State.READ_ONLY);
+        clusters.add(readOnly);
+        clusters.add(cluster("cluster3", 0));
+        for (String name : placeAll()) {
+            assertEquals(FastDFSClusters.DEFAULT, name);
+        }
+    }
+
+    @Test
+    public void fallsBackToDefaultWithoutWritableCluster() {
+        clusters.getDefault().setWeight(0, 0);
+        FastDFSCluster readOnly = cluster("cluster2", 100);
+        readOnly.setState(FastDFSCluster.State.READ_ONLY);
+        clusters.add(readOnly);
+        assertSame(clusters.getDefault(), clusters.place("tenant-1"));
+        assertSame(clusters.getDefault(), clusters.place((String) null));
+    }
+
+    @Test
+    public void placesByShardKeyDescription() {
+        clusters.add(cluster("cluster2", 100));
+        clusters.add(cluster("cluster3", 100));
+        clusters.setShardKey("tenant");
+        Map<String, String> descriptions = new HashMap<>();
+        descriptions.put("tenant", "tenant-42");
+        descriptions.put("filename", "a.jpg");
+        for (int i = 0; i < 10; i++) {
+            assertSame(clusters.place("tenant-42"), clusters.place(descriptions));
+        }
+    }
+
+    @Test
+    public void differentKeysSpreadAcrossClusters() {
+        clusters.add(cluster("cluster2", 100));
+        List<String> placements = Arrays.asList(placeAll());
+        int count = Collections.frequency(placements, "cluster2");
+        assertTrue(count > 0);
+        assertNotEquals(KEYS, count);
+    }
+
+    private String[] placeAll() {
+        String[] names = new String[KEYS];
+        for (int i = 0; i < KEYS; i++) {
+            names[i] = clusters.place("tenant-" + i).getName();
+        }
+        return names;
+    }
+
+    private static FastDFSCluster cluster(String name, int weight) {
+        FastDFSCluster cluster = new FastDFSCluster(name,
+                new InetSocketAddress[]{InetSocketAddress.createUnresolved("127.0.0.1", 22122)}, 1);
+        cluster.setWeight(weight, 0);
+        return cluster;
+    }
+}
@@ -0,0 +1,174 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * FileIndex 的查询、翻页、更新和重启重放
+ */
+public class FileIndexTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    private FileIndex index;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("index");
+        index = start();
+        for (int i = 0; i < 10; i++) {
+            index.put(fileId(i), 1000 + i, descriptions("report-" + i + ".pdf", i % 2 == 0 ? "a" : "b", i < 5 ? "x" : "y"));
+        }
+    }
+
+    @After
+    public void tearDown() {
+        index.close();
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void startRequiresDirectory() throws Exception {
+        new FileIndex().start();
+    }
+
+    @Test
+    public void listsNewestFirst() {
+        assertEquals(ids(9, 8, 7, 6, 5, 4, 3, 2, 1, 0), ids(index.query(new FileIndex.Query())));
+    }
+
+    @Test
+    public void filtersByIndexedTags() {
+        FileIndex.Query query = new FileIndex.Query();
+        query.addTag("tenant", "a");
+        assertEquals(ids(8, 6, 4, 2, 0), ids(index.query(query)));
+        query.addTag("tag", "y");
+        assertEquals(ids(8, 6), ids(index.query(query)));
+        query.addTag("tag", "z");
+        assertEquals(ids(), ids(index.query(query)));
+    }
+
+    @Test
+    public void filtersByOtherDescriptionsAndPrefix() {
+        FileIndex.Query query = new FileIndex.Query();
+        // 不建倒排列表的描述信息逐条过滤
+        query.addTag("filename", "report-3.pdf");
+        assertEquals(ids(3), ids(index.query(query)));
+
+        query = new FileIndex.Query();
+        query.setPrefix("report-1");
+        assertEquals(ids(1), ids(index.query(query)));
+    }
+
+    @Test
+    public void filtersByTimeRange() {
+        FileIndex.Query query = new FileIndex.Query();
+        query.setFrom(1003);
+        query.setTo(1006);
+        assertEquals(ids(5, 4, 3), ids(index.query(query)));
+    }
+
+    @Test
+    public void pagesWithCursor() {
+        FileIndex.Query query = new FileIndex.Query();
+        query.addTag("tenant", "b");
+        query.setLimit(2);
+        List<String> all = new ArrayList<>();
+        FileIndex.Page page;
+        do {
+            page = index.query(query);
+            all.addAll(ids(page));
+            query.setCursor(page.getNext());
+        } while (page.getNext() != null);
+        assertEquals(ids(9, 7, 5, 3, 1), all);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsInvalidCursor() {
+        FileIndex.Query query = new FileIndex.Query();
+        query.setCursor("not-a-cursor");
+        index.query(query);
+    }
+
+    @Test
+    public void mergeAndRemoveUpdatePostings() {
+        Map<String, String> changes = new HashMap<>();
+        changes.put("tenant", "b");
+        index.merge(fileId(0), changes);
+        index.remove(fileId(2));
+
+        FileIndex.Query query = new FileIndex.Query();
+        query.addTag("tenant", "a");
+        assertEquals(ids(8, 6, 4), ids(index.query(query)));
+        assertEquals(1000, index.get(fileId(0)).getCreatedAt());
+        assertEquals("report-0.pdf", index.get(fileId(0)).getFilename());
+        assertNull(index.get(fileId(2)));
+        assertEquals(9, index.size());
+    }
+
+    @Test
+    public void replaysLogAfterRestart() throws Exception {
+        Map<String, String> changes = new HashMap<>();
+        changes.put("tag", "z");
+        index.merge(fileId(1), changes);
+        index.remove(fileId(0));
+        index.close();
+
+        index = start();
+        assertEquals(9, index.size());
+        assertNull(index.get(fileId(0)));
+        FileIndex.Query query = new FileIndex.Query();
+        query.addTag("tag", "z");
+        assertEquals(ids(1), ids(index.query(query)));
+    }
+
+    private FileIndex start() throws Exception {
+        FileIndex index = new FileIndex();
+        index.setDirectory(directory);
+        index.setIndexedTags("tenant,tag");
+        index.start();
+        return index;
+    }
+
+    private static Map<String, String> descriptions(String filename, String tenant, String tag) {
+        Map<String, String> descriptions = new HashMap<>();
+        descriptions.put("filename", filename);
+        descriptions.put("tenant", tenant);
+        descriptions.put("tag", tag);
+        return descriptions;
+    }
+
+    private static String fileId(int i) {
+        return "group1/M00/00/00/file" + i + ".pdf";
+    }
+
+    private static List<String> ids(int... numbers) {
+        List<String> ids = new ArrayList<>();
+        for (int i : numbers) {
+            ids.add(fileId(i));
+        }
+        return ids;
+    }
+
+    private static List<String> ids(FileIndex.Page page) {
+        List<String> ids = new ArrayList<>();
+        for (FileIndex.Entry entry : page.getItems()) {
+            ids.add(entry.getFileId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,214 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.fastdfs.StorageServer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * HedgedReader 的对冲、取消和对冲预算.
+ * <p>
+ * 两个副本都连到同一个只接受连接的端口，回调按线程区分第一个副本(调用线程)和对冲请求(对冲线程).
+ */
+public class HedgedReaderTest {
+
+    private ServerSocket listener;
+
+    private final List<Socket> accepted = new CopyOnWriteArrayList<>();
+
+    private HedgedReader reader;
+
+    private List<StorageNode> nodes;
+
+    private final AtomicInteger hedges = new AtomicInteger();
+
+    @Before
+    public void setUp() throws IOException {
+        listener = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> {
+            while (!listener.isClosed()) {
+                try {
+                    accepted.add(listener.accept());
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        });
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        String ip = listener.getInetAddress().getHostAddress();
+        // 地址不同才会被当作另一个副本
+        nodes = Arrays.asList(new StorageNode(ip, listener.getLocalPort(), (byte) 0),
+                new StorageNode("localhost", listener.getLocalPort(), (byte) 0));
+        reader = new HedgedReader();
+        reader.setEnabled(true);
+        reader.setMinDelayMillis(10);
+        reader.setMaxDelayMillis(10);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        listener.close();
+        for (Socket socket : accepted) {
+            socket.close();
+        }
+        RequestTrace.finish();
+    }
+
+    @Test
+    public void hedgeWinsAndCancelsSlowPrimary() throws Exception {
+        StorageServer primary = connect();
+        try {
+            String result = read(primary, client -> {
+                if (isHedge()) {
+                    hedges.incrementAndGet();
+                    return "hedge";
+                }
+                // 阻塞到被取消(关闭 Socket 的输入)
+                if (primary.getSocket().getInputStream().read() < 0) {
+                    throw new IOException("cancelled");
+                }
+                return "primary";
+            });
+            assertEquals("hedge", result);
+            assertEquals(1, hedges.get());
+            assertTrue(primary.getSocket().isInputShutdown());
+        } finally {
+            primary.close();
+        }
+    }
+
+    @Test
+    public void fastPrimaryIsNotHedged() throws Exception {
+        double budget = reader.getBudget();
+        StorageServer primary = connect();
+        try {
+            assertEquals("primary", read(primary, client -> isHedge() ? hedge() : "primary"));
+        } finally {
+            primary.close();
+        }
+        assertEquals(0, hedges.get());
+        assertEquals(budget, reader.getBudget(), 1e-9);
+    }
+
+    @Test
+    public void failedHedgeDoesNotWin() throws Exception {
+        StorageServer primary = connect();
+        try {
+            String result = read(primary, client -> {
+                if (isHedge()) {
+                    hedges.incrementAndGet();
+                    return null;
+                }
+                sleep(100);
+                return "primary";
+            });
+            assertEquals("primary", result);
+            assertEquals(1, hedges.get());
+        } finally {
+            primary.close();
+        }
+    }
+
+    @Test
+    public void budgetBoundsHedges() throws Exception {
+        reader.setBudgetPercent(0);
+        reader.setMaxBudget(1);
+        for (int i = 0; i < 3; i++) {
+            StorageServer primary = connect();
+            try {
+                String result = read(primary, client -> {
+                    if (isHedge()) {
+                        hedges.incrementAndGet();
+                        return null;
+                    }
+                    sleep(50);
+                    return "primary";
+                });
+                assertEquals("primary", result);
+            } finally {
+                primary.close();
+            }
+        }
+        // 只有第一次读取有令牌
+        assertEquals(1, hedges.get());
+        assertEquals(0, reader.getBudget(), 1e-9);
+    }
+
+    @Test
+    public void budgetAccumulatesPerRead() throws Exception {
+        reader.setBudgetPercent(50);
+        reader.setMaxBudget(1);
+        StorageServer primary = connect();
+        try {
+            slowRead(primary);
+            assertEquals(1, hedges.get());
+            assertEquals(0, reader.getBudget(), 1e-9);
+            // 每次读取积累半个令牌，不足一个时不对冲
+            slowRead(primary);
+            assertEquals(1, hedges.get());
+            assertEquals(0.5, reader.getBudget(), 1e-9);
+            slowRead(primary);
+            assertEquals(2, hedges.get());
+            assertEquals(0, reader.getBudget(), 1e-9);
+        } finally {
+            primary.close();
+        }
+    }
+
+    private void slowRead(StorageServer primary) throws Exception {
+        read(primary, client -> {
+            if (isHedge()) {
+                hedges.incrementAndGet();
+                return null;
+            }
+            sleep(50);
+            return "primary";
+        });
+    }
+
+    private String read(StorageServer primary, StorageCallback<String> callback) throws Exception {
+        RequestTrace trace = RequestTrace.start(null, "test");
+        RequestTrace.Span span = trace.startSpan(StorageOperation.DOWNLOAD, "group1/M00/00/00/a.txt");
+        try {
+            return reader.read(StorageOperation.DOWNLOAD, callback, new FastDFSCluster(FastDFSClusters.DEFAULT),
+                    primary, nodes.get(0), null, nodes, trace, span);
+        } finally {
+            trace.endSpan(null);
+        }
+    }
+
+    private StorageServer connect() throws IOException {
+        return new StorageServer(nodes.get(0).getIp(), nodes.get(0).getPort(), 0);
+    }
+
+    private String hedge() {
+        hedges.incrementAndGet();
+        return "hedge";
+    }
+
+    private static boolean isHedge() {
+        return Thread.currentThread().getName().startsWith("fastdfs-hedge-");
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.Test;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * ImageProcessor、ImageOptimizer 解码前检查像素数
+ */
+public class ImageProcessorTest {
+
+    @Test
+    public void decodesWithinPixelLimit() throws Exception {
+        byte[] png = png(40, 30);
+        BufferedImage image = ImageProcessor.read(png, 40 * 30);
+        assertEquals(40, image.getWidth());
+        assertEquals(30, image.getHeight());
+    }
+
+    @Test(expected = ImageProcessor.PixelLimitException.class)
+    public void rejectsImageOverPixelLimit() throws Exception {
+        ImageProcessor.read(png(40, 30), 40 * 30 - 1);
+    }
+
+    @Test
+    public void rejectsUnknownFormat() {
+        try {
+            ImageProcessor.read("not an image".getBytes(), ImageProcessor.DEFAULT_MAX_PIXELS);
+            fail();
+        } catch (IOException e) {
+            assertEquals("unsupported image format", e.getMessage());
+        }
+    }
+
+    @Test
+    public void readsSizeFromHeader() throws Exception {
+        assertEquals(new Dimension(40, 30), ImageProcessor.readSize(new ByteArrayInputStream(png(40, 30))));
+    }
+
+    @Test
+    public void optimizerSkipsImagesOverPixelLimit() throws Exception {
+        ImageOptimizer optimizer = new ImageOptimizer();
+        optimizer.setEnabled(true);
+        optimizer.setMaxPixels(40 * 30);
+        assertTrue(optimizer.accepts("png", new ByteArrayInputStream(png(40, 30))));
+        assertFalse(optimizer.accepts("png", new ByteArrayInputStream(png(40, 31))));
+        // 只优化 JPEG 和 PNG
+        assertFalse(optimizer.accepts("gif", new ByteArrayInputStream(png(40, 30))));
+        assertFalse(optimizer.accepts("png", new ByteArrayInputStream("not an image".getBytes())));
+
+        byte[] large = png(40, 31);
+        assertSame(large, optimizer.optimize(large, "png"));
+    }
+
+    private static byte[] png(int width, int height) throws IOException {
+        return ImageProcessor.write(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB), ImageProcessor.FORMAT_PNG, 100, false);
+    }
+}
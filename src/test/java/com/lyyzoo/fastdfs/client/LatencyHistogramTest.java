@@ -0,0 +1,87 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * LatencyHistogram 的分桶精度和百分位
+ */
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsAreExactBelowSubBucketCount() {
+        for (long value = 0; value < 32; value++) {
+            assertEquals(value, LatencyHistogram.upperBound(LatencyHistogram.index(value)));
+        }
+    }
+
+    @Test
+    public void bucketUpperBoundWithinRelativeError() {
+        int previous = -1;
+        for (long value = 1; value < (1L << 36); value = value * 21 / 20 + 1) {
+            int index = LatencyHistogram.index(value);
+            long upper = LatencyHistogram.upperBound(index);
+            assertTrue(value + " above bucket bound " + upper, value <= upper);
+            assertTrue(value + " bucket too wide: " + upper, upper - value <= value / 32);
+            assertTrue(value + " belongs to the previous bucket", value > LatencyHistogram.upperBound(index - 1));
+            assertTrue(index >= previous);
+            previous = index;
+        }
+    }
+
+    @Test
+    public void percentilesOfUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 10000; value++) {
+            histogram.record(value);
+        }
+        assertEquals(10000, histogram.getCount());
+        assertWithin(5000, histogram.getValueAtPercentile(50));
+        assertWithin(9000, histogram.getValueAtPercentile(90));
+        assertWithin(9900, histogram.getValueAtPercentile(99));
+        assertEquals(10000, histogram.getValueAtPercentile(100));
+        assertEquals(1, histogram.getValueAtPercentile(0));
+    }
+
+    @Test
+    public void percentileOfSkewedValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(100);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(50000);
+        }
+        assertWithin(100, histogram.getValueAtPercentile(50));
+        assertWithin(100, histogram.getValueAtPercentile(99));
+        assertWithin(50000, histogram.getValueAtPercentile(99.9));
+        Map<String, Object> snapshot = histogram.snapshot();
+        assertEquals(1000L, snapshot.get("count"));
+        assertEquals(599L, snapshot.get("mean"));
+        assertEquals(50000L, snapshot.get("max"));
+    }
+
+    @Test
+    public void clampsOutOfRangeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getValueAtPercentile(99));
+        histogram.record(-5);
+        assertEquals(0, histogram.getValueAtPercentile(100));
+        histogram.record(Long.MAX_VALUE);
+        assertEquals((1L << 36) - 1, histogram.getValueAtPercentile(100));
+        histogram.recordNanos(3000);
+        assertEquals(3, histogram.getValueAtPercentile(50));
+    }
+
+    /**
+     * 百分位取桶的上界：不小于准确值，误差不超过 1/32
+     */
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(actual + " < " + expected, actual >= expected);
+        assertTrue(actual + " too far above " + expected, actual - expected <= expected / 32);
+    }
+}
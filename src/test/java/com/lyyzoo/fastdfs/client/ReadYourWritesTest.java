@@ -0,0 +1,120 @@
+package com.lyyzoo.fastdfs.client;
+
+import com.lyyzoo.fastdfs.embedded.EmbeddedFastDFSServer;
+import org.csource.fastdfs.ProtoCommon;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * 读己之写的重试次数、退避时间，以及退避期间归还并发许可，后端为进程内的 {@link EmbeddedFastDFSServer}
+ */
+public class ReadYourWritesTest {
+
+    private static EmbeddedFastDFSServer server;
+
+    private StorageExecutor executor;
+
+    private ReadYourWrites readYourWrites;
+
+    @BeforeClass
+    public static void startServer() throws Exception {
+        server = EmbeddedFastDFSServer.shared();
+    }
+
+    @Before
+    public void setUp() {
+        executor = new StorageExecutor();
+        readYourWrites = executor.getReadYourWrites();
+        readYourWrites.setMaxRetries(2);
+    }
+
+    @Test
+    public void retryIsBounded() throws Exception {
+        String fileId = upload("recent");
+        assertTrue(readYourWrites.isRecent(fileId));
+        assertTrue(readYourWrites.shouldRetry(fileId, ProtoCommon.ERR_NO_ENOENT, 1));
+        assertFalse(readYourWrites.shouldRetry(fileId, ProtoCommon.ERR_NO_ENOENT, 2));
+        // 只重试不存在
+        assertFalse(readYourWrites.shouldRetry(fileId, (byte) 5, 0));
+        // 文件ID不能解析时不是最近上传的文件
+        assertFalse(readYourWrites.shouldRetry("group1/M00/00/00/missing.txt", ProtoCommon.ERR_NO_ENOENT, 0));
+    }
+
+    @Test
+    public void retryDelayBacksOffWithJitter() {
+        readYourWrites.setRetryBaseMillis(100);
+        for (int i = 0; i < 100; i++) {
+            long first = readYourWrites.getRetryDelayMillis(0);
+            long third = readYourWrites.getRetryDelayMillis(2);
+            assertTrue(String.valueOf(first), first >= 50 && first <= 150);
+            assertTrue(String.valueOf(third), third >= 200 && third <= 600);
+        }
+    }
+
+    @Test
+    public void missingRecentFileIsRetriedUpToMaxRetries() throws Exception {
+        readYourWrites.setRetryBaseMillis(10);
+        String fileId = upload("deleted");
+        assertTrue(server.getStorage().remove(fileId));
+
+        AtomicInteger attempts = new AtomicInteger();
+        byte[] content = executor.execute(StorageOperation.DOWNLOAD, fileId, storageClient -> {
+            attempts.incrementAndGet();
+            return storageClient.download_file1(fileId);
+        });
+        assertNull(content);
+        assertEquals(3, attempts.get());
+        assertFalse(StorageExecutor.isInExchange());
+    }
+
+    @Test
+    public void permitIsReleasedDuringBackoff() throws Exception {
+        readYourWrites.setRetryBaseMillis(500);
+        readYourWrites.setMaxRetries(1);
+        String fileId = upload("backoff");
+        assertTrue(server.getStorage().remove(fileId));
+
+        CountDownLatch firstAttempt = new CountDownLatch(1);
+        AtomicInteger attempts = new AtomicInteger();
+        ConcurrencyLimiter limiter = executor.getConcurrencyLimiter();
+        FutureTask<byte[]> download = new FutureTask<>(() -> executor.execute(StorageOperation.DOWNLOAD, fileId, storageClient -> {
+            assertEquals(1, limiter.getInFlight());
+            byte[] result = storageClient.download_file1(fileId);
+            attempts.incrementAndGet();
+            firstAttempt.countDown();
+            return result;
+        }));
+        new Thread(download).start();
+
+        assertTrue(firstAttempt.await(5, TimeUnit.SECONDS));
+        // 第一次读取后至少等待 250ms，期间不持有许可
+        long deadline = System.currentTimeMillis() + 200;
+        while (limiter.getInFlight() != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(1);
+        }
+        assertEquals(0, limiter.getInFlight());
+        assertEquals(1, attempts.get());
+
+        assertNull(download.get(5, TimeUnit.SECONDS));
+        assertEquals(2, attempts.get());
+        assertEquals(0, limiter.getInFlight());
+    }
+
+    private String upload(String content) throws Exception {
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        return executor.execute(StorageOperation.UPLOAD, server.getGroup(),
+                storageClient -> storageClient.upload_file1(server.getGroup(), bytes, "txt", null));
+    }
+}
@@ -0,0 +1,116 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TimingWheel 的到期、取消、重新放置和逐层下放
+ */
+public class TimingWheelTest {
+
+    private final Map<String, Long> deadlines = new HashMap<>();
+
+    private final List<String> expired = new ArrayList<>();
+
+    @Test
+    public void rejectsExpiredKey() {
+        TimingWheel wheel = new TimingWheel(1000, 10000);
+        assertFalse(wheel.add("a", 9000));
+        assertFalse(wheel.add("a", 10000));
+        assertTrue(wheel.add("a", 10001));
+    }
+
+    @Test
+    public void expiresAtDeadlineNotBefore() {
+        TimingWheel wheel = new TimingWheel(1000, 0);
+        schedule(wheel, "a", 5500);
+        advance(wheel, 5999);
+        assertTrue(expired.isEmpty());
+        advance(wheel, 6000);
+        assertEquals(1, expired.size());
+        assertEquals("a", expired.get(0));
+        advance(wheel, 100000);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void cancelledKeyDoesNotExpire() {
+        TimingWheel wheel = new TimingWheel(1000, 0);
+        schedule(wheel, "a", 5000);
+        deadlines.remove("a");
+        advance(wheel, 100000);
+        assertTrue(expired.isEmpty());
+    }
+
+    @Test
+    public void postponedKeyExpiresAtNewDeadline() {
+        TimingWheel wheel = new TimingWheel(1000, 0);
+        schedule(wheel, "a", 5000);
+        // 旧位置上的 key 不删除，转到时按新的到期时间重新放置
+        deadlines.put("a", 70000L);
+        advance(wheel, 69999);
+        assertTrue(expired.isEmpty());
+        advance(wheel, 70000);
+        assertEquals(1, expired.size());
+    }
+
+    @Test
+    public void cascadesFromUpperLevels() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        Random random = new Random(42);
+        for (int i = 0; i < 2000; i++) {
+            // 覆盖前三层
+            long expireAt = 1 + random.nextInt(64 * 64 * 64 * 2);
+            schedule(wheel, "k" + i, expireAt);
+        }
+        long now = 0;
+        int total = 0;
+        while (total < 2000) {
+            long previous = now;
+            now += 1 + random.nextInt(50);
+            expired.clear();
+            advance(wheel, now);
+            for (String key : expired) {
+                long expireAt = deadlines.get(key);
+                assertTrue(key + " expired early", expireAt <= now);
+                assertTrue(key + " expired late", expireAt > previous);
+            }
+            total += expired.size();
+            assertTrue(now < 64 * 64 * 64 * 3);
+        }
+    }
+
+    @Test
+    public void deadlineBeyondRangeIsReplaced() {
+        TimingWheel wheel = new TimingWheel(1, 0);
+        long far = (1L << 24) + 1000;
+        schedule(wheel, "far", far);
+        advance(wheel, far - 1);
+        assertTrue(expired.isEmpty());
+        advance(wheel, far);
+        assertEquals(1, expired.size());
+    }
+
+    private void schedule(TimingWheel wheel, String key, long expireAt) {
+        deadlines.put(key, expireAt);
+        assertTrue(wheel.add(key, expireAt));
+    }
+
+    private void advance(TimingWheel wheel, long now) {
+        wheel.advance(now, this::deadline, expired::add);
+    }
+
+    private long deadline(String key) {
+        Long expireAt = deadlines.get(key);
+        return expireAt == null ? TimingWheel.NONE : expireAt;
+    }
+}
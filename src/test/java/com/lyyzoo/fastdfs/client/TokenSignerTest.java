@@ -0,0 +1,112 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.fastdfs.ClientGlobal;
+import org.csource.fastdfs.ProtoCommon;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * TokenSigner 与 ProtoCommon.getToken 一致，以及 token 的校验
+ */
+public class TokenSignerTest {
+
+    private static final String SECRET_KEY = "FastDFS1234567890";
+
+    private static final String FILE_ID = "group1/M00/00/00/wKgzgFnkTPyAIAUGAAEoRmXZPp876.jpeg";
+
+    private static final int TS = 1508141521;
+
+    @Test
+    public void matchesProtoCommon() throws Exception {
+        TokenSigner signer = new TokenSigner(SECRET_KEY, Charset.forName(ClientGlobal.g_charset));
+        for (String fileId : new String[]{FILE_ID, "group1/M00/00/00/中文文件名.txt", "cluster2:group1/M00/00/00/a"}) {
+            String remote = fileId.substring(fileId.indexOf('/') + 1);
+            assertEquals(ProtoCommon.getToken(remote, TS, SECRET_KEY), signer.sign(fileId, TS));
+        }
+        // 时间戳为负数或位数不同时与 Integer.toString 一致
+        for (int ts : new int[]{0, 7, 10, Integer.MAX_VALUE, -1, Integer.MIN_VALUE}) {
+            String remote = FILE_ID.substring(FILE_ID.indexOf('/') + 1);
+            assertEquals(ProtoCommon.getToken(remote, ts, SECRET_KEY), signer.sign(FILE_ID, ts));
+        }
+    }
+
+    @Test
+    public void tokenParameters() {
+        TokenSigner signer = new TokenSigner(SECRET_KEY, Charset.forName("UTF-8"));
+        assertEquals("token=" + signer.sign(FILE_ID, TS) + "&ts=" + TS, signer.token(FILE_ID, TS));
+        assertEquals("token=null&ts=" + TS, signer.token("no-group", TS));
+        assertNull(signer.sign("no-group", TS));
+        assertNull(signer.sign(null, TS));
+    }
+
+    @Test
+    public void verify() {
+        TokenSigner signer = new TokenSigner(SECRET_KEY, Charset.forName("UTF-8"));
+        String token = signer.sign(FILE_ID, TS);
+        assertTrue(signer.verify(FILE_ID, token, TS, TS + 900, 900));
+        assertTrue(signer.verify(FILE_ID, token.toUpperCase(), TS, TS, 900));
+        // 过期
+        assertFalse(signer.verify(FILE_ID, token, TS, TS + 901, 900));
+        // 其它文件、时间戳或秘钥
+        assertFalse(signer.verify("group1/M00/00/00/other.jpeg", token, TS, TS, 900));
+        assertFalse(signer.verify(FILE_ID, token, TS + 1, TS, 900));
+        assertFalse(signer.verify(FILE_ID, new TokenSigner("other", Charset.forName("UTF-8")).sign(FILE_ID, TS), TS, TS, 900));
+        // 格式错误
+        assertFalse(signer.verify(FILE_ID, null, TS, TS, 900));
+        assertFalse(signer.verify(FILE_ID, token.substring(1), TS, TS, 900));
+        assertFalse(signer.verify("no-group", token, TS, TS, 900));
+    }
+
+    @Test
+    public void longFileIdGrowsBuffer() throws Exception {
+        StringBuilder sb = new StringBuilder("group1/M00/00/00/");
+        for (int i = 0; i < 100; i++) {
+            sb.append("abcdefghij");
+        }
+        String fileId = sb.toString();
+        TokenSigner signer = new TokenSigner(SECRET_KEY, Charset.forName(ClientGlobal.g_charset));
+        assertEquals(ProtoCommon.getToken(fileId.substring(7), TS, SECRET_KEY), signer.sign(fileId, TS));
+        // 之后的短文件ID不受缓冲区中残留内容影响
+        assertEquals(ProtoCommon.getToken(FILE_ID.substring(7), TS, SECRET_KEY), signer.sign(FILE_ID, TS));
+    }
+
+    @Test
+    public void getTokensSignsBatchWithClusterKeys() {
+        FastDFSCluster cluster = new FastDFSCluster("signing",
+                new InetSocketAddress[]{InetSocketAddress.createUnresolved("127.0.0.1", 22122)}, 1);
+        // 新建的字符串，签名器按秘钥内容而不是引用查找
+        cluster.setHttpSecretKey(new String("other".toCharArray()));
+        FastDFSClusters.getInstance().add(cluster);
+        try {
+            String clusterFile = "signing:" + FILE_ID;
+            Map<String, String> tokens = FastDFSClient.getTokens(Arrays.asList(FILE_ID, clusterFile, FILE_ID, " "), SECRET_KEY);
+            assertEquals(Arrays.asList(FILE_ID, clusterFile), new ArrayList<>(tokens.keySet()));
+
+            int ts = Integer.parseInt(tokens.get(FILE_ID).substring(tokens.get(FILE_ID).indexOf("&ts=") + 4));
+            assertEquals(TokenSigner.of(SECRET_KEY).token(FILE_ID, ts), tokens.get(FILE_ID));
+            assertEquals(TokenSigner.of("other").token(clusterFile, ts), tokens.get(clusterFile));
+            assertTrue(tokens.get(clusterFile).endsWith("&ts=" + ts));
+        } finally {
+            FastDFSClusters.getInstance().remove("signing");
+        }
+    }
+
+    @Test
+    public void ofCachesBySecretKey() {
+        assertSame(TokenSigner.of(SECRET_KEY), TokenSigner.of(SECRET_KEY));
+        assertSame(TokenSigner.of(null), TokenSigner.of(null));
+        assertNotSame(TokenSigner.of(SECRET_KEY), TokenSigner.of("other"));
+    }
+}
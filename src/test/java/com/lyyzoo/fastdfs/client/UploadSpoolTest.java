@@ -0,0 +1,220 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.common.NameValuePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * UploadSpool 的上传、确认和重启恢复
+ */
+public class UploadSpoolTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    private RecordingSink sink;
+
+    private UploadSpool spool;
+
+    @Before
+    public void setUp() throws Exception {
+        directory = folder.newFolder("spool");
+        sink = new RecordingSink();
+    }
+
+    @After
+    public void tearDown() {
+        if (spool != null) {
+            spool.stop();
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void startRequiresDirectory() throws Exception {
+        new UploadSpool(sink).start();
+    }
+
+    @Test
+    public void uploadsAndKeepsMappingUntilAcknowledged() throws Exception {
+        spool = start();
+        String id = spool.append(bytes("hello"), "txt", null);
+        assertTrue(UploadSpool.isProvisional(id));
+        assertTrue(id.endsWith(".txt"));
+
+        await(() -> spool.getState(id) == UploadSpool.State.UPLOADED);
+        assertEquals(sink.fileIds.get(0), spool.getFileId(id));
+        assertArrayEquals(bytes("hello"), sink.contents.get(0));
+        assertEquals(0, spool.getPendingCount());
+        assertEquals(1, spool.getMappingCount());
+
+        assertTrue(spool.acknowledge(id));
+        assertNull(spool.getState(id));
+        assertNull(spool.getFileId(id));
+        assertEquals(0, spool.getMappingCount());
+        assertFalse(spool.acknowledge(id));
+    }
+
+    @Test
+    public void mappingSurvivesRestartUntilAcknowledged() throws Exception {
+        spool = start();
+        String id = spool.append(bytes("hello"), "txt", null);
+        await(() -> spool.getState(id) == UploadSpool.State.UPLOADED);
+        String fileId = spool.getFileId(id);
+        spool.stop();
+
+        spool = start();
+        assertEquals(fileId, spool.getFileId(id));
+        assertTrue(spool.acknowledge(id));
+        spool.stop();
+
+        spool = start();
+        assertNull(spool.getState(id));
+        assertEquals(0, spool.getMappingCount());
+        // 段文件还在，已确认的记录不会重新上传
+        assertEquals(0, spool.getPendingCount());
+        assertEquals(1, sink.contents.size());
+    }
+
+    @Test
+    public void pendingFileIsUploadedAfterRestart() throws Exception {
+        sink.available = false;
+        spool = start();
+        String id = spool.append(bytes("pending"), "txt", null);
+        await(() -> sink.attempts > 0);
+        assertEquals(UploadSpool.State.PENDING, spool.getState(id));
+        assertArrayEquals(bytes("pending"), spool.read(id));
+        spool.stop();
+
+        sink.available = true;
+        spool = start();
+        await(() -> spool.getState(id) == UploadSpool.State.UPLOADED);
+        assertEquals(1, sink.contents.size());
+        assertArrayEquals(bytes("pending"), sink.contents.get(0));
+        assertEquals(sink.fileIds.get(0), spool.getFileId(id));
+    }
+
+    @Test
+    public void deleteBeforeUpload() throws Exception {
+        sink.available = false;
+        spool = start();
+        String id = spool.append(bytes("deleted"), null, null);
+        assertTrue(spool.delete(id));
+        assertFalse(spool.delete(id));
+        assertEquals(UploadSpool.State.DELETED, spool.getState(id));
+        assertNull(spool.getFileId(id));
+        assertEquals(0, spool.getPendingBytes());
+        spool.stop();
+
+        sink.available = true;
+        spool = start();
+        assertEquals(UploadSpool.State.DELETED, spool.getState(id));
+        assertEquals(0, spool.getPendingCount());
+        assertTrue(spool.acknowledge(id));
+    }
+
+    @Test
+    public void nonRetryableFailureIsRecorded() throws Exception {
+        sink.failure = new FastDFSException(ErrorCode.FILE_TYPE_ERROR_CONTENT.CODE, ErrorCode.FILE_TYPE_ERROR_CONTENT.MESSAGE);
+        spool = start();
+        String id = spool.append(bytes("rejected"), "exe", null);
+        await(() -> spool.getState(id) == UploadSpool.State.FAILED);
+        assertNull(spool.getFileId(id));
+        assertEquals(1, sink.attempts);
+    }
+
+    @Test
+    public void rejectsWhenFull() throws Exception {
+        sink.available = false;
+        spool = new UploadSpool(sink);
+        configure(spool);
+        spool.setMaxBytes(10);
+        spool.start();
+        spool.append(bytes("12345678"), null, new NameValuePair[]{new NameValuePair("tenant", "a")});
+        try {
+            spool.append(bytes("12345678"), null, null);
+            fail();
+        } catch (FastDFSException e) {
+            assertEquals(ErrorCode.FILE_SERVER_OVERLOADED.CODE, e.getCode());
+        }
+    }
+
+    private UploadSpool start() throws Exception {
+        UploadSpool spool = new UploadSpool(sink);
+        configure(spool);
+        spool.start();
+        return spool;
+    }
+
+    private void configure(UploadSpool spool) {
+        spool.setDirectory(directory);
+        spool.setConcurrency(1);
+        spool.setFsyncBatchMillis(0);
+        // 测试期间不重试
+        spool.setRetryBaseMillis(TimeUnit.MINUTES.toMillis(10));
+        spool.setRetryMaxMillis(TimeUnit.MINUTES.toMillis(10));
+    }
+
+    private static byte[] bytes(String content) {
+        return content.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            if (System.currentTimeMillis() > deadline) {
+                fail("condition not met in 5s");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    /**
+     * 记录上传内容，不可用时返回连接失败(可重试)
+     */
+    private static class RecordingSink implements UploadSpool.Sink {
+        private final List<byte[]> contents = new CopyOnWriteArrayList<>();
+        private final List<String> fileIds = new CopyOnWriteArrayList<>();
+        private volatile boolean available = true;
+        private volatile FastDFSException failure;
+        private volatile int attempts;
+
+        @Override
+        public String upload(byte[] content, String suffix, NameValuePair[] nvps) throws FastDFSException {
+            attempts++;
+            if (failure != null) {
+                throw failure;
+            }
+            if (!available) {
+                throw new FastDFSException(ErrorCode.FILE_SERVER_CONNECTION_FAILED.CODE,
+                        ErrorCode.FILE_SERVER_CONNECTION_FAILED.MESSAGE);
+            }
+            String fileId = "group1/M00/00/00/file" + contents.size() + (suffix == null ? "" : "." + suffix);
+            contents.add(content);
+            fileIds.add(fileId);
+            return fileId;
+        }
+
+        @Override
+        public void delete(String fileId) {
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package com.lyyzoo.fastdfs.client;
+
+import org.csource.common.MyException;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.DownloadCallback;
+import org.csource.fastdfs.FileInfo;
+import org.csource.fastdfs.StorageClient1;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+/**
+ * ZipArchiveWriter 的条目命名、存储方式和流式写出，Storage 由内存中的 StorageClient 代替
+ */
+public class ZipArchiveWriterTest {
+
+    private final Map<String, byte[]> contents = new HashMap<>();
+
+    private final Map<String, String> filenames = new HashMap<>();
+
+    private ZipArchiveWriter writer;
+
+    @Before
+    public void setUp() {
+        final StorageClient1 storageClient = new MemoryStorageClient();
+        writer = new ZipArchiveWriter(new StorageExecutor() {
+            @Override
+            public <T> T execute(StorageOperation operation, String target, StorageCallback<T> callback)
+                    throws FastDFSException, IOException, MyException {
+                return callback.doInStorage(storageClient);
+            }
+        });
+    }
+
+    @Test
+    public void stripsPathsFromEntryNames() throws Exception {
+        put("group1/M00/00/00/a.txt", "../../etc/passwd", "a");
+        put("group1/M00/00/00/b.txt", "/var/www/index.html", "b");
+        put("group1/M00/00/00/c.txt", "..\\..\\windows\\win.ini", "c");
+        put("group1/M00/00/00/d.txt", "..", "d");
+        put("group1/M00/00/00/e.txt", "dir/", "e");
+
+        Map<String, String> entries = unzip(write(new ArrayList<>(contents.keySet())));
+        assertEquals(5, entries.size());
+        for (String name : entries.keySet()) {
+            assertFalse(name, name.contains("/") || name.contains("\\") || name.equals(".."));
+        }
+        assertEquals("a", entries.get("passwd"));
+        assertEquals("b", entries.get("index.html"));
+        assertEquals("c", entries.get("win.ini"));
+        // 没有有效的文件名时使用文件ID中的文件名
+        assertEquals("d", entries.get("d.txt"));
+        assertEquals("e", entries.get("e.txt"));
+    }
+
+    @Test
+    public void numbersDuplicateNames() throws Exception {
+        put("group1/M00/00/00/1.txt", "report.txt", "1");
+        put("group1/M00/00/00/2.txt", "a/report.txt", "2");
+        put("group1/M00/00/00/3.txt", "report.txt", "3");
+
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(write(Arrays.asList(
+                "group1/M00/00/00/1.txt", "group1/M00/00/00/2.txt", "group1/M00/00/00/3.txt"))));
+        assertEquals("report.txt", zis.getNextEntry().getName());
+        assertEquals("report (1).txt", zis.getNextEntry().getName());
+        assertEquals("report (2).txt", zis.getNextEntry().getName());
+    }
+
+    @Test
+    public void storesCompressedTypesWhenPrefetched() throws Exception {
+        byte[] image = new byte[1000];
+        new Random(26).nextBytes(image);
+        contents.put("group1/M00/00/00/p.jpg", image);
+        filenames.put("group1/M00/00/00/p.jpg", "photo.jpg");
+        put("group1/M00/00/00/t.txt", "notes.txt", "text text text text");
+
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(write(Arrays.asList(
+                "group1/M00/00/00/p.jpg", "group1/M00/00/00/t.txt"))));
+        ZipEntry entry = zis.getNextEntry();
+        assertEquals(ZipEntry.STORED, entry.getMethod());
+        assertArrayEquals(image, read(zis));
+        assertEquals(ZipEntry.DEFLATED, zis.getNextEntry().getMethod());
+    }
+
+    @Test
+    public void streamsLargeFiles() throws Exception {
+        writer.setPrefetchMaxSize(100);
+        byte[] image = new byte[200 * 1024];
+        new Random(26).nextBytes(image);
+        contents.put("group1/M00/00/00/p.jpg", image);
+        filenames.put("group1/M00/00/00/p.jpg", "photo.jpg");
+
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(write(Arrays.asList("group1/M00/00/00/p.jpg"))));
+        ZipEntry entry = zis.getNextEntry();
+        // 流式写出时事先不知道 CRC，已压缩类型以不压缩的 DEFLATED 写出
+        assertEquals(ZipEntry.DEFLATED, entry.getMethod());
+        assertArrayEquals(image, read(zis));
+    }
+
+    @Test
+    public void missingFileFails() throws Exception {
+        put("group1/M00/00/00/a.txt", "a.txt", "a");
+        try {
+            write(Arrays.asList("group1/M00/00/00/a.txt", "group1/M00/00/00/missing.txt"));
+            fail();
+        } catch (FastDFSException e) {
+            assertEquals(ErrorCode.FILE_NOT_EXIST.CODE, e.getCode());
+        }
+    }
+
+    private void put(String fileId, String filename, String content) {
+        contents.put(fileId, content.getBytes(StandardCharsets.UTF_8));
+        filenames.put(fileId, filename);
+    }
+
+    private byte[] write(List<String> filepaths) throws FastDFSException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writer.write(filepaths, bos);
+        return bos.toByteArray();
+    }
+
+    private static Map<String, String> unzip(byte[] zip) throws IOException {
+        Map<String, String> entries = new HashMap<>();
+        ZipInputStream zis = new ZipInputStream(new ByteArrayInputStream(zip));
+        ZipEntry entry;
+        while ((entry = zis.getNextEntry()) != null) {
+            entries.put(entry.getName(), new String(read(zis), StandardCharsets.UTF_8));
+        }
+        return entries;
+    }
+
+    private static byte[] read(ZipInputStream zis) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int n;
+        while ((n = zis.read(buffer)) > 0) {
+            bos.write(buffer, 0, n);
+        }
+        return bos.toByteArray();
+    }
+
+    /**
+     * 只实现 ZipArchiveWriter 用到的读取操作
+     */
+    private class MemoryStorageClient extends StorageClient1 {
+
+        @Override
+        public NameValuePair[] get_metadata1(String fileId) {
+            String filename = filenames.get(fileId);
+            return filename == null ? null : new NameValuePair[]{new NameValuePair(FastDFSClient.FILENAME, filename)};
+        }
+
+        @Override
+        public FileInfo get_file_info1(String fileId) {
+            byte[] content = contents.get(fileId);
+            return content == null ? null : new FileInfo(content.length, 0, 0, "127.0.0.1");
+        }
+
+        @Override
+        public byte[] download_file1(String fileId) {
+            return contents.get(fileId);
+        }
+
+        @Override
+        public int download_file1(String fileId, DownloadCallback callback) {
+            byte[] content = contents.get(fileId);
+            if (content == null) {
+                return 2;
+            }
+            for (int offset = 0; offset < content.length; offset += 8192) {
+                int length = Math.min(8192, content.length - offset);
+                byte[] data = Arrays.copyOfRange(content, offset, offset + length);
+                if (callback.recv(content.length, data, length) != 0) {
+                    return 5;
+                }
+            }
+            return 0;
+        }
+    }
+}
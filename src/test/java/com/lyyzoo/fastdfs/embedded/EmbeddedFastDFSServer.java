@@ -0,0 +1,237 @@
+package com.lyyzoo.fastdfs.embedded;
+
+import org.csource.common.MyException;
+import org.csource.fastdfs.ClientGlobal;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 内嵌的 FastDFS 服务，包含一个 Tracker 和一个内存 Storage，用于基准测试、压力测试和集成测试.
+ * <p>
+ * 支持查询 Storage、上传(普通、从文件、appender)、追加、修改、截断、按偏移和长度下载、删除、描述信息、
+ * 文件信息和 active test. Tracker 和 Storage 可以分别注入延迟、带宽上限和失败率，见 {@link FaultInjection}. <br>
+ * 设置 replicas 大于 1 时组内有多个共享文件的 Storage 副本，依次监听 host、host+1 ... 的同一端口
+ * (如 127.0.0.1、127.0.0.2)，每个副本可以单独注入故障，用于验证故障转移和对冲读. <br>
+ * 用法：
+ * <pre>
+ *  EmbeddedFastDFSServer server = new EmbeddedFastDFSServer().start();
+ *  server.configureClient();
+ *  server.getStorageFaults().setLatencyMillis(5);
+ *  // 使用 FastDFSClient ...
+ *  server.close();
+ * </pre>
+ * 放在测试源码(src/test/java)中，不打包到 war；benchmark、loadtest profile 的测试类路径中也可以使用. 也可以独立运行：<br>
+ * java -cp target/test-classes:... com.lyyzoo.fastdfs.embedded.EmbeddedFastDFSServer trackerPort=22122 storagePort=23000 latency=2 bandwidth=104857600
+ */
+public class EmbeddedFastDFSServer implements Closeable {
+    /**
+     * 默认组名
+     */
+    public static final String DEFAULT_GROUP = "group1";
+
+    private String host = "127.0.0.1";
+    private String group = DEFAULT_GROUP;
+    private int trackerPort = 0;
+    private int storagePort = 0;
+    private Charset charset = Charset.forName("UTF-8");
+    private int replicas = 1;
+
+    private final FaultInjection trackerFaults = new FaultInjection();
+    private final FaultInjection storageFaults = new FaultInjection();
+
+    private EmbeddedTracker tracker;
+    private EmbeddedStorage storage;
+    private final List<EmbeddedStorage> storages = new ArrayList<>();
+
+    private static EmbeddedFastDFSServer shared;
+
+    /**
+     * 同一 JVM 中的测试类共用的服务，JVM 退出时关闭. 客户端的 Tracker 连接池和集群配置只初始化一次，
+     * 每个测试类各自启动、关闭服务时，后面的测试类会连到已关闭的端口
+     *
+     * @return 已启动并初始化客户端配置的服务
+     */
+    public static synchronized EmbeddedFastDFSServer shared() throws IOException, MyException {
+        if (shared == null) {
+            shared = new EmbeddedFastDFSServer().start();
+            shared.configureClient();
+            Runtime.getRuntime().addShutdownHook(new Thread(shared::close));
+        }
+        return shared;
+    }
+
+    /**
+     * 启动 Tracker 和 Storage
+     *
+     * @return this
+     */
+    public EmbeddedFastDFSServer start() throws IOException {
+        storage = new EmbeddedStorage(group, host, charset, storageFaults);
+        storage.start(host, storagePort);
+        storages.add(storage);
+        byte[] address = InetAddress.getByName(host).getAddress();
+        for (int i = 1; i < replicas; i++) {
+            address[address.length - 1]++;
+            String ip = InetAddress.getByAddress(address).getHostAddress();
+            EmbeddedStorage replica = new EmbeddedStorage(group, ip, charset, new FaultInjection(), storage);
+            replica.start(ip, storage.getPort());
+            storages.add(replica);
+        }
+        tracker = new EmbeddedTracker(storages, charset, trackerFaults);
+        tracker.start(host, trackerPort);
+        return this;
+    }
+
+    /**
+     * 启动并初始化 FastDFS 客户端配置，用作 Spring 的 init-method
+     */
+    public void startAndConfigureClient() throws IOException, MyException {
+        start();
+        configureClient();
+    }
+
+    /**
+     * 使用当前服务初始化 FastDFS 客户端配置，之后 TrackerServerPool 不再加载配置文件
+     */
+    public void configureClient() throws IOException, MyException {
+        ClientGlobal.initByTrackers(getTrackerServers());
+        ClientGlobal.setG_charset(charset.name());
+    }
+
+    /**
+     * @return Tracker 地址，如 127.0.0.1:22122
+     */
+    public String getTrackerServers() {
+        return host + ":" + tracker.getPort();
+    }
+
+    public EmbeddedStorage getStorage() {
+        return storage;
+    }
+
+    /**
+     * @return 组内所有 Storage，第一个为源 Storage
+     */
+    public List<EmbeddedStorage> getStorages() {
+        return storages;
+    }
+
+    public EmbeddedTracker getTracker() {
+        return tracker;
+    }
+
+    /**
+     * @return Tracker 的故障注入配置
+     */
+    public FaultInjection getTrackerFaults() {
+        return trackerFaults;
+    }
+
+    /**
+     * @return 源 Storage 的故障注入配置
+     */
+    public FaultInjection getStorageFaults() {
+        return storageFaults;
+    }
+
+    /**
+     * @param index 副本序号，0 为源 Storage
+     * @return 该副本的故障注入配置
+     */
+    public FaultInjection getStorageFaults(int index) {
+        return storages.get(index).getFaults();
+    }
+
+    @Override
+    public void close() {
+        if (tracker != null) {
+            tracker.close();
+        }
+        for (EmbeddedStorage each : storages) {
+            each.close();
+        }
+        storages.clear();
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public EmbeddedFastDFSServer setHost(String host) {
+        this.host = host;
+        return this;
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public EmbeddedFastDFSServer setGroup(String group) {
+        this.group = group;
+        return this;
+    }
+
+    public EmbeddedFastDFSServer setTrackerPort(int trackerPort) {
+        this.trackerPort = trackerPort;
+        return this;
+    }
+
+    public EmbeddedFastDFSServer setStoragePort(int storagePort) {
+        this.storagePort = storagePort;
+        return this;
+    }
+
+    public int getReplicas() {
+        return replicas;
+    }
+
+    public EmbeddedFastDFSServer setReplicas(int replicas) {
+        this.replicas = Math.max(1, replicas);
+        return this;
+    }
+
+    public EmbeddedFastDFSServer setCharset(Charset charset) {
+        this.charset = charset;
+        return this;
+    }
+
+    /**
+     * 独立运行，参数格式为 name=value：
+     * host、group、trackerPort、storagePort、replicas、latency、jitter(毫秒)、bandwidth(字节/秒)、failureRate、disconnectRate，
+     * 故障注入参数作用于 Storage
+     */
+    public static void main(String[] args) throws Exception {
+        EmbeddedFastDFSServer server = new EmbeddedFastDFSServer().setTrackerPort(22122).setStoragePort(23000);
+        FaultInjection faults = server.getStorageFaults();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index <= 0) {
+                throw new IllegalArgumentException("argument should be name=value: " + arg);
+            }
+            String name = arg.substring(0, index);
+            String value = arg.substring(index + 1);
+            switch (name) {
+                case "host": server.setHost(value); break;
+                case "group": server.setGroup(value); break;
+                case "trackerPort": server.setTrackerPort(Integer.parseInt(value)); break;
+                case "storagePort": server.setStoragePort(Integer.parseInt(value)); break;
+                case "replicas": server.setReplicas(Integer.parseInt(value)); break;
+                case "latency": faults.setLatencyMillis(Long.parseLong(value)); break;
+                case "jitter": faults.setJitterMillis(Long.parseLong(value)); break;
+                case "bandwidth": faults.setBandwidthBytesPerSecond(Long.parseLong(value)); break;
+                case "failureRate": faults.setFailureRate(Double.parseDouble(value)); break;
+                case "disconnectRate": faults.setDisconnectRate(Double.parseDouble(value)); break;
+                default: throw new IllegalArgumentException("unknown argument: " + name);
+            }
+        }
+        server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close));
+        System.out.println("embedded FastDFS tracker_server = " + server.getTrackerServers());
+        Thread.currentThread().join();
+    }
+}
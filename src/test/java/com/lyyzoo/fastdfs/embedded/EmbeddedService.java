@@ -0,0 +1,264 @@
+package com.lyyzoo.fastdfs.embedded;
+
+import org.csource.fastdfs.ProtoCommon;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内嵌 FastDFS 服务的基类，处理连接和报文的收发.
+ * <p>
+ * 报文格式与 FastDFS 一致：8 字节包体长度 + 1 字节命令 + 1 字节状态，之后是包体. <br>
+ * 每个连接一个线程，与客户端的阻塞式连接池对应. 通过 {@link #getFaults()} 注入延迟、限制带宽、模拟失败.
+ */
+public abstract class EmbeddedService implements Closeable {
+    /**
+     * org.slf4j.Logger
+     */
+    private static Logger logger = LoggerFactory.getLogger(EmbeddedService.class);
+    /**
+     * 报文头长度
+     */
+    protected static final int HEADER_LENGTH = ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + 2;
+    /**
+     * 读写缓冲大小
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * 限速时每次读写的字节数
+     */
+    private static final int CHUNK_SIZE = 8 * 1024;
+
+    /**
+     * 服务名称，用于线程名
+     */
+    private final String name;
+    private final Set<Socket> connections = ConcurrentHashMap.newKeySet();
+    private final ExecutorService workers;
+    private final FaultInjection faults;
+    private ServerSocket serverSocket;
+    private volatile boolean running;
+
+    protected EmbeddedService(String name, FaultInjection faults) {
+        this.name = name;
+        this.faults = faults;
+        AtomicInteger index = new AtomicInteger();
+        this.workers = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "embedded-" + name + "-" + index.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 启动服务
+     *
+     * @param host 监听地址
+     * @param port 监听端口，0 表示随机端口
+     */
+    public void start(String host, int port) throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(host, port), 1024);
+        running = true;
+        workers.execute(this::accept);
+
+        if (logger.isInfoEnabled()) {
+            logger.info("embedded {} started on {}:{}", name, host, getPort());
+        }
+    }
+
+    /**
+     * @return 故障注入配置
+     */
+    public FaultInjection getFaults() {
+        return faults;
+    }
+
+    /**
+     * @return 监听端口
+     */
+    public int getPort() {
+        return serverSocket == null ? -1 : serverSocket.getLocalPort();
+    }
+
+    private void accept() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                workers.execute(() -> serve(socket));
+            } catch (IOException e) {
+                if (running) {
+                    logger.warn("embedded " + name + " accept failed", e);
+                }
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), BUFFER_SIZE));
+            OutputStream out = new BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE);
+            byte[] header = new byte[HEADER_LENGTH];
+            while (running) {
+                try {
+                    in.readFully(header);
+                } catch (EOFException e) {
+                    return;
+                }
+                long length = ProtoCommon.buff2long(header, 0);
+                byte cmd = header[ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+                if (cmd == ProtoCommon.FDFS_PROTO_CMD_QUIT || length < 0 || length > Integer.MAX_VALUE) {
+                    return;
+                }
+                byte[] body = read(in, (int) length);
+
+                Response response;
+                if (cmd == ProtoCommon.FDFS_PROTO_CMD_ACTIVE_TEST) {
+                    response = Response.ok();
+                } else {
+                    faults.delay();
+                    if (faults.shouldDisconnect()) {
+                        return;
+                    }
+                    response = faults.shouldFail() ? Response.error(ProtoCommon.ERR_NO_EIO) : handle(cmd, body);
+                }
+                write(out, response);
+            }
+        } catch (SocketException e) {
+            // 连接被关闭
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            if (running && logger.isDebugEnabled()) {
+                logger.debug("embedded " + name + " connection closed", e);
+            }
+        } finally {
+            connections.remove(socket);
+            closeQuietly(socket);
+        }
+    }
+
+    /**
+     * 读取包体，限制带宽时分块读取
+     */
+    private byte[] read(DataInputStream in, int length) throws IOException, InterruptedException {
+        byte[] body = new byte[length];
+        if (faults.getBandwidthBytesPerSecond() <= 0) {
+            in.readFully(body);
+            return body;
+        }
+        long start = System.nanoTime();
+        for (int offset = 0; offset < length; offset += CHUNK_SIZE) {
+            int count = Math.min(CHUNK_SIZE, length - offset);
+            in.readFully(body, offset, count);
+            faults.throttle(offset + count, start);
+        }
+        return body;
+    }
+
+    /**
+     * 写出响应，限制带宽时分块写出
+     */
+    private void write(OutputStream out, Response response) throws IOException, InterruptedException {
+        out.write(ProtoCommon.packHeader(ProtoCommon.STORAGE_PROTO_CMD_RESP, response.length, response.errno));
+        if (faults.getBandwidthBytesPerSecond() <= 0) {
+            out.write(response.body, response.offset, response.length);
+        } else {
+            long start = System.nanoTime();
+            for (int written = 0; written < response.length; written += CHUNK_SIZE) {
+                int count = Math.min(CHUNK_SIZE, response.length - written);
+                out.write(response.body, response.offset + written, count);
+                out.flush();
+                faults.throttle(written + count, start);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * 处理请求
+     *
+     * @param cmd 命令
+     * @param body 包体
+     * @return 响应
+     */
+    protected abstract Response handle(byte cmd, byte[] body) throws IOException;
+
+    @Override
+    public void close() {
+        running = false;
+        if (serverSocket != null) {
+            try {
+                serverSocket.close();
+            } catch (IOException e) {
+                // ignore
+            }
+        }
+        for (Socket socket : connections) {
+            closeQuietly(socket);
+        }
+        workers.shutdownNow();
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // ignore
+        }
+    }
+
+    /**
+     * 响应
+     */
+    protected static class Response {
+        private static final byte[] EMPTY = new byte[0];
+
+        final byte errno;
+        final byte[] body;
+        final int offset;
+        final int length;
+
+        Response(byte errno, byte[] body, int offset, int length) {
+            this.errno = errno;
+            this.body = body;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        static Response ok() {
+            return new Response((byte) 0, EMPTY, 0, 0);
+        }
+
+        static Response ok(byte[] body) {
+            return new Response((byte) 0, body, 0, body.length);
+        }
+
+        static Response ok(byte[] body, int offset, int length) {
+            return new Response((byte) 0, body, offset, length);
+        }
+
+        static Response error(byte errno) {
+            return new Response(errno, EMPTY, 0, 0);
+        }
+    }
+}
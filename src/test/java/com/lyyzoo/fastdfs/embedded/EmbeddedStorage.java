@@ -0,0 +1,452 @@
+package com.lyyzoo.fastdfs.embedded;
+
+import org.csource.common.MyException;
+import org.csource.common.NameValuePair;
+import org.csource.fastdfs.ProtoCommon;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+/**
+ * 内嵌 Storage，文件保存在内存中.
+ * <p>
+ * 文件ID与 FastDFS 格式一致：M00/XX/YY/ + base64(源IP、创建时间、大小、CRC32) + 后缀，
+ * 客户端可以直接从文件ID解析出文件信息. 支持 appender 文件的追加、修改和截断.
+ */
+public class EmbeddedStorage extends EmbeddedService {
+    /**
+     * 文件已存在
+     */
+    private static final byte ERR_NO_EEXIST = 17;
+    /**
+     * 文件ID随机部分的字符
+     */
+    private static final char[] FILLER = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789-_".toCharArray();
+
+    private final String group;
+    private final String ip;
+    private final byte[] ipBytes;
+    private final Charset charset;
+    private final AtomicInteger sequence = new AtomicInteger();
+    /**
+     * 文件名(不含组名) -> 文件，同组的副本共享
+     */
+    private final ConcurrentMap<String, StoredFile> files;
+
+    public EmbeddedStorage(String group, String ip, Charset charset, FaultInjection faults) throws IOException {
+        this(group, ip, charset, faults, null);
+    }
+
+    /**
+     * @param source 不为空时作为 source 的副本，共享文件，写入立即对副本可见
+     */
+    public EmbeddedStorage(String group, String ip, Charset charset, FaultInjection faults, EmbeddedStorage source) throws IOException {
+        super("storage", faults);
+        this.group = group;
+        this.ip = ip;
+        this.ipBytes = InetAddress.getByName(ip).getAddress();
+        this.charset = charset;
+        this.files = source == null ? new ConcurrentHashMap<String, StoredFile>() : source.files;
+    }
+
+    @Override
+    protected Response handle(byte cmd, byte[] body) throws IOException {
+        switch (cmd) {
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_FILE:
+                return upload(body, false);
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_APPENDER_FILE:
+                return upload(body, true);
+            case ProtoCommon.STORAGE_PROTO_CMD_APPEND_FILE:
+                return append(body);
+            case ProtoCommon.STORAGE_PROTO_CMD_MODIFY_FILE:
+                return modify(body);
+            case ProtoCommon.STORAGE_PROTO_CMD_TRUNCATE_FILE:
+                return truncate(body);
+            case ProtoCommon.STORAGE_PROTO_CMD_UPLOAD_SLAVE_FILE:
+                return uploadSlave(body);
+            case ProtoCommon.STORAGE_PROTO_CMD_DOWNLOAD_FILE:
+                return download(body);
+            case ProtoCommon.STORAGE_PROTO_CMD_DELETE_FILE:
+                return files.remove(readFilename(body, 0)) == null ? Response.error(ProtoCommon.ERR_NO_ENOENT) : Response.ok();
+            case ProtoCommon.STORAGE_PROTO_CMD_SET_METADATA:
+                return setMetadata(body);
+            case ProtoCommon.STORAGE_PROTO_CMD_GET_METADATA:
+                return getMetadata(body);
+            case ProtoCommon.STORAGE_PROTO_CMD_QUERY_FILE_INFO:
+                return queryFileInfo(body);
+            default:
+                return Response.error(ProtoCommon.ERR_NO_EINVAL);
+        }
+    }
+
+    /**
+     * 存储路径索引(1) + 文件大小(8) + 后缀(6) + 文件内容
+     */
+    private Response upload(byte[] body, boolean appender) {
+        int headerLength = 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
+        long size = ProtoCommon.buff2long(body, 1);
+        if (body.length < headerLength || size != body.length - headerLength) {
+            return Response.error(ProtoCommon.ERR_NO_EINVAL);
+        }
+        String ext = readString(body, 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE, ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN);
+        byte[] content = new byte[(int) size];
+        System.arraycopy(body, headerLength, content, 0, content.length);
+
+        StoredFile file = new StoredFile(content, ip);
+        file.appender = appender;
+        String filename;
+        do {
+            filename = generateFilename(file, ext);
+        } while (files.putIfAbsent(filename, file) != null);
+        return Response.ok(fileId(filename));
+    }
+
+    /**
+     * 主文件名长度(8) + 文件大小(8) + 前缀(16) + 后缀(6) + 主文件名 + 文件内容
+     */
+    private Response uploadSlave(byte[] body) {
+        int headerLength = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN
+                + ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN;
+        if (body.length < headerLength) {
+            return Response.error(ProtoCommon.ERR_NO_EINVAL);
+        }
+        int masterLength = (int) ProtoCommon.buff2long(body, 0);
+        long size = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        if (size != body.length - headerLength - masterLength) {
+            return Response.error(ProtoCommon.ERR_NO_EINVAL);
+        }
+        int offset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        String prefix = readString(body, offset, ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN);
+        String ext = readString(body, offset + ProtoCommon.FDFS_FILE_PREFIX_MAX_LEN, ProtoCommon.FDFS_FILE_EXT_NAME_MAX_LEN);
+        String master = new String(body, headerLength, masterLength, charset);
+        if (!files.containsKey(master)) {
+            return Response.error(ProtoCommon.ERR_NO_ENOENT);
+        }
+
+        String filename;
+        try {
+            filename = ProtoCommon.genSlaveFilename(master, prefix, ext);
+        } catch (MyException e) {
+            return Response.error(ProtoCommon.ERR_NO_EINVAL);
+        }
+        byte[] content = new byte[(int) size];
+        System.arraycopy(body, headerLength + masterLength, content, 0, content.length);
+        if (files.putIfAbsent(filename, new StoredFile(content, ip)) != null) {
+            return Response.error(ERR_NO_EEXIST);
+        }
+        return Response.ok(fileId(filename));
+    }
+
+    /**
+     * 文件名长度(8) + 追加大小(8) + 文件名 + 追加内容
+     */
+    private Response append(byte[] body) {
+        int filenameLength = (int) ProtoCommon.buff2long(body, 0);
+        long size = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        int offset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        if (size != body.length - offset - filenameLength) {
+            return Response.error(ProtoCommon.ERR_NO_EINVAL);
+        }
+        StoredFile file = files.get(new String(body, offset, filenameLength, charset));
+        if (file == null) {
+            return Response.error(ProtoCommon.ERR_NO_ENOENT);
+        }
+        synchronized (file) {
+            if (!file.appender) {
+                return Response.error(ProtoCommon.ERR_NO_EINVAL);
+            }
+            file.write(file.length, body, offset + filenameLength, (int) size);
+        }
+        return Response.ok();
+    }
+
+    /**
+     * 文件名长度(8) + 文件偏移(8) + 修改大小(8) + 文件名 + 修改内容
+     */
+    private Response modify(byte[] body) {
+        int filenameLength = (int) ProtoCommon.buff2long(body, 0);
+        long fileOffset = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        long size = ProtoCommon.buff2long(body, 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        int offset = 3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        if (size != body.length - offset - filenameLength) {
+            return Response.error(ProtoCommon.ERR_NO_EINVAL);
+        }
+        StoredFile file = files.get(new String(body, offset, filenameLength, charset));
+        if (file == null) {
+            return Response.error(ProtoCommon.ERR_NO_ENOENT);
+        }
+        synchronized (file) {
+            if (!file.appender || fileOffset < 0 || fileOffset > file.length) {
+                return Response.error(ProtoCommon.ERR_NO_EINVAL);
+            }
+            file.write((int) fileOffset, body, offset + filenameLength, (int) size);
+        }
+        return Response.ok();
+    }
+
+    /**
+     * 文件名长度(8) + 截断后大小(8) + 文件名
+     */
+    private Response truncate(byte[] body) {
+        int filenameLength = (int) ProtoCommon.buff2long(body, 0);
+        long truncatedSize = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        int offset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        StoredFile file = files.get(new String(body, offset, filenameLength, charset));
+        if (file == null) {
+            return Response.error(ProtoCommon.ERR_NO_ENOENT);
+        }
+        synchronized (file) {
+            if (!file.appender || truncatedSize < 0 || truncatedSize > file.length) {
+                return Response.error(ProtoCommon.ERR_NO_EINVAL);
+            }
+            file.length = (int) truncatedSize;
+        }
+        return Response.ok();
+    }
+
+    /**
+     * 偏移(8) + 长度(8，0 表示到文件结尾) + 组名(16) + 文件名
+     */
+    private Response download(byte[] body) {
+        long offset = ProtoCommon.buff2long(body, 0);
+        long length = ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        StoredFile file = lookup(readFilename(body, 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE));
+        if (file == null) {
+            return Response.error(ProtoCommon.ERR_NO_ENOENT);
+        }
+        synchronized (file) {
+            if (offset < 0 || offset > file.length || length < 0 || offset + length > file.length) {
+                return Response.error(ProtoCommon.ERR_NO_EINVAL);
+            }
+            int count = (int) (length == 0 ? file.length - offset : length);
+            // 复制一份，避免写出时文件被修改
+            byte[] content = new byte[count];
+            System.arraycopy(file.content, (int) offset, content, 0, count);
+            return Response.ok(content);
+        }
+    }
+
+    /**
+     * 文件名长度(8) + 描述信息长度(8) + 操作标记(1) + 组名(16) + 文件名 + 描述信息
+     */
+    private Response setMetadata(byte[] body) {
+        int filenameLength = (int) ProtoCommon.buff2long(body, 0);
+        int metaLength = (int) ProtoCommon.buff2long(body, ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE);
+        int offset = 2 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        byte flag = body[offset];
+        offset += 1 + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+        StoredFile file = files.get(new String(body, offset, filenameLength, charset));
+        if (file == null) {
+            return Response.error(ProtoCommon.ERR_NO_ENOENT);
+        }
+        NameValuePair[] nvps = ProtoCommon.split_metadata(new String(body, offset + filenameLength, metaLength, charset));
+        synchronized (file) {
+            if (flag == ProtoCommon.STORAGE_SET_METADATA_FLAG_OVERWRITE) {
+                file.metadata.clear();
+            }
+            for (NameValuePair nvp : nvps) {
+                if (nvp.getName() != null && !nvp.getName().isEmpty()) {
+                    file.metadata.put(nvp.getName(), nvp.getValue());
+                }
+            }
+        }
+        return Response.ok();
+    }
+
+    private Response getMetadata(byte[] body) {
+        StoredFile file = lookup(readFilename(body, 0));
+        if (file == null) {
+            return Response.error(ProtoCommon.ERR_NO_ENOENT);
+        }
+        NameValuePair[] nvps;
+        synchronized (file) {
+            nvps = new NameValuePair[file.metadata.size()];
+            int i = 0;
+            for (Map.Entry<String, String> entry : file.metadata.entrySet()) {
+                nvps[i++] = new NameValuePair(entry.getKey(), entry.getValue());
+            }
+        }
+        return Response.ok(ProtoCommon.pack_metadata(nvps).getBytes(charset));
+    }
+
+    /**
+     * 文件大小(8) + 创建时间(8) + CRC32(8) + 源IP(16)
+     */
+    private Response queryFileInfo(byte[] body) {
+        StoredFile file = lookup(readFilename(body, 0));
+        if (file == null) {
+            return Response.error(ProtoCommon.ERR_NO_ENOENT);
+        }
+        byte[] result = new byte[3 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE + ProtoCommon.FDFS_IPADDR_SIZE];
+        synchronized (file) {
+            System.arraycopy(ProtoCommon.long2buff(file.length), 0, result, 0, 8);
+            System.arraycopy(ProtoCommon.long2buff(file.createTime), 0, result, 8, 8);
+            System.arraycopy(ProtoCommon.long2buff(file.crc32()), 0, result, 16, 8);
+        }
+        byte[] bs = ip.getBytes(charset);
+        System.arraycopy(bs, 0, result, 24, Math.min(bs.length, ProtoCommon.FDFS_IPADDR_SIZE - 1));
+        return Response.ok(result);
+    }
+
+    /**
+     * 读取文件. 其它 Storage 上传的文件在同步延迟(见 {@link FaultInjection#getSyncDelayMillis()})之前不可见
+     */
+    private StoredFile lookup(String filename) {
+        StoredFile file = files.get(filename);
+        if (file == null || ip.equals(file.sourceIp)) {
+            return file;
+        }
+        long syncDelay = getFaults().getSyncDelayMillis();
+        return syncDelay > 0 && System.currentTimeMillis() - file.storedAt < syncDelay ? null : file;
+    }
+
+    /**
+     * 生成文件名，普通文件长度为 44，与 FastDFS 一致，客户端可以从中解析文件信息
+     */
+    private String generateFilename(StoredFile file, String ext) {
+        byte[] info = new byte[20];
+        System.arraycopy(ipBytes, 0, info, 0, 4);
+        writeInt(info, 4, file.createTime);
+        // appender 文件的大小会变化，文件ID中只记录 appender 标记，客户端会向 Storage 查询文件信息
+        long size = file.appender ? ProtoCommon.APPENDER_FILE_SIZE : file.length;
+        System.arraycopy(ProtoCommon.long2buff(size), 0, info, 8, 8);
+        writeInt(info, 16, file.appender ? 0 : (int) file.crc32());
+
+        int seq = sequence.getAndIncrement();
+        StringBuilder sb = new StringBuilder(64);
+        sb.append("M00/").append(String.format("%02X/%02X/", (seq >> 8) & 0xFF, seq & 0xFF));
+        sb.append(Base64.getUrlEncoder().withoutPadding().encodeToString(info));
+        int tail = ext.isEmpty() ? 0 : ext.length() + 1;
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        for (int i = sb.length() + tail; i < ProtoCommon.NORMAL_LOGIC_FILENAME_LENGTH; i++) {
+            sb.append(FILLER[random.nextInt(FILLER.length)]);
+        }
+        if (!ext.isEmpty()) {
+            sb.append('.').append(ext);
+        }
+        return sb.toString();
+    }
+
+    private byte[] fileId(String filename) {
+        byte[] bs = filename.getBytes(charset);
+        byte[] result = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + bs.length];
+        byte[] groupBytes = group.getBytes(charset);
+        System.arraycopy(groupBytes, 0, result, 0, Math.min(groupBytes.length, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN));
+        System.arraycopy(bs, 0, result, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, bs.length);
+        return result;
+    }
+
+    /**
+     * 组名(16) + 文件名
+     */
+    private String readFilename(byte[] body, int offset) {
+        int start = offset + ProtoCommon.FDFS_GROUP_NAME_MAX_LEN;
+        return start > body.length ? "" : new String(body, start, body.length - start, charset);
+    }
+
+    private String readString(byte[] body, int offset, int length) {
+        return new String(body, offset, length, charset).trim();
+    }
+
+    private static void writeInt(byte[] buff, int offset, int value) {
+        buff[offset] = (byte) (value >>> 24);
+        buff[offset + 1] = (byte) (value >>> 16);
+        buff[offset + 2] = (byte) (value >>> 8);
+        buff[offset + 3] = (byte) value;
+    }
+
+    /**
+     * @return 文件数量
+     */
+    public int getFileCount() {
+        return files.size();
+    }
+
+    /**
+     * @return 所有文件的字节数
+     */
+    public long getUsedBytes() {
+        long used = 0;
+        for (StoredFile file : files.values()) {
+            used += file.length;
+        }
+        return used;
+    }
+
+    /**
+     * 直接删除文件，不经过协议
+     *
+     * @param fileId 文件ID，如 group1/M00/00/00/xxx.jpg
+     * @return 文件存在返回 true
+     */
+    public boolean remove(String fileId) {
+        String prefix = group + "/";
+        return files.remove(fileId.startsWith(prefix) ? fileId.substring(prefix.length()) : fileId) != null;
+    }
+
+    /**
+     * 清空所有文件
+     */
+    public void clear() {
+        files.clear();
+    }
+
+    public String getGroup() {
+        return group;
+    }
+
+    public String getIp() {
+        return ip;
+    }
+
+    /**
+     * 内存中的文件
+     */
+    static class StoredFile {
+        byte[] content;
+        int length;
+        boolean appender;
+        final int createTime;
+        /**
+         * 上传到的源 Storage
+         */
+        final String sourceIp;
+        final long storedAt = System.currentTimeMillis();
+        final Map<String, String> metadata = new LinkedHashMap<>();
+
+        StoredFile(byte[] content, String sourceIp) {
+            this.content = content;
+            this.length = content.length;
+            this.createTime = (int) (storedAt / 1000);
+            this.sourceIp = sourceIp;
+        }
+
+        /**
+         * 从 position 开始写入，超出当前大小时扩容
+         */
+        void write(int position, byte[] data, int offset, int count) {
+            int end = position + count;
+            if (end > content.length) {
+                content = Arrays.copyOf(content, Math.max(end, content.length * 2));
+            }
+            System.arraycopy(data, offset, content, position, count);
+            length = Math.max(length, end);
+        }
+
+        long crc32() {
+            CRC32 crc = new CRC32();
+            crc.update(content, 0, length);
+            return crc.getValue();
+        }
+    }
+}
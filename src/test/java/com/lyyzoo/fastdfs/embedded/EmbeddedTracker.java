@@ -0,0 +1,170 @@
+package com.lyyzoo.fastdfs.embedded;
+
+import org.csource.fastdfs.ProtoCommon;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 内嵌 Tracker. 只有一个组，组内可以有多个 Storage 副本.
+ * <p>
+ * 上传、修改查询总是返回第一个(源 Storage)；下载查询按轮询返回副本，与 FastDFS 的 download_server=0 一致，
+ * 刚上传的文件可能被分配到还没有同步的副本. <br>
+ * 与 FastDFS 协议一致，查询全部下载 Storage 时只返回第一个的端口，所有副本需要使用相同的端口.
+ */
+public class EmbeddedTracker extends EmbeddedService {
+
+    private final EmbeddedStorage storage;
+    private final List<EmbeddedStorage> storages;
+    private final Charset charset;
+    /**
+     * 下载查询的轮询序号
+     */
+    private final AtomicInteger fetchIndex = new AtomicInteger();
+    /**
+     * 组的总空间(MB)，剩余空间为总空间减去已保存的文件
+     */
+    private volatile long totalMB = 10240;
+
+    public EmbeddedTracker(EmbeddedStorage storage, Charset charset, FaultInjection faults) {
+        this(Collections.singletonList(storage), charset, faults);
+    }
+
+    /**
+     * @param storages 同组的 Storage，第一个为源 Storage
+     */
+    public EmbeddedTracker(List<EmbeddedStorage> storages, Charset charset, FaultInjection faults) {
+        super("tracker", faults);
+        this.storage = storages.get(0);
+        this.storages = storages;
+        this.charset = charset;
+    }
+
+    @Override
+    protected Response handle(byte cmd, byte[] body) throws IOException {
+        switch (cmd) {
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ONE:
+                return queryStore();
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ONE:
+                if (!storage.getGroup().equals(readString(body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN))) {
+                    return Response.error(ProtoCommon.ERR_NO_ENOENT);
+                }
+                return queryStore();
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITHOUT_GROUP_ALL:
+                return queryStoreAll();
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_STORE_WITH_GROUP_ALL:
+                if (!storage.getGroup().equals(readString(body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN))) {
+                    return Response.error(ProtoCommon.ERR_NO_ENOENT);
+                }
+                return queryStoreAll();
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ONE:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ALL:
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE:
+                if (body.length < ProtoCommon.FDFS_GROUP_NAME_MAX_LEN
+                        || !storage.getGroup().equals(readString(body, 0, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN))) {
+                    return Response.error(ProtoCommon.ERR_NO_ENOENT);
+                }
+                if (cmd == ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_UPDATE) {
+                    return Response.ok(storageAddress(storage, ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN));
+                }
+                int first = (fetchIndex.getAndIncrement() & Integer.MAX_VALUE) % storages.size();
+                if (cmd == ProtoCommon.TRACKER_PROTO_CMD_SERVICE_QUERY_FETCH_ALL) {
+                    return queryFetchAll(first);
+                }
+                return Response.ok(storageAddress(storages.get(first), ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN));
+            case ProtoCommon.TRACKER_PROTO_CMD_SERVER_LIST_GROUP:
+                return listGroups();
+            default:
+                return Response.error(ProtoCommon.ERR_NO_EINVAL);
+        }
+    }
+
+    private Response queryStore() {
+        byte[] result = storageAddress(storage, ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN);
+        result[ProtoCommon.TRACKER_QUERY_STORAGE_STORE_BODY_LEN - 1] = 0;
+        return Response.ok(result);
+    }
+
+    /**
+     * 组名(17) + 总空间MB + 剩余空间MB + trunk 剩余空间MB + Storage 数 + 端口 + HTTP 端口 + 在线 Storage 数
+     * + 当前上传 Storage + 存储路径数 + 每个路径的子目录数 + 当前 trunk 文件ID，数字均为 8 字节
+     */
+    private Response listGroups() {
+        byte[] result = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + 1 + 11 * ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE];
+        writeString(result, 0, storage.getGroup(), ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        long usedMB = storage.getUsedBytes() / (1024 * 1024);
+        long[] fields = {totalMB, Math.max(0, totalMB - usedMB), 0, storages.size(), storage.getPort(), 0,
+                storages.size(), 0, 1, 256, 0};
+        for (int i = 0; i < fields.length; i++) {
+            byte[] bs = ProtoCommon.long2buff(fields[i]);
+            System.arraycopy(bs, 0, result, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + 1 + i * bs.length, bs.length);
+        }
+        return Response.ok(result);
+    }
+
+    /**
+     * 组名(16) + 第一个 Storage 的 IP(15) + 端口(8) + 其余 Storage 的 IP(15)
+     *
+     * @param first 排在第一位的副本
+     */
+    private Response queryFetchAll(int first) {
+        int ipSize = ProtoCommon.FDFS_IPADDR_SIZE - 1;
+        int count = storages.size();
+        byte[] result = new byte[ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN + (count - 1) * ipSize];
+        System.arraycopy(storageAddress(storages.get(first), ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN), 0, result, 0,
+                ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN);
+        for (int i = 1; i < count; i++) {
+            writeString(result, ProtoCommon.TRACKER_QUERY_STORAGE_FETCH_BODY_LEN + (i - 1) * ipSize,
+                    storages.get((first + i) % count).getIp(), ipSize);
+        }
+        return Response.ok(result);
+    }
+
+    /**
+     * 组名(16) + 每个 Storage 的 IP(15) + 端口(8) + 存储路径索引(1)
+     */
+    private Response queryStoreAll() {
+        int itemSize = ProtoCommon.FDFS_IPADDR_SIZE - 1 + ProtoCommon.FDFS_PROTO_PKG_LEN_SIZE;
+        byte[] result = new byte[ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + storages.size() * itemSize + 1];
+        writeString(result, 0, storage.getGroup(), ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        for (int i = 0; i < storages.size(); i++) {
+            int offset = ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + i * itemSize;
+            writeString(result, offset, storages.get(i).getIp(), ProtoCommon.FDFS_IPADDR_SIZE - 1);
+            byte[] port = ProtoCommon.long2buff(storages.get(i).getPort());
+            System.arraycopy(port, 0, result, offset + ProtoCommon.FDFS_IPADDR_SIZE - 1, port.length);
+        }
+        return Response.ok(result);
+    }
+
+    /**
+     * 组名(16) + IP(15) + 端口(8)，上传查询再加 1 字节存储路径索引
+     */
+    private byte[] storageAddress(EmbeddedStorage target, int length) {
+        byte[] result = new byte[length];
+        writeString(result, 0, target.getGroup(), ProtoCommon.FDFS_GROUP_NAME_MAX_LEN);
+        writeString(result, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN, target.getIp(), ProtoCommon.FDFS_IPADDR_SIZE - 1);
+        byte[] port = ProtoCommon.long2buff(target.getPort());
+        System.arraycopy(port, 0, result, ProtoCommon.FDFS_GROUP_NAME_MAX_LEN + ProtoCommon.FDFS_IPADDR_SIZE - 1, port.length);
+        return result;
+    }
+
+    public long getTotalMB() {
+        return totalMB;
+    }
+
+    public void setTotalMB(long totalMB) {
+        this.totalMB = totalMB;
+    }
+
+    private String readString(byte[] body, int offset, int length) {
+        return new String(body, offset, Math.min(length, body.length - offset), charset).trim();
+    }
+
+    private void writeString(byte[] buff, int offset, String value, int length) {
+        byte[] bs = value.getBytes(charset);
+        System.arraycopy(bs, 0, buff, offset, Math.min(bs.length, length));
+    }
+}
@@ -0,0 +1,131 @@
+package com.lyyzoo.fastdfs.embedded;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 内嵌服务的故障注入配置：请求延迟、单连接带宽上限、失败率、断连率、副本同步延迟. 运行时可以随时修改.
+ * <p>
+ */
+public class FaultInjection {
+    /**
+     * 每个请求的固定延迟(毫秒)
+     */
+    private volatile long latencyMillis = 0;
+    /**
+     * 每个请求额外的随机延迟上限(毫秒)
+     */
+    private volatile long jitterMillis = 0;
+    /**
+     * 单个连接每秒最多收发的字节数，0 表示不限制
+     */
+    private volatile long bandwidthBytesPerSecond = 0;
+    /**
+     * 返回错误码 EIO 的概率 0~1
+     */
+    private volatile double failureRate = 0;
+    /**
+     * 不返回响应直接断开连接的概率 0~1
+     */
+    private volatile double disconnectRate = 0;
+    /**
+     * 副本同步延迟(毫秒)，其它 Storage 上传的文件在此之后才对该副本可见
+     */
+    private volatile long syncDelayMillis = 0;
+
+    /**
+     * 按配置等待请求延迟
+     */
+    void delay() throws InterruptedException {
+        long delay = latencyMillis;
+        long jitter = jitterMillis;
+        if (jitter > 0) {
+            delay += ThreadLocalRandom.current().nextLong(jitter + 1);
+        }
+        if (delay > 0) {
+            TimeUnit.MILLISECONDS.sleep(delay);
+        }
+    }
+
+    /**
+     * @return 本次请求是否返回错误
+     */
+    boolean shouldFail() {
+        double rate = failureRate;
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * @return 本次请求是否断开连接
+     */
+    boolean shouldDisconnect() {
+        double rate = disconnectRate;
+        return rate > 0 && ThreadLocalRandom.current().nextDouble() < rate;
+    }
+
+    /**
+     * 按带宽上限等待，使从 startNanos 起传输 bytes 字节的速率不超过上限
+     *
+     * @param bytes 已传输字节数
+     * @param startNanos 开始传输的时间
+     */
+    void throttle(long bytes, long startNanos) throws InterruptedException {
+        long bandwidth = bandwidthBytesPerSecond;
+        if (bandwidth <= 0 || bytes <= 0) {
+            return;
+        }
+        long expected = (long) (bytes * 1e9 / bandwidth);
+        long wait = expected - (System.nanoTime() - startNanos);
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+
+    public long getLatencyMillis() {
+        return latencyMillis;
+    }
+
+    public void setLatencyMillis(long latencyMillis) {
+        this.latencyMillis = latencyMillis;
+    }
+
+    public long getJitterMillis() {
+        return jitterMillis;
+    }
+
+    public void setJitterMillis(long jitterMillis) {
+        this.jitterMillis = jitterMillis;
+    }
+
+    public long getBandwidthBytesPerSecond() {
+        return bandwidthBytesPerSecond;
+    }
+
+    public void setBandwidthBytesPerSecond(long bandwidthBytesPerSecond) {
+        this.bandwidthBytesPerSecond = bandwidthBytesPerSecond;
+    }
+
+    public double getFailureRate() {
+        return failureRate;
+    }
+
+    public void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    public double getDisconnectRate() {
+        return disconnectRate;
+    }
+
+    public void setDisconnectRate(double disconnectRate) {
+        this.disconnectRate = disconnectRate;
+    }
+
+    public long getSyncDelayMillis() {
+        return syncDelayMillis;
+    }
+
+    public void setSyncDelayMillis(long syncDelayMillis) {
+        this.syncDelayMillis = syncDelayMillis;
+    }
+}